@@ -37,6 +37,7 @@ import edu.utah.bmi.ibiomes.parse.IBIOMESListener;
 import edu.utah.bmi.ibiomes.parse.chem.ExperimentFactory;
 import edu.utah.bmi.ibiomes.parse.chem.ExperimentFolder;
 import edu.utah.bmi.ibiomes.pub.IBIOMESPublisher;
+import edu.utah.bmi.ibiomes.pub.PublishSummary;
 import edu.utah.bmi.ibiomes.security.IRODSConnector;
 
 /**
@@ -50,10 +51,16 @@ public class CommandPublishToGrid extends AbstractCLICommandParse{
 	private final static String markerIrodsResc = "-r";
 	private final static String markerIrodsUser = "-u";
 	private final static String markerIrodsPwd = "-p";
+	private final static String markerThreads = "-t";
+	private final static String markerBundle = "-b";
+	private final static String markerManifest = "-m";
 
 	private String irodsPath = null;
 	private String username = null;
 	private String password = null;
+	private int threads = 1;
+	private long bundleSizeThreshold = 0;
+	private String manifestPath = null;
 	private String server = null;
 
 	public CommandPublishToGrid()
@@ -87,6 +94,24 @@ public class CommandPublishToGrid extends AbstractCLICommandParse{
 				"Password used to connect to iBIOMES.", 
 				true, 
 				true));
+		this.arguments.put(markerThreads, new CLICommandArgument(
+				markerThreads, 
+				"threads", 
+				"Number of files published concurrently, each through its own connection (default: 1).", 
+				true, 
+				true));
+		this.arguments.put(markerBundle, new CLICommandArgument(
+				markerBundle, 
+				"size", 
+				"Pack files smaller than this size (in bytes) into one tar bundle per directory.", 
+				true, 
+				true));
+		this.arguments.put(markerManifest, new CLICommandArgument(
+				markerManifest, 
+				"manifest", 
+				"Path to a local publishing manifest. Makes the publication resumable: files already published with the same size and checksum are skipped.", 
+				true, 
+				true));
 	}
 	
 
@@ -134,6 +159,24 @@ public class CommandPublishToGrid extends AbstractCLICommandParse{
 				else throwErrorMissingArgument(markerIrodsPwd);
 				i++;
 			}
+			else if (markerBundle.equals(unusedArgList.get(i))) {
+				if (unusedArgList.size()>i)
+					bundleSizeThreshold = Long.parseLong(unusedArgList.get(i+1));
+				else throwErrorMissingArgument(markerBundle);
+				i++;
+			}
+			else if (markerThreads.equals(unusedArgList.get(i))) {
+				if (unusedArgList.size()>i)
+					threads = Integer.parseInt(unusedArgList.get(i+1));
+				else throwErrorMissingArgument(markerThreads);
+				i++;
+			}
+			else if (markerManifest.equals(unusedArgList.get(i))) {
+				if (unusedArgList.size()>i)
+					manifestPath = unusedArgList.get(i+1);
+				else throwErrorMissingArgument(markerManifest);
+				i++;
+			}
 			else if (markerIrodsResc.equals(unusedArgList.get(i))) {
 				if (unusedArgList.size()>i)
 					server = unusedArgList.get(i+1);
@@ -216,6 +259,7 @@ public class CommandPublishToGrid extends AbstractCLICommandParse{
 					if (outputToConsole)
 						System.out.println("Registering files into iBIOMES...");
 					IBIOMESPublisher publisher = new IBIOMESPublisher(cnx.getAccount(), cnx.getFileSystem().getIRODSAccessObjectFactory());
+					publisher.setBundleSizeThreshold(bundleSizeThreshold);
 					IRODSFileFactory cAO = cnx.getFileSystem().getIRODSFileFactory(cnx.getAccount());
 					IRODSFile icoll = cAO.instanceIRODSFile(irodsPath);
 	
@@ -228,7 +272,14 @@ public class CommandPublishToGrid extends AbstractCLICommandParse{
 						if (outputToConsole)
 							System.out.println("Overwriting: " + overwrite);
 					}
-					publisher.publishExperiment(experimentFolder.getFileDirectory(), irodsPath, overwrite, publishListener);
+					if (threads > 1 || manifestPath != null){
+						PublishSummary summary = publisher.publishExperimentConcurrently(experimentFolder.getFileDirectory(), irodsPath, overwrite, publishListener, threads, manifestPath);
+						if (!summary.isConsistent()){
+							System.out.println("WARNING: some files could not be published:");
+							System.out.println(summary.toString());
+						}
+					}
+					else publisher.publishExperiment(experimentFolder.getFileDirectory(), irodsPath, overwrite, publishListener);
 	
 					if (outputToConsole)
 						System.out.println("Done! You can now access your simulation files through iBIOMES at " + irodsPath);
@@ -35,6 +35,7 @@ import edu.utah.bmi.ibiomes.parse.IBIOMESListener;
 import edu.utah.bmi.ibiomes.parse.chem.ExperimentFactory;
 import edu.utah.bmi.ibiomes.parse.chem.ExperimentFolder;
 import edu.utah.bmi.ibiomes.pub.IBIOMESPublisher;
+import edu.utah.bmi.ibiomes.pub.PublishSummary;
 import edu.utah.bmi.ibiomes.security.IRODSConnector;
 
 /**
@@ -47,10 +48,14 @@ public class CommandRegisterToGrid extends AbstractCLICommandParse {
 	private final static String markerIrodsPath = "-o";
 	private final static String markerIrodsUser = "-u";
 	private final static String markerIrodsPwd = "-p";
+	private final static String markerThreads = "-t";
+	private final static String markerBundle = "-b";
 
 	private String irodsPath = null;
 	private String username = null;
 	private String password = null;
+	private int threads = 1;
+	private long bundleSizeThreshold = 0;
 	
 	/**
 	 * New command
@@ -81,6 +86,18 @@ public class CommandRegisterToGrid extends AbstractCLICommandParse {
 				"Password used to connect to iBIOMES.", 
 				true, 
 				true));
+		this.arguments.put(markerThreads, new CLICommandArgument(
+				markerThreads, 
+				"threads", 
+				"Number of files published concurrently, each through its own connection (default: 1).", 
+				true, 
+				true));
+		this.arguments.put(markerBundle, new CLICommandArgument(
+				markerBundle, 
+				"size", 
+				"Pack files smaller than this size (in bytes) into one tar bundle per directory.", 
+				true, 
+				true));
 	}
 	
 	/**
@@ -127,6 +144,18 @@ public class CommandRegisterToGrid extends AbstractCLICommandParse {
 				else throwErrorMissingArgument(markerIrodsPwd);
 				i++;
 			}
+			else if (markerBundle.equals(unusedArgList.get(i))) {
+				if (unusedArgList.size()>i)
+					bundleSizeThreshold = Long.parseLong(unusedArgList.get(i+1));
+				else throwErrorMissingArgument(markerBundle);
+				i++;
+			}
+			else if (markerThreads.equals(unusedArgList.get(i))) {
+				if (unusedArgList.size()>i)
+					threads = Integer.parseInt(unusedArgList.get(i+1));
+				else throwErrorMissingArgument(markerThreads);
+				i++;
+			}
 			else {
 				System.out.println("ERROR: unknown option: " + unusedArgList.get(i) + "\n");
 				this.printSynopsis();
@@ -205,8 +234,16 @@ public class CommandRegisterToGrid extends AbstractCLICommandParse {
 					if (outputToConsole)
 						System.out.println("Registering files into iBIOMES...");
 					IBIOMESPublisher publisher = new IBIOMESPublisher(cnx.getAccount(), cnx.getFileSystem().getIRODSAccessObjectFactory());
+					publisher.setBundleSizeThreshold(bundleSizeThreshold);
 					//register folder, files and subdirectories
-					publisher.registerExperiment(experimentFolder.getFileDirectory(), irodsPath, true, publishListener);
+					if (threads > 1){
+						PublishSummary summary = publisher.registerExperimentConcurrently(experimentFolder.getFileDirectory(), irodsPath, publishListener, threads);
+						if (!summary.isConsistent()){
+							System.out.println("WARNING: some files could not be registered:");
+							System.out.println(summary.toString());
+						}
+					}
+					else publisher.registerExperiment(experimentFolder.getFileDirectory(), irodsPath, true, publishListener);
 				
 					System.out.println("Done! You can now access your simulation files through iBIOMES at " + irodsPath);
 				}
@@ -0,0 +1,294 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.pub;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.irods.jargon.core.connection.IRODSAccount;
+import org.irods.jargon.core.exception.JargonException;
+import org.irods.jargon.core.pub.BulkAVUOperationResponse;
+import org.irods.jargon.core.pub.BulkAVUOperationResponse.ResultStatus;
+import org.irods.jargon.core.pub.CollectionAO;
+import org.irods.jargon.core.pub.DataObjectAO;
+import org.irods.jargon.core.pub.IRODSAccessObjectFactory;
+import org.irods.jargon.core.pub.domain.AvuData;
+import org.irods.jargon.core.query.JargonQueryException;
+import org.irods.jargon.core.query.MetaDataAndDomainData;
+
+import edu.utah.bmi.ibiomes.metadata.MetadataAVU;
+import edu.utah.bmi.ibiomes.metadata.MetadataAVUList;
+
+/**
+ * Synchronizes the AVUs of iRODS files and collections with a metadata list. Current AVUs are
+ * read with a single query, only the differences are applied, using bulk AVU operations.
+ * @author Julien Thibault, University of Utah
+ *
+ */
+public class AVUSynchronizer {
+
+	/**
+	 * Synchronization mode
+	 * <ul>
+	 * <li>MERGE: add missing AVUs, keep all the current ones</li>
+	 * <li>REPLACE: add missing AVUs, remove current AVUs that are not in the new list</li>
+	 * <li>REPLACE_ATTRIBUTES: same as REPLACE, limited to the attributes present in the new list</li>
+	 * </ul>
+	 */
+	public enum SyncMode {MERGE, REPLACE, REPLACE_ATTRIBUTES};
+
+	private static final Logger logger = Logger.getLogger(AVUSynchronizer.class);
+
+	private IRODSAccessObjectFactory irodsFactory = null;
+	private IRODSAccount irodsAccount = null;
+
+	/**
+	 * Constructor
+	 * @param factory IRODS access object factory
+	 * @param account IRODS user account
+	 */
+	public AVUSynchronizer(IRODSAccessObjectFactory factory, IRODSAccount account){
+		this.irodsFactory = factory;
+		this.irodsAccount = account;
+	}
+
+	/**
+	 * Add metadata to a file without reading the current AVUs (e.g. new file). Duplicate AVUs are skipped.
+	 * @param path File path
+	 * @param metadata Metadata
+	 * @throws JargonException
+	 */
+	public void addFileMetadata(String path, MetadataAVUList metadata) throws JargonException
+	{
+		List<AvuData> avus = toAvuData(metadata);
+		if (avus.size()>0){
+			DataObjectAO dataAO = irodsFactory.getDataObjectAO(irodsAccount);
+			logger.info("[iRODS] \tAdding " + avus.size() + " AVUs to '"+path+"'");
+			logResponses(path, dataAO.addBulkAVUMetadataToDataObject(path, avus));
+		}
+	}
+
+	/**
+	 * Synchronize file metadata
+	 * @param path File path
+	 * @param metadata New metadata
+	 * @param mode Synchronization mode
+	 * @return Applied differences
+	 * @throws JargonException
+	 * @throws JargonQueryException
+	 */
+	public AVUDiff syncFileMetadata(String path, MetadataAVUList metadata, SyncMode mode) throws JargonException, JargonQueryException
+	{
+		DataObjectAO dataAO = irodsFactory.getDataObjectAO(irodsAccount);
+		List<AvuData> current = fromDomainData(dataAO.findMetadataValuesForDataObject(path));
+		AVUDiff diff = computeDiff(current, metadata, mode);
+		if (diff.getRemovedAVUs().size()>0){
+			logger.info("[iRODS] \tRemoving " + diff.getRemovedAVUs().size() + " AVUs from '"+path+"'");
+			logResponses(path, dataAO.deleteBulkAVUMetadataFromDataObject(path, diff.getRemovedAVUs()));
+		}
+		if (diff.getAddedAVUs().size()>0){
+			logger.info("[iRODS] \tAdding " + diff.getAddedAVUs().size() + " AVUs to '"+path+"'");
+			logResponses(path, dataAO.addBulkAVUMetadataToDataObject(path, diff.getAddedAVUs()));
+		}
+		return diff;
+	}
+
+	/**
+	 * Add metadata to a collection without reading the current AVUs (e.g. new collection). Duplicate AVUs are skipped.
+	 * @param path Collection path
+	 * @param metadata Metadata
+	 * @throws JargonException
+	 */
+	public void addCollectionMetadata(String path, MetadataAVUList metadata) throws JargonException
+	{
+		List<AvuData> avus = toAvuData(metadata);
+		if (avus.size()>0){
+			CollectionAO cAO = irodsFactory.getCollectionAO(irodsAccount);
+			logger.info("[iRODS] \tAdding " + avus.size() + " AVUs to '"+path+"'");
+			logResponses(path, cAO.addBulkAVUMetadataToCollection(path, avus));
+		}
+	}
+
+	/**
+	 * Synchronize collection metadata
+	 * @param path Collection path
+	 * @param metadata New metadata
+	 * @param mode Synchronization mode
+	 * @return Applied differences
+	 * @throws JargonException
+	 * @throws JargonQueryException
+	 */
+	public AVUDiff syncCollectionMetadata(String path, MetadataAVUList metadata, SyncMode mode) throws JargonException, JargonQueryException
+	{
+		CollectionAO cAO = irodsFactory.getCollectionAO(irodsAccount);
+		List<AvuData> current = fromDomainData(cAO.findMetadataValuesForCollection(path));
+		AVUDiff diff = computeDiff(current, metadata, mode);
+		if (diff.getRemovedAVUs().size()>0){
+			logger.info("[iRODS] \tRemoving " + diff.getRemovedAVUs().size() + " AVUs from '"+path+"'");
+			logResponses(path, cAO.deleteBulkAVUMetadataFromCollection(path, diff.getRemovedAVUs()));
+		}
+		if (diff.getAddedAVUs().size()>0){
+			logger.info("[iRODS] \tAdding " + diff.getAddedAVUs().size() + " AVUs to '"+path+"'");
+			logResponses(path, cAO.addBulkAVUMetadataToCollection(path, diff.getAddedAVUs()));
+		}
+		return diff;
+	}
+
+	/**
+	 * Compute the AVUs to add and to remove to go from the current AVUs to the new metadata.
+	 * AVUs are compared on attribute, value and unit.
+	 * @param current Current AVUs
+	 * @param metadata New metadata
+	 * @param mode Synchronization mode
+	 * @return Differences
+	 */
+	public static AVUDiff computeDiff(List<AvuData> current, MetadataAVUList metadata, SyncMode mode)
+	{
+		Map<String,AvuData> target = new LinkedHashMap<String, AvuData>();
+		Set<String> targetAttributes = new HashSet<String>();
+		for (AvuData avu : toAvuData(metadata)){
+			target.put(key(avu), avu);
+			targetAttributes.add(avu.getAttribute());
+		}
+
+		AVUDiff diff = new AVUDiff();
+		Set<String> currentKeys = new HashSet<String>();
+		for (AvuData avu : current){
+			String key = key(avu);
+			if (!currentKeys.add(key))
+				continue;
+			if (!target.containsKey(key)){
+				if (mode == SyncMode.REPLACE
+						|| (mode == SyncMode.REPLACE_ATTRIBUTES && targetAttributes.contains(avu.getAttribute())))
+					diff.removed.add(avu);
+			}
+		}
+		for (String key : target.keySet()){
+			if (!currentKeys.contains(key))
+				diff.added.add(target.get(key));
+		}
+		return diff;
+	}
+
+	/**
+	 * Convert metadata list to iRODS AVUs. Empty values are skipped, long values are truncated
+	 * and duplicates are removed.
+	 * @param metadata Metadata
+	 * @return AVUs
+	 */
+	private static List<AvuData> toAvuData(MetadataAVUList metadata)
+	{
+		List<AvuData> avus = new ArrayList<AvuData>();
+		if (metadata == null)
+			return avus;
+		Set<String> keys = new HashSet<String>();
+		for (MetadataAVU pair : metadata)
+		{
+			String value = pair.getValue();
+			if (value != null && value.length()>0)
+			{
+				if (value.length() > IBIOMESFileAO.MAX_AVU_VALUE_LENGTH)
+					value = value.substring(0, IBIOMESFileAO.MAX_AVU_VALUE_LENGTH-4) + "...";
+				try {
+					AvuData avu = AvuData.instance(pair.getAttribute(), value, "");
+					if (keys.add(key(avu)))
+						avus.add(avu);
+				}
+				catch (JargonException e){
+					logger.warn("Skipping invalid AVU '"+pair.getAttribute()+"="+value+"'");
+				}
+			}
+		}
+		return avus;
+	}
+
+	/**
+	 * Convert AVUs returned by iRODS queries
+	 * @param metadata Query results
+	 * @return AVUs
+	 * @throws JargonException
+	 */
+	private static List<AvuData> fromDomainData(List<MetaDataAndDomainData> metadata) throws JargonException
+	{
+		List<AvuData> avus = new ArrayList<AvuData>();
+		for (MetaDataAndDomainData m : metadata){
+			String unit = m.getAvuUnit();
+			avus.add(AvuData.instance(m.getAvuAttribute(), m.getAvuValue(), (unit == null ? "" : unit)));
+		}
+		return avus;
+	}
+
+	private static String key(AvuData avu){
+		String unit = avu.getUnit();
+		return avu.getAttribute() + "\u0000" + avu.getValue() + "\u0000" + (unit == null ? "" : unit);
+	}
+
+	/**
+	 * Log AVUs that could not be added/removed
+	 * @param path Path to file or collection
+	 * @param responses Responses to bulk operation
+	 */
+	private static void logResponses(String path, List<BulkAVUOperationResponse> responses)
+	{
+		if (responses == null)
+			return;
+		for (BulkAVUOperationResponse response : responses){
+			if (response.getResultStatus() != ResultStatus.OK)
+				logger.warn("AVU operation on '"+path+"' returned " + response.getResultStatus() + ": " + response.getMessage());
+		}
+	}
+
+	/**
+	 * AVUs added and removed by a synchronization
+	 */
+	public static class AVUDiff {
+
+		private List<AvuData> added = new ArrayList<AvuData>();
+		private List<AvuData> removed = new ArrayList<AvuData>();
+
+		/**
+		 * Get AVUs to add
+		 * @return AVUs to add
+		 */
+		public List<AvuData> getAddedAVUs(){
+			return added;
+		}
+
+		/**
+		 * Get AVUs to remove
+		 * @return AVUs to remove
+		 */
+		public List<AvuData> getRemovedAVUs(){
+			return removed;
+		}
+
+		/**
+		 * Check if there is any difference
+		 * @return True if no AVU needs to be added or removed
+		 */
+		public boolean isEmpty(){
+			return (added.isEmpty() && removed.isEmpty());
+		}
+	}
+}
@@ -0,0 +1,664 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.pub;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import edu.utah.bmi.ibiomes.parse.IBIOMESListener;
+import edu.utah.bmi.ibiomes.parse.LocalDirectory;
+import edu.utah.bmi.ibiomes.parse.LocalFile;
+
+/**
+ * Publish local data to iBIOMES (copy or in-place registration) using a bounded pool of workers.
+ * Collections are created top-down by the calling thread; the files of a collection are queued
+ * once the collection exists and are then published by the workers, each with its own target (connection).
+ * When bundling is enabled, the small files of a collection are queued as a single bundle task.
+ * @author Julien Thibault, University of Utah
+ *
+ */
+public class ConcurrentPublisher {
+
+	public static final int DEFAULT_MAX_RETRIES = 2;
+	public static final long DEFAULT_RETRY_DELAY = 1000;
+
+	private final Logger logger = Logger.getLogger(ConcurrentPublisher.class);
+
+	private PublishTargetFactory targetFactory;
+	private int numberOfThreads = 1;
+	private int maxRetries = DEFAULT_MAX_RETRIES;
+	private long retryDelay = DEFAULT_RETRY_DELAY;
+	private PublishManifest manifest = null;
+	private FileBundlePublisher bundlePublisher = new FileBundlePublisher(0);
+
+	/**
+	 * Constructor
+	 * @param targetFactory Factory for publish targets (one target per worker)
+	 * @param numberOfThreads Number of workers
+	 */
+	public ConcurrentPublisher(PublishTargetFactory targetFactory, int numberOfThreads){
+		this.targetFactory = targetFactory;
+		this.setNumberOfThreads(numberOfThreads);
+	}
+
+	/**
+	 * Get number of workers
+	 * @return Number of workers
+	 */
+	public int getNumberOfThreads() {
+		return numberOfThreads;
+	}
+
+	/**
+	 * Set number of workers
+	 * @param numberOfThreads Number of workers
+	 */
+	public void setNumberOfThreads(int numberOfThreads) {
+		if (numberOfThreads < 1)
+			this.numberOfThreads = 1;
+		else this.numberOfThreads = numberOfThreads;
+	}
+
+	/**
+	 * Get maximum number of retries for each file
+	 * @return Maximum number of retries
+	 */
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	/**
+	 * Set maximum number of retries for each file
+	 * @param maxRetries Maximum number of retries (0 for no retry)
+	 */
+	public void setMaxRetries(int maxRetries) {
+		if (maxRetries < 0)
+			this.maxRetries = 0;
+		else this.maxRetries = maxRetries;
+	}
+
+	/**
+	 * Get base delay between retries (multiplied by the attempt number)
+	 * @return Delay in milliseconds
+	 */
+	public long getRetryDelay() {
+		return retryDelay;
+	}
+
+	/**
+	 * Set base delay between retries (multiplied by the attempt number)
+	 * @param retryDelay Delay in milliseconds
+	 */
+	public void setRetryDelay(long retryDelay) {
+		if (retryDelay < 0)
+			this.retryDelay = 0;
+		else this.retryDelay = retryDelay;
+	}
+
+	/**
+	 * Get publishing manifest
+	 * @return Publishing manifest (null if publication is not resumable)
+	 */
+	public PublishManifest getManifest() {
+		return manifest;
+	}
+
+	/**
+	 * Set publishing manifest to make the publication resumable. Files whose copy in iBIOMES has
+	 * the same size and checksum are skipped, partial copies left by an interrupted run are overwritten.
+	 * Only used when copying files (not for in-place registration).
+	 * @param manifest Publishing manifest
+	 */
+	public void setManifest(PublishManifest manifest) {
+		this.manifest = manifest;
+	}
+
+	/**
+	 * Get size threshold for bundling
+	 * @return Size threshold in bytes (0 if bundling is disabled)
+	 */
+	public long getBundleSizeThreshold() {
+		return bundlePublisher.getSizeThreshold();
+	}
+
+	/**
+	 * Set size threshold for bundling. In each directory, files smaller than the threshold are packed
+	 * into a single tar bundle ({@link FileBundle}). A bundle is skipped when its published index matches 
+	 * the files; bundle members are not recorded in the publishing manifest.
+	 * @param bundleSizeThreshold Size threshold in bytes (0 to disable bundling)
+	 */
+	public void setBundleSizeThreshold(long bundleSizeThreshold) {
+		this.bundlePublisher = new FileBundlePublisher(bundleSizeThreshold);
+	}
+
+	/**
+	 * Publish experiment directory to iBIOMES (copy)
+	 * @param directory Experiment
+	 * @param ibiomesPath Path to directory copy in iBIOMES
+	 * @param overwrite Overwrite flag
+	 * @param listener Listener for progress bar (updated once per file)
+	 * @return Publishing summary
+	 * @throws Exception
+	 */
+	public PublishSummary publishExperiment(
+			LocalDirectory directory,
+			String ibiomesPath,
+			boolean overwrite,
+			IBIOMESListener listener) throws Exception {
+		return this.publish(directory, ibiomesPath, overwrite, false, listener);
+	}
+
+	/**
+	 * Register experiment directory into iBIOMES (in-place registration)
+	 * @param directory Experiment
+	 * @param ibiomesPath Path to directory in iBIOMES
+	 * @param listener Listener for progress bar (updated once per file)
+	 * @return Publishing summary
+	 * @throws Exception
+	 */
+	public PublishSummary registerExperiment(
+			LocalDirectory directory,
+			String ibiomesPath,
+			IBIOMESListener listener) throws Exception {
+		return this.publish(directory, ibiomesPath, false, true, listener);
+	}
+
+	/**
+	 * Publish directory tree
+	 * @param directory Directory
+	 * @param ibiomesPath Path to directory in iBIOMES
+	 * @param overwrite Overwrite flag (copy only)
+	 * @param register Register files in place instead of copying them
+	 * @param listener Listener for progress bar
+	 * @return Publishing summary
+	 * @throws Exception
+	 */
+	private PublishSummary publish(
+			LocalDirectory directory,
+			String ibiomesPath,
+			boolean overwrite,
+			boolean register,
+			IBIOMESListener listener) throws Exception
+	{
+		logger.info("Publishing '"+directory.getAbsolutePath()+"' to '"+ibiomesPath+"' with " + numberOfThreads + " threads");
+		PublishSummary summary = new PublishSummary();
+		BlockingQueue<FileTask> queue = new LinkedBlockingQueue<FileTask>();
+		List<CollectionTask> collections = new ArrayList<CollectionTask>();
+
+		PublishTarget target = targetFactory.openTarget();
+		ExecutorService pool = Executors.newFixedThreadPool(numberOfThreads);
+		try {
+			for (int t=0; t<numberOfThreads; t++){
+				pool.execute(new PublishWorker(queue, overwrite, register, summary, listener));
+			}
+			try {
+				this.publishCollection(target, directory, ibiomesPath, register, queue, collections, summary, listener);
+			}
+			finally {
+				for (int t=0; t<numberOfThreads; t++){
+					queue.put(FileTask.END);
+				}
+				pool.shutdown();
+				pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			}
+
+			//files left in the queue if all the workers stopped early
+			FileTask task = null;
+			while ((task = queue.poll()) != null){
+				if (task != FileTask.END){
+					for (FileTask fileTask : task.getFileTasks()){
+						summary.addFailedFile(fileTask.path, "File was not processed");
+						notifyListener(listener);
+					}
+				}
+			}
+
+			this.checkConsistency(target, collections, summary);
+		}
+		finally {
+			pool.shutdownNow();
+			target.close();
+			if (manifest != null){
+				try {
+					manifest.store();
+				}
+				catch (Exception e){
+					logger.error("Could not save publishing manifest: " + e.getMessage());
+				}
+			}
+		}
+
+		logger.info("Publishing summary:\n" + summary.toString());
+		return summary;
+	}
+
+	/**
+	 * Create collection and queue its files, then process subdirectories (recursive)
+	 * @param target Publish target
+	 * @param directory Directory
+	 * @param ibiomesPath Path to collection in iBIOMES
+	 * @param register Register collection in place
+	 * @param queue File queue
+	 * @param collections List of processed collections
+	 * @param summary Publishing summary
+	 * @param listener Listener for progress bar
+	 * @throws InterruptedException
+	 */
+	private void publishCollection(
+			PublishTarget target,
+			LocalDirectory directory,
+			String ibiomesPath,
+			boolean register,
+			BlockingQueue<FileTask> queue,
+			List<CollectionTask> collections,
+			PublishSummary summary,
+			IBIOMESListener listener) throws InterruptedException
+	{
+		logger.info("Registering collection '"+directory.getAbsolutePath()+"' into iRODS...");
+		try {
+			boolean exists = target.collectionExists(ibiomesPath);
+			if (!exists){
+				//with bundling, files are registered one by one so that small files are only registered through their bundle
+				if (register && !bundlePublisher.isEnabled())
+					target.registerCollection(directory.getAbsolutePath(), ibiomesPath);
+				else target.createCollection(ibiomesPath);
+				summary.addCreatedCollection();
+			}
+			if (register || !exists)
+				target.addCollectionMetadata(ibiomesPath, directory.getMetadata());
+		}
+		catch (Exception e){
+			logger.error("Could not create collection '"+ibiomesPath+"': " + e.getMessage());
+			summary.addFailedCollection(ibiomesPath, e.getMessage());
+			//files and subdirectories cannot be published without their parent collection
+			if (directory.getFilesByFormatRecursive() != null){
+				for (ArrayList<LocalFile> files : directory.getFilesByFormatRecursive().values()){
+					for (int f=0; f<files.size(); f++){
+						summary.addFailedFile(files.get(f).getAbsolutePath(), "Parent collection could not be created");
+						notifyListener(listener);
+					}
+				}
+			}
+			return;
+		}
+
+		//queue files now that the collection exists
+		CollectionTask collection = new CollectionTask(ibiomesPath);
+		HashMap<String,ArrayList<LocalFile>> filesByFormat = directory.getFilesByFormat();
+		Set<String> bundleMembers = new HashSet<String>();
+		FileTask bundleTask = null;
+		for (LocalFile file : bundlePublisher.getBundleMembers(filesByFormat)){
+			bundleMembers.add(file.getName());
+		}
+		if (!bundleMembers.isEmpty()){
+			bundleTask = new FileTask(null, ibiomesPath + "/" + FileBundle.BUNDLE_FILE_NAME);
+			bundleTask.members = new ArrayList<FileTask>();
+			collection.files.add(bundleTask);
+		}
+		if (filesByFormat != null){
+			for (ArrayList<LocalFile> files : filesByFormat.values()){
+				for (LocalFile file : files){
+					//bundle written by a previous in-place registration (rebuilt with the directory bundle)
+					if (bundlePublisher.isBundleFile(file)){
+						summary.addSkippedFile();
+						notifyListener(listener);
+						continue;
+					}
+					FileTask task = new FileTask(file, ibiomesPath + "/" + file.getName());
+					collection.files.add(task);
+					if (bundleMembers.contains(file.getName()))
+						bundleTask.members.add(task);
+					else queue.put(task);
+				}
+			}
+		}
+		if (bundleTask != null)
+			queue.put(bundleTask);
+		collections.add(collection);
+
+		if (directory.getSubdirectories() != null){
+			for (LocalDirectory subdir : directory.getSubdirectories()){
+				this.publishCollection(target, subdir, ibiomesPath + "/" + subdir.getName(), register, queue, collections, summary, listener);
+			}
+		}
+	}
+
+	/**
+	 * Check that each published file can be found in its collection
+	 * @param target Publish target
+	 * @param collections Processed collections
+	 * @param summary Publishing summary
+	 */
+	private void checkConsistency(PublishTarget target, List<CollectionTask> collections, PublishSummary summary)
+	{
+		logger.info("Checking consistency of " + collections.size() + " collections...");
+		for (CollectionTask collection : collections){
+			try {
+				Set<String> names = new HashSet<String>(target.listFileNames(collection.path));
+				for (FileTask task : collection.files){
+					if (task.done && !names.contains(task.name)){
+						logger.warn("File '"+task.path+"' was not found after publication");
+						summary.addMissingFile(task.path);
+					}
+				}
+			}
+			catch (Exception e){
+				logger.error("Could not list content of collection '"+collection.path+"': " + e.getMessage());
+				for (FileTask task : collection.files){
+					if (task.done)
+						summary.addMissingFile(task.path);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Update listener (listeners such as progress bars are not thread-safe)
+	 * @param listener Listener
+	 */
+	private static void notifyListener(IBIOMESListener listener){
+		if (listener != null){
+			synchronized (listener) {
+				listener.update();
+			}
+		}
+	}
+
+	/**
+	 * Worker publishing queued files through its own target
+	 */
+	private class PublishWorker implements Runnable {
+
+		private BlockingQueue<FileTask> queue;
+		private boolean overwrite;
+		private boolean register;
+		private PublishSummary summary;
+		private IBIOMESListener listener;
+
+		private PublishWorker(
+				BlockingQueue<FileTask> queue,
+				boolean overwrite,
+				boolean register,
+				PublishSummary summary,
+				IBIOMESListener listener){
+			this.queue = queue;
+			this.overwrite = overwrite;
+			this.register = register;
+			this.summary = summary;
+			this.listener = listener;
+		}
+
+		public void run() {
+			PublishTarget target = null;
+			try {
+				target = targetFactory.openTarget();
+				FileTask task = null;
+				while ((task = queue.take()) != FileTask.END){
+					if (task.members != null)
+						this.publishBundleWithRetry(target, task);
+					else {
+						this.publishFileWithRetry(target, task);
+						notifyListener(listener);
+					}
+				}
+			}
+			catch (InterruptedException e){
+				Thread.currentThread().interrupt();
+			}
+			catch (Exception e){
+				logger.error("Publishing worker stopped: " + e.getMessage());
+			}
+			finally {
+				if (target != null){
+					try {
+						target.close();
+					} catch (Exception e) {
+						logger.warn("Could not close publish target: " + e.getMessage());
+					}
+				}
+			}
+		}
+
+		/**
+		 * Publish file, retrying after failures
+		 * @param target Publish target
+		 * @param task File task
+		 * @throws InterruptedException
+		 */
+		private void publishFileWithRetry(PublishTarget target, FileTask task) throws InterruptedException
+		{
+			int attempt = 0;
+			while (true){
+				try {
+					if (this.publishFile(target, task)){
+						task.done = true;
+						summary.addPublishedFile();
+					}
+					else summary.addSkippedFile();
+					return;
+				}
+				catch (Exception e){
+					attempt++;
+					if (attempt > maxRetries){
+						logger.error("Could not publish file '"+task.path+"': " + e.getMessage());
+						summary.addFailedFile(task.path, e.getMessage());
+						return;
+					}
+					logger.warn("Attempt " + attempt + " to publish file '"+task.path+"' failed: " + e.getMessage());
+					summary.addRetry();
+					try {
+						Thread.sleep(retryDelay * attempt);
+					}
+					catch (InterruptedException ie){
+						summary.addFailedFile(task.path, "Interrupted");
+						throw ie;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Publish bundle of small files, retrying after failures. The members are published 
+		 * individually if the bundle cannot be created.
+		 * @param target Publish target
+		 * @param task Bundle task
+		 * @throws InterruptedException
+		 */
+		private void publishBundleWithRetry(PublishTarget target, FileTask task) throws InterruptedException
+		{
+			List<LocalFile> files = new ArrayList<LocalFile>();
+			for (FileTask member : task.members){
+				files.add(member.file);
+			}
+			int attempt = 0;
+			while (true){
+				try {
+					FileBundlePublisher.Result result = bundlePublisher.publishBundle(target, files, task.path, overwrite, register);
+					if (result == FileBundlePublisher.Result.NOT_CREATED){
+						for (FileTask member : task.members){
+							this.publishFileWithRetry(target, member);
+							notifyListener(listener);
+						}
+						return;
+					}
+					task.done = true;
+					for (int m=0; m<task.members.size(); m++){
+						if (result == FileBundlePublisher.Result.PUBLISHED)
+							summary.addPublishedFile();
+						else summary.addSkippedFile();
+						notifyListener(listener);
+					}
+					return;
+				}
+				catch (Exception e){
+					attempt++;
+					if (attempt > maxRetries){
+						logger.error("Could not publish bundle '"+task.path+"': " + e.getMessage());
+						for (FileTask member : task.members){
+							summary.addFailedFile(member.path, e.getMessage());
+							notifyListener(listener);
+						}
+						return;
+					}
+					logger.warn("Attempt " + attempt + " to publish bundle '"+task.path+"' failed: " + e.getMessage());
+					summary.addRetry();
+					try {
+						Thread.sleep(retryDelay * attempt);
+					}
+					catch (InterruptedException ie){
+						for (FileTask member : task.members){
+							summary.addFailedFile(member.path, "Interrupted");
+						}
+						throw ie;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Publish file. Retries resume after the transfer if it already succeeded.
+		 * @param target Publish target
+		 * @param task File task
+		 * @return False if the file already existed and was skipped
+		 * @throws Exception
+		 */
+		private boolean publishFile(PublishTarget target, FileTask task) throws Exception
+		{
+			if (!task.transferred){
+				if (register){
+					if (!target.fileExists(task.path))
+						target.registerFile(task.file, task.path);
+				}
+				else if (manifest != null){
+					if (!this.transferFileWithManifest(target, task))
+						return false;
+				}
+				else {
+					task.overwritten = target.fileExists(task.path);
+					if (task.overwritten && !overwrite)
+						return false;
+					if (!target.putFile(task.file, task.path, overwrite))
+						return false;
+				}
+				task.transferred = true;
+			}
+			if (task.overwritten)
+				target.setFileMetadata(task.path, task.file.getMetadata());
+			else target.addFileMetadata(task.path, task.file.getMetadata());
+			if (task.entry != null)
+				manifest.markComplete(task.entry);
+			return true;
+		}
+
+		/**
+		 * Transfer file unless an identical copy (same size and checksum) already exists in iBIOMES
+		 * @param target Publish target
+		 * @param task File task
+		 * @return False if the file was skipped (identical copy already published, or existing file not overwritten)
+		 * @throws Exception
+		 */
+		private boolean transferFileWithManifest(PublishTarget target, FileTask task) throws Exception
+		{
+			PublishManifestEntry entry = manifest.getEntry(task.path, new File(task.file.getAbsolutePath()));
+			PublishTarget.FileInfo remoteFile = target.getFileInfo(task.path);
+			if (remoteFile != null){
+				task.overwritten = true;
+				if (remoteFile.getSize() == entry.getSize()){
+					String remoteChecksum = remoteFile.getChecksum();
+					if (remoteChecksum == null)
+						remoteChecksum = target.computeChecksum(task.path);
+					if (manifest.getChecksum(entry).equalsIgnoreCase(remoteChecksum)){
+						if (entry.isComplete())
+							return false;
+						//identical content: only the metadata is missing
+						task.entry = entry;
+						return true;
+					}
+				}
+				//existing file that was not (even partially) published by this manifest
+				if (!overwrite && !entry.isStarted())
+					return false;
+			}
+			manifest.markStarted(entry);
+			if (!target.putFile(task.file, task.path, true))
+				return false;
+			task.entry = entry;
+			return true;
+		}
+	}
+
+	/**
+	 * File to publish, or bundle of files (with member tasks)
+	 */
+	private static class FileTask {
+
+		private static final FileTask END = new FileTask(null, null);
+
+		private final LocalFile file;
+		private final String path;
+		private final String name;
+		private List<FileTask> members = null;
+		private boolean transferred = false;
+		private boolean overwritten = false;
+		private PublishManifestEntry entry = null;
+		private boolean done = false;
+
+		private FileTask(LocalFile file, String path){
+			this.file = file;
+			this.path = path;
+			this.name = (path == null ? null : path.substring(path.lastIndexOf('/') + 1));
+		}
+
+		/**
+		 * Get tasks of the files handled by this task
+		 * @return Member tasks for a bundle, this task otherwise
+		 */
+		private List<FileTask> getFileTasks(){
+			if (members != null)
+				return members;
+			List<FileTask> tasks = new ArrayList<FileTask>();
+			tasks.add(this);
+			return tasks;
+		}
+	}
+
+	/**
+	 * Collection and the files queued for it
+	 */
+	private static class CollectionTask {
+
+		private final String path;
+		private final List<FileTask> files = new ArrayList<FileTask>();
+
+		private CollectionTask(String path){
+			this.path = path;
+		}
+	}
+}
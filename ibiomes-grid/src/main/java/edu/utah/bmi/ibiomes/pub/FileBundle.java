@@ -0,0 +1,370 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.pub;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.utils.CountingInputStream;
+
+import edu.utah.bmi.ibiomes.metadata.FileMetadata;
+import edu.utah.bmi.ibiomes.metadata.MetadataAVU;
+import edu.utah.bmi.ibiomes.metadata.MetadataAVUList;
+import edu.utah.bmi.ibiomes.parse.LocalFile;
+
+/**
+ * Bundle of small files packed into a single tar archive (POSIX format), along with the index
+ * of its members (name, data offset, size, modification time). The index is stored as AVUs of the bundle so that
+ * a member can be read directly by seeking inside the archive. The metadata of each member is stored
+ * as bundle AVUs whose attribute is prefixed with the member number (position in the index).
+ * @author Julien Thibault, University of Utah
+ *
+ */
+public class FileBundle {
+
+	/**
+	 * Default name of the bundle file
+	 */
+	public static final String BUNDLE_FILE_NAME = "ibiomes_bundle.tar";
+	/**
+	 * AVU attribute used to store the member index (one or more values)
+	 */
+	public static final String BUNDLE_INDEX = "BUNDLE_INDEX";
+	/**
+	 * AVU attribute used to store the number of members
+	 */
+	public static final String BUNDLE_MEMBER_COUNT = "BUNDLE_MEMBER_COUNT";
+	/**
+	 * Prefix of the attributes of member AVUs ('BUNDLE_MEMBER:&lt;member number&gt;:&lt;attribute&gt;')
+	 */
+	public static final String BUNDLE_MEMBER_PREFIX = "BUNDLE_MEMBER:";
+
+	private static final int BLOCK_SIZE = 512;
+	private static final int BUFFER_SIZE = 65536;
+	private static final char ENTRY_SEPARATOR = '/';
+	private static final char FIELD_SEPARATOR = ':';
+
+	private LinkedHashMap<String, Member> members;
+	private HashMap<String, MetadataAVUList> memberMetadata;
+
+	private FileBundle(){
+		this.members = new LinkedHashMap<String, Member>();
+		this.memberMetadata = new HashMap<String, MetadataAVUList>();
+	}
+
+	/**
+	 * Check if a file can be added to a bundle
+	 * @param file Local file
+	 * @param sizeThreshold Maximum file size (bytes)
+	 * @return True if the file is smaller than the threshold
+	 */
+	public static boolean isBundleable(LocalFile file, long sizeThreshold)
+	{
+		File physicalFile = new File(file.getAbsolutePath());
+		return (physicalFile.isFile()
+				&& physicalFile.length() < sizeThreshold
+				&& !file.getName().equals(BUNDLE_FILE_NAME));
+	}
+
+	/**
+	 * Pack files into a new tar archive. Long member names are stored in PAX extended headers.
+	 * @param bundleFile Path to the archive to create
+	 * @param files Files to pack (names must be unique)
+	 * @return Bundle
+	 * @throws Exception
+	 */
+	public static FileBundle create(File bundleFile, List<LocalFile> files) throws Exception
+	{
+		FileBundle bundle = new FileBundle();
+		HashMap<String, Long> lastModified = new HashMap<String, Long>();
+		TarArchiveOutputStream out = new TarArchiveOutputStream(new BufferedOutputStream(new FileOutputStream(bundleFile), BUFFER_SIZE));
+		out.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+		out.setAddPaxHeadersForNonAsciiNames(true);
+		try {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			for (LocalFile file : files)
+			{
+				File physicalFile = new File(file.getAbsolutePath());
+				long size = physicalFile.length();
+				lastModified.put(file.getName(), physicalFile.lastModified());
+				TarArchiveEntry entry = new TarArchiveEntry(file.getName());
+				entry.setSize(size);
+				entry.setModTime(physicalFile.lastModified());
+				out.putArchiveEntry(entry);
+
+				InputStream in = new FileInputStream(physicalFile);
+				try {
+					long copied = 0;
+					int n;
+					while (copied < size && (n = in.read(buffer, 0, (int)Math.min(buffer.length, size - copied))) != -1){
+						out.write(buffer, 0, n);
+						copied += n;
+					}
+					if (copied != size)
+						throw new IOException("File '" + physicalFile.getAbsolutePath() + "' changed while being bundled");
+				}
+				finally {
+					in.close();
+				}
+				out.closeArchiveEntry();
+
+				bundle.memberMetadata.put(file.getName(), file.getMetadata());
+			}
+			out.finish();
+		}
+		finally {
+			out.close();
+		}
+		bundle.readIndex(bundleFile, lastModified);
+		return bundle;
+	}
+
+	/**
+	 * Read the data offset of each member from the archive
+	 * @param bundleFile Archive
+	 * @param lastModified Modification time (ms) of the packed files, by name
+	 * @throws IOException
+	 */
+	private void readIndex(File bundleFile, HashMap<String, Long> lastModified) throws IOException
+	{
+		//records are read one at a time so that the byte count gives the position of the member data
+		CountingInputStream counter = new CountingInputStream(new FileInputStream(bundleFile));
+		TarArchiveInputStream in = new TarArchiveInputStream(counter, BLOCK_SIZE, BLOCK_SIZE);
+		try {
+			TarArchiveEntry entry = null;
+			while ((entry = in.getNextTarEntry()) != null){
+				members.put(entry.getName(), new Member(entry.getName(), counter.getBytesRead(), entry.getSize(), lastModified.get(entry.getName())));
+			}
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Read bundle index from the values of the index AVUs
+	 * @param indexValues Values of the index AVUs
+	 * @return Bundle (no member metadata)
+	 */
+	public static FileBundle parseIndex(List<String> indexValues)
+	{
+		FileBundle bundle = new FileBundle();
+		for (String value : indexValues)
+		{
+			int start = 0;
+			while (start < value.length())
+			{
+				int end = value.indexOf(ENTRY_SEPARATOR, start);
+				if (end == -1)
+					end = value.length();
+				String[] fields = value.substring(start, end).split(String.valueOf(FIELD_SEPARATOR), 4);
+				if (fields.length == 4){
+					Member member = new Member(fields[3], Long.parseLong(fields[0]), Long.parseLong(fields[1]), Long.parseLong(fields[2]));
+					bundle.members.put(member.getName(), member);
+				}
+				start = end + 1;
+			}
+		}
+		return bundle;
+	}
+
+	/**
+	 * Get bundle members
+	 * @return List of members
+	 */
+	public List<Member> getMembers(){
+		return new ArrayList<Member>(members.values());
+	}
+
+	/**
+	 * Get bundle member
+	 * @param name Member name
+	 * @return Member or null if not found
+	 */
+	public Member getMember(String name){
+		return members.get(name);
+	}
+
+	/**
+	 * Get metadata of a bundle member from the bundle AVUs
+	 * @param name Member name
+	 * @param bundleMetadata Bundle metadata (including member AVUs)
+	 * @return Member metadata or null if the member is not found
+	 */
+	public MetadataAVUList getMemberMetadata(String name, MetadataAVUList bundleMetadata)
+	{
+		int number = 0;
+		for (String memberName : members.keySet()){
+			if (memberName.equals(name)){
+				String prefix = BUNDLE_MEMBER_PREFIX + number + FIELD_SEPARATOR;
+				MetadataAVUList metadata = new MetadataAVUList();
+				for (MetadataAVU avu : bundleMetadata){
+					if (avu.getAttribute().startsWith(prefix))
+						metadata.add(new MetadataAVU(avu.getAttribute().substring(prefix.length()), avu.getValue(), avu.getUnit()));
+				}
+				return metadata;
+			}
+			number++;
+		}
+		return null;
+	}
+
+	/**
+	 * Check if the bundle holds exactly the given files, with their current size and modification time.
+	 * Used to find out if a bundle that was already published must be rebuilt.
+	 * @param files Local files
+	 * @return True if the members match the files
+	 */
+	public boolean hasSameMembers(List<LocalFile> files)
+	{
+		if (files.size() != members.size())
+			return false;
+		for (LocalFile file : files){
+			Member member = members.get(file.getName());
+			File physicalFile = new File(file.getAbsolutePath());
+			if (member == null 
+					|| member.getSize() != physicalFile.length()
+					|| member.getLastModified() != physicalFile.lastModified())
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Get metadata to attach to the bundle: member index, the metadata of all the members
+	 * so that the bundle is found by searches on member metadata, and the metadata of each 
+	 * member under its member prefix.
+	 * @return Bundle metadata
+	 */
+	public MetadataAVUList getMetadata()
+	{
+		MetadataAVUList metadata = new MetadataAVUList();
+		metadata.add(new MetadataAVU(FileMetadata.FILE_FORMAT, LocalFile.FORMAT_TAR));
+		metadata.add(new MetadataAVU(BUNDLE_MEMBER_COUNT, String.valueOf(members.size())));
+		for (String value : getIndexValues()){
+			metadata.add(new MetadataAVU(BUNDLE_INDEX, value));
+		}
+		int number = 0;
+		for (String name : members.keySet()){
+			MetadataAVUList avus = memberMetadata.get(name);
+			if (avus != null){
+				metadata.addAll(avus);
+				String prefix = BUNDLE_MEMBER_PREFIX + number + FIELD_SEPARATOR;
+				for (MetadataAVU avu : avus){
+					metadata.add(new MetadataAVU(prefix + avu.getAttribute(), avu.getValue(), avu.getUnit()));
+				}
+			}
+			number++;
+		}
+		return metadata;
+	}
+
+	/**
+	 * Serialize member index into AVU values. Member names cannot contain '/' so it is
+	 * used to separate entries; an entry is 'offset:size:mtime:name'.
+	 * @return AVU values
+	 */
+	private List<String> getIndexValues()
+	{
+		List<String> values = new ArrayList<String>();
+		StringBuilder value = new StringBuilder();
+		for (Member member : members.values()){
+			String entry = member.getOffset() + String.valueOf(FIELD_SEPARATOR) + member.getSize() 
+					+ FIELD_SEPARATOR + member.getLastModified() + FIELD_SEPARATOR + member.getName();
+			if (value.length() > 0 && value.length() + entry.length() + 1 > IBIOMESFileAO.MAX_AVU_VALUE_LENGTH){
+				values.add(value.toString());
+				value = new StringBuilder();
+			}
+			if (value.length() > 0)
+				value.append(ENTRY_SEPARATOR);
+			value.append(entry);
+		}
+		if (value.length() > 0)
+			values.add(value.toString());
+		return values;
+	}
+
+	/**
+	 * Bundle member
+	 */
+	public static class Member {
+
+		private String name;
+		private long offset;
+		private long size;
+		private long lastModified;
+
+		/**
+		 * New bundle member
+		 * @param name File name
+		 * @param offset Offset of the file content in the archive
+		 * @param size File size
+		 * @param lastModified Last modification time of the file (ms)
+		 */
+		public Member(String name, long offset, long size, long lastModified){
+			this.name = name;
+			this.offset = offset;
+			this.size = size;
+			this.lastModified = lastModified;
+		}
+
+		/**
+		 * Get file name
+		 * @return File name
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Get offset of the file content in the archive
+		 * @return Offset in bytes
+		 */
+		public long getOffset() {
+			return offset;
+		}
+
+		/**
+		 * Get file size
+		 * @return Size in bytes
+		 */
+		public long getSize() {
+			return size;
+		}
+
+		/**
+		 * Get last modification time of the file when it was packed
+		 * @return Last modification time (ms)
+		 */
+		public long getLastModified() {
+			return lastModified;
+		}
+	}
+}
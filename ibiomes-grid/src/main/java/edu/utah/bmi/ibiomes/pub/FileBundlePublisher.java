@@ -0,0 +1,197 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.pub;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import edu.utah.bmi.ibiomes.parse.DefaultLocalFileImpl;
+import edu.utah.bmi.ibiomes.parse.LocalFile;
+
+/**
+ * Publish the small files of a directory as a single bundle ({@link FileBundle}).
+ * Used by the sequential and concurrent publishers, with or without publishing manifest.
+ * When copying, the bundle is built in a temporary file and uploaded. When registering in place,
+ * it is written in the local directory next to its members and registered from there.
+ * @author Julien Thibault, University of Utah
+ *
+ */
+public class FileBundlePublisher {
+
+	/**
+	 * Minimum number of small files in a directory to create a bundle
+	 */
+	public static final int MIN_BUNDLE_MEMBERS = 2;
+
+	/**
+	 * Outcome of a bundle publication
+	 */
+	public enum Result {
+		/** Bundle created and published */
+		PUBLISHED,
+		/** Published bundle already holds the current files */
+		UNCHANGED,
+		/** Bundle could not be created: the files must be published individually */
+		NOT_CREATED
+	}
+
+	private final Logger logger = Logger.getLogger(FileBundlePublisher.class);
+
+	private long sizeThreshold;
+
+	/**
+	 * Constructor
+	 * @param sizeThreshold Size threshold in bytes (0 to disable bundling)
+	 */
+	public FileBundlePublisher(long sizeThreshold){
+		this.sizeThreshold = sizeThreshold;
+	}
+
+	/**
+	 * Get size threshold for bundling
+	 * @return Size threshold in bytes (0 if bundling is disabled)
+	 */
+	public long getSizeThreshold() {
+		return sizeThreshold;
+	}
+
+	/**
+	 * Check if bundling is enabled
+	 * @return True if bundling is enabled
+	 */
+	public boolean isEnabled() {
+		return (sizeThreshold > 0);
+	}
+
+	/**
+	 * Check if a local file is a bundle written by a previous in-place registration.
+	 * Such files are rebuilt and must not be published as regular files.
+	 * @param file Local file
+	 * @return True if bundling is enabled and the file is a bundle
+	 */
+	public boolean isBundleFile(LocalFile file) {
+		return (isEnabled() && file.getName().equals(FileBundle.BUNDLE_FILE_NAME));
+	}
+
+	/**
+	 * Get files of a directory that are packed into its bundle
+	 * @param files Files of the directory by format
+	 * @return Files smaller than the threshold (empty list if bundling is disabled or if there are too few small files)
+	 */
+	public List<LocalFile> getBundleMembers(HashMap<String,ArrayList<LocalFile>> files)
+	{
+		List<LocalFile> smallFiles = new ArrayList<LocalFile>();
+		if (isEnabled() && files != null)
+		{
+			Set<String> names = new HashSet<String>();
+			for (ArrayList<LocalFile> fileList : files.values()){
+				for (LocalFile file : fileList){
+					if (FileBundle.isBundleable(file, sizeThreshold) && names.add(file.getName()))
+						smallFiles.add(file);
+				}
+			}
+		}
+		if (smallFiles.size() < MIN_BUNDLE_MEMBERS)
+			smallFiles.clear();
+		return smallFiles;
+	}
+
+	/**
+	 * Pack files into a bundle, publish it and set its metadata (member index and member metadata).
+	 * A bundle that already exists in iBIOMES is only replaced if the overwrite flag is set or if its
+	 * index does not match the files (new, removed or modified small files).
+	 * @param target Publish target
+	 * @param files Files to pack (from the same directory)
+	 * @param ibiomesPath Path to bundle in iBIOMES
+	 * @param overwrite Overwrite flag
+	 * @param register Register the bundle in place instead of copying it
+	 * @return Outcome of the publication
+	 * @throws Exception
+	 */
+	public Result publishBundle(
+			PublishTarget target,
+			List<LocalFile> files,
+			String ibiomesPath,
+			boolean overwrite,
+			boolean register) throws Exception
+	{
+		boolean exists = target.fileExists(ibiomesPath);
+		if (exists && !overwrite && this.getPublishedBundle(target, ibiomesPath).hasSameMembers(files)){
+			logger.info("Bundle already exists in iBIOMES: '"+ ibiomesPath + "'");
+			return Result.UNCHANGED;
+		}
+
+		File directory = new File(files.get(0).getAbsolutePath()).getParentFile();
+		File bundleFile = null;
+		if (register)
+			bundleFile = new File(directory, FileBundle.BUNDLE_FILE_NAME + ".tmp");
+		else bundleFile = File.createTempFile("ibiomes_bundle", ".tar");
+		try {
+			FileBundle bundle = null;
+			try {
+				bundle = FileBundle.create(bundleFile, files);
+			}
+			catch (IOException e){
+				logger.warn("Cannot create bundle for '" + ibiomesPath + "': " + e.getMessage());
+				return Result.NOT_CREATED;
+			}
+			logger.info("Publishing bundle of " + bundle.getMembers().size() + " files: '"+ ibiomesPath + "'");
+
+			if (register){
+				//the stale bundle is unregistered before its local copy is replaced
+				if (exists)
+					target.deleteFile(ibiomesPath);
+				exists = false;
+				File localBundle = new File(directory, FileBundle.BUNDLE_FILE_NAME);
+				if ((localBundle.exists() && !localBundle.delete()) || !bundleFile.renameTo(localBundle))
+					throw new IOException("Cannot replace bundle '" + localBundle.getAbsolutePath() + "'");
+				target.registerFile(new DefaultLocalFileImpl(localBundle.getAbsolutePath(), LocalFile.FORMAT_TAR), ibiomesPath);
+			}
+			else target.putFile(new DefaultLocalFileImpl(bundleFile.getAbsolutePath(), LocalFile.FORMAT_TAR), ibiomesPath, true);
+
+			if (exists)
+				target.setFileMetadata(ibiomesPath, bundle.getMetadata());
+			else target.addFileMetadata(ibiomesPath, bundle.getMetadata());
+		}
+		finally {
+			if (bundleFile.exists())
+				bundleFile.delete();
+		}
+		return Result.PUBLISHED;
+	}
+
+	/**
+	 * Read the index of a bundle stored in iBIOMES
+	 * @param target Publish target
+	 * @param ibiomesPath Path to bundle in iBIOMES
+	 * @return Bundle (no member metadata)
+	 * @throws Exception
+	 */
+	private FileBundle getPublishedBundle(PublishTarget target, String ibiomesPath) throws Exception
+	{
+		return FileBundle.parseIndex(target.getFileMetadata(ibiomesPath).getValues(FileBundle.BUNDLE_INDEX));
+	}
+}
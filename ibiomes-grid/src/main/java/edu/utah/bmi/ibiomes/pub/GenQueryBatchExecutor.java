@@ -0,0 +1,103 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.pub;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.irods.jargon.core.exception.JargonException;
+import org.irods.jargon.core.pub.IRODSGenQueryExecutor;
+import org.irods.jargon.core.query.GenQueryBuilderException;
+import org.irods.jargon.core.query.IRODSGenQueryBuilder;
+import org.irods.jargon.core.query.IRODSGenQueryFromBuilder;
+import org.irods.jargon.core.query.IRODSQueryResultRow;
+import org.irods.jargon.core.query.IRODSQueryResultSet;
+import org.irods.jargon.core.query.JargonQueryException;
+
+/**
+ * Executes GenQueries used to load lists of collections or files in bulk 
+ * (e.g. a page of search results) and returns all the rows of the result set.
+ * @author Julien Thibault, University of Utah
+ *
+ */
+class GenQueryBatchExecutor {
+
+	/**
+	 * Maximum number of values in a single 'IN' condition
+	 */
+	public static final int MAX_VALUES_PER_CONDITION = 100;
+	
+	private static final int N_RECORDS_PER_REQUEST = 500;
+	
+	private IRODSGenQueryExecutor executor;
+	
+	/**
+	 * New batch executor
+	 * @param executor iRODS GenQuery executor
+	 */
+	public GenQueryBatchExecutor(IRODSGenQueryExecutor executor){
+		this.executor = executor;
+	}
+	
+	/**
+	 * Execute query and retrieve all the rows (following continuations)
+	 * @param queryBuilder Query builder
+	 * @return Result rows
+	 * @throws JargonException
+	 * @throws JargonQueryException
+	 */
+	public List<IRODSQueryResultRow> executeAll(IRODSGenQueryBuilder queryBuilder) throws JargonException, JargonQueryException
+	{
+		IRODSGenQueryFromBuilder query = null;
+		try {
+			query = queryBuilder.exportIRODSQueryFromBuilder(N_RECORDS_PER_REQUEST);
+		} catch (GenQueryBuilderException e) {
+			throw new JargonQueryException("Cannot build query: " + e.getMessage(), e);
+		}
+		
+		List<IRODSQueryResultRow> rows = new ArrayList<IRODSQueryResultRow>();
+		IRODSQueryResultSet results = executor.executeIRODSQuery(query, 0);
+		try {
+			rows.addAll(results.getResults());
+			while (results.isHasMoreRecords()){
+				results = executor.getMoreResults(results);
+				rows.addAll(results.getResults());
+			}
+		}
+		finally {
+			if (results.isHasMoreRecords())
+				executor.closeResults(results);
+		}
+		return rows;
+	}
+	
+	/**
+	 * Split list of values into batches that can be used in 'IN' conditions
+	 * @param values Values
+	 * @return Batches of values
+	 */
+	public static List<List<String>> split(List<String> values)
+	{
+		List<List<String>> batches = new ArrayList<List<String>>();
+		for (int start=0; start<values.size(); start+=MAX_VALUES_PER_CONDITION){
+			batches.add(values.subList(start, Math.min(start + MAX_VALUES_PER_CONDITION, values.size())));
+		}
+		return batches;
+	}
+}
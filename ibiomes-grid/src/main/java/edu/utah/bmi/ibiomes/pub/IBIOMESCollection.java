@@ -104,6 +104,27 @@ public class IBIOMESCollection implements Serializable {
 			}
 		}
 	}
+	
+	/**
+	 * Create collection from system metadata retrieved through a bulk query
+	 * @param absolutePath Absolute path
+	 * @param owner Owner
+	 * @param registrationTimestamp Creation timestamp (ms)
+	 * @param metadata List of metadata
+	 */
+	public IBIOMESCollection(String absolutePath, String owner, long registrationTimestamp, MetadataAVUList metadata)
+	{
+		this.absolutePath = absolutePath;
+		if (this.absolutePath.endsWith("/")){
+			this.absolutePath = this.absolutePath.substring(0, this.absolutePath.length()-1);
+		}
+		this.name = this.absolutePath.substring(this.absolutePath.lastIndexOf('/')+1);
+		this.parent = this.absolutePath.substring(0, this.absolutePath.lastIndexOf('/'));
+		this.owner = owner;
+		this.setRegistrationTimestamp(registrationTimestamp);
+		this.metadataList = (metadata != null ? metadata : new MetadataAVUList());
+	}
+	
 	/**
 	 * Set metadata
 	 * @param metadata Metadata
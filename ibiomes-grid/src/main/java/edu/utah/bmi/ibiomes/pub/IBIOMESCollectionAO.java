@@ -19,6 +19,8 @@
 package edu.utah.bmi.ibiomes.pub;
 
 import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 
 import org.apache.log4j.Logger;
@@ -29,9 +31,14 @@ import org.irods.jargon.core.pub.IRODSAccessObjectFactory;
 import org.irods.jargon.core.pub.domain.Collection;
 import org.irods.jargon.core.pub.io.IRODSFile;
 import org.irods.jargon.core.pub.io.IRODSFileFactory;
+import org.irods.jargon.core.query.IRODSGenQueryBuilder;
+import org.irods.jargon.core.query.IRODSQueryResultRow;
 import org.irods.jargon.core.query.JargonQueryException;
 import org.irods.jargon.core.query.MetaDataAndDomainData;
+import org.irods.jargon.core.query.QueryConditionOperators;
+import org.irods.jargon.core.query.RodsGenQueryEnum;
 
+import edu.utah.bmi.ibiomes.metadata.MetadataAVU;
 import edu.utah.bmi.ibiomes.search.IBIOMESCollectionSearch;
 
 /**
@@ -125,21 +132,91 @@ public class IBIOMESCollectionAO {
 	}
 	
 	/**
-	 * Retrieve list of collections from their path
+	 * Retrieve list of collections from their path. System metadata and AVUs are 
+	 * loaded for the whole list with one GenQuery each (COLL_NAME IN (...)) instead of 
+	 * querying each collection separately.
 	 * @param collectionPaths Collections paths
-	 * @return List of iBIOMES collections
+	 * @return List of iBIOMES collections (in the order of the given paths)
 	 * @throws JargonException
 	 * @throws JargonQueryException
 	 */
 	public IBIOMESCollectionList getCollectionsFromPath(List<String> collectionPaths) throws JargonException, JargonQueryException
 	{
 		IBIOMESCollectionList ibiomesFiles = new IBIOMESCollectionList();
+		if (collectionPaths == null || collectionPaths.size()==0)
+			return ibiomesFiles;
+		
+		List<String> paths = new ArrayList<String>(collectionPaths.size());
 		for (String path : collectionPaths){
-			ibiomesFiles.add(this.getCollectionFromPath(path));
+			paths.add(getNormalizedPath(path));
+		}
+		
+		GenQueryBatchExecutor executor = new GenQueryBatchExecutor(irodsAccessObjectFactory.getIRODSGenQueryExecutor(account));
+		HashMap<String, IBIOMESCollection> collections = new HashMap<String, IBIOMESCollection>();
+		for (List<String> batch : GenQueryBatchExecutor.split(paths)){
+			this.loadCollections(executor, batch, collections);
+		}
+		
+		for (String path : paths){
+			IBIOMESCollection collection = collections.get(path);
+			if (collection != null)
+				ibiomesFiles.add(collection);
+			else logger.warn("[iBIOMES] Collection not found: " + path);
 		}
 		return ibiomesFiles;
 	}
 	
+	/**
+	 * Load system metadata and AVUs for a batch of collections
+	 * @param executor Query executor
+	 * @param paths Collection paths
+	 * @param collections Map where loaded collections are stored (key: path)
+	 * @throws JargonException
+	 * @throws JargonQueryException
+	 */
+	private void loadCollections(GenQueryBatchExecutor executor, List<String> paths, HashMap<String, IBIOMESCollection> collections) throws JargonException, JargonQueryException
+	{
+		//system metadata
+		IRODSGenQueryBuilder queryBuilder = new IRODSGenQueryBuilder(true, false, null);
+		queryBuilder.addSelectAsGenQueryValue(RodsGenQueryEnum.COL_COLL_NAME);
+		queryBuilder.addSelectAsGenQueryValue(RodsGenQueryEnum.COL_COLL_OWNER_NAME);
+		queryBuilder.addSelectAsGenQueryValue(RodsGenQueryEnum.COL_COLL_CREATE_TIME);
+		queryBuilder.addConditionAsMultiValueCondition(RodsGenQueryEnum.COL_COLL_NAME, QueryConditionOperators.IN, paths);
+		for (IRODSQueryResultRow row : executor.executeAll(queryBuilder)){
+			String path = row.getColumn(RodsGenQueryEnum.COL_COLL_NAME.getName());
+			long createTime = Long.parseLong(row.getColumn(RodsGenQueryEnum.COL_COLL_CREATE_TIME.getName())) * 1000;
+			collections.put(path, new IBIOMESCollection(path, row.getColumn(RodsGenQueryEnum.COL_COLL_OWNER_NAME.getName()), createTime, null));
+		}
+		
+		//AVUs
+		queryBuilder = new IRODSGenQueryBuilder(true, false, null);
+		queryBuilder.addSelectAsGenQueryValue(RodsGenQueryEnum.COL_COLL_NAME);
+		queryBuilder.addSelectAsGenQueryValue(RodsGenQueryEnum.COL_META_COLL_ATTR_NAME);
+		queryBuilder.addSelectAsGenQueryValue(RodsGenQueryEnum.COL_META_COLL_ATTR_VALUE);
+		queryBuilder.addSelectAsGenQueryValue(RodsGenQueryEnum.COL_META_COLL_ATTR_UNITS);
+		queryBuilder.addConditionAsMultiValueCondition(RodsGenQueryEnum.COL_COLL_NAME, QueryConditionOperators.IN, paths);
+		for (IRODSQueryResultRow row : executor.executeAll(queryBuilder)){
+			IBIOMESCollection collection = collections.get(row.getColumn(RodsGenQueryEnum.COL_COLL_NAME.getName()));
+			if (collection != null){
+				collection.getMetadata().add(new MetadataAVU(
+						row.getColumn(RodsGenQueryEnum.COL_META_COLL_ATTR_NAME.getName()), 
+						row.getColumn(RodsGenQueryEnum.COL_META_COLL_ATTR_VALUE.getName()), 
+						row.getColumn(RodsGenQueryEnum.COL_META_COLL_ATTR_UNITS.getName())));
+			}
+		}
+	}
+	
+	/**
+	 * Remove trailing slash from collection path
+	 * @param path Collection path
+	 * @return Normalized path
+	 */
+	private static String getNormalizedPath(String path){
+		if (path.length()>1 && path.endsWith("/"))
+			return path.substring(0, path.length()-1);
+		return path;
+	}
+	
 	/**
 	 * Get list of collections under a given parent collection (recursive)
 	 * @return list of collections under a given parent collection
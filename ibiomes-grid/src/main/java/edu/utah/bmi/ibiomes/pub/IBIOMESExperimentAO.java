@@ -27,7 +27,6 @@ import org.irods.jargon.core.connection.IRODSAccount;
 import org.irods.jargon.core.exception.JargonException;
 import org.irods.jargon.core.pub.CollectionAO;
 import org.irods.jargon.core.pub.IRODSAccessObjectFactory;
-import org.irods.jargon.core.pub.domain.AvuData;
 import org.irods.jargon.core.pub.domain.Collection;
 import org.irods.jargon.core.pub.io.IRODSFile;
 import org.irods.jargon.core.pub.io.IRODSFileFactory;
@@ -43,6 +42,7 @@ import edu.utah.bmi.ibiomes.metadata.GeneralMetadata;
 import edu.utah.bmi.ibiomes.metadata.IBIOMESFileGroup;
 import edu.utah.bmi.ibiomes.metadata.MetadataAVU;
 import edu.utah.bmi.ibiomes.metadata.MetadataAVUList;
+import edu.utah.bmi.ibiomes.pub.AVUSynchronizer.SyncMode;
 import edu.utah.bmi.ibiomes.search.IBIOMESCollectionSearch;
 import edu.utah.bmi.ibiomes.search.IBIOMESFileSearch;
 
@@ -137,7 +137,7 @@ public class IBIOMESExperimentAO {
 	}
 
 	/**
-	 * Retrieve list of collections from their path
+	 * Retrieve list of collections from their path (bulk query, see IBIOMESCollectionAO.getCollectionsFromPath())
 	 * @param collectionPaths Collections paths
 	 * @return List of iBIOMES collections
 	 * @throws JargonException
@@ -145,11 +145,8 @@ public class IBIOMESExperimentAO {
 	 */
 	public IBIOMESCollectionList getExperimentsFromPath(List<String> collectionPaths) throws JargonException, JargonQueryException
 	{
-		IBIOMESCollectionList ibiomesFiles = new IBIOMESCollectionList();
-		for (String path : collectionPaths){
-			ibiomesFiles.add(this.getExperimentFromPath(path));
-		}
-		return ibiomesFiles;
+		IBIOMESCollectionAO collAO = new IBIOMESCollectionAO(irodsAccessObjectFactory, account);
+		return collAO.getCollectionsFromPath(collectionPaths);
 	}
 	
 	/**
@@ -226,42 +223,17 @@ public class IBIOMESExperimentAO {
 	 */
 	public MetadataAVUList updateMethodMetadataFromFile(String experimentUri, String methodFileUri) throws JargonException, JargonQueryException, IllegalArgumentException, IllegalAccessException{
 		
-		CollectionAO collAO = irodsAccessObjectFactory.getCollectionAO(account);
 		IBIOMESFileAO fileAO = new IBIOMESFileAO(irodsAccessObjectFactory, account);
 		
-		//get reference to collection
-		IBIOMESCollection collection = this.getExperimentFromPath(experimentUri);
-		MetadataAVUList existingMetadata = collection.getMetadata();
 		//get reference to parameter file
 		IBIOMESFile paramfile = fileAO.getFileByPath(experimentUri + "/" + methodFileUri);
 		//get method-specific metadata only
 		MetadataAVUList newMetadata = paramfile.getMetadata().getMethodMetadata();
 		
-		List<String> keys = newMetadata.getAttributes();
-		for (String attribute : keys)
-		{
-			List<String> newValues = newMetadata.getValues(attribute);
-			
-			boolean exists = false;
-			
-			//get old value (if any)
-			List<String> oldValues = null;
-			if (existingMetadata.containsAttribute(attribute)){
-				exists = true;
-				oldValues = existingMetadata.getValues(attribute);
-			}
-			
-			//if the old metadata need to be removed
-			if (exists){
-				for (String oldValue : oldValues){
-					collAO.deleteAVUMetadata(experimentUri, AvuData.instance(attribute, oldValue, ""));
-				}
-			}
-			//if need to add new value
-			for (String newValue : newValues){
-				collAO.addAVUMetadata(experimentUri, AvuData.instance(attribute, newValue, ""));
-			}
-		}
+		//replace values of these attributes only, applying the differences in bulk
+		AVUSynchronizer avuSynchronizer = new AVUSynchronizer(irodsAccessObjectFactory, account);
+		avuSynchronizer.syncCollectionMetadata(experimentUri, newMetadata, SyncMode.REPLACE_ATTRIBUTES);
+		
 		return newMetadata;
 	}
 	
@@ -277,43 +249,17 @@ public class IBIOMESExperimentAO {
 	 */
 	public MetadataAVUList updateTopologyMetadataFromFile(String experimentUri, String topologyFileUri) throws JargonException, JargonQueryException, IllegalArgumentException, IllegalAccessException{
 		
-		CollectionAO collAO = irodsAccessObjectFactory.getCollectionAO(account);
-		
 		IBIOMESFileAO fileAO = new IBIOMESFileAO(irodsAccessObjectFactory, account);
-		//get reference to collection
-		IBIOMESCollection exp = this.getExperimentFromPath(experimentUri);
-		MetadataAVUList existingMetadata = exp.getMetadata();
 		//get reference to topology file
 		IBIOMESFile topofile = fileAO.getFileByPath(experimentUri + "/" + topologyFileUri);
 		
 		//get topology-specific metadata only
 		MetadataAVUList newMetadata = topofile.getMetadata().getTopologyMetadata();
 		
-		List<String> keys = newMetadata.getAttributes();
-		for (String attribute : keys)
-		{
-			List<String> newValues = newMetadata.getValues(attribute);
-			
-			boolean exists = false;
-			
-			//get old value (if any)
-			List<String> oldValues = null;
-			if (existingMetadata.containsAttribute(attribute)){
-				exists = true;
-				oldValues = existingMetadata.getValues(attribute);
-			}
-			
-			//if the old metadata need to be removed
-			if (exists){
-				for (String oldValue : oldValues){
-					collAO.deleteAVUMetadata(experimentUri, AvuData.instance(attribute, oldValue, ""));
-				}
-			}
-			//if need to add new value
-			for (String newValue : newValues){
-				collAO.addAVUMetadata(experimentUri, AvuData.instance(attribute, newValue, ""));
-			}
-		}
+		//replace values of these attributes only, applying the differences in bulk
+		AVUSynchronizer avuSynchronizer = new AVUSynchronizer(irodsAccessObjectFactory, account);
+		avuSynchronizer.syncCollectionMetadata(experimentUri, newMetadata, SyncMode.REPLACE_ATTRIBUTES);
+		
 		return newMetadata;
 	}
 	
@@ -88,6 +88,25 @@ public class IBIOMESFile implements Serializable {
 		}
 	}
 
+	/**
+	 * Create file from system metadata retrieved through a bulk query
+	 * @param absolutePath Absolute path
+	 * @param size File size
+	 * @param resource iRODS resource
+	 * @param lastModified Modification timestamp (ms)
+	 * @param metadata List of metadata
+	 */
+	public IBIOMESFile(String absolutePath, long size, String resource, long lastModified, MetadataAVUList metadata)
+	{
+		this.absolutePath = absolutePath;
+		this.name = absolutePath.substring(absolutePath.lastIndexOf('/')+1);
+		this.parent = absolutePath.substring(0, absolutePath.lastIndexOf('/'));
+		this.size = size;
+		this.resource = resource;
+		this.setRegistrationTimestamp(lastModified);
+		this.metadataList = (metadata != null ? metadata : new MetadataAVUList());
+	}
+
 	@XmlAttribute(name="absolutePath")
 	public String getAbsolutePath() {
 		return absolutePath;
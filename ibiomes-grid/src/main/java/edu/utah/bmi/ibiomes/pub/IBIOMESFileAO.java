@@ -20,6 +20,9 @@ package edu.utah.bmi.ibiomes.pub;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 
 import org.apache.log4j.Logger;
@@ -30,8 +33,12 @@ import org.irods.jargon.core.pub.IRODSAccessObjectFactory;
 import org.irods.jargon.core.pub.domain.DataObject;
 import org.irods.jargon.core.pub.io.IRODSFile;
 import org.irods.jargon.core.pub.io.IRODSFileFactory;
+import org.irods.jargon.core.query.IRODSGenQueryBuilder;
+import org.irods.jargon.core.query.IRODSQueryResultRow;
 import org.irods.jargon.core.query.JargonQueryException;
 import org.irods.jargon.core.query.MetaDataAndDomainData;
+import org.irods.jargon.core.query.QueryConditionOperators;
+import org.irods.jargon.core.query.RodsGenQueryEnum;
 
 import edu.utah.bmi.ibiomes.metadata.FileMetadata;
 import edu.utah.bmi.ibiomes.metadata.MetadataAVU;
@@ -192,14 +199,105 @@ public class IBIOMESFileAO {
 	public IBIOMESFileList getFilesFromPath(List<String> files, boolean excludeHiddenFiles) throws JargonException, JargonQueryException
 	{
 		IBIOMESFileList ibiomesFiles = new IBIOMESFileList();
+		if (files == null || files.size()==0)
+			return ibiomesFiles;
+		
+		GenQueryBatchExecutor executor = new GenQueryBatchExecutor(irodsAccessObjectFactory.getIRODSGenQueryExecutor(account));
+		HashMap<String, IBIOMESFile> loadedFiles = new HashMap<String, IBIOMESFile>();
+		for (List<String> batch : GenQueryBatchExecutor.split(files)){
+			this.loadFiles(executor, batch, loadedFiles);
+		}
+		
+		MetadataAVU hiddenFlag = new MetadataAVU(FileMetadata.FILE_IS_HIDDEN, "true");
 		for (String path : files){
-			IBIOMESFile ibiomesFile = this.getFileByPath(path);
-			if (!excludeHiddenFiles || !ibiomesFile.getMetadata().hasPair(new MetadataAVU(FileMetadata.FILE_IS_HIDDEN, "true")))
+			IBIOMESFile ibiomesFile = loadedFiles.get(path);
+			if (ibiomesFile == null)
+				logger.warn("[iBIOMES] File not found: " + path);
+			else if (!excludeHiddenFiles || !ibiomesFile.getMetadata().hasPair(hiddenFlag))
 				ibiomesFiles.add(ibiomesFile);
 		}
 		return ibiomesFiles;
 	}
 	
+	/**
+	 * Load system metadata and AVUs for a batch of files. Files are selected with 
+	 * COLL_NAME IN (...) and DATA_NAME IN (...) conditions; rows for other combinations 
+	 * of parent collection and file name are ignored.
+	 * @param executor Query executor
+	 * @param paths File paths
+	 * @param files Map where loaded files are stored (key: path)
+	 * @throws JargonException
+	 * @throws JargonQueryException
+	 */
+	private void loadFiles(GenQueryBatchExecutor executor, List<String> paths, HashMap<String, IBIOMESFile> files) throws JargonException, JargonQueryException
+	{
+		HashSet<String> pathSet = new HashSet<String>(paths);
+		List<String> parents = new ArrayList<String>();
+		List<String> names = new ArrayList<String>();
+		HashSet<String> parentSet = new HashSet<String>();
+		HashSet<String> nameSet = new HashSet<String>();
+		for (String path : paths){
+			int s = path.lastIndexOf('/');
+			String parent = (s > 0 ? path.substring(0, s) : "/");
+			String name = path.substring(s+1);
+			if (parentSet.add(parent))
+				parents.add(parent);
+			if (nameSet.add(name))
+				names.add(name);
+		}
+		
+		//system metadata (one row per replica: keep the first one)
+		IRODSGenQueryBuilder queryBuilder = new IRODSGenQueryBuilder(true, false, null);
+		queryBuilder.addSelectAsGenQueryValue(RodsGenQueryEnum.COL_COLL_NAME);
+		queryBuilder.addSelectAsGenQueryValue(RodsGenQueryEnum.COL_DATA_NAME);
+		queryBuilder.addSelectAsGenQueryValue(RodsGenQueryEnum.COL_DATA_SIZE);
+		queryBuilder.addSelectAsGenQueryValue(RodsGenQueryEnum.COL_D_RESC_NAME);
+		queryBuilder.addSelectAsGenQueryValue(RodsGenQueryEnum.COL_D_MODIFY_TIME);
+		queryBuilder.addConditionAsMultiValueCondition(RodsGenQueryEnum.COL_COLL_NAME, QueryConditionOperators.IN, parents);
+		queryBuilder.addConditionAsMultiValueCondition(RodsGenQueryEnum.COL_DATA_NAME, QueryConditionOperators.IN, names);
+		for (IRODSQueryResultRow row : executor.executeAll(queryBuilder)){
+			String path = getPath(row);
+			if (pathSet.contains(path) && !files.containsKey(path)){
+				files.put(path, new IBIOMESFile(path,
+						Long.parseLong(row.getColumn(RodsGenQueryEnum.COL_DATA_SIZE.getName())),
+						row.getColumn(RodsGenQueryEnum.COL_D_RESC_NAME.getName()),
+						Long.parseLong(row.getColumn(RodsGenQueryEnum.COL_D_MODIFY_TIME.getName())) * 1000,
+						null));
+			}
+		}
+		
+		//AVUs
+		queryBuilder = new IRODSGenQueryBuilder(true, false, null);
+		queryBuilder.addSelectAsGenQueryValue(RodsGenQueryEnum.COL_COLL_NAME);
+		queryBuilder.addSelectAsGenQueryValue(RodsGenQueryEnum.COL_DATA_NAME);
+		queryBuilder.addSelectAsGenQueryValue(RodsGenQueryEnum.COL_META_DATA_ATTR_NAME);
+		queryBuilder.addSelectAsGenQueryValue(RodsGenQueryEnum.COL_META_DATA_ATTR_VALUE);
+		queryBuilder.addSelectAsGenQueryValue(RodsGenQueryEnum.COL_META_DATA_ATTR_UNITS);
+		queryBuilder.addConditionAsMultiValueCondition(RodsGenQueryEnum.COL_COLL_NAME, QueryConditionOperators.IN, parents);
+		queryBuilder.addConditionAsMultiValueCondition(RodsGenQueryEnum.COL_DATA_NAME, QueryConditionOperators.IN, names);
+		for (IRODSQueryResultRow row : executor.executeAll(queryBuilder)){
+			IBIOMESFile file = files.get(getPath(row));
+			if (file != null){
+				file.getMetadata().add(new MetadataAVU(
+						row.getColumn(RodsGenQueryEnum.COL_META_DATA_ATTR_NAME.getName()), 
+						row.getColumn(RodsGenQueryEnum.COL_META_DATA_ATTR_VALUE.getName()), 
+						row.getColumn(RodsGenQueryEnum.COL_META_DATA_ATTR_UNITS.getName())));
+			}
+		}
+	}
+	
+	/**
+	 * Get absolute path of the data object described by a query result row
+	 * @param row Result row (with collection and data names)
+	 * @return Absolute path
+	 * @throws JargonException
+	 */
+	private static String getPath(IRODSQueryResultRow row) throws JargonException {
+		String parent = row.getColumn(RodsGenQueryEnum.COL_COLL_NAME.getName());
+		String name = row.getColumn(RodsGenQueryEnum.COL_DATA_NAME.getName());
+		return (parent.endsWith("/") ? parent + name : parent + "/" + name);
+	}
+	
 	/**
 	 * Retrieve list of files based on their path (exclude hidden files)
 	 * @param files List of file paths
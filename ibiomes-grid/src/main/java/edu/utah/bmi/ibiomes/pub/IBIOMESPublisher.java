@@ -21,12 +21,13 @@ package edu.utah.bmi.ibiomes.pub;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.log4j.Logger;
 import org.irods.jargon.core.connection.IRODSAccount;
-import org.irods.jargon.core.exception.DuplicateDataException;
 import org.irods.jargon.core.exception.OverwriteException;
 import org.irods.jargon.core.packinstr.TransferOptions;
 import org.irods.jargon.core.packinstr.TransferOptions.ForceOption;
@@ -35,19 +36,16 @@ import org.irods.jargon.core.pub.DataObjectAO;
 import org.irods.jargon.core.pub.DataTransferOperations;
 import org.irods.jargon.core.pub.IRODSAccessObjectFactory;
 import org.irods.jargon.core.pub.IRODSRegistrationOfFilesAO;
-import org.irods.jargon.core.pub.domain.AvuData;
 import org.irods.jargon.core.pub.io.IRODSFile;
-import org.irods.jargon.core.query.MetaDataAndDomainData;
 import org.irods.jargon.core.transfer.DefaultTransferControlBlock;
 import org.irods.jargon.core.transfer.TransferControlBlock;
 
 import edu.utah.bmi.ibiomes.metadata.BiosimMetadata;
 import edu.utah.bmi.ibiomes.metadata.GeneralMetadata;
-import edu.utah.bmi.ibiomes.metadata.MetadataAVU;
-import edu.utah.bmi.ibiomes.metadata.MetadataAVUList;
 import edu.utah.bmi.ibiomes.parse.IBIOMESListener;
 import edu.utah.bmi.ibiomes.parse.LocalDirectory;
 import edu.utah.bmi.ibiomes.parse.LocalFile;
+import edu.utah.bmi.ibiomes.pub.AVUSynchronizer.SyncMode;
 
 /**
  * Used to publish local data to iBIOMES (copy or in-place registration).
@@ -60,6 +58,9 @@ public class IBIOMESPublisher {
 	
 	private IRODSAccount irodsAccount = null;
 	private IRODSAccessObjectFactory irodsFactory = null;
+	private AVUSynchronizer avuSynchronizer = null;
+	private PublishTarget bundleTarget = null;
+	private FileBundlePublisher bundlePublisher = new FileBundlePublisher(0);
 
 	/**
 	 * Constructor
@@ -69,6 +70,26 @@ public class IBIOMESPublisher {
 	public IBIOMESPublisher(IRODSAccount account, IRODSAccessObjectFactory factory){
 		this.irodsAccount = account;
 		this.irodsFactory = factory;
+		this.avuSynchronizer = new AVUSynchronizer(factory, account);
+		this.bundleTarget = new IRODSPublishTarget(account, factory);
+	}
+	
+	/**
+	 * Get size threshold for bundling
+	 * @return Size threshold in bytes (0 if bundling is disabled)
+	 */
+	public long getBundleSizeThreshold() {
+		return bundlePublisher.getSizeThreshold();
+	}
+
+	/**
+	 * Set size threshold for bundling. In each directory, files smaller than the threshold are packed 
+	 * into a single tar bundle ({@link FileBundle}) registered as one iRODS file, which holds the member index 
+	 * and the metadata of its members. Applies to sequential and concurrent publication, copy and in-place registration.
+	 * @param bundleSizeThreshold Size threshold in bytes (0 to disable bundling)
+	 */
+	public void setBundleSizeThreshold(long bundleSizeThreshold) {
+		this.bundlePublisher = new FileBundlePublisher(bundleSizeThreshold);
 	}
 	
 	/**
@@ -142,12 +163,12 @@ public class IBIOMESPublisher {
 			irodsCollection.mkdir();
 			
 			//add metadata
-			this.addCollectionMetadataInIRODS(directory, cAO, ibiomesPath);
+			avuSynchronizer.addCollectionMetadata(ibiomesPath, directory.getMetadata());
 		}
 		irodsCollection.close();
 		
 		//register files into the new iRODS collection
-		this.publishFilesInDirectory(directory.getFilesByFormat(), ibiomesPath, overwrite, listener);
+		this.publishFilesInDirectory(directory, ibiomesPath, overwrite, listener);
 		
 		//register subdirectories and children files (recursive)
 		logger.info("Registering subdirectories into iRODS...");
@@ -163,6 +184,51 @@ public class IBIOMESPublisher {
 		}
 	}
 	
+	/**
+	 * Publish experiment directory to iBIOMES using concurrent workers, each with its own iRODS connection
+	 * @param directory Experiment
+	 * @param ibiomesPath Path to directory copy in iBIOMES
+	 * @param overwrite Overwrite flag
+	 * @param listener Listener for progress bar
+	 * @param numberOfThreads Number of workers
+	 * @return Publishing summary
+	 * @throws Exception 
+	 */
+	public PublishSummary publishExperimentConcurrently(
+			LocalDirectory directory, 
+			String ibiomesPath, 
+			boolean overwrite, 
+			IBIOMESListener listener,
+			int numberOfThreads) throws Exception{
+		return publishExperimentConcurrently(directory, ibiomesPath, overwrite, listener, numberOfThreads, null);
+	}
+	
+	/**
+	 * Publish experiment directory to iBIOMES using concurrent workers, recording progress in a local manifest
+	 * so that an interrupted publication can be resumed. Files already published with the same size and checksum are skipped.
+	 * @param directory Experiment
+	 * @param ibiomesPath Path to directory copy in iBIOMES
+	 * @param overwrite Overwrite flag
+	 * @param listener Listener for progress bar
+	 * @param numberOfThreads Number of workers
+	 * @param manifestPath Path to the local publishing manifest (null if the publication is not resumable)
+	 * @return Publishing summary
+	 * @throws Exception 
+	 */
+	public PublishSummary publishExperimentConcurrently(
+			LocalDirectory directory, 
+			String ibiomesPath, 
+			boolean overwrite, 
+			IBIOMESListener listener,
+			int numberOfThreads,
+			String manifestPath) throws Exception{
+		ConcurrentPublisher publisher = new ConcurrentPublisher(IRODSPublishTarget.getFactory(irodsAccount, irodsFactory), numberOfThreads);
+		publisher.setBundleSizeThreshold(bundlePublisher.getSizeThreshold());
+		if (manifestPath != null)
+			publisher.setManifest(PublishManifest.load(manifestPath));
+		return publisher.publishExperiment(directory, ibiomesPath, overwrite, listener);
+	}
+	
 	/**
 	 * Publish file to iBIOMES
 	 * @param locaFile Local file
@@ -193,17 +259,13 @@ public class IBIOMESPublisher {
 			if (overwrite)
 			{
 				logger.info("[iRODS] Overwrite file in iRODS: '"+ irodsFile.getAbsolutePath() + "'");
-				
-				//delete existing metadata
-				List<MetaDataAndDomainData> metadata = dataAO.findMetadataValuesForDataObject(irodsFile);
-				for (MetaDataAndDomainData m : metadata){
-					dataAO.deleteAVUMetadata(irodsFile.getAbsolutePath(), AvuData.instance(m.getAvuAttribute(), m.getAvuValue(), m.getAvuUnit()));
-				}
 				transferOptions.setForceOption(ForceOption.USE_FORCE);
 			}
 			else {
+				//skip the transfer instead of relying on the server to refuse it
 				logger.info("[iRODS] File already exists in iRODS: '"+ irodsFile.getAbsolutePath() + "'");
-				transferOptions.setForceOption(ForceOption.NO_FORCE);
+				irodsFile.close();
+				return true;
 			}
 		}
 		transferCtrl.setTransferOptions(transferOptions);
@@ -214,20 +276,18 @@ public class IBIOMESPublisher {
 		}
 		catch(OverwriteException oe){
 			newFile = false;
-			if (overwrite)
-				logger.error("Could not overwrite file '"+ irodsFile.getAbsolutePath() + "'");
-			else {
-				//TODO just skip?
-			}
+			logger.error("Could not overwrite file '"+ irodsFile.getAbsolutePath() + "'");
 		}
 
 		//if created
 		if (irodsFile.exists())
 		{
 			fileExists = true;
-			if (newFile || overwrite)
-				//add metadata
-				this.addFileMetadataInIRODS(locaFile, dataAO, irodsFile.getAbsolutePath());
+			//add metadata (only the differences with the current AVUs when overwriting)
+			if (newFile)
+				avuSynchronizer.addFileMetadata(irodsFile.getAbsolutePath(), locaFile.getMetadata());
+			else if (overwrite)
+				avuSynchronizer.syncFileMetadata(irodsFile.getAbsolutePath(), locaFile.getMetadata(), SyncMode.REPLACE);
 		}
 		
 		irodsFile.close();
@@ -289,17 +349,21 @@ public class IBIOMESPublisher {
 		{
 			logger.info("[iRODS] Creating collection '"+ibiomesPath+"'");
 			
+			if (bundlePublisher.isEnabled()){
+				//files are registered one by one so that small files are only registered through their bundle
+				irodsCollection.mkdirs();
+			}
 			//register new IRODS collection recursively
-			ireg.registerPhysicalCollectionRecursivelyToIRODS(directory.getAbsolutePath(), ibiomesPath, force, irodsAccount.getDefaultStorageResource(), "");
+			else ireg.registerPhysicalCollectionRecursivelyToIRODS(directory.getAbsolutePath(), ibiomesPath, force, irodsAccount.getDefaultStorageResource(), "");
 		}
 		
 		//add metadata
-		this.addCollectionMetadataInIRODS(directory, cAO, ibiomesPath);
+		avuSynchronizer.syncCollectionMetadata(ibiomesPath, directory.getMetadata(), SyncMode.MERGE);
 		//close connection to ifile
 		irodsCollection.close();
 		
 		//register files into the new iRODS collection
-		this.registerFilesInDirectory(directory.getFilesByFormat(), ibiomesPath, listener);
+		this.registerFilesInDirectory(directory, ibiomesPath, listener);
 		
 		//register subdirectories and children files (recursive)
 		logger.info("Registering subdirectories into iRODS...");
@@ -315,6 +379,26 @@ public class IBIOMESPublisher {
 		}
 	}
 	
+	/**
+	 * Register experiment directory into iBIOMES (in-place registration) using concurrent workers, 
+	 * each with its own iRODS connection
+	 * @param directory Experiment
+	 * @param ibiomesPath Path to directory in iBIOMES
+	 * @param listener Listener for progress bar
+	 * @param numberOfThreads Number of workers
+	 * @return Publishing summary
+	 * @throws Exception 
+	 */
+	public PublishSummary registerExperimentConcurrently(
+			LocalDirectory directory,
+			String ibiomesPath, 
+			IBIOMESListener listener,
+			int numberOfThreads) throws Exception {
+		ConcurrentPublisher publisher = new ConcurrentPublisher(IRODSPublishTarget.getFactory(irodsAccount, irodsFactory), numberOfThreads);
+		publisher.setBundleSizeThreshold(bundlePublisher.getSizeThreshold());
+		return publisher.registerExperiment(directory, ibiomesPath, listener);
+	}
+	
 	/**
 	 * Register file into iBIOMES (in-place registration)
 	 * @param locaFile Local file
@@ -342,81 +426,31 @@ public class IBIOMESPublisher {
 		}
 		
 		//add metadata
-		this.addFileMetadataInIRODS(locaFile, dataAO, ibiomesPath);
+		if (exists)
+			avuSynchronizer.syncFileMetadata(ibiomesPath, locaFile.getMetadata(), SyncMode.MERGE);
+		else avuSynchronizer.addFileMetadata(ibiomesPath, locaFile.getMetadata());
 		
 		irodsFile.close();
 	}
 	
-	/**
-	 * Add metadata to file in iRODS
-	 * @param dataAO Data access object
-	 * @param irodsFilePath Path to iRODS file
-	 * @throws Exception
-	 */
-	private void addFileMetadataInIRODS(LocalFile localFile, DataObjectAO dataAO, String irodsFilePath) throws Exception
-	{
-		//add metadata
-		MetadataAVUList metadata = localFile.getMetadata();
-		
-		for (MetadataAVU pair : metadata)
-		{
-			String key = pair.getAttribute();
-			String value = pair.getValue();
-			if (value != null && value.length()>0)
-			{
-				if (value.length() > IBIOMESFileAO.MAX_AVU_VALUE_LENGTH)
-					value = value.substring(0, IBIOMESFileAO.MAX_AVU_VALUE_LENGTH-4) + "...";
-					logger.info("[iRODS] \tAdding metadata ["+ pair.toString() + "]");
-				try{
-					dataAO.addAVUMetadata(irodsFilePath, AvuData.instance(key, value, ""));
-				}
-				catch(DuplicateDataException de){
-					logger.warn("Skipping duplicate AVU '"+key+"="+value+"'");
-				}
-			}
-		}
-	}
-	
-	/**
-	 * Add metadata to collection in iRODS
-	 * @param cAO Collection access object
-	 * @param irodsCollectionPath Path to iRODS collection
-	 * @throws Exception
-	 */
-	private void addCollectionMetadataInIRODS(LocalDirectory dir, CollectionAO cAO, String ibiomesPath) throws Exception
-	{
-		MetadataAVUList collectionMetadata = dir.getMetadata();
-		if (collectionMetadata != null){
-			for (MetadataAVU pair : collectionMetadata)
-			{
-				String key = pair.getAttribute();
-				String value = pair.getValue();
-				if (value != null && value.length() > 0){
-					if (value.length() > IBIOMESCollectionAO.MAX_AVU_VALUE_LENGTH)
-						value = value.substring(0, IBIOMESCollectionAO.MAX_AVU_VALUE_LENGTH-4) + "...";
-					logger.info("[iRODS] \tAdding metadata ["+ key +" = "+ value + "]");
-					try{
-						cAO.addAVUMetadata(ibiomesPath, AvuData.instance(key, value, ""));
-					} catch(DuplicateDataException de){
-						logger.warn("Skipping duplicate AVU '"+key+"="+value+"'");
-					}
-				}
-			}
-		}
-	}
-	
 	/**
 	 * Upload multiple files to iRODS into the new collection
+	 * @param directory Local directory
 	 * @param virtualCollectionPath Virtual path to the collection
 	 * @param overwrite Overwrite flag
 	 * @throws Exception 
 	 */
 	private void publishFilesInDirectory(
-			HashMap<String,ArrayList<LocalFile>> files, 
+			LocalDirectory directory, 
 			String ibiomesPath, 
 			boolean overwrite, 
 			IBIOMESListener listener) throws Exception
 	{
+		HashMap<String,ArrayList<LocalFile>> files = directory.getFilesByFormat();
+		
+		//pack small files into a bundle
+		Set<String> bundleMembers = this.publishBundle(files, ibiomesPath, overwrite, false, listener);
+		
 		if (files != null)
 		{
 			Iterator<String> formatIt = files.keySet().iterator();
@@ -426,6 +460,14 @@ public class IBIOMESPublisher {
 				logger.info("Registering '"+format +"' files into iRODS...");
 				ArrayList<LocalFile> fileList = files.get(format);
 				for (LocalFile file : fileList){
+					if (bundleMembers.contains(file.getName()))
+						continue;
+					//bundle written by a previous in-place registration (rebuilt with the directory bundle)
+					if (bundlePublisher.isBundleFile(file)){
+						if (listener!=null)
+							listener.update();
+						continue;
+					}
 					//get relative file path from top directory
 					String virtualFilePath = ibiomesPath + "/" + file.getName();
 					//register into iRODS
@@ -440,17 +482,22 @@ public class IBIOMESPublisher {
 	
 	/**
 	 * Register multiple files to iBIOMES into the new collection (keep physical files in place)
+	 * @param directory Local directory
 	 * @param ibiomesPath Virtual path to the collection
-	 * @param files
 	 * @param listener Listener for progress bar
 	 * @throws Exception 
 	 */
 	private void registerFilesInDirectory(
-			HashMap<String,ArrayList<LocalFile>> files, 
+			LocalDirectory directory, 
 			String ibiomesPath, 
 			IBIOMESListener listener) throws Exception
 	{
 		logger.info("Registering files into iRODS...");
+		HashMap<String,ArrayList<LocalFile>> files = directory.getFilesByFormat();
+		
+		//pack small files into a bundle (written in the directory and registered in place)
+		Set<String> bundleMembers = this.publishBundle(files, ibiomesPath, false, true, listener);
+		
 		if (files != null)
 		{
 			Iterator<String> formatIt = files.keySet().iterator();
@@ -459,6 +506,14 @@ public class IBIOMESPublisher {
 				String format = formatIt.next();
 				ArrayList<LocalFile> fileList = files.get(format);
 				for (LocalFile file : fileList){
+					if (bundleMembers.contains(file.getName()))
+						continue;
+					//bundle written by a previous in-place registration (rebuilt with the directory bundle)
+					if (bundlePublisher.isBundleFile(file)){
+						if (listener!=null)
+							listener.update();
+						continue;
+					}
 					//get relative file path from top directory
 					String virtualFilePath = ibiomesPath + "/" + file.getName();
 					//register into iRODS
@@ -470,5 +525,36 @@ public class IBIOMESPublisher {
 			}
 		}
 	}
+	
+	/**
+	 * Pack the small files of a directory into a bundle and publish it
+	 * @param files Files of the directory by format
+	 * @param ibiomesPath Path to the collection in iBIOMES
+	 * @param overwrite Overwrite flag
+	 * @param register Register the bundle in place instead of copying it
+	 * @param listener Listener for progress bar (updated once per member)
+	 * @return Names of the files published through the bundle (empty if the files must be published individually)
+	 * @throws Exception 
+	 */
+	private Set<String> publishBundle(
+			HashMap<String,ArrayList<LocalFile>> files, 
+			String ibiomesPath, 
+			boolean overwrite, 
+			boolean register, 
+			IBIOMESListener listener) throws Exception
+	{
+		Set<String> bundleMembers = new HashSet<String>();
+		List<LocalFile> smallFiles = bundlePublisher.getBundleMembers(files);
+		if (!smallFiles.isEmpty() 
+				&& bundlePublisher.publishBundle(bundleTarget, smallFiles, ibiomesPath + "/" + FileBundle.BUNDLE_FILE_NAME, overwrite, register) != FileBundlePublisher.Result.NOT_CREATED)
+		{
+			for (LocalFile file : smallFiles){
+				bundleMembers.add(file.getName());
+				if (listener!=null)
+					listener.update();
+			}
+		}
+		return bundleMembers;
+	}
 
 }
@@ -0,0 +1,242 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.pub;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.irods.jargon.core.connection.IRODSAccount;
+import org.irods.jargon.core.exception.OverwriteException;
+import org.irods.jargon.core.packinstr.TransferOptions;
+import org.irods.jargon.core.packinstr.TransferOptions.ForceOption;
+import org.irods.jargon.core.pub.CollectionAO;
+import org.irods.jargon.core.pub.DataObjectAO;
+import org.irods.jargon.core.pub.DataTransferOperations;
+import org.irods.jargon.core.pub.IRODSAccessObjectFactory;
+import org.irods.jargon.core.pub.domain.DataObject;
+import org.irods.jargon.core.pub.io.IRODSFile;
+import org.irods.jargon.core.query.MetaDataAndDomainData;
+import org.irods.jargon.core.transfer.DefaultTransferControlBlock;
+import org.irods.jargon.core.transfer.TransferControlBlock;
+
+import edu.utah.bmi.ibiomes.metadata.MetadataAVU;
+import edu.utah.bmi.ibiomes.metadata.MetadataAVUList;
+import edu.utah.bmi.ibiomes.parse.LocalFile;
+import edu.utah.bmi.ibiomes.pub.AVUSynchronizer.SyncMode;
+
+/**
+ * Publish target backed by iRODS. Jargon keeps one connection per thread and per account,
+ * so a target opened in a worker thread uses its own connection, which is closed with the target.
+ * @author Julien Thibault, University of Utah
+ *
+ */
+public class IRODSPublishTarget implements PublishTarget {
+
+	private static final Logger logger = Logger.getLogger(IRODSPublishTarget.class);
+
+	private IRODSAccount irodsAccount = null;
+	private IRODSAccessObjectFactory irodsFactory = null;
+	private AVUSynchronizer avuSynchronizer = null;
+
+	/**
+	 * Constructor
+	 * @param account IRODS user account
+	 * @param factory IRODS access object factory
+	 */
+	public IRODSPublishTarget(IRODSAccount account, IRODSAccessObjectFactory factory){
+		this.irodsAccount = account;
+		this.irodsFactory = factory;
+		this.avuSynchronizer = new AVUSynchronizer(factory, account);
+	}
+
+	/**
+	 * Get factory opening a new iRODS target for each publishing thread
+	 * @param account IRODS user account
+	 * @param factory IRODS access object factory
+	 * @return Publish target factory
+	 */
+	public static PublishTargetFactory getFactory(final IRODSAccount account, final IRODSAccessObjectFactory factory){
+		return new PublishTargetFactory() {
+			public PublishTarget openTarget() throws Exception {
+				return new IRODSPublishTarget(account, factory);
+			}
+		};
+	}
+
+	@Override
+	public boolean collectionExists(String path) throws Exception {
+		CollectionAO cAO = irodsFactory.getCollectionAO(irodsAccount);
+		IRODSFile irodsCollection = cAO.instanceIRODSFileForCollectionPath(path);
+		boolean exists = irodsCollection.exists();
+		irodsCollection.close();
+		return exists;
+	}
+
+	@Override
+	public void createCollection(String path) throws Exception {
+		CollectionAO cAO = irodsFactory.getCollectionAO(irodsAccount);
+		IRODSFile irodsCollection = cAO.instanceIRODSFileForCollectionPath(path);
+		logger.info("[iRODS] Creating directory '"+path+"'");
+		irodsCollection.mkdir();
+		irodsCollection.close();
+	}
+
+	@Override
+	public void registerCollection(String localPath, String path) throws Exception {
+		logger.info("[iRODS] Creating collection '"+path+"'");
+		irodsFactory.getIRODSRegistrationOfFilesAO(irodsAccount)
+			.registerPhysicalCollectionRecursivelyToIRODS(localPath, path, true, irodsAccount.getDefaultStorageResource(), "");
+	}
+
+	@Override
+	public void addCollectionMetadata(String path, MetadataAVUList metadata) throws Exception {
+		avuSynchronizer.syncCollectionMetadata(path, metadata, SyncMode.MERGE);
+	}
+
+	@Override
+	public List<String> listFileNames(String path) throws Exception {
+		CollectionAO cAO = irodsFactory.getCollectionAO(irodsAccount);
+		IRODSFile irodsCollection = cAO.instanceIRODSFileForCollectionPath(path);
+		List<String> names = new ArrayList<String>();
+		String[] entries = irodsCollection.list();
+		if (entries != null){
+			for (String entry : entries)
+				names.add(entry);
+		}
+		irodsCollection.close();
+		return names;
+	}
+
+	@Override
+	public boolean fileExists(String path) throws Exception {
+		DataObjectAO dataAO = irodsFactory.getDataObjectAO(irodsAccount);
+		IRODSFile irodsFile = dataAO.instanceIRODSFileForPath(path);
+		boolean exists = irodsFile.exists();
+		irodsFile.close();
+		return exists;
+	}
+
+	@Override
+	public FileInfo getFileInfo(String path) throws Exception {
+		if (!this.fileExists(path))
+			return null;
+		DataObject dataObject = irodsFactory.getDataObjectAO(irodsAccount).findByAbsolutePath(path);
+		return new FileInfo(dataObject.getDataSize(), normalizeChecksum(dataObject.getChecksum()));
+	}
+
+	@Override
+	public String computeChecksum(String path) throws Exception {
+		DataObjectAO dataAO = irodsFactory.getDataObjectAO(irodsAccount);
+		IRODSFile irodsFile = dataAO.instanceIRODSFileForPath(path);
+		try {
+			return normalizeChecksum(dataAO.computeMD5ChecksumOnDataObject(irodsFile));
+		}
+		finally {
+			irodsFile.close();
+		}
+	}
+
+	@Override
+	public boolean putFile(LocalFile localFile, String path, boolean overwrite) throws Exception {
+		DataObjectAO dataAO = irodsFactory.getDataObjectAO(irodsAccount);
+		DataTransferOperations dataTransfer = irodsFactory.getDataTransferOperations(irodsAccount);
+		TransferOptions transferOptions = new TransferOptions();
+		TransferControlBlock transferCtrl = DefaultTransferControlBlock.instance();
+		if (overwrite)
+			transferOptions.setForceOption(ForceOption.USE_FORCE);
+		else transferOptions.setForceOption(ForceOption.NO_FORCE);
+		transferCtrl.setTransferOptions(transferOptions);
+
+		IRODSFile irodsFile = dataAO.instanceIRODSFileForPath(path);
+		logger.info("[iRODS] Copy file to iRODS: '"+ irodsFile.getAbsolutePath() + "'");
+		try{
+			dataTransfer.putOperation((File)localFile, irodsFile, null, transferCtrl);
+			return true;
+		}
+		catch(OverwriteException oe){
+			logger.info("[iRODS] File already exists in iRODS: '"+ irodsFile.getAbsolutePath() + "'");
+			return false;
+		}
+		finally {
+			irodsFile.close();
+		}
+	}
+
+	@Override
+	public void registerFile(LocalFile localFile, String path) throws Exception {
+		logger.info("[iRODS] Registering file: "+ path);
+		irodsFactory.getIRODSRegistrationOfFilesAO(irodsAccount)
+			.registerPhysicalDataFileToIRODS(localFile.getAbsolutePath(), path, null, "", true);
+	}
+
+	@Override
+	public void deleteFile(String path) throws Exception {
+		DataObjectAO dataAO = irodsFactory.getDataObjectAO(irodsAccount);
+		IRODSFile irodsFile = dataAO.instanceIRODSFileForPath(path);
+		logger.info("[iRODS] Removing file: "+ path);
+		try {
+			if (!irodsFile.delete())
+				throw new IOException("Cannot remove file '" + path + "'");
+		}
+		finally {
+			irodsFile.close();
+		}
+	}
+
+	@Override
+	public MetadataAVUList getFileMetadata(String path) throws Exception {
+		MetadataAVUList metadata = new MetadataAVUList();
+		for (MetaDataAndDomainData avu : irodsFactory.getDataObjectAO(irodsAccount).findMetadataValuesForDataObject(path)){
+			metadata.add(new MetadataAVU(avu.getAvuAttribute(), avu.getAvuValue(), avu.getAvuUnit()));
+		}
+		return metadata;
+	}
+
+	@Override
+	public void setFileMetadata(String path, MetadataAVUList metadata) throws Exception {
+		avuSynchronizer.syncFileMetadata(path, metadata, SyncMode.REPLACE);
+	}
+
+	@Override
+	public void addFileMetadata(String path, MetadataAVUList metadata) throws Exception {
+		avuSynchronizer.addFileMetadata(path, metadata);
+	}
+
+	@Override
+	public void close() throws IOException {
+		irodsFactory.closeSessionAndEatExceptions(irodsAccount);
+	}
+
+	/**
+	 * Normalize checksum returned by iRODS (lower case, no algorithm prefix)
+	 * @param checksum Checksum
+	 * @return Normalized checksum or null if empty
+	 */
+	private static String normalizeChecksum(String checksum){
+		if (checksum == null || checksum.trim().length()==0)
+			return null;
+		checksum = checksum.trim().toLowerCase();
+		if (checksum.startsWith("md5:"))
+			checksum = checksum.substring(4);
+		return checksum;
+	}
+}
@@ -0,0 +1,286 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.pub;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlTransient;
+
+import org.apache.log4j.Logger;
+
+import edu.utah.bmi.ibiomes.parse.DirectoryParsingManifest;
+
+/**
+ * Manifest recording the files published to iBIOMES (path, size, modification time, checksum)
+ * so that an interrupted publication can be resumed without transferring identical files again.
+ * The manifest is saved periodically while publishing, from a copy of the entries
+ * so that the file is written without blocking the publishing threads.
+ * @author Julien Thibault, University of Utah
+ *
+ */
+@XmlRootElement(name="publication")
+public class PublishManifest {
+
+	public final static int DEFAULT_CHECKPOINT_INTERVAL = 100;
+
+	private final static Logger logger = Logger.getLogger(PublishManifest.class);
+
+	private LinkedHashMap<String, PublishManifestEntry> entries;
+	@XmlElement(name="file")
+	private List<PublishManifestEntry> xmlEntries;
+	private String manifestPath = null;
+	private int checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+	private int updatesSinceCheckpoint = 0;
+	private long snapshotCount = 0;
+	private long storedSnapshot = 0;
+	private final Object storeLock = new Object();
+
+	public PublishManifest(){
+		this.entries = new LinkedHashMap<String, PublishManifestEntry>();
+	}
+
+	/**
+	 * Load manifest from file. Returns an empty manifest if the file does not exist or cannot be read.
+	 * @param manifestPath Path to manifest file (also used to save the manifest)
+	 * @return Manifest
+	 */
+	public static PublishManifest load(String manifestPath)
+	{
+		PublishManifest manifest = null;
+		File manifestFile = new File(manifestPath);
+		if (manifestFile.exists()){
+			try {
+				JAXBContext context = JAXBContext.newInstance(PublishManifest.class);
+				manifest = (PublishManifest)context.createUnmarshaller().unmarshal(manifestFile);
+				logger.info("Loaded publishing manifest " + manifestPath + " (" + manifest.entries.size() + " files)");
+			}
+			catch (JAXBException e){
+				logger.warn("Cannot read publishing manifest " + manifestPath + ": " + e.getMessage());
+			}
+		}
+		if (manifest == null)
+			manifest = new PublishManifest();
+		manifest.manifestPath = manifestPath;
+		return manifest;
+	}
+
+	/**
+	 * Save manifest. The entries are copied while holding the manifest lock and the copy
+	 * is written outside of it, first to a temporary file so that an interruption never 
+	 * leaves a truncated manifest. A copy older than the last saved one is not written.
+	 * @throws JAXBException
+	 * @throws IOException
+	 */
+	public void store() throws JAXBException, IOException
+	{
+		if (manifestPath == null)
+			return;
+		PublishManifest snapshot = new PublishManifest();
+		long snapshotId;
+		synchronized (this) {
+			for (PublishManifestEntry entry : entries.values()){
+				snapshot.entries.put(entry.getPath(), new PublishManifestEntry(entry));
+			}
+			snapshotId = ++snapshotCount;
+			updatesSinceCheckpoint = 0;
+		}
+		synchronized (storeLock) {
+			if (snapshotId < storedSnapshot)
+				return;
+			File manifestFile = new File(manifestPath);
+			File tmpFile = new File(manifestPath + ".tmp");
+			JAXBContext context = JAXBContext.newInstance(PublishManifest.class);
+			Marshaller marshaller = context.createMarshaller();
+			marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
+			marshaller.marshal(snapshot, tmpFile);
+			if (manifestFile.exists() && !manifestFile.delete())
+				throw new IOException("Cannot replace publishing manifest " + manifestPath);
+			if (!tmpFile.renameTo(manifestFile))
+				throw new IOException("Cannot save publishing manifest " + manifestPath);
+			storedSnapshot = snapshotId;
+		}
+	}
+
+	/**
+	 * Get manifest entries
+	 * @return Manifest entries
+	 */
+	@XmlTransient
+	public synchronized List<PublishManifestEntry> getEntries() {
+		return new ArrayList<PublishManifestEntry>(entries.values());
+	}
+
+	/**
+	 * Set manifest entries
+	 * @param entries Manifest entries
+	 */
+	public synchronized void setEntries(List<PublishManifestEntry> entries) {
+		this.entries = new LinkedHashMap<String, PublishManifestEntry>();
+		if (entries != null){
+			for (PublishManifestEntry entry : entries){
+				this.entries.put(entry.getPath(), entry);
+			}
+		}
+	}
+
+	/**
+	 * Get number of updates between two saves
+	 * @return Number of updates
+	 */
+	@XmlTransient
+	public int getCheckpointInterval() {
+		return checkpointInterval;
+	}
+
+	/**
+	 * Set number of updates between two saves
+	 * @param checkpointInterval Number of updates
+	 */
+	public void setCheckpointInterval(int checkpointInterval) {
+		if (checkpointInterval < 1)
+			this.checkpointInterval = 1;
+		else this.checkpointInterval = checkpointInterval;
+	}
+
+	/**
+	 * Get entry for a file in its current local state. The entry is reset if the local
+	 * file changed (size or modification time) since it was recorded.
+	 * @param path Path of the file in iBIOMES
+	 * @param localFile Local file
+	 * @return Manifest entry
+	 */
+	public synchronized PublishManifestEntry getEntry(String path, File localFile)
+	{
+		PublishManifestEntry entry = entries.get(path);
+		if (entry != null
+				&& entry.getSize() == localFile.length()
+				&& entry.getLastModified() == localFile.lastModified()
+				&& localFile.getAbsolutePath().equals(entry.getLocalPath()))
+			return entry;
+
+		PublishManifestEntry newEntry = new PublishManifestEntry(path, localFile.getAbsolutePath(), localFile.length(), localFile.lastModified());
+		if (entry != null){
+			//keep track of the transfer to overwrite the partial remote copy
+			newEntry.setStarted(entry.isStarted());
+		}
+		entries.put(path, newEntry);
+		return newEntry;
+	}
+
+	/**
+	 * Get checksum of the local file, computing it if it was not recorded yet
+	 * @param entry Manifest entry
+	 * @return Content checksum (MD5)
+	 * @throws IOException
+	 */
+	public String getChecksum(PublishManifestEntry entry) throws IOException
+	{
+		synchronized (this) {
+			if (entry.getChecksum() != null)
+				return entry.getChecksum();
+		}
+		String checksum = DirectoryParsingManifest.computeChecksum(new File(entry.getLocalPath()));
+		synchronized (this) {
+			entry.setChecksum(checksum);
+		}
+		return checksum;
+	}
+
+	/**
+	 * Record the start of a transfer
+	 * @param entry Manifest entry
+	 */
+	public void markStarted(PublishManifestEntry entry)
+	{
+		synchronized (this) {
+			entry.setStarted(true);
+			entry.setComplete(false);
+		}
+		checkpoint();
+	}
+
+	/**
+	 * Record a completed publication (file and metadata)
+	 * @param entry Manifest entry
+	 */
+	public void markComplete(PublishManifestEntry entry)
+	{
+		synchronized (this) {
+			entry.setComplete(true);
+		}
+		checkpoint();
+	}
+
+	/**
+	 * Save manifest if enough updates were made since the last save
+	 */
+	private void checkpoint()
+	{
+		synchronized (this) {
+			updatesSinceCheckpoint++;
+			if (updatesSinceCheckpoint < checkpointInterval)
+				return;
+		}
+		try {
+			store();
+		}
+		catch (Exception e){
+			logger.warn("Cannot save publishing manifest " + manifestPath + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Copy entries to the list bound to XML before writing the manifest
+	 * @param marshaller Marshaller
+	 */
+	@SuppressWarnings("unused")
+	private void beforeMarshal(Marshaller marshaller){
+		this.xmlEntries = new ArrayList<PublishManifestEntry>(entries.values());
+	}
+
+	/**
+	 * Release the list bound to XML after writing the manifest
+	 * @param marshaller Marshaller
+	 */
+	@SuppressWarnings("unused")
+	private void afterMarshal(Marshaller marshaller){
+		this.xmlEntries = null;
+	}
+
+	/**
+	 * Index entries read from XML by path
+	 * @param unmarshaller Unmarshaller
+	 * @param parent Parent object
+	 */
+	@SuppressWarnings("unused")
+	private void afterUnmarshal(Unmarshaller unmarshaller, Object parent){
+		setEntries(xmlEntries);
+		this.xmlEntries = null;
+	}
+}
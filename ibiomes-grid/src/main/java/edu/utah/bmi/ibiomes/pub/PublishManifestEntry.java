@@ -0,0 +1,189 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.pub;
+
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Entry of a publishing manifest: fingerprint of a local file and state of its publication.
+ * @author Julien Thibault, University of Utah
+ *
+ */
+@XmlRootElement(name="file")
+public class PublishManifestEntry {
+
+	private String path;
+	private String localPath;
+	private long size;
+	private long lastModified;
+	private String checksum;
+	private boolean started = false;
+	private boolean complete = false;
+
+	public PublishManifestEntry(){
+	}
+
+	/**
+	 * New manifest entry
+	 * @param path Path of the file in iBIOMES
+	 * @param localPath Path to the local file
+	 * @param size File size in bytes
+	 * @param lastModified Last modification time (ms)
+	 */
+	public PublishManifestEntry(String path, String localPath, long size, long lastModified){
+		this.path = path;
+		this.localPath = localPath;
+		this.size = size;
+		this.lastModified = lastModified;
+	}
+
+	/**
+	 * Copy constructor
+	 * @param entry Manifest entry to copy
+	 */
+	public PublishManifestEntry(PublishManifestEntry entry){
+		this.path = entry.path;
+		this.localPath = entry.localPath;
+		this.size = entry.size;
+		this.lastModified = entry.lastModified;
+		this.checksum = entry.checksum;
+		this.started = entry.started;
+		this.complete = entry.complete;
+	}
+
+	/**
+	 * Get path of the file in iBIOMES
+	 * @return iBIOMES path
+	 */
+	@XmlAttribute(name="path")
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * Set path of the file in iBIOMES
+	 * @param path iBIOMES path
+	 */
+	public void setPath(String path) {
+		this.path = path;
+	}
+
+	/**
+	 * Get path to the local file
+	 * @return Local path
+	 */
+	@XmlAttribute(name="local")
+	public String getLocalPath() {
+		return localPath;
+	}
+
+	/**
+	 * Set path to the local file
+	 * @param localPath Local path
+	 */
+	public void setLocalPath(String localPath) {
+		this.localPath = localPath;
+	}
+
+	/**
+	 * Get size of the local file
+	 * @return File size in bytes
+	 */
+	@XmlAttribute(name="size")
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * Set size of the local file
+	 * @param size File size in bytes
+	 */
+	public void setSize(long size) {
+		this.size = size;
+	}
+
+	/**
+	 * Get last modification time of the local file
+	 * @return Last modification time (ms)
+	 */
+	@XmlAttribute(name="mtime")
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * Set last modification time of the local file
+	 * @param lastModified Last modification time (ms)
+	 */
+	public void setLastModified(long lastModified) {
+		this.lastModified = lastModified;
+	}
+
+	/**
+	 * Get content checksum (MD5) of the local file
+	 * @return Content checksum or null if not computed yet
+	 */
+	@XmlAttribute(name="checksum")
+	public String getChecksum() {
+		return checksum;
+	}
+
+	/**
+	 * Set content checksum (MD5) of the local file
+	 * @param checksum Content checksum
+	 */
+	public void setChecksum(String checksum) {
+		this.checksum = checksum;
+	}
+
+	/**
+	 * Check if the transfer of the file was started
+	 * @return True if the transfer was started
+	 */
+	@XmlAttribute(name="started")
+	public boolean isStarted() {
+		return started;
+	}
+
+	/**
+	 * Set whether the transfer of the file was started
+	 * @param started True if the transfer was started
+	 */
+	public void setStarted(boolean started) {
+		this.started = started;
+	}
+
+	/**
+	 * Check if the file and its metadata were published
+	 * @return True if the publication is complete
+	 */
+	@XmlAttribute(name="complete")
+	public boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * Set whether the file and its metadata were published
+	 * @param complete True if the publication is complete
+	 */
+	public void setComplete(boolean complete) {
+		this.complete = complete;
+	}
+}
@@ -0,0 +1,176 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.pub;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Summary of a publishing run (see ConcurrentPublisher). Updated concurrently by the publishing workers.
+ * @author Julien Thibault, University of Utah
+ *
+ */
+public class PublishSummary {
+
+	private int createdCollectionCount = 0;
+	private int publishedFileCount = 0;
+	private int skippedFileCount = 0;
+	private int retryCount = 0;
+	private Map<String,String> failedCollections = new LinkedHashMap<String, String>();
+	private Map<String,String> failedFiles = new LinkedHashMap<String, String>();
+	private List<String> missingFiles = new ArrayList<String>();
+
+	/**
+	 * Record new collection
+	 */
+	public synchronized void addCreatedCollection(){
+		this.createdCollectionCount++;
+	}
+
+	/**
+	 * Record collection that could not be created
+	 * @param path Collection path
+	 * @param error Error message
+	 */
+	public synchronized void addFailedCollection(String path, String error){
+		this.failedCollections.put(path, error);
+	}
+
+	/**
+	 * Record published (copied or registered) file
+	 */
+	public synchronized void addPublishedFile(){
+		this.publishedFileCount++;
+	}
+
+	/**
+	 * Record file that was skipped because it already existed
+	 */
+	public synchronized void addSkippedFile(){
+		this.skippedFileCount++;
+	}
+
+	/**
+	 * Record file that could not be published
+	 * @param path File path
+	 * @param error Error message
+	 */
+	public synchronized void addFailedFile(String path, String error){
+		this.failedFiles.put(path, error);
+	}
+
+	/**
+	 * Record new attempt after a failure
+	 */
+	public synchronized void addRetry(){
+		this.retryCount++;
+	}
+
+	/**
+	 * Record file reported as published but not found in the repository
+	 * @param path File path
+	 */
+	public synchronized void addMissingFile(String path){
+		this.missingFiles.add(path);
+	}
+
+	/**
+	 * Get number of new collections
+	 * @return Number of new collections
+	 */
+	public synchronized int getCreatedCollectionCount() {
+		return createdCollectionCount;
+	}
+
+	/**
+	 * Get number of published files
+	 * @return Number of published files
+	 */
+	public synchronized int getPublishedFileCount() {
+		return publishedFileCount;
+	}
+
+	/**
+	 * Get number of files skipped because they already existed
+	 * @return Number of skipped files
+	 */
+	public synchronized int getSkippedFileCount() {
+		return skippedFileCount;
+	}
+
+	/**
+	 * Get number of retries after failed attempts
+	 * @return Number of retries
+	 */
+	public synchronized int getRetryCount() {
+		return retryCount;
+	}
+
+	/**
+	 * Get collections that could not be created
+	 * @return Error messages, by collection path
+	 */
+	public synchronized Map<String, String> getFailedCollections() {
+		return new LinkedHashMap<String, String>(failedCollections);
+	}
+
+	/**
+	 * Get files that could not be published
+	 * @return Error messages, by file path
+	 */
+	public synchronized Map<String, String> getFailedFiles() {
+		return new LinkedHashMap<String, String>(failedFiles);
+	}
+
+	/**
+	 * Get files reported as published but not found in the repository
+	 * @return File paths
+	 */
+	public synchronized List<String> getMissingFiles() {
+		return new ArrayList<String>(missingFiles);
+	}
+
+	/**
+	 * Check if all the collections and files were published
+	 * @return True if nothing failed or is missing
+	 */
+	public synchronized boolean isConsistent(){
+		return (failedCollections.isEmpty() && failedFiles.isEmpty() && missingFiles.isEmpty());
+	}
+
+	@Override
+	public synchronized String toString(){
+		String str = "Collections created: " + createdCollectionCount + "\n"
+				+ "Files published: " + publishedFileCount + "\n"
+				+ "Files skipped: " + skippedFileCount + "\n"
+				+ "Retries: " + retryCount + "\n"
+				+ "Failed collections: " + failedCollections.size() + "\n"
+				+ "Failed files: " + failedFiles.size() + "\n"
+				+ "Missing files: " + missingFiles.size() + "\n";
+		for (String path : failedCollections.keySet())
+			str += "\t[FAILED] " + path + ": " + failedCollections.get(path) + "\n";
+		for (String path : failedFiles.keySet())
+			str += "\t[FAILED] " + path + ": " + failedFiles.get(path) + "\n";
+		for (String path : missingFiles)
+			str += "\t[MISSING] " + path + "\n";
+		return str;
+	}
+}
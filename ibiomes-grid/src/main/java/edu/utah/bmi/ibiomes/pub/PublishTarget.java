@@ -0,0 +1,188 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.pub;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+import edu.utah.bmi.ibiomes.metadata.MetadataAVUList;
+import edu.utah.bmi.ibiomes.parse.LocalFile;
+
+/**
+ * Operations needed to publish local data to a repository. A target is used by a single 
+ * thread: concurrent publishers open one target (i.e. one connection) per worker.
+ * @author Julien Thibault, University of Utah
+ *
+ */
+public interface PublishTarget extends Closeable {
+
+	/**
+	 * Check if a collection exists
+	 * @param path Collection path
+	 * @return True if the collection exists
+	 * @throws Exception
+	 */
+	public boolean collectionExists(String path) throws Exception;
+	
+	/**
+	 * Create collection (parent collections must exist)
+	 * @param path Collection path
+	 * @throws Exception
+	 */
+	public void createCollection(String path) throws Exception;
+	
+	/**
+	 * Register local directory as a new collection (in-place registration)
+	 * @param localPath Path to the local directory
+	 * @param path Collection path
+	 * @throws Exception
+	 */
+	public void registerCollection(String localPath, String path) throws Exception;
+	
+	/**
+	 * Add metadata to collection. Duplicate AVUs are skipped.
+	 * @param path Collection path
+	 * @param metadata Metadata
+	 * @throws Exception
+	 */
+	public void addCollectionMetadata(String path, MetadataAVUList metadata) throws Exception;
+	
+	/**
+	 * List names of the entries (files and subcollections) in a collection
+	 * @param path Collection path
+	 * @return Entry names
+	 * @throws Exception
+	 */
+	public List<String> listFileNames(String path) throws Exception;
+	
+	/**
+	 * Check if a file exists
+	 * @param path File path
+	 * @return True if the file exists
+	 * @throws Exception
+	 */
+	public boolean fileExists(String path) throws Exception;
+	
+	/**
+	 * Get size and checksum of a file
+	 * @param path File path
+	 * @return File information or null if the file does not exist
+	 * @throws Exception
+	 */
+	public FileInfo getFileInfo(String path) throws Exception;
+	
+	/**
+	 * Compute MD5 checksum of a file (on the repository side)
+	 * @param path File path
+	 * @return Hexadecimal representation of the checksum
+	 * @throws Exception
+	 */
+	public String computeChecksum(String path) throws Exception;
+	
+	/**
+	 * Copy local file to the repository
+	 * @param localFile Local file
+	 * @param path File path in the repository
+	 * @param overwrite Overwrite existing file
+	 * @return False if the file already existed and was not overwritten
+	 * @throws Exception
+	 */
+	public boolean putFile(LocalFile localFile, String path, boolean overwrite) throws Exception;
+	
+	/**
+	 * Register local file in the repository (in-place registration)
+	 * @param localFile Local file
+	 * @param path File path in the repository
+	 * @throws Exception
+	 */
+	public void registerFile(LocalFile localFile, String path) throws Exception;
+	
+	/**
+	 * Remove file from the repository
+	 * @param path File path
+	 * @throws Exception
+	 */
+	public void deleteFile(String path) throws Exception;
+	
+	/**
+	 * Get file metadata
+	 * @param path File path
+	 * @return Metadata
+	 * @throws Exception
+	 */
+	public MetadataAVUList getFileMetadata(String path) throws Exception;
+	
+	/**
+	 * Replace file metadata. Only the differences with the current AVUs are applied.
+	 * @param path File path
+	 * @param metadata Metadata
+	 * @throws Exception
+	 */
+	public void setFileMetadata(String path, MetadataAVUList metadata) throws Exception;
+	
+	/**
+	 * Add metadata to file. Duplicate AVUs are skipped.
+	 * @param path File path
+	 * @param metadata Metadata
+	 * @throws Exception
+	 */
+	public void addFileMetadata(String path, MetadataAVUList metadata) throws Exception;
+	
+	/**
+	 * Release the resources (e.g. connection) held by this target
+	 */
+	@Override
+	public void close() throws IOException;
+	
+	/**
+	 * Size and checksum of a file in the repository
+	 */
+	public static class FileInfo {
+		
+		private long size;
+		private String checksum;
+		
+		/**
+		 * New file information
+		 * @param size File size in bytes
+		 * @param checksum MD5 checksum (null if not computed by the repository)
+		 */
+		public FileInfo(long size, String checksum){
+			this.size = size;
+			this.checksum = checksum;
+		}
+		
+		/**
+		 * Get file size
+		 * @return File size in bytes
+		 */
+		public long getSize() {
+			return size;
+		}
+		
+		/**
+		 * Get MD5 checksum
+		 * @return Checksum or null if not computed by the repository
+		 */
+		public String getChecksum() {
+			return checksum;
+		}
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.pub.set;
+
+import java.util.List;
+
+/**
+ * Page of experiment set search results. The sort value and ID of the last
+ * result are used as the starting point (keyset) for the next page.
+ * @author Julien Thibault, University of Utah
+ *
+ */
+public class ExperimentSetSearchPage {
+
+	private List<String> ids;
+	private Object lastSortValue;
+	private long lastId;
+	private boolean hasMore;
+	
+	/**
+	 * New page of results
+	 * @param ids Experiment set IDs
+	 * @param lastSortValue Value of the sort column for the last result
+	 * @param lastId ID of the last result
+	 * @param hasMore True if more results are available after this page
+	 */
+	public ExperimentSetSearchPage(List<String> ids, Object lastSortValue, long lastId, boolean hasMore){
+		this.ids = ids;
+		this.lastSortValue = lastSortValue;
+		this.lastId = lastId;
+		this.hasMore = hasMore;
+	}
+
+	/**
+	 * Get experiment set IDs
+	 * @return Experiment set IDs
+	 */
+	public List<String> getIds() {
+		return ids;
+	}
+
+	/**
+	 * Get value of the sort column for the last result
+	 * @return Sort value (null if results are sorted by ID)
+	 */
+	public Object getLastSortValue() {
+		return lastSortValue;
+	}
+
+	/**
+	 * Get ID of the last result
+	 * @return ID of the last result
+	 */
+	public long getLastId() {
+		return lastId;
+	}
+
+	/**
+	 * Check if more results are available after this page
+	 * @return True if more results are available
+	 */
+	public boolean hasMore() {
+		return hasMore;
+	}
+	
+	/**
+	 * Check if the page is empty
+	 * @return True if the page has no result
+	 */
+	public boolean isEmpty() {
+		return (ids == null || ids.size()==0);
+	}
+}
@@ -20,10 +20,15 @@ package edu.utah.bmi.ibiomes.pub.set;
 
 import java.sql.CallableStatement;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 
 import javax.sql.DataSource;
@@ -35,7 +40,8 @@ import edu.utah.bmi.ibiomes.metadata.MetadataAVU;
 import edu.utah.bmi.ibiomes.metadata.MetadataAVUList;
 
 /**
- * SQL interface for experiment sets
+ * SQL interface for experiment sets. Methods that write lists of AVUs or analysis files
+ * use JDBC batches executed in a single transaction.
  * @author Julien Thibault
  *
  */
@@ -43,6 +49,15 @@ public class ExperimentSetSqlConnector {
 
 	private final Logger logger = Logger.getLogger(ExperimentSetSqlConnector.class);
 	
+	/**
+	 * Time-to-live of cached search counts (ms)
+	 */
+	public final static long COUNT_CACHE_TIME_TO_LIVE = 60000;
+	private final static int MAX_CACHED_COUNTS = 1000;
+	private final static List<String> AVU_VALUE_OPERATORS = Arrays.asList("=", "<>", "<", ">", "<=", ">=", "like", "not like");
+	
+	private static SearchCountCache countCache = new SearchCountCache(COUNT_CACHE_TIME_TO_LIVE, MAX_CACHED_COUNTS);
+	
 	private DataSource dataSource;
 	 
 	public void setDataSource(DataSource dataSource) {
@@ -97,6 +112,59 @@ public class ExperimentSetSqlConnector {
 		}
 	}
 	
+	/**
+	 * Retrieve a list of experiment sets (e.g. a page of search results) with a single query
+	 * @param ids Set IDs
+	 * @param username Username
+	 * @return Experiment sets readable by the user, in the order of the given IDs
+	 * @throws SQLException
+	 */
+	public IBIOMESExperimentSetList getExperimentSetsByIds(List<Long> ids, String username) throws SQLException
+	{
+		IBIOMESExperimentSetList setList = new IBIOMESExperimentSetList();
+		if (ids == null || ids.size()==0)
+			return setList;
+		
+		StringBuilder placeholders = new StringBuilder("?");
+		for (int i=1; i<ids.size(); i++){
+			placeholders.append(",?");
+		}
+		SqlQueryBuilder query = new SqlQueryBuilder("select * from EXPERIMENT_SET S");
+		query.where("S.ID in (" + placeholders + ")", ids.toArray());
+		query.where("S.IS_PUBLIC is true or S.OWNER like ?", username);
+		
+		logger.debug("Preparing SQL query: " + query);
+		
+		HashMap<Long, IBIOMESExperimentSet> sets = new HashMap<Long, IBIOMESExperimentSet>();
+		Connection con = dataSource.getConnection();
+		try {
+			PreparedStatement stmt = query.prepare(con);
+			ResultSet results = stmt.executeQuery();
+			while (results.next())
+			{
+				IBIOMESExperimentSet set = new IBIOMESExperimentSet(
+						results.getLong("id"), 
+						results.getString("owner"),
+						results.getLong("timestamp"), 
+						results.getString("name"), 
+						results.getString("description"),
+						results.getBoolean("is_public"));
+				sets.put(set.getId(), set);
+			}
+			stmt.close();
+		}
+		finally {
+			con.close();
+		}
+		
+		for (Long id : ids){
+			IBIOMESExperimentSet set = sets.get(id);
+			if (set != null)
+				setList.add(set);
+		}
+		return setList;
+	}
+	
 	/**
 	 * Retrieve all experiment sets readable by given user
 	 * @param username Username
@@ -188,6 +256,7 @@ public class ExperimentSetSqlConnector {
 		proc.execute();
 		int id = proc.getInt(5);
 		con.close();
+		countCache.clear();
 		return id;
 	}
 	
@@ -213,6 +282,7 @@ public class ExperimentSetSqlConnector {
 		proc.setBoolean(5, isPublic);
 		proc.execute();
 		con.close();
+		countCache.clear();
 		return true;
 	}
 	
@@ -233,6 +303,7 @@ public class ExperimentSetSqlConnector {
 		System.out.println("[" + id + "]" + username);
 		proc.execute();
 		con.close();
+		countCache.clear();
 		return true;
 	}
 
@@ -246,7 +317,26 @@ public class ExperimentSetSqlConnector {
 	{
 		MetadataAVUList metadata = new MetadataAVUList();
 		Connection con = dataSource.getConnection();
-
+		try {
+			metadata.addAll(readExperimentSetMetadata(con, setId, username));
+		}
+		finally {
+			con.close();
+		}
+		return metadata;
+	}
+	
+	/**
+	 * Read all AVUs (including duplicates) of an experiment set
+	 * @param con Connection
+	 * @param setId Experiment set ID
+	 * @param username Username
+	 * @return List of AVUs
+	 * @throws SQLException
+	 */
+	private List<MetadataAVU> readExperimentSetMetadata(Connection con, long setId, String username) throws SQLException 
+	{
+		ArrayList<MetadataAVU> metadata = new ArrayList<MetadataAVU>();
 		CallableStatement proc = null;
 		proc = con.prepareCall("{ call get_experiment_set_metadata( ?, ? ) }");
 		proc.setLong(1, setId);
@@ -265,7 +355,7 @@ public class ExperimentSetSqlConnector {
 				metadata.add(avu);
 			}
 		}
-		con.close();
+		proc.close();
 		return metadata;
 	}
 
@@ -284,9 +374,34 @@ public class ExperimentSetSqlConnector {
 		proc.setString(2, username);
 		proc.setString(3, avu.getAttribute());
 		proc.setString(4, avu.getValue());
-		proc.setString(5, avu.getUnit());
+		proc.setString(5, getUnit(avu));
 		proc.execute();		
 		con.close();
+		countCache.clear();
+	}
+	
+	/**
+	 * Delete experiment set AVUs (single transaction)
+	 * @param setId Set ID
+	 * @param username Username
+	 * @param avus AVUs to delete
+	 * @throws SQLException 
+	 */
+	public void deleteExperimentSetMetadata(long setId, String username, Collection<MetadataAVU> avus) throws SQLException {
+		Connection con = dataSource.getConnection();
+		try {
+			con.setAutoCommit(false);
+			executeAVUBatch(con, "delete_experiment_set_avu", setId, username, avus);
+			con.commit();
+			countCache.clear();
+		}
+		catch (SQLException e){
+			con.rollback();
+			throw e;
+		}
+		finally {
+			closeTransaction(con);
+		}
 	}
 
 	/**
@@ -303,6 +418,7 @@ public class ExperimentSetSqlConnector {
 		proc.setString(2, username);
 		proc.execute();		
 		con.close();
+		countCache.clear();
 	}
 	
 	/**
@@ -320,27 +436,96 @@ public class ExperimentSetSqlConnector {
 		proc.setString(2, username);
 		proc.setString(3, avu.getAttribute());
 		proc.setString(4, avu.getValue());
-		String unit = avu.getUnit();
-		if (unit==null)
-			unit = "";
-		proc.setString(5, unit);
+		proc.setString(5, getUnit(avu));
 		proc.execute();		
 		con.close();
+		countCache.clear();
+	}
+	
+	/**
+	 * Add metadata to experiment set (single transaction)
+	 * @param setId Set ID
+	 * @param username Username
+	 * @param avus AVUs to add
+	 * @throws SQLException
+	 */
+	public void addExperimentSetMetadata(long setId, String username, Collection<MetadataAVU> avus) throws SQLException {
+		Connection con = dataSource.getConnection();
+		try {
+			con.setAutoCommit(false);
+			executeAVUBatch(con, "add_experiment_set_avu", setId, username, avus);
+			con.commit();
+			countCache.clear();
+		}
+		catch (SQLException e){
+			con.rollback();
+			throw e;
+		}
+		finally {
+			closeTransaction(con);
+		}
 	}
 
 	/**
-	 * Set experiment set metadata. Delete all existing metadata and add new ones.
+	 * Set experiment set metadata. Delete all existing metadata and add new ones (single transaction).
 	 * @param setId
 	 * @param username
 	 * @param metadata
 	 * @throws SQLException 
 	 */
 	public void setExperimentSetMetadata(long setId, String username, MetadataAVUList metadata) throws SQLException {
-		//clear existing metadata
-		this.clearExperimentSetMetadata(setId, username);
-		//add new metadata
-		for (MetadataAVU avu : metadata){
-			this.addExperimentSetMetadata(setId, username, avu);
+		setExperimentSetMetadata(setId, username, metadata, false);
+	}
+	
+	/**
+	 * Set experiment set metadata (single transaction).
+	 * @param setId Set ID
+	 * @param username Username
+	 * @param metadata New list of AVUs
+	 * @param diffOnly If true, only the AVUs that are not in the new list are deleted and only 
+	 * the AVUs that do not exist yet are added. Otherwise all existing AVUs are replaced.
+	 * @throws SQLException 
+	 */
+	public void setExperimentSetMetadata(long setId, String username, MetadataAVUList metadata, boolean diffOnly) throws SQLException {
+		Connection con = dataSource.getConnection();
+		try {
+			con.setAutoCommit(false);
+			if (diffOnly)
+			{
+				LinkedHashMap<String, MetadataAVU> newAvus = new LinkedHashMap<String, MetadataAVU>();
+				for (MetadataAVU avu : metadata){
+					newAvus.put(getAVUKey(avu), avu);
+				}
+				//AVUs already stored are not added again, AVUs not in the new list are deleted
+				HashSet<String> existingKeys = new HashSet<String>();
+				List<MetadataAVU> deletedAvus = new ArrayList<MetadataAVU>();
+				for (MetadataAVU avu : readExperimentSetMetadata(con, setId, username)){
+					String key = getAVUKey(avu);
+					if (existingKeys.add(key) && !newAvus.containsKey(key))
+						deletedAvus.add(avu);
+				}
+				newAvus.keySet().removeAll(existingKeys);
+				executeAVUBatch(con, "delete_experiment_set_avu", setId, username, deletedAvus);
+				executeAVUBatch(con, "add_experiment_set_avu", setId, username, newAvus.values());
+				logger.debug("Experiment set " + setId + ": " + deletedAvus.size() + " AVU(s) deleted, " + newAvus.size() + " AVU(s) added");
+			}
+			else {
+				CallableStatement proc = con.prepareCall("{ call clear_experiment_set_metadata( ?, ? ) }");
+				proc.setLong(1, setId);
+				proc.setString(2, username);
+				proc.execute();
+				proc.close();
+				executeAVUBatch(con, "add_experiment_set_avu", setId, username, metadata);
+			}
+			con.commit();
+			countCache.clear();
+		}
+		catch (SQLException e){
+			con.rollback();
+			throw e;
+		}
+		finally {
+			closeTransaction(con);
 		}
 	}
 	
@@ -410,7 +595,176 @@ public class ExperimentSetSqlConnector {
 	}
 	
 	/**
-	 * Search experiment sets
+	 * Add files to the list of analysis files for this experiment set (single transaction)
+	 * @param setId Experiment set ID
+	 * @param username Username
+	 * @param fileIds iRODS data object IDs
+	 * @throws SQLException
+	 */
+	public void addExperimentSetAnalysisFiles(long setId, String username, Collection<Long> fileIds) throws SQLException {
+		Connection con = dataSource.getConnection();
+		try {
+			con.setAutoCommit(false);
+			executeAnalysisFileBatch(con, "add_experiment_set_analysis_data", setId, username, fileIds);
+			con.commit();
+		}
+		catch (SQLException e){
+			con.rollback();
+			throw e;
+		}
+		finally {
+			closeTransaction(con);
+		}
+	}
+	
+	/**
+	 * Remove files from the list of analysis files for this experiment set (single transaction)
+	 * @param setId Experiment set ID
+	 * @param username Username
+	 * @param fileIds iRODS data object IDs
+	 * @throws SQLException
+	 */
+	public void removeExperimentSetAnalysisFiles(long setId, String username, Collection<Long> fileIds) throws SQLException {
+		Connection con = dataSource.getConnection();
+		try {
+			con.setAutoCommit(false);
+			executeAnalysisFileBatch(con, "remove_experiment_set_analysis_data", setId, username, fileIds);
+			con.commit();
+		}
+		catch (SQLException e){
+			con.rollback();
+			throw e;
+		}
+		finally {
+			closeTransaction(con);
+		}
+	}
+	
+	/**
+	 * Set list of analysis files for this experiment set. Only the files that are not 
+	 * referenced yet are added and only the files that are not in the new list are removed (single transaction).
+	 * @param setId Experiment set ID
+	 * @param username Username
+	 * @param fileIds iRODS data object IDs
+	 * @throws SQLException
+	 */
+	public void setExperimentSetAnalysisFiles(long setId, String username, Collection<Long> fileIds) throws SQLException {
+		Connection con = dataSource.getConnection();
+		try {
+			con.setAutoCommit(false);
+			HashSet<Long> newIds = new HashSet<Long>(fileIds);
+			HashSet<Long> removedIds = new HashSet<Long>();
+			CallableStatement proc = con.prepareCall("{ call get_experiment_set_analysis_data( ?, ? ) }");
+			proc.setLong(1, setId);
+			proc.setString(2, username);
+			proc.execute();
+			ResultSet results = proc.getResultSet();
+			if (results!=null){
+				while (results.next()){
+					Long id = results.getLong("file_id");
+					if (!newIds.remove(id))
+						removedIds.add(id);
+				}
+			}
+			proc.close();
+			executeAnalysisFileBatch(con, "remove_experiment_set_analysis_data", setId, username, removedIds);
+			executeAnalysisFileBatch(con, "add_experiment_set_analysis_data", setId, username, newIds);
+			con.commit();
+		}
+		catch (SQLException e){
+			con.rollback();
+			throw e;
+		}
+		finally {
+			closeTransaction(con);
+		}
+	}
+	
+	/**
+	 * Call AVU procedure (add/delete) for each AVU in a single JDBC batch
+	 * @param con Connection
+	 * @param procName Procedure name
+	 * @param setId Experiment set ID
+	 * @param username Username
+	 * @param avus AVUs
+	 * @throws SQLException
+	 */
+	private void executeAVUBatch(Connection con, String procName, long setId, String username, Collection<MetadataAVU> avus) throws SQLException
+	{
+		if (avus == null || avus.size()==0)
+			return;
+		CallableStatement proc = con.prepareCall("{ call " + procName + "( ?, ?, ?, ?, ? ) }");
+		for (MetadataAVU avu : avus){
+			proc.setLong(1, setId);
+			proc.setString(2, username);
+			proc.setString(3, avu.getAttribute());
+			proc.setString(4, avu.getValue());
+			proc.setString(5, getUnit(avu));
+			proc.addBatch();
+		}
+		proc.executeBatch();
+		proc.close();
+	}
+	
+	/**
+	 * Call analysis file procedure (add/remove) for each file in a single JDBC batch
+	 * @param con Connection
+	 * @param procName Procedure name
+	 * @param setId Experiment set ID
+	 * @param username Username
+	 * @param fileIds iRODS data object IDs
+	 * @throws SQLException
+	 */
+	private void executeAnalysisFileBatch(Connection con, String procName, long setId, String username, Collection<Long> fileIds) throws SQLException
+	{
+		if (fileIds == null || fileIds.size()==0)
+			return;
+		CallableStatement proc = con.prepareCall("{ call " + procName + "( ?, ?, ? ) }");
+		for (Long fileId : fileIds){
+			proc.setLong(1, setId);
+			proc.setString(2, username);
+			proc.setLong(3, fileId);
+			proc.addBatch();
+		}
+		proc.executeBatch();
+		proc.close();
+	}
+	
+	/**
+	 * Restore auto-commit mode and close connection
+	 * @param con Connection
+	 * @throws SQLException
+	 */
+	private void closeTransaction(Connection con) throws SQLException {
+		try {
+			con.setAutoCommit(true);
+		}
+		finally {
+			con.close();
+		}
+	}
+	
+	/**
+	 * Get AVU unit as stored in the database (empty string if no unit)
+	 * @param avu AVU
+	 * @return Unit
+	 */
+	private static String getUnit(MetadataAVU avu){
+		return (avu.getUnit() == null ? "" : avu.getUnit());
+	}
+	
+	/**
+	 * Get key identifying an AVU (exact match on attribute, value and unit)
+	 * @param avu AVU
+	 * @return Key
+	 */
+	private static String getAVUKey(MetadataAVU avu){
+		return avu.getAttribute() + '\u0000' + avu.getValue() + '\u0000' + getUnit(avu);
+	}
+	
+	/**
+	 * Search experiment sets (offset-based pagination)
+	 * @param username Username
 	 * @param owner Owner username
 	 * @param name Set name
 	 * @param description Set description
@@ -435,38 +789,111 @@ public class ExperimentSetSqlConnector {
 			int offset, 
 			String orderBy, 
 			boolean ascendant) throws Exception {
-			
-		String sql = 
-				"select distinct S.ID as ID " +
-				"from EXPERIMENT_SET S ";
-		sql += buildQueryString(username, owner, name, description, createDateMin, createDateMax, avuConditions);
 		
-		if (orderBy != null && orderBy.length()>0){
-			sql += "ORDER BY " + orderBy +" ";
-			if (!ascendant)
-				sql += sql += "DESC ";
+		String sortColumn = getSortColumn(orderBy);
+		SqlQueryBuilder query = new SqlQueryBuilder("select S.ID as ID from EXPERIMENT_SET S");
+		addSearchConditions(query, username, owner, name, description, createDateMin, createDateMax, avuConditions);
+		addOrderBy(query, sortColumn, ascendant);
+		query.append("LIMIT ? OFFSET ?", numberOfRecordsRequested, Math.max(offset, 0));
+		
+		logger.debug("Preparing SQL query: " + query);
+		
+		List<String> ids = new ArrayList<String>();
+		Connection con = dataSource.getConnection();
+		try {
+			PreparedStatement stmt = query.prepare(con);
+			ResultSet rs = stmt.executeQuery();
+			while (rs.next()) {
+				ids.add(String.valueOf(rs.getLong("ID")));
+			}
+			stmt.close();
 		}
-		sql += "LIMIT " + numberOfRecordsRequested + " ";
-		sql += "OFFSET " + offset + " ";
+		finally {
+			con.close();
+		}
+		return ids;
+	}
+	
+	/**
+	 * Search experiment sets (keyset pagination). Instead of skipping the results of the 
+	 * previous pages, the query starts right after the last result of the previous page 
+	 * using the (sort column, ID) pair, so the cost of a page does not depend on its position.
+	 * @param username Username
+	 * @param owner Owner username
+	 * @param name Set name
+	 * @param description Set description
+	 * @param createDateMin Min date criteria
+	 * @param createDateMax Max date criteria
+	 * @param avuConditions AVU criteria
+	 * @param numberOfRecordsRequested Page size
+	 * @param previousPage Previous page of results (null to get the first page)
+	 * @param orderBy Sort column (ID, NAME, OWNER, DESCRIPTION or TIMESTAMP)
+	 * @param ascendant Sort order
+	 * @return Page of results
+	 * @throws Exception 
+	 */
+	public ExperimentSetSearchPage searchExperimentSetPage(
+			String username,
+			String owner, 
+			String name, 
+			String description, 
+			long createDateMin, 
+			long createDateMax, 
+			List<AVUQueryElement> avuConditions, 
+			int numberOfRecordsRequested, 
+			ExperimentSetSearchPage previousPage, 
+			String orderBy, 
+			boolean ascendant) throws Exception {
+		
+		String sortColumn = getSortColumn(orderBy);
+		SqlQueryBuilder query = new SqlQueryBuilder("select S.ID as ID" 
+				+ (sortColumn != null ? ", " + sortColumn + " as SORT_VALUE" : "") 
+				+ " from EXPERIMENT_SET S");
+		addSearchConditions(query, username, owner, name, description, createDateMin, createDateMax, avuConditions);
+		
+		//start after last result of previous page
+		if (previousPage != null){
+			String op = (ascendant ? ">" : "<");
+			if (sortColumn == null)
+				query.where("S.ID " + op + " ?", previousPage.getLastId());
+			else query.where(sortColumn + " " + op + " ? or (" + sortColumn + " = ? and S.ID " + op + " ?)", 
+					previousPage.getLastSortValue(), previousPage.getLastSortValue(), previousPage.getLastId());
+		}
+		addOrderBy(query, sortColumn, ascendant);
+		//get one more record to know if there is a next page
+		query.append("LIMIT ?", numberOfRecordsRequested + 1);
 		
-		System.out.println("Preparing SQL query:\n" + sql);
+		logger.debug("Preparing SQL query: " + query);
 
-		Connection con = dataSource.getConnection();
-		Statement stmt = con.createStatement();
-        ResultSet rs;
-        rs = stmt.executeQuery(sql);
 		List<String> ids = new ArrayList<String>();
-		while (rs.next()) {
-			long id = rs.getLong("ID");
-			ids.add(String.valueOf(id));
+		Object lastSortValue = null;
+		long lastId = -1;
+		boolean hasMore = false;
+		Connection con = dataSource.getConnection();
+		try {
+			PreparedStatement stmt = query.prepare(con);
+			ResultSet rs = stmt.executeQuery();
+			while (rs.next()) {
+				if (ids.size() == numberOfRecordsRequested){
+					hasMore = true;
+					break;
+				}
+				lastId = rs.getLong("ID");
+				if (sortColumn != null)
+					lastSortValue = rs.getObject("SORT_VALUE");
+				ids.add(String.valueOf(lastId));
+			}
+			stmt.close();
 		}
-		con.close();
-		
-		return ids;
+		finally {
+			con.close();
+		}
+		return new ExperimentSetSearchPage(ids, lastSortValue, lastId, hasMore);
 	}
 	
 	/**
-	 * Search experiment sets
+	 * Count results for experiment set search. Counts are cached for a short 
+	 * time (see COUNT_CACHE_TIME_TO_LIVE) so that paging through results does not re-run the count query.
 	 * @param username Username
 	 * @param owner Owner username
 	 * @param name Set name
@@ -485,28 +912,54 @@ public class ExperimentSetSqlConnector {
 			long createDateMax, 
 			List<AVUQueryElement> avuConditions) throws Exception {
 		
-		int nResults = -1;
-		String sql = 
-				"select count(distinct S.ID) as N " +
-				"from EXPERIMENT_SET S ";
-		sql += buildQueryString(username, owner, name, description, createDateMin, createDateMax, avuConditions);
+		SqlQueryBuilder query = new SqlQueryBuilder("select count(*) as N from EXPERIMENT_SET S");
+		addSearchConditions(query, username, owner, name, description, createDateMin, createDateMax, avuConditions);
 		
-		logger.info("Preparing SQL query:\n" + sql);
+		String cacheKey = query.toString();
+		Integer count = countCache.get(cacheKey);
+		if (count != null)
+			return count;
+		
+		logger.debug("Preparing SQL query: " + query);
 
+		int nResults = -1;
 		Connection con = dataSource.getConnection();
-		Statement stmt = con.createStatement();
-        ResultSet rs;
-        rs = stmt.executeQuery(sql);
-
-		if (rs.next()) {
-			nResults = rs.getInt("N");
+		try {
+			PreparedStatement stmt = query.prepare(con);
+			ResultSet rs = stmt.executeQuery();
+			if (rs.next()) {
+				nResults = rs.getInt("N");
+			}
+			stmt.close();
 		}
-		con.close();
-		
+		finally {
+			con.close();
+		}
+		countCache.put(cacheKey, nResults);
 		return nResults;
 	}
 	
-	private String buildQueryString(
+	/**
+	 * Remove cached search counts (e.g. after experiment sets or their metadata were modified)
+	 */
+	public static void clearSearchCountCache(){
+		countCache.clear();
+	}
+	
+	/**
+	 * Add search criteria to the query
+	 * @param query Query
+	 * @param username Username
+	 * @param owner Owner username
+	 * @param name Set name
+	 * @param description Set description
+	 * @param createDateMin Min date criteria
+	 * @param createDateMax Max date criteria
+	 * @param avuConditions AVU criteria (pairs of attribute and value conditions)
+	 * @throws Exception
+	 */
+	private void addSearchConditions(
+			SqlQueryBuilder query,
 			String username,
 			String owner, 
 			String name, 
@@ -515,90 +968,65 @@ public class ExperimentSetSqlConnector {
 			long createDateMax, 
 			List<AVUQueryElement> avuConditions) throws Exception {
 		
-		boolean isFirstCondition = true;
-		
-		String sql = " ";
-		
+		//each attribute-value pair must be matched by one of the set AVUs
 		if (avuConditions != null && avuConditions.size()>0){
-			sql += "where ID in (";
-			sql += "select SET_ID ";
-			sql += "from EXPERIMENT_SET_METADATA ";
-			sql += "where ";
-			String conditionsStr = "";
-			try{
-				int a = 0;
-				while (a < avuConditions.size()){
-					AVUQueryElement avuCondition = avuConditions.get(a);
-					//TODO escape SQL characters such as "'" to avoid injections
-					//TODO dont allow partial attributes
-					conditionsStr += "(ATTRIBUTE like '" + avuCondition.getValue() + "'";
-					conditionsStr += " and ";
-					avuCondition = avuConditions.get(a+1);
-					conditionsStr += "VALUE " + avuCondition.getOperator().getOperatorValue() + " '" + avuCondition.getValue() + "')";
-					a+=2;
-					if (a<avuConditions.size())
-						conditionsStr += " and ";
-				}
-			}
-			catch (Exception e){
+			if (avuConditions.size() % 2 != 0)
 				throw new Exception("The AVU condition list must include pairs of Attribute-Value conditions.");
+			for (int a=0; a<avuConditions.size(); a+=2){
+				AVUQueryElement attributeCondition = avuConditions.get(a);
+				AVUQueryElement valueCondition = avuConditions.get(a+1);
+				String operator = valueCondition.getOperator().getOperatorValue().trim().toLowerCase();
+				if (!AVU_VALUE_OPERATORS.contains(operator))
+					throw new Exception("Unsupported operator for AVU value condition: '" + operator + "'");
+				query.where("S.ID in (select M.SET_ID from EXPERIMENT_SET_METADATA M where M.ATTRIBUTE like ? and M.VALUE " + operator + " ?)",
+						attributeCondition.getValue(), valueCondition.getValue());
 			}
-			sql += conditionsStr + " ";
-			sql += "group by SET_ID ";
-			sql += "having count(SET_ID) >= " + avuConditions.size()/2;
-			sql += ") ";
-			isFirstCondition = false;
-		}
-		
-		if (owner != null && owner.length()>0){
-			owner = owner.replaceAll("[\"']", "");
-			if (!isFirstCondition)
-				sql += "and  ";
-			else sql += "where ";
-			sql += "S.OWNER like '"+owner+"' ";
-			isFirstCondition = false;
-		}
-		
-		if (name != null && name.length()>0){
-			name = name.replaceAll("[\"']", "");
-			if (!isFirstCondition)
-				sql += "and  ";
-			else sql += "where ";
-			sql += "S.NAME like '"+name+"' ";
-			isFirstCondition = false;
-		}
-		
-		if (description != null && description.length()>0){
-			description = description.replaceAll("[\"']", "");
-			if (!isFirstCondition)
-				sql += "and  ";
-			else sql += "where ";
-			sql += "S.DESCRIPTION like '"+description+"' ";
-			isFirstCondition = false;
-		}
-		
-		if (createDateMin>0){
-			if (!isFirstCondition)
-				sql += "and  ";
-			else sql += "where ";
-			sql += "S.TIMESTAMP > "+createDateMin+" ";
-			isFirstCondition = false;
-		}
-		
-		if (createDateMax>0){
-			if (!isFirstCondition)
-				sql += "and  ";
-			else sql += "where ";
-			sql += "S.TIMESTAMP < "+createDateMax+" ";
-			isFirstCondition = false;
 		}
+		if (owner != null && owner.length()>0)
+			query.where("S.OWNER like ?", owner);
+		if (name != null && name.length()>0)
+			query.where("S.NAME like ?", name);
+		if (description != null && description.length()>0)
+			query.where("S.DESCRIPTION like ?", description);
+		if (createDateMin>0)
+			query.where("S.TIMESTAMP > ?", createDateMin);
+		if (createDateMax>0)
+			query.where("S.TIMESTAMP < ?", createDateMax);
 		
 		//search only public sets or sets that are owned by current user
-		if (!isFirstCondition)
-			sql += "and  ";
-		else sql += "where ";
-		sql += "((IS_PUBLIC is true) or (OWNER like '"+username+"')) "; 
-		
-		return sql;
+		query.where("S.IS_PUBLIC is true or S.OWNER like ?", username);
+	}
+	
+	/**
+	 * Add order by clause (sort column then ID)
+	 * @param query Query
+	 * @param sortColumn Sort column (null to sort by ID only)
+	 * @param ascendant Sort order
+	 */
+	private void addOrderBy(SqlQueryBuilder query, String sortColumn, boolean ascendant){
+		String order = (ascendant ? "" : " DESC");
+		if (sortColumn == null)
+			query.append("ORDER BY S.ID" + order);
+		else query.append("ORDER BY " + sortColumn + order + ", S.ID" + order);
+	}
+	
+	/**
+	 * Get SQL expression for sort column
+	 * @param orderBy Sort attribute (ID, NAME, OWNER, DESCRIPTION or TIMESTAMP)
+	 * @return SQL expression (null to sort by ID only)
+	 */
+	private static String getSortColumn(String orderBy)
+	{
+		if (orderBy == null || orderBy.length()==0 || orderBy.equalsIgnoreCase("ID"))
+			return null;
+		else if (orderBy.equalsIgnoreCase("NAME"))
+			return "S.NAME";
+		else if (orderBy.equalsIgnoreCase("OWNER"))
+			return "S.OWNER";
+		else if (orderBy.equalsIgnoreCase("TIMESTAMP"))
+			return "S.TIMESTAMP";
+		else if (orderBy.equalsIgnoreCase("DESCRIPTION"))
+			return "COALESCE(S.DESCRIPTION, '')";
+		else throw new IllegalArgumentException("Invalid sort attribute for experiment sets: '" + orderBy + "'");
 	}
 }
@@ -104,6 +104,20 @@ public class IBIOMESExperimentSetAO {
 		return sql.getExperimentSetById(setId, account.getUserName());
 	}
 	
+	/**
+	 * Get list of experiment sets (e.g. page of search results) from their IDs, in a single query
+	 * @param setIds Set IDs
+	 * @return Experiment sets readable by the user, in the order of the given IDs
+	 * @throws SQLException
+	 */
+	public IBIOMESExperimentSetList getExperimentSetsFromIds(List<String> setIds) throws SQLException{
+		List<Long> ids = new ArrayList<Long>(setIds.size());
+		for (String id : setIds){
+			ids.add(Long.parseLong(id));
+		}
+		return sql.getExperimentSetsByIds(ids, account.getUserName());
+	}
+	
 	/**
 	 * List experiment sets readable (owned or public) by authenticated user
 	 * @return List of experiment sets
@@ -216,13 +230,13 @@ public class IBIOMESExperimentSetAO {
 		return metadata;
 	}
 	/**
-	 * Set metadata (list of AVUs)
+	 * Set metadata (list of AVUs). Only the AVUs that changed are deleted/added.
 	 * @param setId Experiment set ID
 	 * @param metadata List of AVUs
 	 * @throws SQLException 
 	 */
 	public void setMetadata(long setId, MetadataAVUList metadata) throws SQLException{
-		sql.setExperimentSetMetadata(setId, this.account.getUserName(), metadata);
+		sql.setExperimentSetMetadata(setId, this.account.getUserName(), metadata, true);
 	}
 
 	/**
@@ -242,9 +256,7 @@ public class IBIOMESExperimentSetAO {
 	 * @throws SQLException 
 	 */
 	public void addMetadata(long setId, List<MetadataAVU> avus) throws SQLException{
-		for (MetadataAVU avu : avus){
-			sql.addExperimentSetMetadata(setId, this.account.getUserName(), avu);
-		}
+		sql.addExperimentSetMetadata(setId, this.account.getUserName(), avus);
 	}
 	
 	/**
@@ -264,9 +276,7 @@ public class IBIOMESExperimentSetAO {
 	 * @throws SQLException 
 	 */
 	public void deleteMetadata(long setId, List<MetadataAVU> avus) throws SQLException{
-		for (MetadataAVU avu : avus){
-			sql.deleteExperimentSetMetadata(setId, this.account.getUserName(), avu);
-		}
+		sql.deleteExperimentSetMetadata(setId, this.account.getUserName(), avus);
 	}
 	
 	/**
@@ -312,11 +322,7 @@ public class IBIOMESExperimentSetAO {
 	 * @throws FileNotFoundException 
 	 */
 	public void addAnalysisFileReferences(long setId, List<String> fileUris) throws SQLException, JargonException, FileNotFoundException{
-		DataObjectAO dao = irodsAccessObjectFactory.getDataObjectAO(account);
-		for (String uri : fileUris){
-			DataObject data = dao.findByAbsolutePath(uri);
-			sql.addExperimentSetAnalysisFile(setId, this.account.getUserName(), data.getId());
-		}
+		sql.addExperimentSetAnalysisFiles(setId, this.account.getUserName(), getFileIds(fileUris));
 	}
 	
 	/**
@@ -342,11 +348,24 @@ public class IBIOMESExperimentSetAO {
 	 * @throws FileNotFoundException 
 	 */
 	public void removeAnalysisFileReferences(long setId, List<String> fileUris) throws SQLException, JargonException, FileNotFoundException{
+		sql.removeExperimentSetAnalysisFiles(setId, this.account.getUserName(), getFileIds(fileUris));
+	}
+	
+	/**
+	 * Get iRODS data object IDs
+	 * @param fileUris File URI list
+	 * @return List of data object IDs
+	 * @throws JargonException
+	 * @throws FileNotFoundException
+	 */
+	private List<Long> getFileIds(List<String> fileUris) throws JargonException, FileNotFoundException{
 		DataObjectAO dao = irodsAccessObjectFactory.getDataObjectAO(account);
+		List<Long> fileIds = new ArrayList<Long>();
 		for (String uri : fileUris){
 			DataObject data = dao.findByAbsolutePath(uri);
-			sql.removeExperimentSetAnalysisFile(setId, this.account.getUserName(), data.getId());
+			fileIds.add((long)data.getId());
 		}
+		return fileIds;
 	}
 	
 	/**
@@ -369,17 +388,13 @@ public class IBIOMESExperimentSetAO {
 		avus.add(AVUQueryElement.instanceForValueQuery(AVUQueryPart.VALUE, AVUQueryOperatorEnum.LIKE, "%"));
 		List<MetaDataAndDomainData> metadata = cAO.findMetadataValuesByMetadataQueryForCollection(avus, path);
 
-		IBIOMESExperimentSetList sets = new IBIOMESExperimentSetList();
 		if (metadata!=null && metadata.size()>0)
 		{
+			List<String> setIds = new ArrayList<String>();
 			for (MetaDataAndDomainData m : metadata){
-				String setId = m.getAvuValue();
-				IBIOMESExperimentSet set = this.getExperimentSet(Long.parseLong(setId));
-				if (set != null){
-					sets.add(set);
-				}
+				setIds.add(m.getAvuValue());
 			}
-			return sets;
+			return this.getExperimentSetsFromIds(setIds);
 		}
 		else return null;
 	}
@@ -0,0 +1,92 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package edu.utah.bmi.ibiomes.pub.set;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Short-lived cache of search result counts, indexed by query. 
+ * The cache is emptied when it is full or when experiment sets are modified.
+ * @author Julien Thibault, University of Utah
+ *
+ */
+class SearchCountCache {
+
+	private final ConcurrentHashMap<String, CachedCount> counts;
+	private final long timeToLive;
+	private final int maxSize;
+
+	/**
+	 * New cache
+	 * @param timeToLive Time-to-live of cached counts (ms)
+	 * @param maxSize Maximum number of cached counts
+	 */
+	SearchCountCache(long timeToLive, int maxSize){
+		this.counts = new ConcurrentHashMap<String, CachedCount>();
+		this.timeToLive = timeToLive;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Get cached count
+	 * @param query Query
+	 * @return Count or null if not found or expired
+	 */
+	Integer get(String query)
+	{
+		CachedCount count = counts.get(query);
+		if (count == null)
+			return null;
+		if (System.currentTimeMillis() > count.expiration){
+			counts.remove(query, count);
+			return null;
+		}
+		return count.value;
+	}
+
+	/**
+	 * Add count to the cache
+	 * @param query Query
+	 * @param value Count
+	 */
+	void put(String query, int value)
+	{
+		if (counts.size() >= maxSize)
+			counts.clear();
+		counts.put(query, new CachedCount(value, System.currentTimeMillis() + timeToLive));
+	}
+
+	/**
+	 * Remove all cached counts
+	 */
+	void clear(){
+		counts.clear();
+	}
+
+	private static class CachedCount {
+		private final int value;
+		private final long expiration;
+
+		private CachedCount(int value, long expiration){
+			this.value = value;
+			this.expiration = expiration;
+		}
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.pub.set;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SQL query builder. Values are never concatenated to the query string: they are 
+ * bound as parameters of the prepared statement.
+ * @author Julien Thibault, University of Utah
+ *
+ */
+public class SqlQueryBuilder {
+
+	private StringBuilder sql;
+	private List<Object> parameters;
+	private boolean hasCondition = false;
+	
+	/**
+	 * New query
+	 * @param sql Start of the query (e.g. select and from clauses)
+	 */
+	public SqlQueryBuilder(String sql){
+		this.sql = new StringBuilder(sql);
+		this.parameters = new ArrayList<Object>();
+	}
+	
+	/**
+	 * Append SQL fragment
+	 * @param fragment SQL fragment, with a '?' placeholder for each parameter
+	 * @param params Parameter values
+	 * @return This builder
+	 */
+	public SqlQueryBuilder append(String fragment, Object... params)
+	{
+		sql.append(' ').append(fragment);
+		for (Object param : params){
+			parameters.add(param);
+		}
+		return this;
+	}
+	
+	/**
+	 * Add condition to the where clause (conditions are combined with 'and')
+	 * @param condition Condition, with a '?' placeholder for each parameter
+	 * @param params Parameter values
+	 * @return This builder
+	 */
+	public SqlQueryBuilder where(String condition, Object... params)
+	{
+		sql.append(hasCondition ? " and " : " where ");
+		hasCondition = true;
+		return append("(" + condition + ")", params);
+	}
+	
+	/**
+	 * Get SQL query
+	 * @return SQL query
+	 */
+	public String getSql() {
+		return sql.toString();
+	}
+
+	/**
+	 * Get parameter values
+	 * @return Parameter values
+	 */
+	public List<Object> getParameters() {
+		return parameters;
+	}
+	
+	/**
+	 * Create prepared statement and bind parameters
+	 * @param con Connection
+	 * @return Prepared statement
+	 * @throws SQLException
+	 */
+	public PreparedStatement prepare(Connection con) throws SQLException
+	{
+		PreparedStatement stmt = con.prepareStatement(sql.toString());
+		for (int p=0; p<parameters.size(); p++){
+			Object param = parameters.get(p);
+			if (param instanceof String)
+				stmt.setString(p+1, (String)param);
+			else if (param instanceof Long || param instanceof Integer)
+				stmt.setLong(p+1, ((Number)param).longValue());
+			else stmt.setObject(p+1, param);
+		}
+		return stmt;
+	}
+	
+	@Override
+	public String toString(){
+		return sql.toString() + " " + parameters.toString();
+	}
+}
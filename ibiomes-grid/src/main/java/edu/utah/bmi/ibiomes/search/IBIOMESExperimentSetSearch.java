@@ -18,6 +18,7 @@
 
 package edu.utah.bmi.ibiomes.search;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.sql.DataSource;
@@ -28,10 +29,12 @@ import org.irods.jargon.core.exception.JargonException;
 import org.irods.jargon.core.query.AVUQueryElement;
 import org.irods.jargon.core.query.JargonQueryException;
 
+import edu.utah.bmi.ibiomes.pub.set.ExperimentSetSearchPage;
 import edu.utah.bmi.ibiomes.pub.set.ExperimentSetSqlConnector;
 
 /**
- * Utility class to search experiment sets
+ * Utility class to search experiment sets. Next/previous pages are retrieved with
+ * keyset pagination (starting after the last result of the previous page).
  * @author Julien Thibault, University of Utah
  *
  */
@@ -60,6 +63,9 @@ public class IBIOMESExperimentSetSearch implements IBIOMESSearch {
 	private ExperimentSetSqlConnector sql;
 	private IRODSAccount irodsAccount;
 	private List<String> results;
+	private ExperimentSetSearchPage currentPage = null;
+	//pages preceding the current page (keyset for each page, null for the first page)
+	private List<ExperimentSetSearchPage> previousPages = new ArrayList<ExperimentSetSearchPage>();
 	
 	protected boolean isCaseInsensitive = true;
 
@@ -84,7 +90,11 @@ public class IBIOMESExperimentSetSearch implements IBIOMESSearch {
 	 */
 	public List<String> executeWithStart(int continueIndex)
 			throws JargonException, JargonQueryException, Exception {
+		if (continueIndex <= 0)
+			return execute();
 		this.currentIndex = continueIndex;
+		this.currentPage = null;
+		this.previousPages.clear();
 		this.results = sql.searchExperimentSets(irodsAccount.getUserName(), ownerUsername, name, description, creationDateMin, creationDateMax, avuConditions, numberOfRowsRequested, continueIndex, orderBy.name(), isAscendant);
 		return results;
 	}
@@ -94,7 +104,20 @@ public class IBIOMESExperimentSetSearch implements IBIOMESSearch {
 	 */
 	public List<String> execute() throws JargonException, JargonQueryException,
 			Exception {
-		this.results = sql.searchExperimentSets(irodsAccount.getUserName(), ownerUsername, name, description, creationDateMin, creationDateMax, avuConditions, numberOfRowsRequested, 0, orderBy.name(), isAscendant);
+		this.currentIndex = 0;
+		this.previousPages.clear();
+		return executeAfter(null);
+	}
+	
+	/**
+	 * Execute query for the page following the given page
+	 * @param previousPage Previous page (null for the first page)
+	 * @return List of experiment set IDs
+	 * @throws Exception
+	 */
+	private List<String> executeAfter(ExperimentSetSearchPage previousPage) throws Exception {
+		this.currentPage = sql.searchExperimentSetPage(irodsAccount.getUserName(), ownerUsername, name, description, creationDateMin, creationDateMax, avuConditions, numberOfRowsRequested, previousPage, orderBy.name(), isAscendant);
+		this.results = currentPage.getIds();
 		return results;
 	}
 
@@ -117,8 +140,14 @@ public class IBIOMESExperimentSetSearch implements IBIOMESSearch {
 	 * @throws Exception 
 	 */
 	public List<String> executeForNextPage() throws Exception{
-		int continueIndex = this.currentIndex + this.numberOfRowsRequested;
-		return executeWithStart(continueIndex);
+		if (currentPage == null || currentPage.isEmpty()){
+			int continueIndex = this.currentIndex + this.numberOfRowsRequested;
+			return executeWithStart(continueIndex);
+		}
+		ExperimentSetSearchPage page = currentPage;
+		previousPages.add(page);
+		this.currentIndex += this.numberOfRowsRequested;
+		return executeAfter(page);
 	}
 	/**
 	 * Execute search query to get previous set of results
@@ -126,8 +155,15 @@ public class IBIOMESExperimentSetSearch implements IBIOMESSearch {
 	 * @throws Exception 
 	 */
 	public List<String> executeForPreviousPage() throws Exception{
-		int continueIndex = this.currentIndex - this.numberOfRowsRequested;
-		return executeWithStart(continueIndex);
+		if (currentPage == null || previousPages.size()==0){
+			int continueIndex = this.currentIndex - this.numberOfRowsRequested;
+			return executeWithStart(continueIndex);
+		}
+		//re-run the query for the previous page from the page that preceded it
+		previousPages.remove(previousPages.size()-1);
+		this.currentIndex -= this.numberOfRowsRequested;
+		ExperimentSetSearchPage page = (previousPages.size() > 0 ? previousPages.get(previousPages.size()-1) : null);
+		return executeAfter(page);
 	}
 	
 	/**
@@ -138,6 +174,8 @@ public class IBIOMESExperimentSetSearch implements IBIOMESSearch {
 	}
 
 	public boolean hasMoreResults() throws Exception {
+		if (currentPage != null)
+			return currentPage.hasMore();
 		int nResults = this.getTotalNumberOfRecords();
 		if (nResults > this.currentIndex + this.numberOfRowsRequested)
 			return true;
@@ -159,6 +197,8 @@ public class IBIOMESExperimentSetSearch implements IBIOMESSearch {
 		this.ownerUsername = null;
 		this.name = null;
 		this.results = null;
+		this.currentPage = null;
+		this.previousPages.clear();
 		this.sql = null;
 		this.totalNumberOfResults = -1;
 	}
@@ -0,0 +1,83 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.grid.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.irods.jargon.core.pub.domain.AvuData;
+import org.junit.Test;
+
+import edu.utah.bmi.ibiomes.metadata.MetadataAVU;
+import edu.utah.bmi.ibiomes.metadata.MetadataAVUList;
+import edu.utah.bmi.ibiomes.pub.AVUSynchronizer;
+import edu.utah.bmi.ibiomes.pub.AVUSynchronizer.AVUDiff;
+import edu.utah.bmi.ibiomes.pub.AVUSynchronizer.SyncMode;
+
+/**
+ * Test suite for the computation of AVU differences
+ * @author Julien Thibault, University of Utah
+ *
+ */
+public class TestAVUSynchronizer
+{
+	@Test
+	public void testUnchanged() throws Exception
+	{
+		List<AvuData> current = new ArrayList<AvuData>();
+		MetadataAVUList metadata = new MetadataAVUList();
+		for (int i=0; i<80; i++){
+			current.add(AvuData.instance("ATTR_" + i, "value_" + i, ""));
+			metadata.add(new MetadataAVU("ATTR_" + i, "value_" + i));
+		}
+		AVUDiff diff = AVUSynchronizer.computeDiff(current, metadata, SyncMode.REPLACE);
+		assertTrue(diff.isEmpty());
+	}
+
+	@Test
+	public void testReplace() throws Exception
+	{
+		List<AvuData> current = new ArrayList<AvuData>();
+		current.add(AvuData.instance("FORCE_FIELD", "ff99", ""));
+		current.add(AvuData.instance("SOFTWARE_NAME", "AMBER", ""));
+		current.add(AvuData.instance("USER_TAG", "keep", ""));
+		MetadataAVUList metadata = new MetadataAVUList();
+		metadata.add(new MetadataAVU("FORCE_FIELD", "ff14SB"));
+		metadata.add(new MetadataAVU("SOFTWARE_NAME", "AMBER"));
+		metadata.add(new MetadataAVU("SOFTWARE_NAME", "AMBER"));
+		metadata.add(new MetadataAVU("EMPTY", ""));
+
+		AVUDiff diff = AVUSynchronizer.computeDiff(current, metadata, SyncMode.REPLACE);
+		assertEquals(1, diff.getAddedAVUs().size());
+		assertEquals("ff14SB", diff.getAddedAVUs().get(0).getValue());
+		assertEquals(2, diff.getRemovedAVUs().size());
+
+		diff = AVUSynchronizer.computeDiff(current, metadata, SyncMode.REPLACE_ATTRIBUTES);
+		assertEquals(1, diff.getAddedAVUs().size());
+		assertEquals(1, diff.getRemovedAVUs().size());
+		assertEquals("ff99", diff.getRemovedAVUs().get(0).getValue());
+
+		diff = AVUSynchronizer.computeDiff(current, metadata, SyncMode.MERGE);
+		assertEquals(1, diff.getAddedAVUs().size());
+		assertEquals(0, diff.getRemovedAVUs().size());
+	}
+}
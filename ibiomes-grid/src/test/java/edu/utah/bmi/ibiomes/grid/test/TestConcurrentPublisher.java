@@ -0,0 +1,412 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.grid.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import edu.utah.bmi.ibiomes.metadata.FileMetadata;
+import edu.utah.bmi.ibiomes.metadata.MetadataAVUList;
+import edu.utah.bmi.ibiomes.parse.AbstractLocalFileImpl;
+import edu.utah.bmi.ibiomes.parse.DirectoryParsingManifest;
+import edu.utah.bmi.ibiomes.parse.IBIOMESListener;
+import edu.utah.bmi.ibiomes.parse.LocalDirectoryImpl;
+import edu.utah.bmi.ibiomes.parse.LocalFile;
+import edu.utah.bmi.ibiomes.pub.ConcurrentPublisher;
+import edu.utah.bmi.ibiomes.pub.FileBundle;
+import edu.utah.bmi.ibiomes.pub.PublishManifest;
+import edu.utah.bmi.ibiomes.pub.PublishSummary;
+import edu.utah.bmi.ibiomes.pub.PublishTarget;
+import edu.utah.bmi.ibiomes.pub.PublishTargetFactory;
+
+/**
+ * Test suite for concurrent publishing against an in-memory repository
+ * @author Julien Thibault, University of Utah
+ *
+ */
+public class TestConcurrentPublisher
+{
+	private static final String ROOT = "/tempZone/home/test/exp";
+
+	@Test
+	public void testPublish() throws Exception
+	{
+		InMemoryRepository repository = new InMemoryRepository();
+		LocalDirectoryImpl dir = createDirectory(3, 5);
+		CountingListener listener = new CountingListener();
+
+		ConcurrentPublisher publisher = new ConcurrentPublisher(repository, 4);
+		PublishSummary summary = publisher.publishExperiment(dir, ROOT, false, listener);
+
+		assertTrue(summary.isConsistent());
+		assertEquals(4, summary.getCreatedCollectionCount());
+		assertEquals(20, summary.getPublishedFileCount());
+		assertEquals(20, listener.count.get());
+		assertEquals(20, repository.files.size());
+		assertTrue(repository.metadata.get(ROOT + "/sub0/file0.txt").size() > 0);
+		//one target for the collections, then one per worker
+		assertEquals(5, repository.openedTargets.get());
+		assertEquals(0, repository.openTargets.get());
+
+		//files already published are skipped
+		summary = publisher.publishExperiment(dir, ROOT, false, null);
+		assertEquals(0, summary.getCreatedCollectionCount());
+		assertEquals(20, summary.getSkippedFileCount());
+		assertTrue(summary.isConsistent());
+	}
+
+	@Test
+	public void testRetry() throws Exception
+	{
+		InMemoryRepository repository = new InMemoryRepository();
+		repository.failures.put(ROOT + "/file1.txt", 2);
+		repository.failures.put(ROOT + "/sub1/file2.txt", 10);
+		LocalDirectoryImpl dir = createDirectory(2, 3);
+		CountingListener listener = new CountingListener();
+
+		ConcurrentPublisher publisher = new ConcurrentPublisher(repository, 2);
+		publisher.setRetryDelay(0);
+		PublishSummary summary = publisher.publishExperiment(dir, ROOT, false, listener);
+
+		assertFalse(summary.isConsistent());
+		assertEquals(8, summary.getPublishedFileCount());
+		assertEquals(1, summary.getFailedFiles().size());
+		assertTrue(summary.getFailedFiles().containsKey(ROOT + "/sub1/file2.txt"));
+		assertEquals(4, summary.getRetryCount());
+		assertEquals(9, listener.count.get());
+	}
+
+	@Test
+	public void testRegister() throws Exception
+	{
+		InMemoryRepository repository = new InMemoryRepository();
+		LocalDirectoryImpl dir = createDirectory(2, 2);
+
+		ConcurrentPublisher publisher = new ConcurrentPublisher(repository, 3);
+		PublishSummary summary = publisher.registerExperiment(dir, ROOT, null);
+
+		assertTrue(summary.isConsistent());
+		assertEquals(6, summary.getPublishedFileCount());
+		assertEquals(6, repository.files.size());
+	}
+
+	@Test
+	public void testResume() throws Exception
+	{
+		InMemoryRepository repository = new InMemoryRepository();
+		repository.failures.put(ROOT + "/sub0/file1.txt", 1);
+		LocalDirectoryImpl dir = createDirectory(1, 3);
+		File manifestFile = new File(System.getProperty("java.io.tmpdir"), "ibiomes-publish-manifest-" + System.nanoTime() + ".xml");
+		manifestFile.deleteOnExit();
+
+		//interrupted publication: one file fails
+		ConcurrentPublisher publisher = new ConcurrentPublisher(repository, 2);
+		publisher.setMaxRetries(0);
+		publisher.setManifest(PublishManifest.load(manifestFile.getAbsolutePath()));
+		PublishSummary summary = publisher.publishExperiment(dir, ROOT, false, null);
+		assertEquals(5, summary.getPublishedFileCount());
+		assertEquals(1, summary.getFailedFiles().size());
+		assertTrue(manifestFile.exists());
+		assertEquals(5, repository.putCount.get());
+
+		//resume: only the failed file is transferred
+		publisher.setManifest(PublishManifest.load(manifestFile.getAbsolutePath()));
+		summary = publisher.publishExperiment(dir, ROOT, false, null);
+		assertTrue(summary.isConsistent());
+		assertEquals(1, summary.getPublishedFileCount());
+		assertEquals(5, summary.getSkippedFileCount());
+		assertEquals(6, repository.putCount.get());
+
+		//new manifest: identical remote files are not transferred again, only their metadata is set
+		publisher.setManifest(new PublishManifest());
+		summary = publisher.publishExperiment(dir, ROOT, false, null);
+		assertTrue(summary.isConsistent());
+		assertEquals(6, summary.getPublishedFileCount());
+		assertEquals(6, repository.putCount.get());
+	}
+
+	@Test
+	public void testBundle() throws Exception
+	{
+		InMemoryRepository repository = new InMemoryRepository();
+		LocalDirectoryImpl dir = createDirectory(2, 4);
+		CountingListener listener = new CountingListener();
+
+		ConcurrentPublisher publisher = new ConcurrentPublisher(repository, 3);
+		publisher.setBundleSizeThreshold(100000);
+		PublishSummary summary = publisher.publishExperiment(dir, ROOT, false, listener);
+
+		//one bundle per directory
+		assertTrue(summary.isConsistent());
+		assertEquals(12, summary.getPublishedFileCount());
+		assertEquals(12, listener.count.get());
+		assertEquals(3, repository.files.size());
+		MetadataAVUList bundleMetadata = repository.metadata.get(ROOT + "/sub1/" + FileBundle.BUNDLE_FILE_NAME);
+		FileBundle bundle = FileBundle.parseIndex(bundleMetadata.getValues(FileBundle.BUNDLE_INDEX));
+		assertEquals(4, bundle.getMembers().size());
+		assertNotNull(bundle.getMemberMetadata("file2.txt", bundleMetadata));
+		assertEquals(LocalFile.FORMAT_TXT, bundle.getMemberMetadata("file2.txt", bundleMetadata).getValue(FileMetadata.FILE_FORMAT));
+
+		//unchanged bundles are skipped, a modified member triggers a rebuild of its bundle only
+		File modified = new File(dir.getAbsolutePath(), "file1.txt");
+		modified.setLastModified(modified.lastModified() - 10000);
+		summary = publisher.publishExperiment(dir, ROOT, false, null);
+		assertTrue(summary.isConsistent());
+		assertEquals(4, summary.getPublishedFileCount());
+		assertEquals(8, summary.getSkippedFileCount());
+		assertEquals(4, repository.putCount.get());
+
+		//bundles are handled the same way when publishing with a manifest
+		publisher.setManifest(new PublishManifest());
+		summary = publisher.publishExperiment(dir, ROOT, false, null);
+		assertTrue(summary.isConsistent());
+		assertEquals(12, summary.getSkippedFileCount());
+		assertEquals(4, repository.putCount.get());
+	}
+
+	@Test
+	public void testRegisterBundle() throws Exception
+	{
+		InMemoryRepository repository = new InMemoryRepository();
+		LocalDirectoryImpl dir = createDirectory(1, 3);
+
+		ConcurrentPublisher publisher = new ConcurrentPublisher(repository, 2);
+		publisher.setBundleSizeThreshold(100000);
+		PublishSummary summary = publisher.registerExperiment(dir, ROOT, null);
+
+		//bundles are written next to their members and registered in place
+		assertTrue(summary.isConsistent());
+		assertEquals(6, summary.getPublishedFileCount());
+		assertEquals(2, repository.files.size());
+		File localBundle = new File(dir.getAbsolutePath(), FileBundle.BUNDLE_FILE_NAME);
+		localBundle.deleteOnExit();
+		new File(dir.getAbsolutePath(), "sub0/" + FileBundle.BUNDLE_FILE_NAME).deleteOnExit();
+		assertTrue(localBundle.exists());
+		assertEquals(localBundle.getAbsolutePath(), repository.registered.get(ROOT + "/" + FileBundle.BUNDLE_FILE_NAME));
+
+		//stale bundle: unregistered, rewritten in place and registered again
+		File modified = new File(dir.getAbsolutePath(), "file0.txt");
+		modified.setLastModified(modified.lastModified() - 10000);
+		summary = publisher.registerExperiment(dir, ROOT, null);
+		assertTrue(summary.isConsistent());
+		assertEquals(3, summary.getPublishedFileCount());
+		assertEquals(3, summary.getSkippedFileCount());
+		assertEquals(1, repository.deleteCount.get());
+		FileBundle bundle = FileBundle.parseIndex(repository.metadata.get(ROOT + "/" + FileBundle.BUNDLE_FILE_NAME).getValues(FileBundle.BUNDLE_INDEX));
+		assertEquals(modified.lastModified(), bundle.getMember("file0.txt").getLastModified());
+		assertTrue(localBundle.exists());
+	}
+
+	/**
+	 * Create directory with files and subdirectories (flat)
+	 * @param nSubdirectories Number of subdirectories
+	 * @param nFiles Number of files per directory
+	 * @return Directory
+	 * @throws Exception
+	 */
+	private LocalDirectoryImpl createDirectory(int nSubdirectories, int nFiles) throws Exception
+	{
+		File root = new File(System.getProperty("java.io.tmpdir"), "ibiomes-publish-test-" + System.nanoTime());
+		root.mkdir();
+		root.deleteOnExit();
+		LocalDirectoryImpl dir = createDirectory(root, nFiles);
+		for (int d=0; d<nSubdirectories; d++){
+			File subdirPath = new File(root, "sub" + d);
+			subdirPath.mkdir();
+			subdirPath.deleteOnExit();
+			dir.addSubdirectory(createDirectory(subdirPath, nFiles));
+		}
+		return dir;
+	}
+
+	private LocalDirectoryImpl createDirectory(File path, int nFiles) throws Exception
+	{
+		LocalDirectoryImpl dir = new LocalDirectoryImpl(path.getAbsolutePath(), "");
+		ArrayList<LocalFile> files = new ArrayList<LocalFile>();
+		for (int f=0; f<nFiles; f++){
+			File file = new File(path, "file" + f + ".txt");
+			FileWriter writer = new FileWriter(file);
+			writer.write(file.getAbsolutePath());
+			writer.close();
+			file.deleteOnExit();
+			files.add(new TextFile(file.getAbsolutePath()));
+		}
+		dir.getFilesByFormat().put(LocalFile.FORMAT_TXT, files);
+		return dir;
+	}
+
+	private static class TextFile extends AbstractLocalFileImpl {
+		private static final long serialVersionUID = 1L;
+		private TextFile(String path) throws IOException {
+			super(path, LocalFile.FORMAT_TXT);
+		}
+	}
+
+	private static class CountingListener implements IBIOMESListener {
+		private AtomicInteger count = new AtomicInteger();
+		public void update() {
+			count.incrementAndGet();
+		}
+	}
+
+	/**
+	 * In-memory stand-in for the iRODS repository. Each target keeps track of open connections.
+	 */
+	private static class InMemoryRepository implements PublishTargetFactory {
+
+		private Set<String> collections = new HashSet<String>();
+		private Map<String,PublishTarget.FileInfo> files = new HashMap<String, PublishTarget.FileInfo>();
+		private Map<String,MetadataAVUList> metadata = new HashMap<String, MetadataAVUList>();
+		private Map<String,String> registered = new HashMap<String, String>();
+		private Map<String,Integer> failures = new HashMap<String, Integer>();
+		private AtomicInteger openedTargets = new AtomicInteger();
+		private AtomicInteger openTargets = new AtomicInteger();
+		private AtomicInteger putCount = new AtomicInteger();
+		private AtomicInteger deleteCount = new AtomicInteger();
+
+		public PublishTarget openTarget() throws Exception {
+			openedTargets.incrementAndGet();
+			openTargets.incrementAndGet();
+			return new InMemoryTarget();
+		}
+
+		private synchronized void checkParent(String path) throws Exception {
+			String parent = path.substring(0, path.lastIndexOf('/'));
+			if (!parent.equals(ROOT.substring(0, ROOT.lastIndexOf('/'))) && !collections.contains(parent))
+				throw new Exception("Parent collection '" + parent + "' does not exist");
+		}
+
+		private synchronized void checkFailure(String path) throws Exception {
+			Integer remaining = failures.get(path);
+			if (remaining != null && remaining > 0){
+				failures.put(path, remaining - 1);
+				throw new Exception("Simulated failure for '" + path + "'");
+			}
+		}
+
+		private class InMemoryTarget implements PublishTarget {
+
+			public boolean collectionExists(String path) throws Exception {
+				synchronized (InMemoryRepository.this) {
+					return collections.contains(path);
+				}
+			}
+			public void createCollection(String path) throws Exception {
+				checkParent(path);
+				synchronized (InMemoryRepository.this) {
+					collections.add(path);
+				}
+			}
+			public void registerCollection(String localPath, String path) throws Exception {
+				createCollection(path);
+			}
+			public void addCollectionMetadata(String path, MetadataAVUList avus) throws Exception {
+				synchronized (InMemoryRepository.this) {
+					metadata.put(path, avus);
+				}
+			}
+			public List<String> listFileNames(String path) throws Exception {
+				List<String> names = new ArrayList<String>();
+				synchronized (InMemoryRepository.this) {
+					for (String file : files.keySet()){
+						if (file.substring(0, file.lastIndexOf('/')).equals(path))
+							names.add(file.substring(file.lastIndexOf('/')+1));
+					}
+				}
+				return names;
+			}
+			public boolean fileExists(String path) throws Exception {
+				synchronized (InMemoryRepository.this) {
+					return files.containsKey(path);
+				}
+			}
+			public PublishTarget.FileInfo getFileInfo(String path) throws Exception {
+				synchronized (InMemoryRepository.this) {
+					return files.get(path);
+				}
+			}
+			public String computeChecksum(String path) throws Exception {
+				synchronized (InMemoryRepository.this) {
+					return files.get(path).getChecksum();
+				}
+			}
+			public boolean putFile(LocalFile localFile, String path, boolean overwrite) throws Exception {
+				checkParent(path);
+				checkFailure(path);
+				File file = new File(localFile.getAbsolutePath());
+				PublishTarget.FileInfo info = new PublishTarget.FileInfo(file.length(), DirectoryParsingManifest.computeChecksum(file));
+				synchronized (InMemoryRepository.this) {
+					if (files.containsKey(path) && !overwrite)
+						return false;
+					files.put(path, info);
+				}
+				putCount.incrementAndGet();
+				return true;
+			}
+			public void registerFile(LocalFile localFile, String path) throws Exception {
+				putFile(localFile, path, false);
+				synchronized (InMemoryRepository.this) {
+					registered.put(path, localFile.getAbsolutePath());
+				}
+			}
+			public void deleteFile(String path) throws Exception {
+				synchronized (InMemoryRepository.this) {
+					files.remove(path);
+					metadata.remove(path);
+					registered.remove(path);
+				}
+				deleteCount.incrementAndGet();
+			}
+			public MetadataAVUList getFileMetadata(String path) throws Exception {
+				synchronized (InMemoryRepository.this) {
+					MetadataAVUList avus = metadata.get(path);
+					return (avus == null ? new MetadataAVUList() : avus);
+				}
+			}
+			public void setFileMetadata(String path, MetadataAVUList avus) throws Exception {
+				synchronized (InMemoryRepository.this) {
+					metadata.put(path, avus);
+				}
+			}
+			public void addFileMetadata(String path, MetadataAVUList avus) throws Exception {
+				synchronized (InMemoryRepository.this) {
+					metadata.put(path, avus);
+				}
+			}
+			public void close() throws IOException {
+				openTargets.decrementAndGet();
+			}
+		}
+	}
+}
@@ -0,0 +1,235 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.grid.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.junit.Test;
+
+import edu.utah.bmi.ibiomes.metadata.FileMetadata;
+import edu.utah.bmi.ibiomes.metadata.MetadataAVUList;
+import edu.utah.bmi.ibiomes.parse.AbstractLocalFileImpl;
+import edu.utah.bmi.ibiomes.parse.LocalFile;
+import edu.utah.bmi.ibiomes.pub.FileBundle;
+
+/**
+ * Test suite for small-file bundles
+ * @author Julien Thibault, University of Utah
+ *
+ */
+public class TestFileBundle
+{
+	@Test
+	public void testBundle() throws Exception
+	{
+		File dir = new File(System.getProperty("java.io.tmpdir"), "ibiomes-bundle-test-" + System.nanoTime());
+		dir.mkdir();
+		dir.deleteOnExit();
+		List<LocalFile> files = new ArrayList<LocalFile>();
+		List<String> contents = new ArrayList<String>();
+		for (int f=0; f<5; f++){
+			StringBuilder content = new StringBuilder();
+			for (int l=0; l<f*100; l++)
+				content.append("line ").append(l).append(" of file ").append(f).append('\n');
+			File file = new File(dir, "file" + f + ".txt");
+			FileWriter writer = new FileWriter(file);
+			writer.write(content.toString());
+			writer.close();
+			file.deleteOnExit();
+			files.add(new TextFile(file.getAbsolutePath()));
+			contents.add(content.toString());
+		}
+		assertTrue(FileBundle.isBundleable(files.get(1), 100000));
+		assertFalse(FileBundle.isBundleable(files.get(4), 100));
+
+		File bundleFile = new File(dir, FileBundle.BUNDLE_FILE_NAME);
+		bundleFile.deleteOnExit();
+		FileBundle bundle = FileBundle.create(bundleFile, files);
+		assertEquals(5, bundle.getMembers().size());
+		assertEquals(0, bundleFile.length() % 512);
+
+		//index read back from the bundle metadata
+		MetadataAVUList metadata = bundle.getMetadata();
+		FileBundle index = FileBundle.parseIndex(metadata.getValues(FileBundle.BUNDLE_INDEX));
+		assertEquals("5", metadata.getValue(FileBundle.BUNDLE_MEMBER_COUNT));
+		assertEquals(5, index.getMembers().size());
+		assertNull(index.getMember("missing.txt"));
+
+		//members read by seeking inside the bundle
+		RandomAccessFile raf = new RandomAccessFile(bundleFile, "r");
+		try {
+			for (int f=0; f<5; f++){
+				FileBundle.Member member = index.getMember("file" + f + ".txt");
+				assertEquals(contents.get(f).length(), member.getSize());
+				byte[] data = new byte[(int)member.getSize()];
+				raf.seek(member.getOffset());
+				raf.readFully(data);
+				assertEquals(contents.get(f), new String(data, "UTF-8"));
+			}
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	@Test
+	public void testRepublishWithNewFile() throws Exception
+	{
+		File dir = createTempDirectory();
+		List<LocalFile> files = new ArrayList<LocalFile>();
+		files.add(createFile(dir, "a.txt", "first file\n"));
+		files.add(createFile(dir, "b.txt", "second file\n"));
+
+		File bundleFile = new File(dir, FileBundle.BUNDLE_FILE_NAME);
+		bundleFile.deleteOnExit();
+		FileBundle bundle = FileBundle.create(bundleFile, files);
+		FileBundle published = FileBundle.parseIndex(bundle.getMetadata().getValues(FileBundle.BUNDLE_INDEX));
+		assertTrue(published.hasSameMembers(files));
+
+		//new small file in the directory: the published bundle is stale
+		files.add(createFile(dir, "c.txt", "third file\n"));
+		assertFalse(published.hasSameMembers(files));
+
+		//rebuilt bundle holds the new file
+		bundle = FileBundle.create(bundleFile, files);
+		published = FileBundle.parseIndex(bundle.getMetadata().getValues(FileBundle.BUNDLE_INDEX));
+		assertTrue(published.hasSameMembers(files));
+		assertEquals("third file\n", readMember(bundleFile, published.getMember("c.txt")));
+
+		//modified member with the same size
+		File member = new File(files.get(1).getAbsolutePath());
+		member.setLastModified(member.lastModified() - 10000);
+		assertFalse(published.hasSameMembers(files));
+
+		//modified member
+		files.set(0, createFile(dir, "a.txt", "first file, modified\n"));
+		assertFalse(published.hasSameMembers(files));
+	}
+
+	@Test
+	public void testMemberMetadata() throws Exception
+	{
+		File dir = createTempDirectory();
+		List<LocalFile> files = new ArrayList<LocalFile>();
+		files.add(createFile(dir, "a.txt", "first file\n"));
+		files.add(createFile(dir, "b.txt", "second file\n"));
+		((AbstractLocalFileImpl)files.get(0)).setDescription("first");
+		((AbstractLocalFileImpl)files.get(1)).setDescription("second");
+
+		File bundleFile = new File(dir, FileBundle.BUNDLE_FILE_NAME);
+		bundleFile.deleteOnExit();
+		MetadataAVUList metadata = FileBundle.create(bundleFile, files).getMetadata();
+
+		//union of the member metadata for searches
+		assertEquals(2, metadata.getValues(FileMetadata.FILE_DESCRIPTION).size());
+
+		//metadata of each member
+		FileBundle index = FileBundle.parseIndex(metadata.getValues(FileBundle.BUNDLE_INDEX));
+		MetadataAVUList memberMetadata = index.getMemberMetadata("b.txt", metadata);
+		assertEquals("second", memberMetadata.getValue(FileMetadata.FILE_DESCRIPTION));
+		assertEquals(files.get(1).getMetadata().size(), memberMetadata.size());
+		assertEquals("first", index.getMemberMetadata("a.txt", metadata).getValue(FileMetadata.FILE_DESCRIPTION));
+		assertNull(index.getMemberMetadata("missing.txt", metadata));
+	}
+
+	@Test
+	public void testLongMemberName() throws Exception
+	{
+		File dir = createTempDirectory();
+		StringBuilder name = new StringBuilder();
+		while (name.length() < 150)
+			name.append("long_name_");
+		name.append(".txt");
+		List<LocalFile> files = new ArrayList<LocalFile>();
+		files.add(createFile(dir, name.toString(), "long name\n"));
+		files.add(createFile(dir, "short.txt", "short name\n"));
+		assertTrue(FileBundle.isBundleable(files.get(0), 100000));
+
+		File bundleFile = new File(dir, FileBundle.BUNDLE_FILE_NAME);
+		bundleFile.deleteOnExit();
+		FileBundle bundle = FileBundle.create(bundleFile, files);
+		FileBundle index = FileBundle.parseIndex(bundle.getMetadata().getValues(FileBundle.BUNDLE_INDEX));
+		assertEquals("long name\n", readMember(bundleFile, index.getMember(name.toString())));
+		assertEquals("short name\n", readMember(bundleFile, index.getMember("short.txt")));
+
+		//standard tar readers get the full name back
+		TarArchiveInputStream in = new TarArchiveInputStream(new FileInputStream(bundleFile));
+		try {
+			TarArchiveEntry entry = in.getNextTarEntry();
+			assertEquals(name.toString(), entry.getName());
+			assertEquals("short.txt", in.getNextTarEntry().getName());
+			assertNull(in.getNextTarEntry());
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	private static File createTempDirectory()
+	{
+		File dir = new File(System.getProperty("java.io.tmpdir"), "ibiomes-bundle-test-" + System.nanoTime());
+		dir.mkdir();
+		dir.deleteOnExit();
+		return dir;
+	}
+
+	private static LocalFile createFile(File dir, String name, String content) throws IOException
+	{
+		File file = new File(dir, name);
+		FileWriter writer = new FileWriter(file);
+		writer.write(content);
+		writer.close();
+		file.deleteOnExit();
+		return new TextFile(file.getAbsolutePath());
+	}
+
+	private static String readMember(File bundleFile, FileBundle.Member member) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(bundleFile, "r");
+		try {
+			byte[] data = new byte[(int)member.getSize()];
+			raf.seek(member.getOffset());
+			raf.readFully(data);
+			return new String(data, "UTF-8");
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	private static class TextFile extends AbstractLocalFileImpl {
+		private static final long serialVersionUID = 1L;
+		private TextFile(String path) throws IOException {
+			super(path, LocalFile.FORMAT_TXT);
+		}
+	}
+}
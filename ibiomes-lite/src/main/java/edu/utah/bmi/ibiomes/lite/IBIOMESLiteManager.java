@@ -103,6 +103,7 @@ public class IBIOMESLiteManager {
 	public static final String IBIOMES_DESC_FILE_TREE_FILE_NAME = ".ibiomes.xml";
 	public static final String IBIOMES_DESC_WORKFLOW_FILE_NAME 	= ".ibiomes-details.xml";
 	public static final String IBIOMES_PARSE_CONFIG_FILE_NAME 	= ".ibiomes-parse.config";
+	public static final String IBIOMES_PARSE_MANIFEST_FILE_NAME = ".ibiomes-manifest.xml";
 	public static final String IBIOMES_LITE_DATA_DIR 			= "data";
 	public static final String IBIOMES_TEMP_DIR 				= "temp";
 
@@ -371,6 +372,7 @@ public class IBIOMESLiteManager {
 		//System.out.println("Parsing directory ("+nFiles+" files)...");
 		experimentDirPath = dir.getCanonicalPath();
 		ExperimentFactory expFactory = new ExperimentFactory(experimentDirPath, depth);
+		expFactory.setManifestPath(experimentDirPath + PATH_FOLDER_SEPARATOR + IBIOMES_PARSE_MANIFEST_FILE_NAME);
 		
 		//create listeners for progress bar
 		List<IBIOMESListener> listeners = null;
@@ -39,6 +39,7 @@ public abstract class AbstractCLICommandParse extends CLICommand implements Comm
 	protected final static String markerExternalURL = "-url";
 	protected final static String markerREMDGrouping = "-remd";
 	protected final static String markerSilent = "--silent";
+	protected final static String markerManifest = "-manifest";
 	
 	protected String localPath = null;
 	protected File inputFile = null;
@@ -49,6 +50,7 @@ public abstract class AbstractCLICommandParse extends CLICommand implements Comm
 	protected int depth = 0;
 	protected String remdGrouping = null;
 	protected boolean outputToConsole = true;
+	protected String manifestPath = null;
 
 	/**
 	 * New parse command
@@ -95,6 +97,12 @@ public abstract class AbstractCLICommandParse extends CLICommand implements Comm
 				+ "where 001 is the group ID and 002 the replica ID.", 
 				true, 
 				true));
+		this.arguments.put(markerManifest, new CLICommandArgument(
+				markerManifest, 
+				"manifest-file", 
+				"Path to the parsing manifest (created if it does not exist). Results recorded for files that did not change since the last run are reused.", 
+				true, 
+				true));
 		this.arguments.put(markerSilent, new CLICommandArgument(
 				markerSilent, "", 
 				"Limit console output to a minimum", 
@@ -144,6 +152,12 @@ public abstract class AbstractCLICommandParse extends CLICommand implements Comm
 		    	else this.throwErrorMissingArgument(markerExternalURL);
 		    	i++;
 			} 
+		    else if (markerManifest.equals(args[i])) {
+		    	if (args.length>i+1)
+		    		manifestPath = args[i+1];
+		    	else this.throwErrorMissingArgument(markerManifest);
+		    	i++;
+			}
 		    else if (markerSilent.equals(args[i])) {
 		    	outputToConsole = false;
 			}
@@ -175,6 +175,7 @@ public class CommandParse extends AbstractCLICommandParse {
 			else //experiment/directory
 			{
 				ExperimentFactory expFactory = new ExperimentFactory(localPath, depth);
+				expFactory.setManifestPath(manifestPath);
 				
 				//create listener for progress bar
 				List<IBIOMESListener> listeners = null;
@@ -140,6 +140,7 @@ public class CommandXML extends AbstractCLICommandParse {
 			if (outputToConsole)
 				System.out.println("Parsing directory...");
 			ExperimentFactory expFactory = new ExperimentFactory(localPath, depth);
+			expFactory.setManifestPath(manifestPath);
 			//create listener for progress bar
 			List<IBIOMESListener> listeners = null;
 			if (outputToConsole){
@@ -55,6 +55,8 @@ public class IBIOMESConfiguration {
 	private final static String PROPERTY_OUTPUT_ERROR_STACK_TO_CONSOLE  = "OUTPUT_ERROR_STACK_TO_CONSOLE";
 	private final static String PROPERTY_TASK_GROUP_ITEM_PATTERN		= "TASK_GROUP_ITEM_PATTERN";
 	private final static String PROPERTY_TIMINGS_ON						= "TIMINGS_ON";
+	private final static String PROPERTY_PARSER_THREADS					= "PARSER_THREADS";
+	private final static String PROPERTY_PARSER_MANIFEST_CHECKSUM		= "PARSER_MANIFEST_CHECKSUM";
 	
 	private DirectoryStructureDescriptor defaultParserRuleFile = null;
 	private String defaultParserRuleFilePath = null;
@@ -67,6 +69,8 @@ public class IBIOMESConfiguration {
 	private File propertiesFile = null;
 	private String propertiesFilePath = null;
 	private boolean timingsOn = false;
+	private int parserThreads = 1;
+	private boolean parserManifestChecksumOn = false;
 
 	/**
 	 * 
@@ -99,6 +103,8 @@ public class IBIOMESConfiguration {
     		String outputErrorStackProp = props.getProperty(PROPERTY_OUTPUT_ERROR_STACK_TO_CONSOLE);
     		String taskGroupingPatternProp = props.getProperty(PROPERTY_TASK_GROUP_ITEM_PATTERN);
     		String propertiesTimings = props.getProperty(PROPERTY_TIMINGS_ON);
+    		String parserThreadsProp = props.getProperty(PROPERTY_PARSER_THREADS);
+    		String parserManifestChecksumProp = props.getProperty(PROPERTY_PARSER_MANIFEST_CHECKSUM);
 
     		//set output to console flag
     		if (outputErrorStackProp!=null 
@@ -118,6 +124,22 @@ public class IBIOMESConfiguration {
     			this.setHasCollectTimingsOn(true);
     		}
     		
+    		//set maximum number of threads used to parse directories
+    		if (parserThreadsProp!=null && parserThreadsProp.trim().length()!=0){
+    			try{
+    				this.setParserThreads(Integer.parseInt(parserThreadsProp.trim()));
+    			}
+    			catch (NumberFormatException e){
+    				logger.warn("Invalid number of parser threads: "+parserThreadsProp);
+    			}
+    		}
+    		
+    		//set checksum flag for parsing manifests
+    		if (parserManifestChecksumProp!=null 
+    				&& parserManifestChecksumProp.trim().toUpperCase().matches("(YES)|(TRUE)")){
+    			this.parserManifestChecksumOn = true;
+    		}
+    		
     		//load default software context
     		if (defaultSoftwareContextProp!=null
     				&& defaultSoftwareContextProp.trim().length()!=0
@@ -155,7 +177,7 @@ public class IBIOMESConfiguration {
 	 * Get current configuration or load settings from default file located in $IBIOMES_HOME/config/.
 	 * @throws Exception 
 	 */
-	public static IBIOMESConfiguration getInstance() throws Exception{
+	public static synchronized IBIOMESConfiguration getInstance() throws Exception{
 		if (ibiomesConfiguration == null)
 			ibiomesConfiguration = new IBIOMESConfiguration(null);
 		return ibiomesConfiguration;
@@ -165,7 +187,7 @@ public class IBIOMESConfiguration {
 	 * Get current configuration or load settings from default file located in $IBIOMES_HOME/config/.
 	 * @throws Exception 
 	 */
-	public static IBIOMESConfiguration getInstance(boolean forceReload) throws Exception{
+	public static synchronized IBIOMESConfiguration getInstance(boolean forceReload) throws Exception{
 		if ( (ibiomesConfiguration == null) ||forceReload){
 			ibiomesConfiguration = new IBIOMESConfiguration(null);
 		}
@@ -177,7 +199,7 @@ public class IBIOMESConfiguration {
 	 * @param propertiesFilePath Path to property file
 	 * @throws Exception 
 	 */
-	public static IBIOMESConfiguration getInstance(String propertiesFilePath, boolean forceReload) throws Exception{
+	public static synchronized IBIOMESConfiguration getInstance(String propertiesFilePath, boolean forceReload) throws Exception{
 		if (Files.exists(Paths.get(propertiesFilePath))){
 			if ( (ibiomesConfiguration == null) ||forceReload){
 				ibiomesConfiguration = new IBIOMESConfiguration(propertiesFilePath);
@@ -309,6 +331,40 @@ public class IBIOMESConfiguration {
 		this.timingsOn = timingsOn;
 	}
 	
+	/**
+	 * Get maximum number of threads used to parse directories (1 for sequential parsing)
+	 * @return Maximum number of parser threads
+	 */
+	public int getParserThreads() {
+		return parserThreads;
+	}
+
+	/**
+	 * Set maximum number of threads used to parse directories (1 for sequential parsing)
+	 * @param parserThreads Maximum number of parser threads
+	 */
+	public void setParserThreads(int parserThreads) {
+		if (parserThreads < 1)
+			this.parserThreads = 1;
+		else this.parserThreads = parserThreads;
+	}
+	
+	/**
+	 * Check whether content checksums are used to detect unchanged files between parsing runs
+	 * @return True if on
+	 */
+	public boolean isParserManifestChecksumOn() {
+		return parserManifestChecksumOn;
+	}
+
+	/**
+	 * Set whether content checksums are used to detect unchanged files between parsing runs
+	 * @param parserManifestChecksumOn True if on
+	 */
+	public void setParserManifestChecksumOn(boolean parserManifestChecksumOn) {
+		this.parserManifestChecksumOn = parserManifestChecksumOn;
+	}
+	
 	/**
 	 * Print current iBIOMES configuration
 	 */
@@ -320,6 +376,7 @@ public class IBIOMESConfiguration {
 		}
 		else{
 			System.out.println("| Console output = " + String.valueOf(outputToConsole));
+			System.out.println("| Parser threads = " + String.valueOf(parserThreads));
 			//load default software context if necessary
 			String softwareContext = this.getDefaultSoftwareContext();
 			if (softwareContext==null)
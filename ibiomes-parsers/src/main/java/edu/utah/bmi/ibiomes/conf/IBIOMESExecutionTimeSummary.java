@@ -49,7 +49,7 @@ public class IBIOMESExecutionTimeSummary {
 	/**
 	 * Get current execution time summary
 	 */
-	public static IBIOMESExecutionTimeSummary getInstance() throws Exception{
+	public static synchronized IBIOMESExecutionTimeSummary getInstance() throws Exception{
 		if (summary == null)
 			summary = new IBIOMESExecutionTimeSummary();
 		return summary;
@@ -71,7 +71,7 @@ public class IBIOMESExecutionTimeSummary {
 	 * @param time Time in ms
 	 * @return New record
 	 */
-	public ExecutionTimingRecord addExecutionTimingRecord(String name, String description, boolean normalTermination, long time){
+	public synchronized ExecutionTimingRecord addExecutionTimingRecord(String name, String description, boolean normalTermination, long time){
 		ExecutionTimingRecord record = new ExecutionTimingRecord(name, description, normalTermination);
 		record.setTime(time);
 		timingRecords.add(record);
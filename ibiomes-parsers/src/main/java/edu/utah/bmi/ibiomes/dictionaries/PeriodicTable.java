@@ -163,7 +163,7 @@ public class PeriodicTable {
 	 * Get instance of periodic table.
 	 * @return Periodic table
 	 */
-	public static PeriodicTable getInstance(){
+	public static synchronized PeriodicTable getInstance(){
 		if (table == null)
 			table = new PeriodicTable();
 		return table;
@@ -0,0 +1,137 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.io;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import org.apache.commons.compress.compressors.CompressorException;
+import org.apache.commons.compress.compressors.CompressorStreamFactory;
+
+import edu.utah.bmi.Utils;
+
+/**
+ * First bytes of a file (after decompression if applicable), read once
+ * and shared by all the format detectors.
+ * @author Julien Thibault, University of Utah
+ *
+ */
+public class FileHeaderSample {
+
+	private static final Charset CHARSET = Charset.forName("ISO-8859-1");
+
+	private byte[] bytes;
+	private String text;
+
+	/**
+	 * New file header sample
+	 * @param bytes First bytes of the file
+	 */
+	public FileHeaderSample(byte[] bytes){
+		this.bytes = bytes;
+		this.text = new String(bytes, CHARSET);
+	}
+
+	/**
+	 * Read the first bytes of a file. Files compressed with gzip or bzip2 are decompressed on the fly.
+	 * @param localPath Path to local file
+	 * @param maxSize Maximum number of bytes to read
+	 * @return File header sample
+	 * @throws IOException
+	 * @throws CompressorException
+	 */
+	public static FileHeaderSample read(String localPath, int maxSize) throws IOException, CompressorException
+	{
+		InputStream in = new FileInputStream(localPath);
+		try {
+			byte[] magic = new byte[4];
+			int n = readFully(in, magic);
+			in.close();
+
+			String hex = Utils.getHex(Arrays.copyOf(magic, n));
+			String compressionScheme = null;
+			if (hex.startsWith(IBIOMESFileReader.HEX_HEADER_BZIP))
+				compressionScheme = CompressorStreamFactory.BZIP2;
+			else if (hex.startsWith(IBIOMESFileReader.HEX_HEADER_GZIP))
+				compressionScheme = CompressorStreamFactory.GZIP;
+
+			in = new FileInputStream(localPath);
+			if (compressionScheme != null)
+				in = new CompressorStreamFactory().createCompressorInputStream(compressionScheme, in);
+
+			byte[] buffer = new byte[maxSize];
+			n = readFully(in, buffer);
+			return new FileHeaderSample(Arrays.copyOf(buffer, n));
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Get raw bytes
+	 * @return Raw bytes
+	 */
+	public byte[] getBytes(){
+		return this.bytes;
+	}
+
+	/**
+	 * Get text representation (one character per byte)
+	 * @return Text
+	 */
+	public String getText(){
+		return this.text;
+	}
+
+	/**
+	 * Check if the sample contains the given bytes at the given offset
+	 * @param magic Expected bytes
+	 * @param offset Offset of the expected bytes
+	 * @return True if the bytes match
+	 */
+	public boolean hasBytesAt(byte[] magic, int offset){
+		if (offset < 0 || offset + magic.length > bytes.length)
+			return false;
+		for (int b=0; b<magic.length; b++){
+			if (bytes[offset+b] != magic[b])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Read until the buffer is full or the end of the stream is reached
+	 * @param in Input stream
+	 * @param buffer Buffer
+	 * @return Number of bytes read
+	 * @throws IOException
+	 */
+	private static int readFully(InputStream in, byte[] buffer) throws IOException {
+		int total = 0;
+		int n = 0;
+		while (total < buffer.length && (n = in.read(buffer, total, buffer.length - total)) > 0){
+			total += n;
+		}
+		return total;
+	}
+}
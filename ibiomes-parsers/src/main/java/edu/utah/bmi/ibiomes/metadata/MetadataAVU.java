@@ -18,6 +18,8 @@
 
 package edu.utah.bmi.ibiomes.metadata;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 
 import javax.xml.bind.annotation.XmlAttribute;
@@ -25,7 +27,8 @@ import javax.xml.bind.annotation.XmlRootElement;
 import javax.xml.bind.annotation.XmlValue;
 
 /**
- * Metadata pair
+ * Metadata pair. Attributes, values and units are pooled (see MetadataValuePool) 
+ * to limit memory use when large numbers of AVUs are kept in memory.
  * @author Julien Thibault
  *
  */
@@ -43,14 +46,14 @@ public class MetadataAVU implements Serializable {
 	}
 	
 	public MetadataAVU(String attribute, String value, String unit){
-		this.attribute = attribute;
-		this.value = value;
-		this.unit = unit;
+		this.attribute = MetadataValuePool.getInstance().intern(attribute);
+		this.value = MetadataValuePool.getInstance().intern(value);
+		this.unit = MetadataValuePool.getInstance().intern(unit);
 	}
 	
 	public MetadataAVU(String attribute, String value){
-		this.attribute = attribute;
-		this.value = value;
+		this.attribute = MetadataValuePool.getInstance().intern(attribute);
+		this.value = MetadataValuePool.getInstance().intern(value);
 		this.unit = null;
 	}
 
@@ -59,7 +62,7 @@ public class MetadataAVU implements Serializable {
 		return attribute;
 	}
 	public void setAttribute(String attribute) {
-		this.attribute = attribute;
+		this.attribute = MetadataValuePool.getInstance().intern(attribute);
 	}
 
 	@XmlValue
@@ -67,7 +70,7 @@ public class MetadataAVU implements Serializable {
 		return value;
 	}
 	public void setValue(String value) {
-		this.value = value;
+		this.value = MetadataValuePool.getInstance().intern(value);
 	}
 	
 	@XmlAttribute(name="unit")
@@ -75,10 +78,17 @@ public class MetadataAVU implements Serializable {
 		return unit;
 	}
 	public void setUnit(String unit) {
-		this.unit = unit;
+		this.unit = MetadataValuePool.getInstance().intern(unit);
 	}
 	@Override
 	public String toString(){
 		return (this.attribute + " = \"" + this.value + "\"");
 	}
+	
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		setAttribute(attribute);
+		setValue(value);
+		setUnit(unit);
+	}
 }
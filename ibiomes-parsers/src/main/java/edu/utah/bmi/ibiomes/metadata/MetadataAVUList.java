@@ -20,7 +20,11 @@ package edu.utah.bmi.ibiomes.metadata;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 
 import javax.xml.bind.annotation.XmlElement;
@@ -28,7 +32,9 @@ import javax.xml.bind.annotation.XmlRootElement;
 import javax.xml.bind.annotation.XmlSeeAlso;
 
 /**
- * List of metadata AVUs
+ * List of metadata AVUs. Attributes and (attribute, value) pairs are indexed 
+ * (case-insensitive) so that duplicate detection and attribute lookups do not scan the list.
+ * The index is updated when AVUs are appended and rebuilt after any other modification of the list.
  * @author Julien Thibault
  *
  */
@@ -37,6 +43,11 @@ import javax.xml.bind.annotation.XmlSeeAlso;
 public class MetadataAVUList extends ArrayList<MetadataAVU> implements Serializable {
 
 	private static final long serialVersionUID = 4700185220927361946L;
+	
+	//index: position of the first occurrence of each pair, positions of the AVUs for each attribute
+	private transient HashMap<String, Integer> pairIndex = null;
+	private transient LinkedHashMap<String, AttributePositions> attributeIndex = null;
+	private transient int indexedModCount = -1;
 
 	public MetadataAVUList(){
 	}
@@ -53,15 +64,8 @@ public class MetadataAVUList extends ArrayList<MetadataAVU> implements Serializa
 	public List<String> getAttributes()
 	{
 		ArrayList<String> attributes = new ArrayList<String>();
-		for (MetadataAVU pair : this){
-			boolean exists = false;
-			for (String attr : attributes){
-				if (pair.getAttribute().toUpperCase().equals(attr.toUpperCase())){
-					exists = true;
-				}
-			}
-			if (!exists)
-				attributes.add(pair.getAttribute());
+		for (AttributePositions positions : getAttributeIndex().values()){
+			attributes.add(this.get(positions.get(0)).getAttribute());
 		}
 		return attributes;
 	}
@@ -72,7 +76,10 @@ public class MetadataAVUList extends ArrayList<MetadataAVU> implements Serializa
 	@Override
 	public boolean add(MetadataAVU avu){			
 		if (!this.hasPair(avu)){
-			return super.add(avu);
+			super.add(avu);
+			indexAVU(avu, this.size()-1);
+			indexedModCount = modCount;
+			return true;
 		}
 		else return false;
 	}
@@ -84,6 +91,7 @@ public class MetadataAVUList extends ArrayList<MetadataAVU> implements Serializa
 	public boolean addAll(Collection<? extends MetadataAVU> avuList)
 	{
 		if (avuList != null){
+			this.ensureCapacity(this.size() + avuList.size());
 			for (MetadataAVU avu : avuList){
 				this.add(avu);
 			}
@@ -91,7 +99,19 @@ public class MetadataAVUList extends ArrayList<MetadataAVU> implements Serializa
 		return true;
 	}
 	
+	@Override
+	public MetadataAVU set(int index, MetadataAVU avu) {
+		MetadataAVU previous = super.set(index, avu);
+		clearIndex();
+		return previous;
+	}
 	
+	@Override
+	public Object clone() {
+		MetadataAVUList list = (MetadataAVUList)super.clone();
+		list.clearIndex();
+		return list;
+	}
 	
 	/**
 	 * Finder the values for a given metadata attribute.
@@ -101,9 +121,10 @@ public class MetadataAVUList extends ArrayList<MetadataAVU> implements Serializa
 	public List<String> getValues(String attributeCode)
 	{
 		ArrayList<String> values = new ArrayList<String>();
-		for (int i=0; i<this.size(); i++){
-			if (this.get(i).getAttribute().toUpperCase().equals(attributeCode.toUpperCase())){
-				values.add(this.get(i).getValue());
+		AttributePositions positions = getAttributeIndex().get(getKey(attributeCode));
+		if (positions != null){
+			for (int i=0; i<positions.size(); i++){
+				values.add(this.get(positions.get(i)).getValue());
 			}
 		}
 		return values;
@@ -116,18 +137,10 @@ public class MetadataAVUList extends ArrayList<MetadataAVU> implements Serializa
 	 */
 	public String getValue(String attributeCode)
 	{
-		String value = "";
-		int i = 0;
-		boolean found = false;
-		while (i < this.size() && !found)
-		{
-			if (this.get(i).getAttribute().toUpperCase().equals(attributeCode.toUpperCase())){
-				value = this.get(i).getValue();
-				found = true;
-			}
-			i++;
-		}
-		return value;
+		AttributePositions positions = getAttributeIndex().get(getKey(attributeCode));
+		if (positions == null)
+			return "";
+		return this.get(positions.get(0)).getValue();
 	}
 	
 	/**
@@ -137,16 +150,7 @@ public class MetadataAVUList extends ArrayList<MetadataAVU> implements Serializa
 	 */
 	public boolean containsAttribute(String attributeCode)
 	{
-		int i = 0;
-		boolean found = false;
-		while (i < this.size() && !found)
-		{
-			if (this.get(i).getAttribute().toUpperCase().equals(attributeCode.toUpperCase())){
-				found = true;
-			}
-			i++;
-		}
-		return found;
+		return getAttributeIndex().containsKey(getKey(attributeCode));
 	}
 	
 	/**
@@ -156,16 +160,8 @@ public class MetadataAVUList extends ArrayList<MetadataAVU> implements Serializa
 	 */
 	public int countAttributeOccurrences(String attributeCode)
 	{
-		int i = 0;
-		int c = 0;
-		while (i < this.size())
-		{
-			if (this.get(i).getAttribute().toUpperCase().equals(attributeCode.toUpperCase())){
-				c++;
-			}
-			i++;
-		}
-		return c;
+		AttributePositions positions = getAttributeIndex().get(getKey(attributeCode));
+		return (positions == null ? 0 : positions.size());
 	}
 	
 	/**
@@ -175,19 +171,7 @@ public class MetadataAVUList extends ArrayList<MetadataAVU> implements Serializa
 	 */
 	public boolean hasPair(MetadataAVU avu)
 	{
-		String attribute = avu.getAttribute();
-		String value = avu.getValue();
-		int i = 0;
-		boolean found = false;
-		while (i < this.size() && !found)
-		{
-			if ( (this.get(i).getAttribute().toUpperCase().equals(attribute.toUpperCase()))
-					&& (this.get(i).getValue().toUpperCase().equals(value.toUpperCase())) ){
-				found = true;
-			}
-			i++;
-		}
-		return found;
+		return (indexOfPair(avu) >= 0);
 	}
 	
 	/**
@@ -197,21 +181,8 @@ public class MetadataAVUList extends ArrayList<MetadataAVU> implements Serializa
 	 */
 	public int indexOfPair(MetadataAVU avu)
 	{
-		String attribute = avu.getAttribute();
-		String value = avu.getValue();
-		int i = 0;
-		boolean found = false;
-		while (i < this.size() && !found)
-		{
-			if ( (this.get(i).getAttribute().toUpperCase().equals(attribute.toUpperCase()))
-					&& (this.get(i).getValue().toUpperCase().equals(value.toUpperCase())) ){
-				found = true;
-			}
-			i++;
-		}
-		if (!found)
-			i = -1;
-		return i;
+		Integer i = getPairIndex().get(getPairKey(avu.getAttribute(), avu.getValue()));
+		return (i == null ? -1 : i);
 	}
 	
 	/**
@@ -231,23 +202,15 @@ public class MetadataAVUList extends ArrayList<MetadataAVU> implements Serializa
 	public void updatePair(String attribute, String newValue, boolean overwrite)
 	{
 		//look for existing AVU
-		int i = 0;
-		boolean found = false;
-		while (i < this.size() && !found)
-		{
-			if (this.get(i).getAttribute().toUpperCase().equals(attribute.toUpperCase())){
-				found = true;
-			}
-			else i++;
-		}
+		AttributePositions positions = getAttributeIndex().get(getKey(attribute));
 		
 		//remove existing AVU if found and overwrite allowed
-		if (found && overwrite)
+		if (positions != null && overwrite)
 		{
-			this.remove(i);
+			this.remove(positions.get(0));
 			this.add(new MetadataAVU(attribute, newValue));
 		}
-		else if (!found){
+		else if (positions == null){
 			this.add(new MetadataAVU(attribute, newValue));
 		}
 	}
@@ -288,8 +251,9 @@ public class MetadataAVUList extends ArrayList<MetadataAVU> implements Serializa
 	 */
 	public MetadataAVUList filter(List<String> attributes){
 		MetadataAVUList restrictedList = new MetadataAVUList();
+		HashSet<String> attributeSet = new HashSet<String>(attributes);
 		for (MetadataAVU avu : this){
-			if (attributes.contains(avu.getAttribute())){
+			if (attributeSet.contains(avu.getAttribute())){
 				restrictedList.add(avu);
 			}
 		}
@@ -350,10 +314,94 @@ public class MetadataAVUList extends ArrayList<MetadataAVU> implements Serializa
 	 * Convert list of metadata to a string
 	 */
 	public String toString(){
-		String res = "Metadata\n";
+		StringBuilder res = new StringBuilder("Metadata\n");
 		for (MetadataAVU pair : this){
-			res = res + "\t" + pair.toString() + "\n";
+			res.append("\t").append(pair.toString()).append("\n");
+		}
+		return res.toString();
+	}
+	
+	/**
+	 * Get index of (attribute, value) pairs, rebuilt if the list was modified since last indexing
+	 * @return Position of the first occurrence of each pair
+	 */
+	private HashMap<String, Integer> getPairIndex(){
+		checkIndex();
+		return pairIndex;
+	}
+	
+	/**
+	 * Get index of attributes, rebuilt if the list was modified since last indexing
+	 * @return Positions of the AVUs for each attribute (in order of first appearance)
+	 */
+	private LinkedHashMap<String, AttributePositions> getAttributeIndex(){
+		checkIndex();
+		return attributeIndex;
+	}
+	
+	private void checkIndex()
+	{
+		if (pairIndex != null && indexedModCount == modCount)
+			return;
+		pairIndex = new HashMap<String, Integer>(Math.max(16, 2*this.size()));
+		attributeIndex = new LinkedHashMap<String, AttributePositions>();
+		for (int i=0; i<this.size(); i++){
+			indexAVU(this.get(i), i);
+		}
+		indexedModCount = modCount;
+	}
+	
+	private void clearIndex(){
+		pairIndex = null;
+		attributeIndex = null;
+	}
+	
+	/**
+	 * Add AVU to the index
+	 * @param avu AVU
+	 * @param position Position of the AVU in the list
+	 */
+	private void indexAVU(MetadataAVU avu, int position)
+	{
+		if (pairIndex == null)
+			return;
+		String attributeKey = getKey(avu.getAttribute());
+		String pairKey = getPairKey(avu.getAttribute(), avu.getValue());
+		if (!pairIndex.containsKey(pairKey))
+			pairIndex.put(pairKey, position);
+		AttributePositions positions = attributeIndex.get(attributeKey);
+		if (positions == null){
+			positions = new AttributePositions();
+			attributeIndex.put(attributeKey, positions);
+		}
+		positions.add(position);
+	}
+	
+	private static String getKey(String str){
+		return (str == null ? "\u0000" : str.toUpperCase());
+	}
+	
+	private static String getPairKey(String attribute, String value){
+		return getKey(attribute) + '\u0001' + getKey(value);
+	}
+	
+	/**
+	 * Positions of the AVUs sharing the same attribute
+	 */
+	private static class AttributePositions {
+		private int[] positions = new int[1];
+		private int size = 0;
+		
+		private void add(int position){
+			if (size == positions.length)
+				positions = Arrays.copyOf(positions, 2*size);
+			positions[size++] = position;
+		}
+		private int get(int i){
+			return positions[i];
+		}
+		private int size(){
+			return size;
 		}
-		return res;
 	}
 }
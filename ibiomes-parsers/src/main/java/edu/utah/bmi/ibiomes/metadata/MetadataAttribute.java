@@ -71,6 +71,19 @@ public class MetadataAttribute implements Serializable {
 		this.ontologyValueTerm = concept;
 	}
 	
+	/**
+	 * Copy constructor
+	 * @param attribute Attribute to copy
+	 */
+	public MetadataAttribute(MetadataAttribute attribute){
+		this.code = attribute.code;
+		this.term = attribute.term;
+		this.definition = attribute.definition;
+		this.type = attribute.type;
+		this.ontologyValueTerm = attribute.ontologyValueTerm;
+		this.standard = attribute.standard;
+	}
+	
 	/**
 	 * Get attribute code
 	 * @return Attribute code
@@ -0,0 +1,194 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.metadata;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory cache for dictionary lookups (attribute definitions, lists of values).
+ * Entries expire after a configurable time-to-live and can be invalidated explicitly.
+ * @author Julien Thibault, University of Utah
+ *
+ */
+public class MetadataDictionaryCache {
+
+	/**
+	 * Default time-to-live for cache entries (10 minutes)
+	 */
+	public final static long DEFAULT_TIME_TO_LIVE = 600000;
+	
+	private ConcurrentHashMap<String, CacheEntry> entries;
+	private long timeToLive;
+	private AtomicLong hitCount = new AtomicLong(0);
+	private AtomicLong missCount = new AtomicLong(0);
+	
+	/**
+	 * New cache with default time-to-live
+	 */
+	public MetadataDictionaryCache(){
+		this(DEFAULT_TIME_TO_LIVE);
+	}
+	
+	/**
+	 * New cache
+	 * @param timeToLive Time-to-live for cache entries, in milliseconds (0 or less to disable expiration)
+	 */
+	public MetadataDictionaryCache(long timeToLive){
+		this.entries = new ConcurrentHashMap<String, CacheEntry>();
+		this.timeToLive = timeToLive;
+	}
+	
+	/**
+	 * Get time-to-live for cache entries
+	 * @return Time-to-live in milliseconds
+	 */
+	public long getTimeToLive() {
+		return timeToLive;
+	}
+
+	/**
+	 * Set time-to-live for new cache entries
+	 * @param timeToLive Time-to-live in milliseconds (0 or less to disable expiration)
+	 */
+	public void setTimeToLive(long timeToLive) {
+		this.timeToLive = timeToLive;
+	}
+
+	/**
+	 * Get cached object
+	 * @param key Key
+	 * @return Cached object or null if not found or expired
+	 */
+	public Object get(String key)
+	{
+		CacheEntry entry = entries.get(key);
+		if (entry != null && entry.isExpired()){
+			entries.remove(key, entry);
+			entry = null;
+		}
+		if (entry == null){
+			missCount.incrementAndGet();
+			return null;
+		}
+		hitCount.incrementAndGet();
+		return entry.value;
+	}
+	
+	/**
+	 * Add object to the cache
+	 * @param key Key
+	 * @param value Object (null values are not cached)
+	 */
+	public void put(String key, Object value)
+	{
+		if (value == null)
+			return;
+		long expiration = (timeToLive > 0 ? System.currentTimeMillis() + timeToLive : Long.MAX_VALUE);
+		entries.put(key, new CacheEntry(value, expiration));
+	}
+	
+	/**
+	 * Remove object from the cache
+	 * @param key Key
+	 */
+	public void invalidate(String key){
+		entries.remove(key);
+	}
+	
+	/**
+	 * Remove all objects with a key starting with the given prefix
+	 * @param prefix Key prefix
+	 */
+	public void invalidateAll(String prefix)
+	{
+		for (String key : entries.keySet()){
+			if (key.startsWith(prefix))
+				entries.remove(key);
+		}
+	}
+	
+	/**
+	 * Remove all objects from the cache
+	 */
+	public void clear(){
+		entries.clear();
+	}
+	
+	/**
+	 * Get number of cached objects (including expired objects not evicted yet)
+	 * @return Number of cached objects
+	 */
+	public int size(){
+		return entries.size();
+	}
+	
+	/**
+	 * Get number of cache hits
+	 * @return Number of cache hits
+	 */
+	public long getHitCount(){
+		return hitCount.get();
+	}
+	
+	/**
+	 * Get number of cache misses
+	 * @return Number of cache misses
+	 */
+	public long getMissCount(){
+		return missCount.get();
+	}
+	
+	/**
+	 * Get hit ratio
+	 * @return Ratio of lookups served from the cache (0 if no lookup)
+	 */
+	public double getHitRatio(){
+		long hits = hitCount.get();
+		long total = hits + missCount.get();
+		return (total == 0 ? 0.0 : (double)hits / total);
+	}
+	
+	/**
+	 * Reset hit/miss statistics
+	 */
+	public void resetStatistics(){
+		hitCount.set(0);
+		missCount.set(0);
+	}
+	
+	@Override
+	public String toString(){
+		return "Dictionary cache: " + size() + " entries, " 
+				+ getHitCount() + " hits, " + getMissCount() + " misses";
+	}
+	
+	private static class CacheEntry {
+		private final Object value;
+		private final long expiration;
+		
+		private CacheEntry(Object value, long expiration){
+			this.value = value;
+			this.expiration = expiration;
+		}
+		private boolean isExpired(){
+			return (System.currentTimeMillis() > expiration);
+		}
+	}
+}
@@ -28,7 +28,9 @@ import javax.sql.DataSource;
 import org.apache.log4j.Logger;
 
 /**
- * SQL interface for the metadata schema database
+ * SQL interface for the metadata schema database. Attribute definitions and lists of values
+ * are cached (read-through) so that dictionaries are not queried on every request. 
+ * Callers get copies of the cached attributes and values.
  * @author Julien Thibault
  *
  */
@@ -36,9 +38,39 @@ public class MetadataSqlConnector {
 
 	private final Logger logger = Logger.getLogger(MetadataSqlConnector.class);
 
+	private final static String CACHE_KEY_ATTRIBUTE = "attribute:";
+	private final static String CACHE_KEY_VALUES = "values:";
+	private final static String CACHE_KEY_PROCEDURE = "procedure:";
+	private final static String CACHE_KEY_ALL_ATTRIBUTES = "attributes";
+	
+	/**
+	 * Attributes for which lists of values are loaded when the cache is warmed up
+	 */
+	private final static String[] DICTIONARY_ATTRIBUTES = {
+		MethodMetadata.COMPUTATIONAL_METHOD_NAME, MethodMetadata.CONSTRAINT_ALGORITHM,
+		MethodMetadata.BOUNDARY_CONDITIONS, MethodMetadata.SOLVENT_TYPE,
+		MethodMetadata.FORCE_FIELD, MethodMetadata.ELECTROSTATICS_MODELING,
+		MethodMetadata.UNIT_SHAPE, MethodMetadata.MM_INTEGRATOR,
+		MethodMetadata.ENSEMBLE_MODELING, MethodMetadata.BAROSTAT_ALGORITHM,
+		MethodMetadata.THERMOSTAT_ALGORITHM, MethodMetadata.ENHANCED_SAMPLING_METHOD_NAME,
+		MethodMetadata.QM_METHOD_NAME, MethodMetadata.QM_LEVEL_OF_THEORY,
+		MethodMetadata.QM_BASIS_SET, MethodMetadata.QM_BASIS_SET_FAMILY,
+		MethodMetadata.CALCULATION, MethodMetadata.QMD_METHOD,
+		PlatformMetadata.SOFTWARE_NAME, FileMetadata.FILE_FORMAT,
+		PlatformMetadata.OPERATING_SYSTEM, PlatformMetadata.CPU_ARCHITECTURE,
+		PlatformMetadata.HARDWARE_MAKE, TopologyMetadata.MOLECULE_TYPE
+	};
+	private final static String[] DICTIONARY_PROCEDURES = {
+		"get_list_structure_db", "get_list_literature_db"
+	};
+	
 	private DataSource dataSource;
+	private MetadataDictionaryCache cache = new MetadataDictionaryCache();
+	private boolean cacheEnabled = true;
 	 
 	public void setDataSource(DataSource dataSource) {
+		if (this.dataSource != dataSource)
+			cache.clear();
 		this.dataSource = dataSource;
 	}
 	
@@ -50,6 +82,93 @@ public class MetadataSqlConnector {
 	{
 	}
 	
+	/**
+	 * Get dictionary cache (e.g. to access hit/miss statistics)
+	 * @return Dictionary cache
+	 */
+	public MetadataDictionaryCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * Set dictionary cache (e.g. to share a cache between connectors)
+	 * @param cache Dictionary cache
+	 */
+	public void setCache(MetadataDictionaryCache cache) {
+		this.cache = cache;
+	}
+	
+	/**
+	 * Set time-to-live of cached dictionary entries
+	 * @param seconds Time-to-live in seconds (0 or less to disable expiration)
+	 */
+	public void setCacheTimeToLive(long seconds) {
+		cache.setTimeToLive(1000*seconds);
+	}
+
+	/**
+	 * Check if dictionary lookups are cached
+	 * @return True if dictionary lookups are cached
+	 */
+	public boolean isCacheEnabled() {
+		return cacheEnabled;
+	}
+
+	/**
+	 * Enable/disable caching of dictionary lookups
+	 * @param cacheEnabled True to cache dictionary lookups
+	 */
+	public void setCacheEnabled(boolean cacheEnabled) {
+		this.cacheEnabled = cacheEnabled;
+		if (!cacheEnabled)
+			cache.clear();
+	}
+	
+	/**
+	 * Remove all cached dictionary entries
+	 */
+	public void invalidateCache(){
+		cache.clear();
+	}
+	
+	/**
+	 * Remove cached entries (definition and list of values) for the given attribute
+	 * @param attributeCode Metadata attribute code
+	 */
+	public void invalidateCache(String attributeCode){
+		cache.invalidate(CACHE_KEY_ATTRIBUTE + attributeCode);
+		cache.invalidate(CACHE_KEY_VALUES + attributeCode);
+		cache.invalidate(CACHE_KEY_ALL_ATTRIBUTES);
+	}
+	
+	/**
+	 * Load all attribute definitions and dictionaries (lists of values) into the cache. 
+	 * Errors are logged but not thrown so that this method can be used at startup 
+	 * even if the database is not available.
+	 * @return True if all dictionaries were loaded
+	 */
+	public boolean warmUpCache()
+	{
+		if (!cacheEnabled)
+			return false;
+		long start = System.currentTimeMillis();
+		try {
+			getAllAttributes();
+			for (String attributeCode : DICTIONARY_ATTRIBUTES){
+				getAttributeValues(attributeCode);
+			}
+			for (String procName : DICTIONARY_PROCEDURES){
+				getListFromProcedure(procName);
+			}
+			logger.info("Metadata dictionaries loaded in " + (System.currentTimeMillis()-start) + " ms (" + cache.size() + " entries)");
+			return true;
+		}
+		catch (Exception e){
+			logger.warn("Cannot load metadata dictionaries: " + e.getMessage());
+			return false;
+		}
+	}
+	
 	/**
 	 * Retrieve metadata attribute information from its code
 	 * @param attrCode Metadata attribute code
@@ -58,6 +177,18 @@ public class MetadataSqlConnector {
 	 * @throws ClassNotFoundException
 	 */
 	public MetadataAttribute getAttributeByCode(String attrCode) throws SQLException, ClassNotFoundException
+	{
+		if (!cacheEnabled)
+			return queryAttributeByCode(attrCode);
+		MetadataAttribute attribute = (MetadataAttribute)cache.get(CACHE_KEY_ATTRIBUTE + attrCode);
+		if (attribute == null){
+			attribute = queryAttributeByCode(attrCode);
+			cache.put(CACHE_KEY_ATTRIBUTE + attrCode, attribute);
+		}
+		return (attribute == null ? null : new MetadataAttribute(attribute));
+	}
+	
+	private MetadataAttribute queryAttributeByCode(String attrCode) throws SQLException, ClassNotFoundException
 	{
 		//open connection to DB
 		Connection con = dataSource.getConnection();
@@ -94,6 +225,18 @@ public class MetadataSqlConnector {
 	 * @throws ClassNotFoundException
 	 */
 	public MetadataValueList getAttributeValues(String attributeCode) throws SQLException, ClassNotFoundException
+	{
+		if (!cacheEnabled)
+			return queryAttributeValues(attributeCode);
+		MetadataValueList values = (MetadataValueList)cache.get(CACHE_KEY_VALUES + attributeCode);
+		if (values == null){
+			values = queryAttributeValues(attributeCode);
+			cache.put(CACHE_KEY_VALUES + attributeCode, values);
+		}
+		return copy(values);
+	}
+	
+	private MetadataValueList queryAttributeValues(String attributeCode) throws SQLException, ClassNotFoundException
 	{
 		//open connection to DB
 		Connection con = dataSource.getConnection();
@@ -166,6 +309,26 @@ public class MetadataSqlConnector {
 	 * @throws ClassNotFoundException
 	 */
 	public MetadataAttributeList getAllAttributes() throws SQLException, ClassNotFoundException
+	{
+		if (!cacheEnabled)
+			return queryAllAttributes();
+		MetadataAttributeList attributes = (MetadataAttributeList)cache.get(CACHE_KEY_ALL_ATTRIBUTES);
+		if (attributes == null){
+			attributes = queryAllAttributes();
+			cache.put(CACHE_KEY_ALL_ATTRIBUTES, attributes);
+			//attribute definitions can be served from the full list
+			for (MetadataAttribute attribute : attributes){
+				cache.put(CACHE_KEY_ATTRIBUTE + attribute.getCode(), attribute);
+			}
+		}
+		MetadataAttributeList list = new MetadataAttributeList();
+		for (MetadataAttribute attribute : attributes){
+			list.add(new MetadataAttribute(attribute));
+		}
+		return list;
+	}
+	
+	private MetadataAttributeList queryAllAttributes() throws SQLException, ClassNotFoundException
 	{
 		//open connection to DB
 		Connection con = dataSource.getConnection();
@@ -200,6 +363,31 @@ public class MetadataSqlConnector {
 	 * @throws ClassNotFoundException
 	 */
 	private MetadataValueList getListFromProcedure(String procName) throws SQLException, ClassNotFoundException
+	{
+		if (!cacheEnabled)
+			return queryListFromProcedure(procName);
+		MetadataValueList values = (MetadataValueList)cache.get(CACHE_KEY_PROCEDURE + procName);
+		if (values == null){
+			values = queryListFromProcedure(procName);
+			cache.put(CACHE_KEY_PROCEDURE + procName, values);
+		}
+		return copy(values);
+	}
+	
+	/**
+	 * Copy cached list and its values so that callers cannot modify the cache content
+	 * @param values Cached list of values
+	 * @return Copy of the list
+	 */
+	private static MetadataValueList copy(MetadataValueList values){
+		MetadataValueList list = new MetadataValueList();
+		for (MetadataValue value : values){
+			list.add(new MetadataValue(value));
+		}
+		return list;
+	}
+	
+	private MetadataValueList queryListFromProcedure(String procName) throws SQLException, ClassNotFoundException
 	{
 		Connection con = dataSource.getConnection();
 		CallableStatement proc = null;
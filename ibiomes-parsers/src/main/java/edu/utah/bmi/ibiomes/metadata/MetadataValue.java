@@ -45,6 +45,13 @@ public class MetadataValue implements Serializable {
 	public MetadataValue(){
 	}
 	
+	public MetadataValue(MetadataValue value){
+		this.code = value.code;
+		this.term = value.term;
+		this.definition = value.definition;
+		this.standard = value.standard;
+	}
+	
 	public String getCode() {
 		return this.code;
 	}
@@ -0,0 +1,82 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.metadata;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pool of canonical metadata attributes and values (e.g. software names, force fields, units).
+ * Only short values are pooled, and the pool stops growing once it reaches its maximum
+ * size, so that unique values (file paths, descriptions) do not fill the heap.
+ * @author Julien Thibault, University of Utah
+ *
+ */
+public class MetadataValuePool {
+
+	/**
+	 * Maximum length of pooled values
+	 */
+	public final static int MAX_VALUE_LENGTH = 64;
+	/**
+	 * Maximum number of pooled values
+	 */
+	public final static int MAX_POOL_SIZE = 100000;
+	
+	private static final MetadataValuePool instance = new MetadataValuePool();
+	
+	private ConcurrentHashMap<String, String> values;
+	
+	private MetadataValuePool(){
+		this.values = new ConcurrentHashMap<String, String>(1024);
+	}
+	
+	/**
+	 * Get value pool
+	 * @return Value pool
+	 */
+	public static MetadataValuePool getInstance(){
+		return instance;
+	}
+	
+	/**
+	 * Get canonical instance of a value
+	 * @param value Value
+	 * @return Canonical instance of the value, or the value itself if it cannot be pooled
+	 */
+	public String intern(String value)
+	{
+		if (value == null || value.length() > MAX_VALUE_LENGTH)
+			return value;
+		String canonical = values.get(value);
+		if (canonical != null)
+			return canonical;
+		if (values.size() >= MAX_POOL_SIZE)
+			return value;
+		canonical = values.putIfAbsent(value, value);
+		return (canonical != null ? canonical : value);
+	}
+	
+	/**
+	 * Get number of pooled values
+	 * @return Number of values
+	 */
+	public int size(){
+		return values.size();
+	}
+}
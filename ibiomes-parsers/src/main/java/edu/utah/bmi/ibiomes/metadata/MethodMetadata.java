@@ -175,6 +175,14 @@ public class MethodMetadata extends IbiomesDictionary {
 	 * Number of exchanges between replicas for the sampling method 
 	 */
 	public static final String REMD_EXCHANGE_COUNT = "REMD_EXCHANGE_COUNT";
+	/**
+	 * Ratio of accepted exchanges between neighbor replicas (all pairs)
+	 */
+	public static final String REMD_EXCHANGE_ACCEPTANCE_RATIO = "REMD_EXCHANGE_ACCEPTANCE_RATIO";
+	/**
+	 * Lowest ratio of accepted exchanges for a pair of neighbor replicas
+	 */
+	public static final String REMD_EXCHANGE_ACCEPTANCE_RATIO_MIN = "REMD_EXCHANGE_ACCEPTANCE_RATIO_MIN";
 	/**
 	 * Random seed for Langevin Dynamics
 	 */
@@ -41,6 +41,10 @@ public class TrajectoryMetadata extends IbiomesDictionary {
 	 * Specifies the last time frame that is represented by the associated averaged structure or trajectory.
 	 */
 	public static final String TIME_STEP_END = "TIME_STEP_END";
+	/**
+	 * Number of files (segments) the trajectory is split into
+	 */
+	public static final String TRAJECTORY_SEGMENT_COUNT = "TRAJECTORY_SEGMENT_COUNT";
 
 	/**
 	 * Get list of trajectory metadata attributes
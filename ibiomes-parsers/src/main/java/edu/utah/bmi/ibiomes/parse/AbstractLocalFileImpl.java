@@ -57,6 +57,7 @@ public abstract class AbstractLocalFileImpl extends File implements LocalFile
 	protected String externalURL;
 	protected MetadataAVUList extendedAttributes;
 	protected List<String> assignedClasses;
+	private transient MetadataAVUList cachedMetadata;
 	
 	private AbstractLocalFileImpl(){
 		super(".");
@@ -249,6 +250,50 @@ public abstract class AbstractLocalFileImpl extends File implements LocalFile
 		this.extendedAttributes = extendedAttributes;
 	}
 	
+	/**
+	 * Set metadata recorded for this file by a previous parsing run (see DirectoryParsingManifest).
+	 * When set, they are returned by getMetadata() instead of the metadata extracted from the file content.
+	 * @param cachedMetadata Recorded metadata (null to extract metadata from the file content)
+	 */
+	public void setCachedMetadata(MetadataAVUList cachedMetadata) {
+		this.cachedMetadata = cachedMetadata;
+	}
+	
+	/**
+	 * Check if metadata recorded by a previous parsing run were set for this file
+	 * @return True if recorded metadata are available
+	 */
+	protected boolean hasCachedMetadata() {
+		return (this.cachedMetadata != null);
+	}
+	
+	/**
+	 * Get copy of the metadata recorded by a previous parsing run, updated with 
+	 * the description, extended attributes and classes currently assigned to this file
+	 * @return Metadata (empty if no metadata were recorded)
+	 */
+	protected MetadataAVUList getCachedMetadata()
+	{
+		MetadataAVUList metadata = new MetadataAVUList();
+		if (cachedMetadata != null)
+			metadata.addAll(cachedMetadata);
+
+		if (this.description != null && this.description.length()>0)
+			metadata.updatePair(FileMetadata.FILE_DESCRIPTION, this.description);
+
+		if (extendedAttributes!=null){
+			for (MetadataAVU overrideAVU : extendedAttributes){
+				metadata.updatePair(overrideAVU.getAttribute(), overrideAVU.getValue());
+			}
+		}
+		if (assignedClasses!=null){
+			for (String assignedClass : assignedClasses){
+				metadata.updatePair(FileMetadata.FILE_CLASS, assignedClass.toUpperCase());
+			}
+		}
+		return metadata;
+	}
+	
 	/**
 	 * Return the set of metadata defined for this file.
 	 * @return Set of metadata defined for this file
@@ -258,6 +303,9 @@ public abstract class AbstractLocalFileImpl extends File implements LocalFile
 	@XmlElement(name="AVU")
 	public MetadataAVUList getMetadata() throws Exception
 	{
+		if (hasCachedMetadata())
+			return getCachedMetadata();
+		
 		MetadataAVUList metadata = new MetadataAVUList();
 		
 		if (this.format != null && this.format.length()>0)
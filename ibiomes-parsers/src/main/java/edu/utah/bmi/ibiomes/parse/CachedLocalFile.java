@@ -0,0 +1,56 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.parse;
+
+import java.io.IOException;
+
+import edu.utah.bmi.ibiomes.metadata.MetadataAVUList;
+
+/**
+ * Local file that was not modified since the last parsing run.
+ * Metadata are read from the parsing manifest instead of the file content.
+ * @author Julien Thibault, University of Utah
+ *
+ */
+public class CachedLocalFile extends AbstractLocalFileImpl
+{
+	private static final long serialVersionUID = 6283914521377083745L;
+
+	/**
+	 * Constructor
+	 * @param localPath Local path to the file
+	 * @param entry Manifest entry for this file
+	 * @throws IOException
+	 */
+	public CachedLocalFile(String localPath, DirectoryParsingManifestEntry entry) throws IOException{
+		super(localPath, entry.getFormat(), entry.getFileType());
+		this.setCachedMetadata(entry.getMetadata());
+	}
+
+	/**
+	 * Return the set of metadata defined for this file.
+	 * @return Set of metadata defined for this file
+	 * @throws Exception
+	 */
+	@Override
+	public MetadataAVUList getMetadata() throws Exception
+	{
+		return getCachedMetadata();
+	}
+}
@@ -21,6 +21,8 @@ package edu.utah.bmi.ibiomes.parse;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import org.apache.log4j.Logger;
 
@@ -45,6 +47,9 @@ public class DirectoryParser {
 	protected DirectoryStructureDescriptor parserRuleSet;
 	private LocalFileFactory factory;
 	protected List<IBIOMESListener> listeners;
+	protected int numberOfThreads = 1;
+	protected String manifestPath;
+	private DirectoryParsingManifest manifest;
 		
 	/**
 	 * 
@@ -101,6 +106,12 @@ public class DirectoryParser {
 		this.listeners = listeners;
 		this.parserRuleSet = descriptorFile;
 		this.factory = LocalFileFactory.instance();
+		try {
+			this.setNumberOfThreads(IBIOMESConfiguration.getInstance().getParserThreads());
+		}
+		catch (Exception e){
+			this.numberOfThreads = 1;
+		}
 	}
 	
 	/**
@@ -144,6 +155,42 @@ public class DirectoryParser {
 			this.description = desc.trim();
 	}
 	
+	/**
+	 * Get maximum number of threads used for parsing
+	 * @return Maximum number of threads (1 if sequential)
+	 */
+	public int getNumberOfThreads(){
+		return this.numberOfThreads;
+	}
+	
+	/**
+	 * Set maximum number of threads used for parsing. Subdirectories 
+	 * and files are parsed concurrently when more than one thread is allowed.
+	 * @param numberOfThreads Maximum number of threads (1 for sequential parsing)
+	 */
+	public void setNumberOfThreads(int numberOfThreads){
+		if (numberOfThreads < 1)
+			this.numberOfThreads = 1;
+		else this.numberOfThreads = numberOfThreads;
+	}
+	
+	/**
+	 * Get path to the parsing manifest file
+	 * @return Path to the parsing manifest file (null if incremental parsing is off)
+	 */
+	public String getManifestPath(){
+		return this.manifestPath;
+	}
+	
+	/**
+	 * Set path to the parsing manifest file. When set, the manifest generated by the previous run 
+	 * is used to skip files that did not change, and is updated at the end of the parsing.
+	 * @param manifestPath Path to the parsing manifest file (null to turn incremental parsing off)
+	 */
+	public void setManifestPath(String manifestPath){
+		this.manifestPath = manifestPath;
+	}
+	
 	/**
 	 * Parse directory using descriptor file
 	 * @param softwareContext Software context
@@ -157,7 +204,14 @@ public class DirectoryParser {
 		String relativePathFromTop = canonicalPath.substring(this.rootDirectoryPath.length(), canonicalPath.length());
 		if (dir.exists() && dir.isDirectory())
 		{
-			return this.parseDirectoryRecursive(canonicalPath, relativePathFromTop, softwareContext);
+			this.loadManifest();
+			LocalDirectory parsedDirectory = null;
+			if (this.numberOfThreads > 1)
+				parsedDirectory = this.parseDirectoryParallel(canonicalPath, relativePathFromTop, softwareContext);
+			else
+				parsedDirectory = this.parseDirectoryRecursive(canonicalPath, relativePathFromTop, softwareContext);
+			this.storeManifest();
+			return parsedDirectory;
 		}
 		else {
 			throw new Exception("Directory '"+ canonicalPath +"' does not exist!");
@@ -179,19 +233,7 @@ public class DirectoryParser {
 	{
 		File dir = new File(canonicalPath);
 		logger.info("Parsing directory '"+relativePathFromTop+"'");
-		LocalDirectoryImpl parsedDirectory = new LocalDirectoryImpl(canonicalPath, relativePathFromTop);
-		parsedDirectory.setSoftwareContext(softwareContext);
-
-		if (this.externalURL != null) {
-			String dirName = parsedDirectory.getName();
-			int idx = dirName.indexOf("/");
-			if (idx == -1) {
-				parsedDirectory.setExternalURL(this.externalURL);
-			}
-			else {
-				parsedDirectory.setExternalURL(this.externalURL + "/" + parsedDirectory.getName().substring(idx+1));
-			}
-		}
+		LocalDirectoryImpl parsedDirectory = createDirectory(canonicalPath, relativePathFromTop, softwareContext);
 		
 		String[] files = dir.list();
 		for (int f=0; f<files.length; f++)
@@ -211,68 +253,12 @@ public class DirectoryParser {
 							softwareContext);
 					parsedDirectory.addSubdirectory(subdir);
 				}
-				else {
-					//if its a regular file 
-					if (!file.getName().startsWith(".") && 
-						!file.getName().endsWith("~"))
-					{
-						//get path relative to root of project
-						String canonicalFilePath = canonicalPath + "/" + filePath;
-						String relativeFilePath = "";
-						if (relativePathFromTop != null && relativePathFromTop.length()>0){
-							relativeFilePath = relativePathFromTop + "/";
-						}
-						relativeFilePath += filePath;
-						
-						String fileFormat = null;
-						String fileDescription = null;
-						MetadataAVUList fileExtendedAttributes = null;
-						List<String> fileClasses = null;
-						
-						//retrieve file properties defined in descriptor file
-						if (this.parserRuleSet!=null){
-							DirectoryStructureRuleSet ruleSet = this.parserRuleSet.getRuleSetForFile(relativeFilePath);
-							fileExtendedAttributes = ruleSet.getExtendedAttributes();
-							fileFormat = ruleSet.getFileFormat();
-							fileDescription = ruleSet.getDescription();
-							fileClasses = ruleSet.getFileClasses();
-							String fileSoftwareContext = ruleSet.getSoftwareContext();
-							if (fileSoftwareContext!=null)
-								softwareContext = fileSoftwareContext;
-						}
-						
-						//get file reference
-						try{
-							LocalFile localFile = null;
-							if (fileFormat != null && fileFormat.length()>0)
-								localFile = factory.getFileInstanceFromFormat(canonicalFilePath, fileFormat);
-							else
-								localFile = factory.getFile(canonicalFilePath, softwareContext);
-							
-							//add/update properties parsed from descriptor
-							localFile.setAssignedClasses(fileClasses);
-							localFile.setDescription(fileDescription);
-							localFile.setExtendedAttributes(fileExtendedAttributes);
-							
-							//add relative path
-							localFile.setRelativePathFromProjectRoot(canonicalFilePath.substring(this.rootDirectoryPath.length() + 1));
-
-							if (externalURL != null) { 
-								localFile.setExternalURL(externalURL + "/" + localFile.getRelativePathFromProjectRoot());
-							}
-	
-							//add file to directory
-							if (!parsedDirectory.getFilesByFormat().containsKey(localFile.getFormat())){
-								parsedDirectory.getFilesByFormat().put(localFile.getFormat(), new ArrayList<LocalFile>());
-							}
-							parsedDirectory.getFilesByFormat().get(localFile.getFormat()).add(localFile);
-						} catch (Exception e) {
-							if (IBIOMESConfiguration.getInstance().isOutputErrorStackToConsole())
-								e.printStackTrace();
-						}
-					}
+				else if (isParsable(file)){
+					LocalFile localFile = parseFile(canonicalPath, relativePathFromTop, filePath, softwareContext);
+					addFile(parsedDirectory, localFile);
 					updateListeners();
 				}
+				else updateListeners();
 			}
 			else{
 				logger.info("File "+filePath+" is not readable");
@@ -281,14 +267,335 @@ public class DirectoryParser {
 		return parsedDirectory;
 	}
 	
+	/**
+	 * Parse directory using a fork/join pool. Subdirectories and files are parsed concurrently
+	 * but added to the resulting tree in the same order as in the sequential mode.
+	 * @param canonicalPath Path to directory to parse
+	 * @param relativePathFromTop Relative path of directory from project root
+	 * @param softwareContext Software context for parsing
+	 * @return Parsed directory
+	 * @throws Exception
+	 */
+	private LocalDirectory parseDirectoryParallel(
+			String canonicalPath, 
+			String relativePathFromTop, 
+			String softwareContext) throws Exception
+	{
+		logger.info("Parsing directory with " + this.numberOfThreads + " threads");
+		ForkJoinPool pool = new ForkJoinPool(this.numberOfThreads);
+		try {
+			return pool.invoke(new DirectoryParsingTask(canonicalPath, relativePathFromTop, softwareContext));
+		}
+		catch (DirectoryParsingException e){
+			throw e.getCause();
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+	
+	/**
+	 * Create new directory reference (no files or subdirectories)
+	 * @param canonicalPath Path to directory
+	 * @param relativePathFromTop Relative path of directory from project root
+	 * @param softwareContext Software context for parsing
+	 * @return Directory reference
+	 * @throws Exception
+	 */
+	private LocalDirectoryImpl createDirectory(
+			String canonicalPath, 
+			String relativePathFromTop, 
+			String softwareContext) throws Exception
+	{
+		LocalDirectoryImpl parsedDirectory = new LocalDirectoryImpl(canonicalPath, relativePathFromTop);
+		parsedDirectory.setSoftwareContext(softwareContext);
+
+		if (this.externalURL != null) {
+			String dirName = parsedDirectory.getName();
+			int idx = dirName.indexOf("/");
+			if (idx == -1) {
+				parsedDirectory.setExternalURL(this.externalURL);
+			}
+			else {
+				parsedDirectory.setExternalURL(this.externalURL + "/" + parsedDirectory.getName().substring(idx+1));
+			}
+		}
+		return parsedDirectory;
+	}
+	
+	/**
+	 * Load parsing manifest generated by the previous run, if any
+	 */
+	private void loadManifest(){
+		if (this.manifestPath == null){
+			this.manifest = null;
+			return;
+		}
+		boolean checksumOn = false;
+		try {
+			checksumOn = IBIOMESConfiguration.getInstance().isParserManifestChecksumOn();
+		} catch (Exception e) {
+			logger.warn("Cannot load iBIOMES configuration");
+		}
+		this.manifest = DirectoryParsingManifest.load(this.manifestPath, checksumOn);
+	}
+	
+	/**
+	 * Store parsing manifest for the next run
+	 */
+	private void storeManifest(){
+		if (this.manifest != null){
+			logger.info("Parsing manifest: " + manifest.getHits() + " unchanged file(s), " + manifest.getMisses() + " new or modified file(s)");
+			manifest.removeUnseenEntries();
+			try {
+				manifest.store(this.manifestPath);
+			} catch (Exception e) {
+				logger.warn("Cannot store parsing manifest at " + this.manifestPath + ": " + e.getMessage());
+			}
+		}
+	}
+	
+	/**
+	 * Check if the given regular file should be parsed (hidden and backup files are ignored)
+	 * @param file File
+	 * @return True if the file should be parsed
+	 */
+	private boolean isParsable(File file){
+		return (!file.getName().startsWith(".") && 
+				!file.getName().endsWith("~"));
+	}
+	
+	/**
+	 * Parse a single file
+	 * @param canonicalPath Path to parent directory
+	 * @param relativePathFromTop Relative path of parent directory from project root
+	 * @param filePath File name
+	 * @param softwareContext Software context for parsing
+	 * @return Parsed file or null if the file could not be parsed
+	 */
+	private LocalFile parseFile(
+			String canonicalPath, 
+			String relativePathFromTop, 
+			String filePath, 
+			String softwareContext)
+	{
+		//get path relative to root of project
+		String canonicalFilePath = canonicalPath + "/" + filePath;
+		String relativeFilePath = "";
+		if (relativePathFromTop != null && relativePathFromTop.length()>0){
+			relativeFilePath = relativePathFromTop + "/";
+		}
+		relativeFilePath += filePath;
+		
+		String fileFormat = null;
+		String fileDescription = null;
+		MetadataAVUList fileExtendedAttributes = null;
+		List<String> fileClasses = null;
+		
+		//retrieve file properties defined in descriptor file
+		if (this.parserRuleSet!=null){
+			DirectoryStructureRuleSet ruleSet = this.parserRuleSet.getRuleSetForFile(relativeFilePath);
+			fileExtendedAttributes = ruleSet.getExtendedAttributes();
+			fileFormat = ruleSet.getFileFormat();
+			fileDescription = ruleSet.getDescription();
+			fileClasses = ruleSet.getFileClasses();
+			String fileSoftwareContext = ruleSet.getSoftwareContext();
+			if (fileSoftwareContext!=null)
+				softwareContext = fileSoftwareContext;
+		}
+		
+		//get file reference
+		try{
+			LocalFile localFile = null;
+			String pathFromRoot = canonicalFilePath.substring(this.rootDirectoryPath.length() + 1);
+			String parsingContext = softwareContext + "|" + fileFormat;
+			DirectoryParsingManifestEntry manifestEntry = null;
+			if (this.manifest != null)
+				manifestEntry = manifest.findUnchangedEntry(pathFromRoot, new File(canonicalFilePath), parsingContext);
+			
+			if (manifestEntry != null && manifestEntry.isReusable())
+				localFile = new CachedLocalFile(canonicalFilePath, manifestEntry);
+			else if (manifestEntry != null){
+				//needed as parsed object for the experiment workflow: use recorded format and metadata
+				localFile = factory.getFileInstanceFromFormat(canonicalFilePath, manifestEntry.getFormat());
+				if (localFile instanceof AbstractLocalFileImpl)
+					((AbstractLocalFileImpl)localFile).setCachedMetadata(manifestEntry.getMetadata());
+			}
+			else {
+				if (fileFormat != null && fileFormat.length()>0)
+					localFile = factory.getFileInstanceFromFormat(canonicalFilePath, fileFormat);
+				else
+					localFile = factory.getFile(canonicalFilePath, softwareContext);
+				
+				//record parsing results before descriptor properties are applied
+				if (this.manifest != null){
+					try {
+						manifest.addEntry(pathFromRoot, localFile, parsingContext);
+					} catch (Exception e) {
+						logger.warn("Cannot add file " + pathFromRoot + " to parsing manifest: " + e.getMessage());
+					}
+				}
+			}
+			
+			//add/update properties parsed from descriptor
+			localFile.setAssignedClasses(fileClasses);
+			localFile.setDescription(fileDescription);
+			localFile.setExtendedAttributes(fileExtendedAttributes);
+			
+			//add relative path
+			localFile.setRelativePathFromProjectRoot(pathFromRoot);
+
+			if (externalURL != null) { 
+				localFile.setExternalURL(externalURL + "/" + localFile.getRelativePathFromProjectRoot());
+			}
+			return localFile;
+			
+		} catch (Exception e) {
+			try {
+				if (IBIOMESConfiguration.getInstance().isOutputErrorStackToConsole())
+					e.printStackTrace();
+			} catch (Exception e1) {
+				logger.warn("Cannot load iBIOMES configuration");
+			}
+			return null;
+		}
+	}
+	
+	/**
+	 * Add parsed file to directory
+	 * @param parsedDirectory Directory
+	 * @param localFile Parsed file (ignored if null)
+	 */
+	private void addFile(LocalDirectoryImpl parsedDirectory, LocalFile localFile){
+		if (localFile != null){
+			if (!parsedDirectory.getFilesByFormat().containsKey(localFile.getFormat())){
+				parsedDirectory.getFilesByFormat().put(localFile.getFormat(), new ArrayList<LocalFile>());
+			}
+			parsedDirectory.getFilesByFormat().get(localFile.getFormat()).add(localFile);
+		}
+	}
+	
 	/**
 	 * Update listeners
 	 */
 	private void updateListeners(){
 		if (this.listeners!=null && this.listeners.size()>0){
-			for (IBIOMESListener listener : this.listeners){
-				listener.update();
+			synchronized (this.listeners) {
+				for (IBIOMESListener listener : this.listeners){
+					listener.update();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Fork/join task used to parse a directory. Each subdirectory and file is parsed
+	 * in its own subtask, then results are joined in directory listing order.
+	 * @author Julien Thibault, University of Utah
+	 *
+	 */
+	private class DirectoryParsingTask extends RecursiveTask<LocalDirectory> {
+
+		private static final long serialVersionUID = 1L;
+		
+		private String canonicalPath;
+		private String relativePathFromTop;
+		private String softwareContext;
+		
+		public DirectoryParsingTask(String canonicalPath, String relativePathFromTop, String softwareContext){
+			this.canonicalPath = canonicalPath;
+			this.relativePathFromTop = relativePathFromTop;
+			this.softwareContext = softwareContext;
+		}
+		
+		@Override
+		protected LocalDirectory compute() {
+			try {
+				logger.info("Parsing directory '"+relativePathFromTop+"'");
+				LocalDirectoryImpl parsedDirectory = createDirectory(canonicalPath, relativePathFromTop, softwareContext);
+				
+				List<RecursiveTask<?>> tasks = new ArrayList<RecursiveTask<?>>();
+				String[] files = new File(canonicalPath).list();
+				for (int f=0; f<files.length; f++)
+				{
+					String filePath = files[f];
+					File file = new File(canonicalPath + "/" + filePath);
+					if (file.canRead()){
+						if (file.isDirectory())
+							tasks.add(new DirectoryParsingTask(canonicalPath + "/" + filePath, relativePathFromTop, softwareContext));
+						else if (isParsable(file))
+							tasks.add(new FileParsingTask(canonicalPath, relativePathFromTop, filePath, softwareContext));
+						else updateListeners();
+					}
+					else{
+						logger.info("File "+filePath+" is not readable");
+					}
+				}
+				invokeAll(tasks);
+				
+				//join results in listing order
+				for (RecursiveTask<?> task : tasks){
+					if (task instanceof DirectoryParsingTask)
+						parsedDirectory.addSubdirectory(((DirectoryParsingTask)task).join());
+					else
+						addFile(parsedDirectory, ((FileParsingTask)task).join());
+				}
+				return parsedDirectory;
+			}
+			catch (DirectoryParsingException e){
+				throw e;
 			}
+			catch (Exception e){
+				throw new DirectoryParsingException(e);
+			}
+		}
+	}
+	
+	/**
+	 * Fork/join task used to parse a single file
+	 * @author Julien Thibault, University of Utah
+	 *
+	 */
+	private class FileParsingTask extends RecursiveTask<LocalFile> {
+
+		private static final long serialVersionUID = 1L;
+		
+		private String canonicalPath;
+		private String relativePathFromTop;
+		private String filePath;
+		private String softwareContext;
+		
+		public FileParsingTask(String canonicalPath, String relativePathFromTop, String filePath, String softwareContext){
+			this.canonicalPath = canonicalPath;
+			this.relativePathFromTop = relativePathFromTop;
+			this.filePath = filePath;
+			this.softwareContext = softwareContext;
+		}
+		
+		@Override
+		protected LocalFile compute() {
+			LocalFile localFile = parseFile(canonicalPath, relativePathFromTop, filePath, softwareContext);
+			updateListeners();
+			return localFile;
+		}
+	}
+	
+	/**
+	 * Unchecked wrapper used to propagate directory parsing errors out of the fork/join pool
+	 * @author Julien Thibault, University of Utah
+	 *
+	 */
+	private static class DirectoryParsingException extends RuntimeException {
+		
+		private static final long serialVersionUID = 1L;
+		
+		public DirectoryParsingException(Exception e){
+			super(e);
+		}
+		
+		@Override
+		public synchronized Exception getCause(){
+			return (Exception)super.getCause();
 		}
 	}
 	
@@ -0,0 +1,358 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.parse;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlTransient;
+
+import org.apache.log4j.Logger;
+
+import edu.utah.bmi.ibiomes.conf.IBIOMESConfiguration;
+import edu.utah.bmi.ibiomes.parse.chem.MethodParameterFile;
+import edu.utah.bmi.ibiomes.parse.chem.MoleculeDefinitionFile;
+import edu.utah.bmi.ibiomes.parse.chem.TopologyFile;
+
+/**
+ * Manifest storing the fingerprint (size, modification time, optional checksum) of each
+ * file parsed in a directory, along with the detected format and extracted metadata.
+ * Used by the directory parser to reuse the results of files that did not change since the last run.
+ * @author Julien Thibault, University of Utah
+ *
+ */
+@XmlRootElement(name="manifest")
+public class DirectoryParsingManifest {
+
+	private final static Logger logger = Logger.getLogger(DirectoryParsingManifest.class);
+
+	private final static int CHECKSUM_BUFFER_SIZE = 65536;
+
+	private String version;
+	private boolean checksumOn = false;
+	private LinkedHashMap<String, DirectoryParsingManifestEntry> entries;
+	@XmlElement(name="file")
+	private List<DirectoryParsingManifestEntry> xmlEntries;
+	private HashSet<String> seenPaths;
+	private int hits = 0;
+	private int misses = 0;
+
+	public DirectoryParsingManifest(){
+		this.version = IBIOMESConfiguration.IBIOMES_VERSION;
+		this.entries = new LinkedHashMap<String, DirectoryParsingManifestEntry>();
+		this.seenPaths = new HashSet<String>();
+	}
+
+	/**
+	 * New manifest
+	 * @param checksumOn Compute content checksums to detect unchanged files
+	 */
+	public DirectoryParsingManifest(boolean checksumOn){
+		this();
+		this.checksumOn = checksumOn;
+	}
+
+	/**
+	 * Load manifest from file. Returns an empty manifest if the file does not exist,
+	 * cannot be read, or was generated by a different version of the parsers.
+	 * @param manifestPath Path to manifest file
+	 * @param checksumOn Compute content checksums to detect unchanged files
+	 * @return Manifest
+	 */
+	public static DirectoryParsingManifest load(String manifestPath, boolean checksumOn)
+	{
+		File manifestFile = new File(manifestPath);
+		if (manifestFile.exists()){
+			try {
+				JAXBContext context = JAXBContext.newInstance(DirectoryParsingManifest.class);
+				DirectoryParsingManifest manifest = (DirectoryParsingManifest)context.createUnmarshaller().unmarshal(manifestFile);
+				if (IBIOMESConfiguration.IBIOMES_VERSION.equals(manifest.getVersion())
+						&& manifest.isChecksumOn() == checksumOn){
+					return manifest;
+				}
+				else logger.info("Parsing manifest " + manifestPath + " is outdated and will be regenerated");
+			}
+			catch (JAXBException e){
+				logger.warn("Cannot read parsing manifest " + manifestPath + ": " + e.getMessage());
+			}
+		}
+		return new DirectoryParsingManifest(checksumOn);
+	}
+
+	/**
+	 * Store manifest to file
+	 * @param manifestPath Path to manifest file
+	 * @throws JAXBException
+	 */
+	public synchronized void store(String manifestPath) throws JAXBException
+	{
+		JAXBContext context = JAXBContext.newInstance(DirectoryParsingManifest.class);
+		Marshaller marshaller = context.createMarshaller();
+		marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
+		marshaller.marshal(this, new File(manifestPath));
+	}
+
+	/**
+	 * Get version of the parsers that generated the manifest
+	 * @return Version
+	 */
+	@XmlAttribute(name="version")
+	public String getVersion() {
+		return version;
+	}
+
+	/**
+	 * Set version of the parsers that generated the manifest
+	 * @param version Version
+	 */
+	public void setVersion(String version) {
+		this.version = version;
+	}
+
+	/**
+	 * Check if content checksums are used to detect unchanged files
+	 * @return True if checksums are used
+	 */
+	@XmlAttribute(name="checksum")
+	public boolean isChecksumOn() {
+		return checksumOn;
+	}
+
+	/**
+	 * Set whether content checksums are used to detect unchanged files
+	 * @param checksumOn True if checksums are used
+	 */
+	public void setChecksumOn(boolean checksumOn) {
+		this.checksumOn = checksumOn;
+	}
+
+	/**
+	 * Get manifest entries
+	 * @return Manifest entries
+	 */
+	@XmlTransient
+	public synchronized List<DirectoryParsingManifestEntry> getEntries() {
+		return new ArrayList<DirectoryParsingManifestEntry>(entries.values());
+	}
+
+	/**
+	 * Set manifest entries
+	 * @param entries Manifest entries
+	 */
+	public synchronized void setEntries(List<DirectoryParsingManifestEntry> entries) {
+		this.entries = new LinkedHashMap<String, DirectoryParsingManifestEntry>();
+		if (entries != null){
+			for (DirectoryParsingManifestEntry entry : entries){
+				this.entries.put(entry.getPath(), entry);
+			}
+		}
+	}
+
+	/**
+	 * Copy entries to the list bound to XML before writing the manifest
+	 * @param marshaller Marshaller
+	 */
+	@SuppressWarnings("unused")
+	private void beforeMarshal(Marshaller marshaller){
+		this.xmlEntries = new ArrayList<DirectoryParsingManifestEntry>(entries.values());
+	}
+
+	/**
+	 * Release the list bound to XML after writing the manifest
+	 * @param marshaller Marshaller
+	 */
+	@SuppressWarnings("unused")
+	private void afterMarshal(Marshaller marshaller){
+		this.xmlEntries = null;
+	}
+
+	/**
+	 * Index entries read from XML by path
+	 * @param unmarshaller Unmarshaller
+	 * @param parent Parent object
+	 */
+	@SuppressWarnings("unused")
+	private void afterUnmarshal(Unmarshaller unmarshaller, Object parent){
+		setEntries(xmlEntries);
+		this.xmlEntries = null;
+	}
+
+	/**
+	 * Get number of files found unchanged since the last run (files whose recorded results are reused)
+	 * @return Number of unchanged files
+	 */
+	@XmlTransient
+	public synchronized int getHits() {
+		return hits;
+	}
+
+	/**
+	 * Get number of new or modified files since the last run
+	 * @return Number of new or modified files
+	 */
+	@XmlTransient
+	public synchronized int getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Find entry for a file that did not change since the last run. Entries without 
+	 * recorded metadata cannot be reused and are counted as misses.
+	 * @param relativePath Path of the file relative to the root directory
+	 * @param file File
+	 * @param parsingContext Current parsing context
+	 * @return Manifest entry if the file did not change, null otherwise
+	 */
+	public DirectoryParsingManifestEntry findUnchangedEntry(String relativePath, File file, String parsingContext)
+	{
+		DirectoryParsingManifestEntry entry = null;
+		synchronized (this) {
+			seenPaths.add(relativePath);
+			entry = entries.get(relativePath);
+		}
+		boolean unchanged = (entry != null
+				&& entry.getMetadata() != null
+				&& entry.getSize() == file.length()
+				&& equals(entry.getParsingContext(), parsingContext));
+		if (unchanged && entry.getLastModified() != file.lastModified()){
+			//modification time changed: compare content if possible
+			unchanged = false;
+			if (this.checksumOn && entry.getChecksum() != null){
+				try {
+					unchanged = entry.getChecksum().equals(computeChecksum(file));
+				} catch (IOException e) {
+					logger.warn("Cannot compute checksum for " + file.getAbsolutePath());
+				}
+			}
+		}
+		synchronized (this) {
+			if (unchanged){
+				//same content: remember the new modification time to skip the checksum next time
+				entry.setLastModified(file.lastModified());
+				hits++;
+				return entry;
+			}
+			else {
+				misses++;
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Add or replace the entry for a parsed file
+	 * @param relativePath Path of the file relative to the root directory
+	 * @param localFile Parsed file (before any descriptor-defined property is applied)
+	 * @param parsingContext Current parsing context
+	 * @throws Exception
+	 */
+	public void addEntry(String relativePath, LocalFile localFile, String parsingContext) throws Exception
+	{
+		File file = new File(localFile.getAbsolutePath());
+		DirectoryParsingManifestEntry entry = new DirectoryParsingManifestEntry(relativePath, file.length(), file.lastModified());
+		entry.setFormat(localFile.getFormat());
+		entry.setFileType(localFile.getFileType());
+		entry.setParsingContext(parsingContext);
+		entry.setReusable(isReusable(localFile));
+		entry.setMetadata(localFile.getMetadata());
+		if (this.checksumOn)
+			entry.setChecksum(computeChecksum(file));
+
+		synchronized (this) {
+			seenPaths.add(relativePath);
+			entries.put(relativePath, entry);
+		}
+	}
+
+	/**
+	 * Remove entries for files that were not looked up during the current run (e.g. deleted files)
+	 */
+	public synchronized void removeUnseenEntries()
+	{
+		entries.keySet().retainAll(seenPaths);
+	}
+
+	/**
+	 * Check if a parsed file can be replaced by its cached results in later runs.
+	 * Files defining topologies, molecules or computational tasks (e.g. MD outputs and QM logs) 
+	 * are needed as parsed objects: the experiment workflow is built from their molecular systems 
+	 * and tasks, which are not stored in the manifest. When unchanged, these files are instantiated 
+	 * again from their recorded format (no format detection) and only their metadata are reused.
+	 * Files of unknown format are not used to build the workflow and can always be replaced.
+	 * @param localFile Parsed file
+	 * @return True if the file can be replaced by cached results
+	 */
+	public static boolean isReusable(LocalFile localFile){
+		return (LocalFile.FORMAT_UNKNOWN.equals(localFile.getFormat())
+				|| !(localFile instanceof TopologyFile
+						|| localFile instanceof MethodParameterFile
+						|| localFile instanceof MoleculeDefinitionFile));
+	}
+
+	/**
+	 * Compute MD5 checksum of the file content
+	 * @param file File
+	 * @return Hexadecimal representation of the checksum
+	 * @throws IOException
+	 */
+	public static String computeChecksum(File file) throws IOException
+	{
+		MessageDigest digest = null;
+		try {
+			digest = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[CHECKSUM_BUFFER_SIZE];
+			int n = 0;
+			while ((n = in.read(buffer)) > 0){
+				digest.update(buffer, 0, n);
+			}
+		}
+		finally {
+			in.close();
+		}
+		StringBuilder sb = new StringBuilder();
+		for (byte b : digest.digest()){
+			sb.append(String.format("%02x", b));
+		}
+		return sb.toString();
+	}
+
+	private static boolean equals(String s1, String s2){
+		return (s1 == null ? s2 == null : s1.equals(s2));
+	}
+}
@@ -0,0 +1,218 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.parse;
+
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlElementWrapper;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import edu.utah.bmi.ibiomes.metadata.MetadataAVUList;
+
+/**
+ * Entry of a directory parsing manifest: fingerprint of a parsed file and
+ * results of the last parsing (detected format and extracted metadata).
+ * @author Julien Thibault, University of Utah
+ *
+ */
+@XmlRootElement(name="file")
+public class DirectoryParsingManifestEntry {
+
+	private String path;
+	private long size;
+	private long lastModified;
+	private String checksum;
+	private String format;
+	private String fileType;
+	private String parsingContext;
+	private boolean reusable;
+	private MetadataAVUList metadata;
+
+	public DirectoryParsingManifestEntry(){
+	}
+
+	/**
+	 * New manifest entry
+	 * @param path Path of the file relative to the root directory
+	 * @param size File size in bytes
+	 * @param lastModified Last modification time (ms)
+	 */
+	public DirectoryParsingManifestEntry(String path, long size, long lastModified){
+		this.path = path;
+		this.size = size;
+		this.lastModified = lastModified;
+	}
+
+	/**
+	 * Get path of the file relative to the root directory
+	 * @return Relative path
+	 */
+	@XmlAttribute(name="path")
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * Set path of the file relative to the root directory
+	 * @param path Relative path
+	 */
+	public void setPath(String path) {
+		this.path = path;
+	}
+
+	/**
+	 * Get file size
+	 * @return File size in bytes
+	 */
+	@XmlAttribute(name="size")
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * Set file size
+	 * @param size File size in bytes
+	 */
+	public void setSize(long size) {
+		this.size = size;
+	}
+
+	/**
+	 * Get last modification time
+	 * @return Last modification time (ms)
+	 */
+	@XmlAttribute(name="mtime")
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * Set last modification time
+	 * @param lastModified Last modification time (ms)
+	 */
+	public void setLastModified(long lastModified) {
+		this.lastModified = lastModified;
+	}
+
+	/**
+	 * Get content checksum (MD5)
+	 * @return Content checksum or null if not computed
+	 */
+	@XmlAttribute(name="checksum")
+	public String getChecksum() {
+		return checksum;
+	}
+
+	/**
+	 * Set content checksum (MD5)
+	 * @param checksum Content checksum
+	 */
+	public void setChecksum(String checksum) {
+		this.checksum = checksum;
+	}
+
+	/**
+	 * Get detected file format
+	 * @return File format
+	 */
+	@XmlAttribute(name="format")
+	public String getFormat() {
+		return format;
+	}
+
+	/**
+	 * Set detected file format
+	 * @param format File format
+	 */
+	public void setFormat(String format) {
+		this.format = format;
+	}
+
+	/**
+	 * Get file type
+	 * @return File type
+	 */
+	@XmlAttribute(name="type")
+	public String getFileType() {
+		return fileType;
+	}
+
+	/**
+	 * Set file type
+	 * @param fileType File type
+	 */
+	public void setFileType(String fileType) {
+		this.fileType = fileType;
+	}
+
+	/**
+	 * Get parsing context (software context and format forced by parsing rules)
+	 * @return Parsing context
+	 */
+	@XmlAttribute(name="context")
+	public String getParsingContext() {
+		return parsingContext;
+	}
+
+	/**
+	 * Set parsing context (software context and format forced by parsing rules)
+	 * @param parsingContext Parsing context
+	 */
+	public void setParsingContext(String parsingContext) {
+		this.parsingContext = parsingContext;
+	}
+
+	/**
+	 * Check if the cached results can be used in place of the parsed file.
+	 * Files that define topologies, molecules or computational tasks are needed as
+	 * parsed objects to build the experiment workflow: they are instantiated again 
+	 * from the recorded format and only their metadata are reused.
+	 * @return True if cached results can replace the parsed file
+	 */
+	@XmlAttribute(name="reusable")
+	public boolean isReusable() {
+		return reusable;
+	}
+
+	/**
+	 * Set flag defining if the cached results can be used in place of the parsed file
+	 * @param reusable True if cached results can replace the parsed file
+	 */
+	public void setReusable(boolean reusable) {
+		this.reusable = reusable;
+	}
+
+	/**
+	 * Get metadata extracted from the file
+	 * @return Metadata
+	 */
+	@XmlElementWrapper(name="metadata")
+	@XmlElement(name="AVU")
+	public MetadataAVUList getMetadata() {
+		return metadata;
+	}
+
+	/**
+	 * Set metadata extracted from the file
+	 * @param metadata Metadata
+	 */
+	public void setMetadata(MetadataAVUList metadata) {
+		this.metadata = metadata;
+	}
+}
@@ -22,7 +22,7 @@ public class DirectoryParsingProgressBar implements IBIOMESListener {
 		this.message = message;
 	}
 	
-	public void update() {
+	public synchronized void update() {
 		this.f++;
 		System.out.print(message + " " +f+"/"+nFiles + "...");
 		if (f>=nFiles){
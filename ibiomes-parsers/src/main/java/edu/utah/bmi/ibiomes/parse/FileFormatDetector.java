@@ -0,0 +1,259 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.parse;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import edu.utah.bmi.ibiomes.io.FileHeaderSample;
+
+/**
+ * Registry of file format signatures used to identify the format of a file when
+ * no software context is given. The first bytes of the file are read once and shared
+ * by all signatures, and parsers are only run for candidate formats.
+ * Candidates whose content signature matches are tried first, then candidates that
+ * only declare an extension hint, in registration order. Candidates whose content 
+ * signature does not match are only tried if all the other candidates rejected the file,
+ * so that files with an unusual header are still identified from their extension.
+ * @author Julien Thibault, University of Utah
+ *
+ */
+public class FileFormatDetector {
+
+	private final Logger logger = Logger.getLogger(FileFormatDetector.class);
+
+	public static final int HEADER_SAMPLE_SIZE = 8192;
+
+	private List<FileFormatSignature> signatures;
+	private LinkedHashMap<String, DetectionCounter> counters;
+
+	/**
+	 * New empty registry
+	 */
+	public FileFormatDetector(){
+		this.signatures = new ArrayList<FileFormatSignature>();
+		this.counters = new LinkedHashMap<String, DetectionCounter>();
+	}
+
+	/**
+	 * Register new format signature
+	 * @param signature Format signature
+	 */
+	public synchronized void register(FileFormatSignature signature){
+		this.signatures.add(signature);
+		if (!counters.containsKey(signature.getName()))
+			counters.put(signature.getName(), new DetectionCounter());
+	}
+
+	/**
+	 * Get registered format signatures
+	 * @return Format signatures
+	 */
+	public synchronized List<FileFormatSignature> getSignatures(){
+		return new ArrayList<FileFormatSignature>(signatures);
+	}
+
+	/**
+	 * Identify file format and parse file.
+	 * @param localPath Path to local file
+	 * @param fileExtension File extension (lower case)
+	 * @return Parsed file or null if no candidate parser accepted the file
+	 * @throws Exception
+	 */
+	public LocalFile getFile(String localPath, String fileExtension) throws Exception
+	{
+		//select candidates from extension hint
+		List<FileFormatSignature> candidates = new ArrayList<FileFormatSignature>();
+		boolean needSample = false;
+		for (FileFormatSignature signature : getSignatures()){
+			if (signature.matchesExtension(fileExtension)){
+				candidates.add(signature);
+				if (signature.hasContentSignature())
+					needSample = true;
+			}
+		}
+		if (candidates.size()==0)
+			return null;
+
+		//read header once for all candidates
+		FileHeaderSample sample = null;
+		if (needSample){
+			try {
+				sample = FileHeaderSample.read(localPath, HEADER_SAMPLE_SIZE);
+			} catch (Exception e){
+				logger.warn("Cannot read header of " + localPath + ": " + e.getMessage());
+			}
+		}
+
+		List<FileFormatSignature> confirmed = new ArrayList<FileFormatSignature>();
+		List<FileFormatSignature> unconfirmed = new ArrayList<FileFormatSignature>();
+		List<FileFormatSignature> rejected = new ArrayList<FileFormatSignature>();
+		for (FileFormatSignature signature : candidates){
+			if (!signature.hasContentSignature())
+				unconfirmed.add(signature);
+			else if (sample != null && signature.matchesContent(sample))
+				confirmed.add(signature);
+			else {
+				rejected.add(signature);
+				getCounter(signature).skipped();
+			}
+		}
+		confirmed.addAll(unconfirmed);
+
+		//run parsers until one accepts the file
+		for (FileFormatSignature signature : confirmed){
+			LocalFile file = null;
+			try {
+				file = signature.parse(localPath);
+			}
+			catch (Exception e){
+				logger.debug("Cannot parse " + localPath + " as " + signature.getName() + ": " + e.getMessage());
+			}
+			if (file!=null && file.getFormat()!=null && !file.getFormat().equals(LocalFile.FORMAT_UNKNOWN)){
+				getCounter(signature).hit();
+				return file;
+			}
+			else getCounter(signature).miss();
+		}
+		
+		//fall back to the extension hint
+		for (FileFormatSignature signature : rejected){
+			LocalFile file = null;
+			try {
+				file = signature.parse(localPath);
+			}
+			catch (Exception e){
+				logger.debug("Cannot parse " + localPath + " as " + signature.getName() + ": " + e.getMessage());
+			}
+			if (file!=null && file.getFormat()!=null && !file.getFormat().equals(LocalFile.FORMAT_UNKNOWN)){
+				getCounter(signature).fallbackHit();
+				return file;
+			}
+			else getCounter(signature).miss();
+		}
+		return null;
+	}
+
+	/**
+	 * Get detection counters for each signature
+	 * @return Detection counters indexed by signature name
+	 */
+	public synchronized Map<String, DetectionCounter> getCounters(){
+		return new LinkedHashMap<String, DetectionCounter>(counters);
+	}
+
+	/**
+	 * Reset detection counters
+	 */
+	public synchronized void resetCounters(){
+		for (DetectionCounter counter : counters.values()){
+			counter.reset();
+		}
+	}
+
+	/**
+	 * Print detection counters
+	 */
+	public void printCounters(){
+		System.out.println("Format detection (hits / misses / skipped parses / hits from extension only)");
+		for (Map.Entry<String, DetectionCounter> entry : getCounters().entrySet()){
+			DetectionCounter counter = entry.getValue();
+			if (counter.getHits() + counter.getMisses() + counter.getSkipped() + counter.getFallbackHits() > 0)
+				System.out.println("| " + entry.getKey() + ": " + counter.getHits() + " / " + counter.getMisses() + " / " + counter.getSkipped() + " / " + counter.getFallbackHits());
+		}
+	}
+
+	private synchronized DetectionCounter getCounter(FileFormatSignature signature){
+		return counters.get(signature.getName());
+	}
+
+	/**
+	 * Detection counters for a given format signature
+	 * @author Julien Thibault, University of Utah
+	 *
+	 */
+	public static class DetectionCounter {
+
+		private long hits = 0;
+		private long misses = 0;
+		private long skipped = 0;
+		private long fallbackHits = 0;
+
+		/**
+		 * Get number of files accepted by the parser
+		 * @return Number of hits
+		 */
+		public synchronized long getHits() {
+			return hits;
+		}
+
+		/**
+		 * Get number of files rejected by the parser (parser ran for nothing)
+		 * @return Number of misses
+		 */
+		public synchronized long getMisses() {
+			return misses;
+		}
+
+		/**
+		 * Get number of files with a matching extension that were rejected by the
+		 * content signature (parser only ran if no other candidate accepted the file)
+		 * @return Number of skipped parses
+		 */
+		public synchronized long getSkipped() {
+			return skipped;
+		}
+
+		/**
+		 * Get number of files rejected by the content signature but accepted by the parser
+		 * (content signature too strict for these files)
+		 * @return Number of hits from the extension hint only
+		 */
+		public synchronized long getFallbackHits() {
+			return fallbackHits;
+		}
+
+		private synchronized void hit(){
+			hits++;
+		}
+
+		private synchronized void miss(){
+			misses++;
+		}
+
+		private synchronized void skipped(){
+			skipped++;
+		}
+
+		private synchronized void fallbackHit(){
+			fallbackHits++;
+		}
+
+		private synchronized void reset(){
+			hits = 0;
+			misses = 0;
+			skipped = 0;
+			fallbackHits = 0;
+		}
+	}
+}
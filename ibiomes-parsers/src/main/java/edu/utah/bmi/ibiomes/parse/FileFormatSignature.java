@@ -0,0 +1,131 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.parse;
+
+import java.util.regex.Pattern;
+
+import edu.utah.bmi.ibiomes.io.FileHeaderSample;
+
+/**
+ * Cheap signature of a file format (extension hint, magic bytes and/or header pattern)
+ * used to select the parser to run before opening the file.
+ * @author Julien Thibault, University of Utah
+ *
+ */
+public abstract class FileFormatSignature {
+
+	private String name;
+	private String softwareContext;
+	private String extensionRegex;
+	private byte[] magicBytes;
+	private int magicOffset;
+	private Pattern headerPattern;
+
+	/**
+	 * New format signature
+	 * @param name Signature name (usually the file format)
+	 * @param softwareContext Software context
+	 * @param extensionRegex Regular expression matching the file extensions
+	 */
+	public FileFormatSignature(String name, String softwareContext, String extensionRegex){
+		this.name = name;
+		this.softwareContext = softwareContext;
+		this.extensionRegex = extensionRegex;
+	}
+
+	/**
+	 * New format signature
+	 * @param name Signature name (usually the file format)
+	 * @param softwareContext Software context
+	 * @param extensionRegex Regular expression matching the file extensions
+	 * @param headerRegex Regular expression that must be found in the first bytes of the file
+	 */
+	public FileFormatSignature(String name, String softwareContext, String extensionRegex, String headerRegex){
+		this(name, softwareContext, extensionRegex);
+		this.headerPattern = Pattern.compile(headerRegex);
+	}
+
+	/**
+	 * New format signature
+	 * @param name Signature name (usually the file format)
+	 * @param softwareContext Software context
+	 * @param extensionRegex Regular expression matching the file extensions
+	 * @param magicBytes Bytes expected at the given offset
+	 * @param magicOffset Offset of the magic bytes
+	 */
+	public FileFormatSignature(String name, String softwareContext, String extensionRegex, byte[] magicBytes, int magicOffset){
+		this(name, softwareContext, extensionRegex);
+		this.magicBytes = magicBytes;
+		this.magicOffset = magicOffset;
+	}
+
+	/**
+	 * Get signature name
+	 * @return Signature name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Get software context
+	 * @return Software context
+	 */
+	public String getSoftwareContext() {
+		return softwareContext;
+	}
+
+	/**
+	 * Check if the signature looks at the file content (magic bytes or header pattern)
+	 * @return True if the file content is checked
+	 */
+	public boolean hasContentSignature(){
+		return (magicBytes != null || headerPattern != null);
+	}
+
+	/**
+	 * Check if the file extension matches
+	 * @param fileExtension File extension (lower case)
+	 * @return True if the extension matches
+	 */
+	public boolean matchesExtension(String fileExtension){
+		return (extensionRegex == null || fileExtension.matches(extensionRegex));
+	}
+
+	/**
+	 * Check if the first bytes of the file match
+	 * @param sample First bytes of the file
+	 * @return True if the magic bytes and header pattern (if any) match
+	 */
+	public boolean matchesContent(FileHeaderSample sample){
+		if (magicBytes != null && !sample.hasBytesAt(magicBytes, magicOffset))
+			return false;
+		if (headerPattern != null && !headerPattern.matcher(sample.getText()).find())
+			return false;
+		return true;
+	}
+
+	/**
+	 * Run the parser associated to this format
+	 * @param localPath Path to local file
+	 * @return Parsed file
+	 * @throws Exception
+	 */
+	public abstract LocalFile parse(String localPath) throws Exception;
+}
@@ -82,6 +82,8 @@ public interface LocalFile {
 	public final static String FORMAT_AMBER_OFF = "AMBER library";
 	/** AMBER Leap log file **/
 	public final static String FORMAT_AMBER_LEAP_LOG = "AMBER Leap log";
+	/** AMBER replica exchange log file **/
+	public final static String FORMAT_AMBER_REMD_LOG = "AMBER REMD log";
 	
 	/** AMBER ptraj script **/
 	public final static String FORMAT_PTRAJ_SCRIPT = "Ptraj/cpptraj script";
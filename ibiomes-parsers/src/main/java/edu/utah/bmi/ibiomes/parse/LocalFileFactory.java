@@ -27,17 +27,20 @@ import java.security.AccessControlException;
 import org.apache.log4j.Logger;
 
 import edu.utah.bmi.ibiomes.experiment.Software;
+import edu.utah.bmi.ibiomes.io.FileHeaderSample;
 import edu.utah.bmi.ibiomes.parse.chem.amber.AmberLeapLogFile;
 import edu.utah.bmi.ibiomes.parse.chem.amber.AmberLibraryFile;
 import edu.utah.bmi.ibiomes.parse.chem.amber.AmberMdInputFile;
 import edu.utah.bmi.ibiomes.parse.chem.amber.AmberMdOutputFile;
 import edu.utah.bmi.ibiomes.parse.chem.amber.AmberParameterTopologyFile;
+import edu.utah.bmi.ibiomes.parse.chem.amber.AmberREMDLogFile;
 import edu.utah.bmi.ibiomes.parse.chem.amber.AmberRestartFile;
 import edu.utah.bmi.ibiomes.parse.chem.amber.AmberTrajectoryFileFactory;
 import edu.utah.bmi.ibiomes.parse.chem.charmm.CHARMMCoordinateFile;
 import edu.utah.bmi.ibiomes.parse.chem.charmm.CHARMMInputFile;
 import edu.utah.bmi.ibiomes.parse.chem.charmm.CHARMMOutputFile;
 import edu.utah.bmi.ibiomes.parse.chem.common.DCDTrajectoryFile;
+import edu.utah.bmi.ibiomes.parse.chem.common.DCDTrajectoryReader;
 import edu.utah.bmi.ibiomes.parse.chem.common.Mol2File;
 import edu.utah.bmi.ibiomes.parse.chem.common.PDBFile;
 import edu.utah.bmi.ibiomes.parse.chem.common.ProteinStructureFile;
@@ -101,11 +104,12 @@ public class LocalFileFactory {
 	private final static String AMBER_FILE_EXT_RESTART		= "(rst)|(restart)|(restrt)";
 	private final static String AMBER_FILE_EXT_OFF	    	= "(lib)|(off)";
 	private final static String AMBER_PTRAJ_FILE_EXT    	= "(trajin)|(ptraj)";
+	private final static String AMBER_FILE_EXT_REMD_LOG		= "(log)";
 	
 	private final static String GROMACS_FILE_EXT_TOP   		= "(top)";
 	private final static String GROMACS_FILE_EXT_MDP   		= "(mdp)";
 	private final static String GROMACS_FILE_EXT_ITP   		= "(itp)";
-	private final static String GROMACS_FILE_EXT_TRAJ  		= "(traj)";
+	private final static String GROMACS_FILE_EXT_TRAJ  		= "(traj)|(trr)|(xtc)";
 	//private final static String GROMACS_FILE_EXT_NDX  		= "(ndx)";
 	//private final static String GROMACS_FILE_EXT_GRO  		= "(gro)";
 
@@ -129,18 +133,37 @@ public class LocalFileFactory {
 	private final static String ZIP_FILE_EXT   				= "(zip)";
 	private final static String TAR_FILE_EXT   				= "(tar(\\.("+COMPRESSED_FILE_EXT+"))?)|(t("+COMPRESSED_FILE_EXT+"))";
 	
+	private final static String AMBER_HEADER_PRMTOP		= "(?m)^%(VERSION|FLAG)";
+	private final static String AMBER_HEADER_MDIN			= "(?i)&cntrl";
+	private final static String AMBER_HEADER_MDOUT			= "(?im)^\\s*amber\\s";
+	private final static String AMBER_HEADER_OFF			= "!!index array str";
+	private final static String AMBER_HEADER_REMD_LOG		= "^# Replica Exchange log file";
+	private final static String GAUSSIAN_HEADER_INPUT		= "(?m)^\\s*[#%]";
+	private final static String GAUSSIAN_HEADER_OUTPUT		= "Entering Gaussian System|Gaussian, Inc\\.";
+	private final static String GROMACS_HEADER_TOPOLOGY	= "(?m)^\\s*(\\[|#include)";
+	private final static String PSF_HEADER					= "!NTITLE";
+	private final static String CHARMM_HEADER_OUTPUT		= "Chemistry at HARvard|CHARMM>";
+	private final static String NWCHEM_HEADER_OUTPUT		= "(?i)argument\\s+1\\s+=|northwest computational chemistry|nwchem";
+	private final static String GAMESS_HEADER_INPUT		= "(?i)\\$contrl";
+	private final static String GAMESS_HEADER_OUTPUT		= "GAMESS";
+	private final static String NAMD_HEADER_LOG			= "(?m)^Info: ";
+	
+	private FileFormatDetector formatDetector;
 
 	/**
 	 * Private constructor
 	 */
 	private LocalFileFactory()
-	{ }
+	{
+		this.formatDetector = new FileFormatDetector();
+		this.registerDefaultSignatures();
+	}
 	
 	/**
 	 * Get unique instance of the file factory
 	 * @return Local file factory
 	 */
-	public static LocalFileFactory instance()
+	public static synchronized LocalFileFactory instance()
 	{
 		if (_factory == null){
 		    _factory = new LocalFileFactory();
@@ -272,22 +295,10 @@ public class LocalFileFactory {
 				}
 			}
 			
-			//go through each software context if not specified
+			//detect format from file signatures if software context not specified
 			if (!isValidFile(file) && softwareContext==null)
 			{
-				file = getAmberFile(localPath, fileExtension);
-				if (!isValidFile(file))
-					file = getGaussianFile(localPath, fileExtension);
-				if (!isValidFile(file))
-					file = getGromacsFile(localPath, fileExtension);
-				if (!isValidFile(file))
-					file = getCharmmFile(localPath, fileExtension);
-				if (!isValidFile(file))
-					file = getNWChemFile(localPath, fileExtension);
-				if (!isValidFile(file))
-					file = getGamessFile(localPath, fileExtension);
-				if (!isValidFile(file))
-					file = getNamdFile(localPath, fileExtension);
+				file = formatDetector.getFile(localPath, fileExtension);
 			}
 
 			//if no matching format, unknown format
@@ -302,6 +313,174 @@ public class LocalFileFactory {
 		}
 	}
 	
+	/**
+	 * Get registry of format signatures used when no software context is specified
+	 * @return Format detector
+	 */
+	public FileFormatDetector getFormatDetector(){
+		return this.formatDetector;
+	}
+	
+	/**
+	 * Register signatures of the software-specific formats, in the same order 
+	 * as the software contexts were tried before (AMBER, Gaussian, GROMACS, CHARMM, NWChem, GAMESS, NAMD)
+	 */
+	private void registerDefaultSignatures()
+	{
+		//AMBER
+		formatDetector.register(new FileFormatSignature(LocalFile.FORMAT_AMBER_PARMTOP, Software.AMBER, AMBER_FILE_EXT_PRMTOP, AMBER_HEADER_PRMTOP) {
+			public LocalFile parse(String localPath) throws Exception {
+				return new AmberParameterTopologyFile(localPath);
+			}
+		});
+		formatDetector.register(new FileFormatSignature(LocalFile.FORMAT_AMBER_TRAJ, Software.AMBER, AMBER_FILE_EXT_TRAJECTORY) {
+			public LocalFile parse(String localPath) throws Exception {
+				return new AmberTrajectoryFileFactory().getTrajectoryFile(localPath);
+			}
+		});
+		formatDetector.register(new FileFormatSignature(LocalFile.FORMAT_AMBER_MDIN, Software.AMBER, AMBER_FILE_EXT_MDIN, AMBER_HEADER_MDIN) {
+			public LocalFile parse(String localPath) throws Exception {
+				return new AmberMdInputFile(localPath);
+			}
+		});
+		formatDetector.register(new FileFormatSignature(LocalFile.FORMAT_AMBER_MDOUT, Software.AMBER, AMBER_FILE_EXT_MDOUT, AMBER_HEADER_MDOUT) {
+			public LocalFile parse(String localPath) throws Exception {
+				return new AmberMdOutputFile(localPath);
+			}
+		});
+		formatDetector.register(new FileFormatSignature(LocalFile.FORMAT_AMBER_RESTART, Software.AMBER, AMBER_FILE_EXT_RESTART) {
+			public LocalFile parse(String localPath) throws Exception {
+				return new AmberRestartFile(localPath);
+			}
+		});
+		formatDetector.register(new FileFormatSignature(LocalFile.FORMAT_AMBER_OFF, Software.AMBER, AMBER_FILE_EXT_OFF, AMBER_HEADER_OFF) {
+			public LocalFile parse(String localPath) throws Exception {
+				return new AmberLibraryFile(localPath);
+			}
+		});
+		formatDetector.register(new FileFormatSignature(LocalFile.FORMAT_AMBER_REMD_LOG, Software.AMBER, AMBER_FILE_EXT_REMD_LOG, AMBER_HEADER_REMD_LOG) {
+			public LocalFile parse(String localPath) throws Exception {
+				return new AmberREMDLogFile(localPath);
+			}
+		});
+		formatDetector.register(new FileFormatSignature(LocalFile.FORMAT_PTRAJ_SCRIPT, Software.AMBER, AMBER_PTRAJ_FILE_EXT) {
+			public LocalFile parse(String localPath) throws Exception {
+				return new DefaultLocalFileImpl(localPath, LocalFile.FORMAT_PTRAJ_SCRIPT, LocalFile.TYPE_CHEMICAL);
+			}
+		});
+		
+		//GAUSSIAN
+		formatDetector.register(new FileFormatSignature(LocalFile.FORMAT_GAUSSIAN_CHK, Software.GAUSSIAN, GAUSSIAN_FILE_EXT_CHK) {
+			public LocalFile parse(String localPath) throws Exception {
+				return new DefaultLocalFileImpl(localPath, LocalFile.FORMAT_GAUSSIAN_CHK, LocalFile.TYPE_CHEMICAL);
+			}
+		});
+		formatDetector.register(new FileFormatSignature(LocalFile.FORMAT_GAUSSIAN_COM, Software.GAUSSIAN, GAUSSIAN_FILE_EXT_INPUT, GAUSSIAN_HEADER_INPUT) {
+			public LocalFile parse(String localPath) throws Exception {
+				return new GaussianInputFile(localPath);
+			}
+		});
+		formatDetector.register(new FileFormatSignature(LocalFile.FORMAT_GAUSSIAN_LOG, Software.GAUSSIAN, GAUSSIAN_FILE_EXT_OUTPUT, GAUSSIAN_HEADER_OUTPUT) {
+			public LocalFile parse(String localPath) throws Exception {
+				return new GaussianOutputFile(localPath);
+			}
+		});
+		
+		//GROMACS
+		formatDetector.register(new FileFormatSignature(LocalFile.FORMAT_GROMACS_TOP, Software.GROMACS, GROMACS_FILE_EXT_TOP, GROMACS_HEADER_TOPOLOGY) {
+			public LocalFile parse(String localPath) throws Exception {
+				return new GROMACSSystemTopologyFile(localPath);
+			}
+		});
+		formatDetector.register(new FileFormatSignature(LocalFile.FORMAT_GROMACS_TRAJ, Software.GROMACS, GROMACS_FILE_EXT_TRAJ) {
+			public LocalFile parse(String localPath) throws Exception {
+				return new GROMACSTrajectoryFile(localPath);
+			}
+		});
+		formatDetector.register(new FileFormatSignature(LocalFile.FORMAT_GROMACS_ITP, Software.GROMACS, GROMACS_FILE_EXT_ITP, GROMACS_HEADER_TOPOLOGY) {
+			public LocalFile parse(String localPath) throws Exception {
+				return new GROMACSIncludeTopologyFile(localPath);
+			}
+		});
+		formatDetector.register(new FileFormatSignature(LocalFile.FORMAT_GROMACS_MDP, Software.GROMACS, GROMACS_FILE_EXT_MDP) {
+			public LocalFile parse(String localPath) throws Exception {
+				return new GROMACSParameterInputFile(localPath);
+			}
+		});
+		formatDetector.register(new FileFormatSignature(LocalFile.FORMAT_PSF, null, PSF_FILE_EXT, PSF_HEADER) {
+			public LocalFile parse(String localPath) throws Exception {
+				return new ProteinStructureFile(localPath);
+			}
+		});
+		
+		//CHARMM
+		formatDetector.register(new FileFormatSignature(LocalFile.FORMAT_CHARMM_CRD, Software.CHARMM, CHARMM_FILE_EXT_CRD) {
+			public LocalFile parse(String localPath) throws Exception {
+				return new CHARMMCoordinateFile(localPath);
+			}
+		});
+		formatDetector.register(new FileFormatSignature(LocalFile.FORMAT_DCD_TRAJECTORY, null, DCD_FILE_EXT) {
+			//'CORD' follows a 4- or 8-byte record marker, in either byte order
+			@Override
+			public boolean hasContentSignature(){
+				return true;
+			}
+			@Override
+			public boolean matchesContent(FileHeaderSample sample){
+				return DCDTrajectoryReader.isDCDHeader(sample.getBytes());
+			}
+			public LocalFile parse(String localPath) throws Exception {
+				return new DCDTrajectoryFile(localPath);
+			}
+		});
+		formatDetector.register(new FileFormatSignature(LocalFile.FORMAT_CHARMM_INP, Software.CHARMM, CHARMM_FILE_EXT_INP) {
+			public LocalFile parse(String localPath) throws Exception {
+				return new CHARMMInputFile(localPath);
+			}
+		});
+		formatDetector.register(new FileFormatSignature(LocalFile.FORMAT_CHARMM_OUT, Software.CHARMM, CHARMM_FILE_EXT_OUT, CHARMM_HEADER_OUTPUT) {
+			public LocalFile parse(String localPath) throws Exception {
+				return new CHARMMOutputFile(localPath);
+			}
+		});
+		
+		//NWCHEM
+		formatDetector.register(new FileFormatSignature(LocalFile.FORMAT_NWCHEM_INPUT, Software.NWCHEM, NWCHEM_FILE_EXT_INPUT) {
+			public LocalFile parse(String localPath) throws Exception {
+				return new NWChemInputFile(localPath);
+			}
+		});
+		formatDetector.register(new FileFormatSignature(LocalFile.FORMAT_NWCHEM_OUTPUT, Software.NWCHEM, NWCHEM_FILE_EXT_OUTPUT, NWCHEM_HEADER_OUTPUT) {
+			public LocalFile parse(String localPath) throws Exception {
+				return new NWChemOutputFile(localPath);
+			}
+		});
+		
+		//GAMESS
+		formatDetector.register(new FileFormatSignature(LocalFile.FORMAT_GAMESS_INPUT, Software.GAMESS, GAMESS_FILE_EXT_INPUT, GAMESS_HEADER_INPUT) {
+			public LocalFile parse(String localPath) throws Exception {
+				return new GAMESSInputFile(localPath);
+			}
+		});
+		formatDetector.register(new FileFormatSignature(LocalFile.FORMAT_GAMESS_OUTPUT, Software.GAMESS, GAMESS_FILE_EXT_OUTPUT, GAMESS_HEADER_OUTPUT) {
+			public LocalFile parse(String localPath) throws Exception {
+				return new GAMESSOutputFile(localPath);
+			}
+		});
+		
+		//NAMD (PSF, DCD and topology files already registered)
+		formatDetector.register(new FileFormatSignature(LocalFile.FORMAT_NAMD_CONFIGURATION, Software.NAMD, NAMD_FILE_EXT_CONF) {
+			public LocalFile parse(String localPath) throws Exception {
+				return new NAMDConfigurationFile(localPath);
+			}
+		});
+		formatDetector.register(new FileFormatSignature(LocalFile.FORMAT_NAMD_LOG, Software.NAMD, NAMD_FILE_EXT_LOG, NAMD_HEADER_LOG) {
+			public LocalFile parse(String localPath) throws Exception {
+				return new NAMDStandardOutputFile(localPath);
+			}
+		});
+	}
+	
 	/**
 	 * Check if given file is valid (format is known)
 	 * @param file Local file
@@ -358,6 +537,9 @@ public class LocalFileFactory {
 			else if (fileFormat.equals(LocalFile.FORMAT_AMBER_LEAP_LOG.toLowerCase())){
 				file = new AmberLeapLogFile(localPath);
 			}
+			else if (fileFormat.equals(LocalFile.FORMAT_AMBER_REMD_LOG.toLowerCase())){
+				file = new AmberREMDLogFile(localPath);
+			}
 			else if (fileFormat.equals(LocalFile.FORMAT_PTRAJ_SCRIPT.toLowerCase()))
 			{
 				file = new DefaultLocalFileImpl(localPath, LocalFile.FORMAT_PTRAJ_SCRIPT, LocalFile.TYPE_CHEMICAL);
@@ -519,6 +701,9 @@ public class LocalFileFactory {
 		else if (fileExtension.matches(AMBER_PTRAJ_FILE_EXT)){
 			file = new DefaultLocalFileImpl(localPath, LocalFile.FORMAT_PTRAJ_SCRIPT, LocalFile.TYPE_CHEMICAL);
 		} 
+		else if (fileExtension.matches(AMBER_FILE_EXT_REMD_LOG)){
+			file = new AmberREMDLogFile(localPath);
+		}
 		
 		return file;
 	}
@@ -72,6 +72,8 @@ public abstract class AbstractParameterFile extends ChemicalFile implements Meth
 	 */
 	@Override
 	public MetadataAVUList getMetadata() throws Exception {
+		if (hasCachedMetadata())
+			return getCachedMetadata();
 		
 		MetadataAVUList metadata = new MetadataAVUList();
 		if (super.getMetadata()!=null)
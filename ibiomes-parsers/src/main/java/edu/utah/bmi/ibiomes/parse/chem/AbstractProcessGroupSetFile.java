@@ -111,6 +111,8 @@ public abstract class AbstractProcessGroupSetFile extends ChemicalFile implement
 	 */
 	@Override
 	public MetadataAVUList getMetadata() throws Exception {
+		if (hasCachedMetadata())
+			return getCachedMetadata();
 		
 		MetadataAVUList metadata = new MetadataAVUList();
 		if (super.getMetadata()!=null)
@@ -78,6 +78,8 @@ public abstract class AbstractTopologyFile extends ChemicalFile implements Topol
 	 */
 	@Override
 	public MetadataAVUList getMetadata() throws Exception {
+		if (hasCachedMetadata())
+			return getCachedMetadata();
 		
 		MetadataAVUList metadata = new MetadataAVUList();
 		if (super.getMetadata()!=null)
@@ -18,22 +18,28 @@
 package edu.utah.bmi.ibiomes.parse.chem;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import edu.utah.bmi.ibiomes.experiment.comp.ParameterSet;
 import edu.utah.bmi.ibiomes.metadata.MetadataAVU;
 import edu.utah.bmi.ibiomes.metadata.MetadataAVUList;
 import edu.utah.bmi.ibiomes.metadata.TopologyMetadata;
 import edu.utah.bmi.ibiomes.metadata.TrajectoryMetadata;
+import edu.utah.bmi.ibiomes.topo.Coordinate3D;
+import edu.utah.bmi.ibiomes.topo.Trajectory;
 
 /**
  * Abstract trajectory file
  * @author Julien Thibault, University of Utah
  *
  */
-public class AbstractTrajectoryFile extends ChemicalFile implements TrajectoryFile 
+public abstract class AbstractTrajectoryFile extends ChemicalFile implements TrajectoryFile 
 {
 	private static final long serialVersionUID = 5207864145615655898L;
 	private int numberOfFrames;
+	private double startTime = Double.NaN;
+	private double frameInterval = Double.NaN;
 	
 	/**
 	 * 
@@ -61,6 +67,106 @@ public class AbstractTrajectoryFile extends ChemicalFile implements TrajectoryFi
 		return this.numberOfFrames;
 	}
 	
+	/**
+	 * Set number of frames
+	 * @param numberOfFrames Number of frames
+	 */
+	protected void setNumberOfFrames(int numberOfFrames) {
+		this.numberOfFrames = numberOfFrames;
+	}
+	
+	/**
+	 * Get simulation time of the first frame, as stored in the trajectory header
+	 * @return Time (ps), or NaN if not available
+	 */
+	public double getStartTime() {
+		return this.startTime;
+	}
+	
+	/**
+	 * Get simulation time between two consecutive frames, as stored in the trajectory header
+	 * @return Time (ps), or NaN if not available
+	 */
+	public double getFrameInterval() {
+		return this.frameInterval;
+	}
+	
+	/**
+	 * Set simulation time of the frames
+	 * @param startTime Time of the first frame (ps)
+	 * @param frameInterval Time between two consecutive frames (ps)
+	 */
+	protected void setFrameTiming(double startTime, double frameInterval) {
+		this.startTime = startTime;
+		this.frameInterval = frameInterval;
+	}
+	
+	/**
+	 * Check if frames of this trajectory can be read in any order (see getRandomAccessReader())
+	 * @return True if random frame access is supported
+	 */
+	public boolean supportsRandomAccess() {
+		return false;
+	}
+	
+	/**
+	 * Open the trajectory for random frame access. Only available if supportsRandomAccess() returns true.
+	 * @param numberOfAtoms Number of atoms in the system
+	 * @return Random-access reader (must be closed after use)
+	 * @throws Exception
+	 */
+	public RandomAccessTrajectoryReader getRandomAccessReader(int numberOfAtoms) throws Exception {
+		throw new UnsupportedOperationException("Random frame access is not supported for format '" + this.format + "'");
+	}
+	
+	/**
+	 * Open the trajectory for frame streaming. The file is read once, frame by frame.
+	 * @param numberOfAtoms Number of atoms in the system
+	 * @param atomSelection Indexes (0-based) of the atoms to read, or null to read all atoms
+	 * @param frameStride Read every n-th frame (1 to read all frames)
+	 * @return Frame reader (must be closed after use)
+	 * @throws Exception
+	 */
+	public abstract TrajectoryFrameReader getFrameReader(int numberOfAtoms, int[] atomSelection, int frameStride) throws Exception;
+	
+	/**
+	 * Open the trajectory for frame streaming (all atoms, all frames)
+	 * @param numberOfAtoms Number of atoms in the system
+	 * @return Frame reader (must be closed after use)
+	 * @throws Exception
+	 */
+	public TrajectoryFrameReader getFrameReader(int numberOfAtoms) throws Exception {
+		return getFrameReader(numberOfAtoms, null, 1);
+	}
+	
+	/**
+	 * Read atom trajectories in a single pass over the file
+	 * @param numberOfAtoms Number of atoms in the system
+	 * @return Atom trajectories
+	 * @throws Exception
+	 */
+	protected List<Trajectory> readTrajectories(int numberOfAtoms) throws Exception
+	{
+		List<Trajectory> trajectories = new ArrayList<Trajectory>();
+		for (int a=0; a<numberOfAtoms; a++)
+			trajectories.add(new Trajectory());
+		
+		TrajectoryFrameReader reader = getFrameReader(numberOfAtoms);
+		try {
+			TrajectoryFrame frame = null;
+			while ((frame = reader.readNextFrame()) != null){
+				for (int a=0; a<numberOfAtoms; a++){
+					trajectories.get(a).addCoordinates(
+							new Coordinate3D(frame.getX(a), frame.getY(a), frame.getZ(a)));
+				}
+			}
+		}
+		finally {
+			reader.close();
+		}
+		return trajectories;
+	}
+	
 	/**
 	 * Get metadata
 	 */
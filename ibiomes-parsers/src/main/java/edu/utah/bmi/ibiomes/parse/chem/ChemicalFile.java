@@ -94,6 +94,9 @@ public class ChemicalFile extends AbstractLocalFileImpl
 	@XmlElement(name="AVU")
 	public MetadataAVUList getMetadata() throws Exception
 	{
+		if (hasCachedMetadata())
+			return getCachedMetadata();
+		
 		MetadataAVUList metadata = super.getMetadata();
 		if (this.computationalMethod != null && this.computationalMethod.length()>0)
 			metadata.add(new MetadataAVU(MethodMetadata.COMPUTATIONAL_METHOD_NAME, this.computationalMethod));
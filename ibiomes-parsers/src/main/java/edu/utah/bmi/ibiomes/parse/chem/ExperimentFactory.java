@@ -62,6 +62,7 @@ public class ExperimentFactory {
 	private String localPath = null;
 	private List<ExperimentFolder> experimentFolders = null;
 	private int depthIndependentGroups = 0;
+	private String manifestPath = null;
 	
 	private IBIOMESConfiguration defaultConfig = null;
 	
@@ -105,6 +106,22 @@ public class ExperimentFactory {
 		this.depthIndependentGroups = depthIndependentGroups;
 	}
 	
+	/**
+	 * Get path to the parsing manifest used to skip files that did not change since the last run
+	 * @return Path to the parsing manifest (null if incremental parsing is off)
+	 */
+	public String getManifestPath() {
+		return manifestPath;
+	}
+
+	/**
+	 * Set path to the parsing manifest used to skip files that did not change since the last run
+	 * @param manifestPath Path to the parsing manifest (null to turn incremental parsing off)
+	 */
+	public void setManifestPath(String manifestPath) {
+		this.manifestPath = manifestPath;
+	}
+	
 	/**
 	 * Parse file directory 
 	 * @param softwareContext Software context for parsing
@@ -134,6 +151,7 @@ public class ExperimentFactory {
 		
 		//parse files
 		DirectoryParser parser = new DirectoryParser(localPath, descriptorFile, listeners, externalURL);		
+		parser.setManifestPath(this.manifestPath);
 		this.directory = parser.parseDirectories(softwareContext);
 		this.experimentFolders = new ArrayList<ExperimentFolder>();
 
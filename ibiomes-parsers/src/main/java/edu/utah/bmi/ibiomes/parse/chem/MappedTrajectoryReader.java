@@ -0,0 +1,237 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.parse.chem;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Random-access reader for binary trajectories with fixed-size frames. The header is 
+ * read with regular file I/O; frames are memory-mapped on first access, in segments 
+ * holding a whole number of frames, so that any frame can be located in O(1)
+ * from the header arithmetic (offset = first frame offset + frame index * frame size).
+ * @author Julien Thibault, University of Utah
+ *
+ */
+public abstract class MappedTrajectoryReader implements RandomAccessTrajectoryReader {
+
+	/**
+	 * Maximum size of a mapped segment (bytes)
+	 */
+	public final static long MAX_SEGMENT_SIZE = 1L << 30;
+	
+	protected File file;
+	protected ByteOrder byteOrder = ByteOrder.nativeOrder();
+	protected int numberOfAtoms = 0;
+	protected int numberOfFrames = 0;
+	protected long firstFrameOffset = 0;
+	protected long frameSize = 0;
+	
+	private RandomAccessFile randomAccessFile;
+	private FileChannel channel;
+	private MappedByteBuffer[] segments = null;
+	private int framesPerSegment = 1;
+	
+	/**
+	 * Open binary trajectory
+	 * @param file Trajectory file
+	 * @throws IOException
+	 */
+	public MappedTrajectoryReader(File file) throws IOException
+	{
+		this.file = file;
+		this.randomAccessFile = new RandomAccessFile(file, "r");
+		this.channel = randomAccessFile.getChannel();
+	}
+	
+	/**
+	 * Get number of atoms
+	 * @return Number of atoms
+	 */
+	public int getNumberOfAtoms() {
+		return numberOfAtoms;
+	}
+	
+	/**
+	 * Get number of complete frames in the file
+	 * @return Number of frames
+	 */
+	public int getNumberOfFrames() {
+		return numberOfFrames;
+	}
+	
+	/**
+	 * Get byte order of the file
+	 * @return Byte order
+	 */
+	public ByteOrder getByteOrder() {
+		return byteOrder;
+	}
+	
+	/**
+	 * Get size of a frame in the file
+	 * @return Frame size (bytes)
+	 */
+	public long getFrameSize() {
+		return frameSize;
+	}
+	
+	/**
+	 * Get offset of a frame in the file
+	 * @param frame Frame index (0-based)
+	 * @return Offset (bytes)
+	 */
+	public long getFrameOffset(int frame) {
+		checkFrameIndex(frame);
+		return firstFrameOffset + frame * frameSize;
+	}
+	
+	/**
+	 * Get file size
+	 * @return File size (bytes)
+	 * @throws IOException
+	 */
+	protected long getFileSize() throws IOException {
+		return channel.size();
+	}
+	
+	/**
+	 * Read bytes from the file (used to read headers)
+	 * @param offset Offset in the file
+	 * @param length Number of bytes to read
+	 * @return Buffer with the file byte order (position 0)
+	 * @throws IOException
+	 */
+	protected ByteBuffer readBytes(long offset, int length) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()){
+			int n = channel.read(buffer, offset + buffer.position());
+			if (n < 0)
+				throw new IOException("Unexpected end of file " + file.getAbsolutePath() + " (offset " + offset + ")");
+		}
+		buffer.flip();
+		buffer.order(byteOrder);
+		return buffer;
+	}
+	
+	/**
+	 * Set frame layout once the header was read. The number of frames is 
+	 * computed from the file size (incomplete frames at the end are ignored).
+	 * @param firstFrameOffset Offset of the first frame
+	 * @param frameSize Size of a frame (bytes)
+	 * @throws IOException
+	 */
+	protected void setFrameLayout(long firstFrameOffset, long frameSize) throws IOException
+	{
+		if (frameSize <= 0 || frameSize > Integer.MAX_VALUE)
+			throw new IOException("Invalid frame size: " + frameSize);
+		this.firstFrameOffset = firstFrameOffset;
+		this.frameSize = frameSize;
+		long dataSize = getFileSize() - firstFrameOffset;
+		this.numberOfFrames = (int)Math.min(Integer.MAX_VALUE, Math.max(0, dataSize / frameSize));
+		this.framesPerSegment = (int)Math.max(1, MAX_SEGMENT_SIZE / frameSize);
+		this.segments = null;
+	}
+	
+	/**
+	 * Get frame buffer. The buffer is a view on the mapped file (no copy): 
+	 * position 0 corresponds to the start of the frame.
+	 * @param frame Frame index (0-based)
+	 * @return Frame buffer (file byte order)
+	 * @throws IOException
+	 */
+	protected ByteBuffer getFrameBuffer(int frame) throws IOException
+	{
+		checkFrameIndex(frame);
+		if (segments == null){
+			int nSegments = (numberOfFrames + framesPerSegment - 1) / framesPerSegment;
+			segments = new MappedByteBuffer[nSegments];
+		}
+		int s = frame / framesPerSegment;
+		if (segments[s] == null){
+			long start = firstFrameOffset + (long)s * framesPerSegment * frameSize;
+			int nFrames = Math.min(framesPerSegment, numberOfFrames - s * framesPerSegment);
+			segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, start, nFrames * frameSize);
+		}
+		ByteBuffer buffer = segments[s].duplicate();
+		int position = (int)((frame - (long)s * framesPerSegment) * frameSize);
+		buffer.position(position);
+		buffer.limit(position + (int)frameSize);
+		return buffer.slice().order(byteOrder);
+	}
+	
+	/**
+	 * Open the trajectory for frame streaming
+	 * @param atomSelection Indexes (0-based) of the atoms to read, or null to read all atoms
+	 * @param frameStride Read every n-th frame (1 to read all frames)
+	 * @return Frame reader (closing the frame reader closes this reader)
+	 */
+	public TrajectoryFrameReader getFrameReader(int[] atomSelection, int frameStride) 
+	{
+		final MappedTrajectoryReader reader = this;
+		return new TrajectoryFrameReader(numberOfAtoms, atomSelection, frameStride) {
+			private int nextFrame = 0;
+			@Override
+			protected boolean readFrame(TrajectoryFrame frame) throws IOException {
+				if (nextFrame >= reader.getNumberOfFrames())
+					return false;
+				reader.readFrame(nextFrame++, frame, selectionIndex);
+				return true;
+			}
+			@Override
+			protected boolean skipFrame() throws IOException {
+				if (nextFrame >= reader.getNumberOfFrames())
+					return false;
+				nextFrame++;
+				return true;
+			}
+			@Override
+			public void close() throws IOException {
+				reader.close();
+			}
+		};
+	}
+	
+	/**
+	 * Copy coordinates of a frame into a frame buffer
+	 * @param frame Frame index (0-based)
+	 * @param buffer Frame buffer
+	 * @param selectionIndex Position of each atom in the frame buffer (-1 if the atom is not selected)
+	 * @throws IOException
+	 */
+	public abstract void readFrame(int frame, TrajectoryFrame buffer, int[] selectionIndex) throws IOException;
+	
+	@Override
+	public void close() throws IOException {
+		segments = null;
+		channel.close();
+		randomAccessFile.close();
+	}
+	
+	private void checkFrameIndex(int frame){
+		if (frame < 0 || frame >= numberOfFrames)
+			throw new IndexOutOfBoundsException("Frame index: " + frame + ", number of frames: " + numberOfFrames);
+	}
+}
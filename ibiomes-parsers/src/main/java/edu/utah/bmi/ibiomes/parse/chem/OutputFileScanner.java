@@ -0,0 +1,143 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.parse.chem;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.compress.compressors.CompressorException;
+
+import edu.utah.bmi.ibiomes.io.IBIOMESFileReader;
+
+/**
+ * Single-pass scanner for program output files (e.g. QM logs). Parsers register 
+ * markers with callbacks and the file is read (and decompressed) only once: each line 
+ * is submitted to the active markers. Scanning stops early when all markers reached
+ * their maximum number of matches.
+ * @author Julien Thibault, University of Utah
+ *
+ */
+public class OutputFileScanner {
+
+	private File file;
+	private IBIOMESFileReader reader = null;
+	private List<OutputMarker> markers = new ArrayList<OutputMarker>();
+	private long lineNumber = 0;
+	private boolean closed = false;
+	
+	/**
+	 * New scanner
+	 * @param file Output file
+	 */
+	public OutputFileScanner(File file){
+		this.file = file;
+	}
+	
+	/**
+	 * Register marker
+	 * @param marker Marker
+	 * @return Registered marker
+	 */
+	public OutputMarker addMarker(OutputMarker marker){
+		markers.add(marker);
+		return marker;
+	}
+	
+	/**
+	 * Get number of lines read so far
+	 * @return Number of lines read
+	 */
+	public long getLineNumber() {
+		return lineNumber;
+	}
+	
+	/**
+	 * Read next line of the file. Lines read by this method (e.g. from a marker callback 
+	 * or before scanning) are not submitted to the markers.
+	 * @return Next line or null if the end of the file was reached
+	 * @throws IOException
+	 * @throws CompressorException
+	 */
+	public String readLine() throws IOException, CompressorException
+	{
+		if (closed)
+			return null;
+		if (reader == null)
+			reader = new IBIOMESFileReader(file);
+		String line = reader.readLine();
+		if (line != null)
+			lineNumber++;
+		return line;
+	}
+	
+	/**
+	 * Scan the rest of the file and submit each line (trimmed) to the markers. 
+	 * The file is closed when the scan completes.
+	 * @throws Exception
+	 */
+	public void scan() throws Exception
+	{
+		try {
+			String line = null;
+			OutputMarker[] activeMarkers = getActiveMarkers();
+			while (activeMarkers.length > 0 && (line = readLine()) != null)
+			{
+				line = line.trim();
+				boolean updateMarkers = false;
+				for (OutputMarker marker : activeMarkers){
+					if (marker.isActive() && marker.matches(line)){
+						marker.handle(line, this);
+						if (!marker.isActive())
+							updateMarkers = true;
+					}
+				}
+				if (updateMarkers)
+					activeMarkers = getActiveMarkers();
+			}
+		}
+		finally {
+			close();
+		}
+	}
+	
+	/**
+	 * Close the file
+	 * @throws IOException
+	 */
+	public void close() throws IOException
+	{
+		closed = true;
+		if (reader != null){
+			reader.close();
+			reader = null;
+		}
+	}
+	
+	private OutputMarker[] getActiveMarkers()
+	{
+		ArrayList<OutputMarker> activeMarkers = new ArrayList<OutputMarker>();
+		for (OutputMarker marker : markers){
+			if (marker.isActive())
+				activeMarkers.add(marker);
+		}
+		return activeMarkers.toArray(new OutputMarker[activeMarkers.size()]);
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.parse.chem;
+
+import java.util.regex.Pattern;
+
+/**
+ * Marker registered with an output file scanner. A marker is identified by a literal
+ * (e.g. "SCF Done: ") that the trimmed line must start with or contain, and optionally
+ * a precompiled pattern the trimmed line must match. The pattern is only tested 
+ * on lines that contain the literal. When a line matches, the callback is invoked 
+ * and can consume the following lines (e.g. a block of coordinates) through the scanner.
+ * @author Julien Thibault, University of Utah
+ *
+ */
+public abstract class OutputMarker {
+	
+	public final static int UNLIMITED_MATCHES = -1;
+	
+	private String literal;
+	private boolean prefix;
+	private Pattern pattern;
+	private int maxMatches;
+	private int matchCount = 0;
+	
+	/**
+	 * New marker for lines starting with the given prefix
+	 * @param prefix Prefix of the trimmed line
+	 * @param maxMatches Maximum number of lines to match (e.g. 1 to only handle the first occurrence, 
+	 * or UNLIMITED_MATCHES)
+	 */
+	public OutputMarker(String prefix, int maxMatches){
+		this(prefix, true, null, maxMatches);
+	}
+	
+	/**
+	 * New marker for lines matching the given regular expression
+	 * @param literal Literal that any matching line contains (used to filter lines before applying the regular expression)
+	 * @param regex Regular expression the trimmed line must match
+	 * @param maxMatches Maximum number of lines to match (e.g. 1 to only handle the first occurrence, 
+	 * or UNLIMITED_MATCHES)
+	 */
+	public OutputMarker(String literal, String regex, int maxMatches){
+		this(literal, false, Pattern.compile(regex), maxMatches);
+	}
+	
+	private OutputMarker(String literal, boolean prefix, Pattern pattern, int maxMatches){
+		if (literal == null || literal.length()==0)
+			throw new IllegalArgumentException("Marker literal cannot be empty");
+		this.literal = literal;
+		this.prefix = prefix;
+		this.pattern = pattern;
+		this.maxMatches = maxMatches;
+	}
+	
+	/**
+	 * Get marker literal
+	 * @return Literal
+	 */
+	public String getLiteral() {
+		return literal;
+	}
+	
+	/**
+	 * Get number of lines matched so far
+	 * @return Number of matches
+	 */
+	public int getMatchCount() {
+		return matchCount;
+	}
+	
+	/**
+	 * Check if the marker can still match lines
+	 * @return True if the maximum number of matches was not reached
+	 */
+	public boolean isActive() {
+		return (maxMatches == UNLIMITED_MATCHES || matchCount < maxMatches);
+	}
+	
+	/**
+	 * Check if the marker matches the given line
+	 * @param line Trimmed line
+	 * @return True if the line matches
+	 */
+	boolean matches(String line)
+	{
+		if (prefix)
+			return line.startsWith(literal);
+		if (line.indexOf(literal) < 0)
+			return false;
+		return pattern.matcher(line).matches();
+	}
+	
+	/**
+	 * Handle matching line
+	 * @param line Trimmed line
+	 * @param scanner Scanner
+	 * @throws Exception
+	 */
+	void handle(String line, OutputFileScanner scanner) throws Exception
+	{
+		matchCount++;
+		onMatch(line, scanner);
+	}
+	
+	/**
+	 * Callback for lines matching the marker
+	 * @param line Trimmed line
+	 * @param scanner Scanner (lines read through the scanner are not submitted to the markers)
+	 * @throws Exception
+	 */
+	public abstract void onMatch(String line, OutputFileScanner scanner) throws Exception;
+}
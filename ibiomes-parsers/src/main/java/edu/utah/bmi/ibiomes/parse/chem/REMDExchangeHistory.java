@@ -0,0 +1,234 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.parse.chem;
+
+import java.util.Arrays;
+
+import edu.utah.bmi.ibiomes.metadata.MetadataAVU;
+import edu.utah.bmi.ibiomes.metadata.MetadataAVUList;
+import edu.utah.bmi.ibiomes.metadata.MethodMetadata;
+
+/**
+ * Exchange history of a replica-exchange simulation: state (e.g. temperature) of each replica 
+ * between two exchanges, and number of attempted/accepted exchanges for each pair of neighbor states.
+ * States are indexed by increasing value (e.g. from the lowest to the highest temperature).
+ * @author Julien Thibault, University of Utah
+ *
+ */
+public class REMDExchangeHistory {
+
+	private final static int INITIAL_CAPACITY = 1024;
+
+	private double[] stateValues;
+	private int numberOfReplicas;
+	private int numberOfExchanges = 0;
+	private int[] states;
+	private long[] attempts;
+	private long[] accepted;
+
+	/**
+	 * New empty exchange history
+	 * @param stateValues Value of each state (e.g. temperatures), one per replica
+	 */
+	public REMDExchangeHistory(double[] stateValues)
+	{
+		this.stateValues = stateValues.clone();
+		Arrays.sort(this.stateValues);
+		this.numberOfReplicas = stateValues.length;
+		this.states = new int[INITIAL_CAPACITY*numberOfReplicas];
+		this.attempts = new long[Math.max(0, numberOfReplicas-1)];
+		this.accepted = new long[Math.max(0, numberOfReplicas-1)];
+	}
+
+	/**
+	 * Add exchange to the history
+	 * @param replicaStates State of each replica before the exchange (i.e. during the preceding MD segment)
+	 */
+	public void addExchange(int[] replicaStates)
+	{
+		if (replicaStates.length != numberOfReplicas)
+			throw new IllegalArgumentException("Number of replicas (" + replicaStates.length + ") does not match the number of states (" + numberOfReplicas + ")");
+		if ((numberOfExchanges+1)*numberOfReplicas > states.length)
+			states = Arrays.copyOf(states, 2*states.length);
+		System.arraycopy(replicaStates, 0, states, numberOfExchanges*numberOfReplicas, numberOfReplicas);
+		numberOfExchanges++;
+	}
+
+	/**
+	 * Record an exchange attempt between two neighbor states
+	 * @param lowerState Index of the lower state of the pair
+	 * @param success True if the exchange was accepted
+	 */
+	public void addAttempt(int lowerState, boolean success)
+	{
+		attempts[lowerState]++;
+		if (success)
+			accepted[lowerState]++;
+	}
+
+	/**
+	 * Get index of the state closest to a value
+	 * @param value State value (e.g. temperature)
+	 * @return State index
+	 */
+	public int getStateIndex(double value)
+	{
+		int index = Arrays.binarySearch(stateValues, value);
+		if (index >= 0)
+			return index;
+		int next = -index-1;
+		if (next == 0)
+			return 0;
+		if (next == stateValues.length)
+			return stateValues.length-1;
+		return (value - stateValues[next-1] <= stateValues[next] - value ? next-1 : next);
+	}
+
+	/**
+	 * Get value of a state
+	 * @param state State index
+	 * @return State value (e.g. temperature)
+	 */
+	public double getStateValue(int state) {
+		return stateValues[state];
+	}
+
+	/**
+	 * Get number of replicas (and states)
+	 * @return Number of replicas
+	 */
+	public int getNumberOfReplicas() {
+		return numberOfReplicas;
+	}
+
+	/**
+	 * Get number of exchanges
+	 * @return Number of exchanges
+	 */
+	public int getNumberOfExchanges() {
+		return numberOfExchanges;
+	}
+
+	/**
+	 * Get state of a replica before an exchange
+	 * @param replica Replica index (0-based)
+	 * @param exchange Exchange index (0-based)
+	 * @return State index
+	 */
+	public int getState(int replica, int exchange)
+	{
+		if (exchange < 0 || exchange >= numberOfExchanges)
+			throw new IndexOutOfBoundsException("Exchange index: " + exchange + ", number of exchanges: " + numberOfExchanges);
+		return states[exchange*numberOfReplicas + replica];
+	}
+
+	/**
+	 * Get replica in a given state before an exchange
+	 * @param state State index
+	 * @param exchange Exchange index (0-based)
+	 * @return Replica index, or -1 if no replica was in this state
+	 */
+	public int getReplica(int state, int exchange)
+	{
+		for (int r=0; r<numberOfReplicas; r++){
+			if (getState(r, exchange) == state)
+				return r;
+		}
+		return -1;
+	}
+
+	/**
+	 * Get number of attempted exchanges between two neighbor states
+	 * @param lowerState Index of the lower state of the pair
+	 * @return Number of attempts
+	 */
+	public long getNumberOfAttempts(int lowerState) {
+		return attempts[lowerState];
+	}
+
+	/**
+	 * Get number of accepted exchanges between two neighbor states
+	 * @param lowerState Index of the lower state of the pair
+	 * @return Number of accepted exchanges
+	 */
+	public long getNumberOfAcceptedExchanges(int lowerState) {
+		return accepted[lowerState];
+	}
+
+	/**
+	 * Get acceptance ratio of the exchanges between two neighbor states
+	 * @param lowerState Index of the lower state of the pair
+	 * @return Acceptance ratio, or NaN if no exchange was attempted
+	 */
+	public double getAcceptanceRatio(int lowerState) {
+		if (attempts[lowerState] == 0)
+			return Double.NaN;
+		return (double)accepted[lowerState] / attempts[lowerState];
+	}
+
+	/**
+	 * Get acceptance ratio of all exchanges
+	 * @return Acceptance ratio, or NaN if no exchange was attempted
+	 */
+	public double getAcceptanceRatio()
+	{
+		long totalAttempts = 0;
+		long totalAccepted = 0;
+		for (int p=0; p<attempts.length; p++){
+			totalAttempts += attempts[p];
+			totalAccepted += accepted[p];
+		}
+		if (totalAttempts == 0)
+			return Double.NaN;
+		return (double)totalAccepted / totalAttempts;
+	}
+
+	/**
+	 * Get lowest acceptance ratio among pairs of neighbor states (exchange bottleneck)
+	 * @return Acceptance ratio, or NaN if no exchange was attempted
+	 */
+	public double getMinimumAcceptanceRatio()
+	{
+		double min = Double.NaN;
+		for (int p=0; p<attempts.length; p++){
+			double ratio = getAcceptanceRatio(p);
+			if (!Double.isNaN(ratio) && (Double.isNaN(min) || ratio < min))
+				min = ratio;
+		}
+		return min;
+	}
+
+	/**
+	 * Get exchange statistics as metadata
+	 * @return Number of replicas and exchanges, acceptance ratios
+	 */
+	public MetadataAVUList getMetadata()
+	{
+		MetadataAVUList metadata = new MetadataAVUList();
+		metadata.add(new MetadataAVU(MethodMetadata.ENHANCED_SAMPLING_METHOD_REPLICA_COUNT, String.valueOf(numberOfReplicas)));
+		if (numberOfExchanges>0)
+			metadata.add(new MetadataAVU(MethodMetadata.REMD_EXCHANGE_COUNT, String.valueOf(numberOfExchanges)));
+		double ratio = getAcceptanceRatio();
+		if (!Double.isNaN(ratio)){
+			metadata.add(new MetadataAVU(MethodMetadata.REMD_EXCHANGE_ACCEPTANCE_RATIO, String.valueOf(ratio)));
+			metadata.add(new MetadataAVU(MethodMetadata.REMD_EXCHANGE_ACCEPTANCE_RATIO_MIN, String.valueOf(getMinimumAcceptanceRatio())));
+		}
+		return metadata;
+	}
+}
@@ -0,0 +1,266 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.parse.chem;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import edu.utah.bmi.ibiomes.parse.chem.amber.AmberTrajectoryWriterASCII;
+
+/**
+ * Demultiplexer for replica-exchange trajectories. Replica trajectories are read in lockstep,
+ * one frame per replica at a time, and each frame is written to the trajectory of its temperature
+ * (or, in the other direction, per-temperature trajectories are sorted into replica walks).
+ * The state of each frame is given by the exchange history, or by the temperature stored in 
+ * the frame (REMD header of AMBER ASCII trajectories, temp0 in AMBER NetCDF trajectories).
+ * Memory use does not depend on the length of the trajectories.
+ * @author Julien Thibault, University of Utah
+ *
+ */
+public class REMDTrajectoryDemultiplexer {
+
+	/**
+	 * Type of output trajectories
+	 */
+	public enum Output {
+		/**
+		 * Input trajectories follow replicas (e.g. AMBER), output trajectories are per temperature
+		 */
+		TEMPERATURE,
+		/**
+		 * Input trajectories are per temperature (e.g. GROMACS, ordered by increasing temperature), 
+		 * output trajectories follow replicas
+		 */
+		REPLICA
+	}
+
+	private List<AbstractTrajectoryFile> inputs;
+	private int numberOfAtoms;
+	private REMDExchangeHistory history;
+	private int framesPerExchange;
+	private Output output = Output.TEMPERATURE;
+
+	/**
+	 * New demultiplexer
+	 * @param inputs Input trajectories, one per replica (in replica order) or per temperature (by increasing temperature)
+	 * @param numberOfAtoms Number of atoms in the system
+	 * @param history Exchange history
+	 * @param framesPerExchange Number of frames written between two exchanges (e.g. nstlim/ntwx in AMBER), 
+	 * or 0 to use the temperature stored in each frame
+	 */
+	public REMDTrajectoryDemultiplexer(List<? extends AbstractTrajectoryFile> inputs, int numberOfAtoms, 
+			REMDExchangeHistory history, int framesPerExchange)
+	{
+		if (inputs.size() != history.getNumberOfReplicas())
+			throw new IllegalArgumentException("Number of trajectories (" + inputs.size() + ") does not match the number of replicas (" + history.getNumberOfReplicas() + ")");
+		this.inputs = new ArrayList<AbstractTrajectoryFile>(inputs);
+		this.numberOfAtoms = numberOfAtoms;
+		this.history = history;
+		this.framesPerExchange = framesPerExchange;
+	}
+
+	/**
+	 * Get type of output trajectories
+	 * @return Type of output trajectories
+	 */
+	public Output getOutput() {
+		return output;
+	}
+
+	/**
+	 * Set type of output trajectories
+	 * @param output Type of output trajectories
+	 */
+	public void setOutput(Output output) {
+		if (output == Output.REPLICA && framesPerExchange <= 0)
+			throw new IllegalArgumentException("Replica walks cannot be built from frame temperatures: the number of frames per exchange is required");
+		this.output = output;
+	}
+
+	/**
+	 * Write output trajectories in AMBER ASCII format 
+	 * ('&lt;prefix&gt;.&lt;temperature&gt;K.mdcrd' or '&lt;prefix&gt;.rep&lt;replica&gt;.mdcrd')
+	 * @param outputDirectory Output directory
+	 * @param prefix File name prefix
+	 * @return Number of frames in each output trajectory
+	 * @throws IOException
+	 */
+	public int demultiplex(File outputDirectory, String prefix) throws IOException
+	{
+		List<TrajectoryFrameWriter> writers = new ArrayList<TrajectoryFrameWriter>();
+		try {
+			for (int i=0; i<inputs.size(); i++){
+				String name = null;
+				String title = null;
+				if (output == Output.TEMPERATURE){
+					String temperature = String.format(Locale.US, "%.2f", history.getStateValue(i));
+					name = prefix + "." + temperature + "K.mdcrd";
+					title = "Demultiplexed REMD trajectory (T=" + temperature + "K)";
+				}
+				else {
+					name = prefix + String.format(Locale.US, ".rep%03d.mdcrd", i+1);
+					title = "Demultiplexed REMD trajectory (replica " + (i+1) + ")";
+				}
+				writers.add(new AmberTrajectoryWriterASCII(new File(outputDirectory, name), title, numberOfAtoms));
+			}
+			return demultiplex(writers);
+		}
+		finally {
+			for (TrajectoryFrameWriter writer : writers)
+				writer.close();
+		}
+	}
+
+	/**
+	 * Sort frames into the output trajectories
+	 * @param writers Output trajectories (by increasing temperature, or in replica order). They are not closed.
+	 * @return Number of frames in each output trajectory
+	 * @throws IOException
+	 */
+	public int demultiplex(List<? extends TrajectoryFrameWriter> writers) throws IOException
+	{
+		int nReplicas = inputs.size();
+		if (writers.size() != nReplicas)
+			throw new IllegalArgumentException("Number of output trajectories (" + writers.size() + ") does not match the number of replicas (" + nReplicas + ")");
+		ReplicaReader[] readers = new ReplicaReader[nReplicas];
+		TrajectoryFrame[] frames = new TrajectoryFrame[nReplicas];
+		boolean[] written = new boolean[nReplicas];
+		int frame = 0;
+		try {
+			for (int r=0; r<nReplicas; r++)
+				readers[r] = new ReplicaReader(inputs.get(r));
+			while (true)
+			{
+				int ended = 0;
+				for (int r=0; r<nReplicas; r++){
+					frames[r] = readers[r].readNextFrame();
+					if (frames[r] == null)
+						ended++;
+				}
+				if (ended == nReplicas)
+					break;
+				if (ended > 0)
+					throw new IOException("Replica trajectories do not have the same number of frames (" + frame + " frames in the shortest)");
+				Arrays.fill(written, false);
+				for (int r=0; r<nReplicas; r++){
+					int target = getOutputIndex(r, frame, frames[r]);
+					if (written[target])
+						throw new IOException("Several frames for output trajectory " + target + " at frame " + frame);
+					written[target] = true;
+					writers.get(target).writeFrame(frames[r]);
+				}
+				frame++;
+			}
+		}
+		finally {
+			for (ReplicaReader reader : readers){
+				if (reader != null)
+					reader.close();
+			}
+		}
+		return frame;
+	}
+
+	/**
+	 * Get index of the output trajectory of a frame
+	 * @param input Index of the input trajectory
+	 * @param frame Frame index
+	 * @param buffer Frame
+	 * @return Index of the output trajectory
+	 * @throws IOException
+	 */
+	private int getOutputIndex(int input, int frame, TrajectoryFrame buffer) throws IOException
+	{
+		if (framesPerExchange <= 0){
+			if (Double.isNaN(buffer.getTemperature()))
+				throw new IOException("No temperature for frame " + frame + " of '" + inputs.get(input).getAbsolutePath() + "'");
+			return history.getStateIndex(buffer.getTemperature());
+		}
+		int exchange = frame / framesPerExchange;
+		if (exchange >= history.getNumberOfExchanges())
+			throw new IOException("Frame " + frame + " is after the last exchange (" + history.getNumberOfExchanges() + " exchanges, " + framesPerExchange + " frames per exchange)");
+		if (output == Output.TEMPERATURE)
+			return history.getState(input, exchange);
+		else return history.getReplica(input, exchange);
+	}
+
+	/**
+	 * Frame-by-frame reader of a replica trajectory, holding a single frame. 
+	 * Random access is used when available, otherwise frames are streamed (e.g. compressed files).
+	 */
+	private class ReplicaReader {
+
+		private RandomAccessTrajectoryReader randomAccessReader = null;
+		private TrajectoryFrameReader frameReader = null;
+		private TrajectoryFrame frame = null;
+		private int[] selectionIndex = null;
+		private int nextFrame = 0;
+
+		private ReplicaReader(AbstractTrajectoryFile file) throws IOException
+		{
+			try {
+				if (file.supportsRandomAccess()){
+					try {
+						randomAccessReader = file.getRandomAccessReader(numberOfAtoms);
+					}
+					catch (IOException e){
+						//file cannot be indexed: sequential reading
+					}
+				}
+				if (randomAccessReader != null){
+					frame = new TrajectoryFrame(numberOfAtoms);
+					selectionIndex = new int[numberOfAtoms];
+					for (int a=0; a<numberOfAtoms; a++)
+						selectionIndex[a] = a;
+				}
+				else frameReader = file.getFrameReader(numberOfAtoms);
+			}
+			catch (IOException e){
+				throw e;
+			}
+			catch (Exception e){
+				throw new IOException("Cannot open trajectory '" + file.getAbsolutePath() + "': " + e.getMessage(), e);
+			}
+		}
+
+		private TrajectoryFrame readNextFrame() throws IOException
+		{
+			if (frameReader != null)
+				return frameReader.readNextFrame();
+			if (nextFrame >= randomAccessReader.getNumberOfFrames())
+				return null;
+			frame.setTemperature(Double.NaN);
+			randomAccessReader.readFrame(nextFrame, frame, selectionIndex);
+			frame.setIndex(nextFrame++);
+			return frame;
+		}
+
+		private void close() throws IOException
+		{
+			if (frameReader != null)
+				frameReader.close();
+			if (randomAccessReader != null)
+				randomAccessReader.close();
+		}
+	}
+}
@@ -0,0 +1,59 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.parse.chem;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Trajectory reader giving access to any frame of the trajectory
+ * @author Julien Thibault, University of Utah
+ *
+ */
+public interface RandomAccessTrajectoryReader extends Closeable {
+
+	/**
+	 * Get number of atoms
+	 * @return Number of atoms
+	 */
+	public int getNumberOfAtoms();
+
+	/**
+	 * Get number of frames
+	 * @return Number of frames
+	 */
+	public int getNumberOfFrames();
+
+	/**
+	 * Copy coordinates and box of a frame into a frame buffer
+	 * @param frame Frame index (0-based)
+	 * @param buffer Frame buffer
+	 * @param selectionIndex Position of each atom in the frame buffer (-1 if the atom is not selected)
+	 * @throws IOException
+	 */
+	public void readFrame(int frame, TrajectoryFrame buffer, int[] selectionIndex) throws IOException;
+
+	/**
+	 * Open the trajectory for frame streaming
+	 * @param atomSelection Indexes (0-based) of the atoms to read, or null to read all atoms
+	 * @param frameStride Read every n-th frame (1 to read all frames)
+	 * @return Frame reader (closing the frame reader closes this reader)
+	 */
+	public TrajectoryFrameReader getFrameReader(int[] atomSelection, int frameStride);
+}
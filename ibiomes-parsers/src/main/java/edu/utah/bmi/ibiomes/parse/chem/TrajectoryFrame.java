@@ -0,0 +1,143 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.parse.chem;
+
+/**
+ * Trajectory frame: coordinates of the selected atoms at a given time step.
+ * Frame objects are reused by the frame readers: the coordinate buffer is overwritten
+ * each time a new frame is read, so values must be copied if they need to be kept.
+ * @author Julien Thibault, University of Utah
+ *
+ */
+public class TrajectoryFrame {
+
+	private int index = -1;
+	private float[] coordinates;
+	private float[] box;
+	private boolean hasBox = false;
+	private double temperature = Double.NaN;
+
+	/**
+	 * New frame buffer
+	 * @param numberOfAtoms Number of atoms in the frame (selected atoms only)
+	 */
+	public TrajectoryFrame(int numberOfAtoms){
+		this.coordinates = new float[3*numberOfAtoms];
+		this.box = new float[6];
+	}
+
+	/**
+	 * Get index of the frame in the trajectory file (0-based)
+	 * @return Frame index
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	/**
+	 * Set index of the frame in the trajectory file (0-based)
+	 * @param index Frame index
+	 */
+	public void setIndex(int index) {
+		this.index = index;
+	}
+
+	/**
+	 * Get number of atoms in the frame
+	 * @return Number of atoms
+	 */
+	public int getNumberOfAtoms() {
+		return coordinates.length / 3;
+	}
+
+	/**
+	 * Get coordinate buffer (x1,y1,z1,x2,y2,z2,...)
+	 * @return Coordinate buffer
+	 */
+	public float[] getCoordinates() {
+		return coordinates;
+	}
+
+	/**
+	 * Get X coordinate of the given atom
+	 * @param atom Atom index in the frame (0-based)
+	 * @return X coordinate
+	 */
+	public float getX(int atom){
+		return coordinates[3*atom];
+	}
+
+	/**
+	 * Get Y coordinate of the given atom
+	 * @param atom Atom index in the frame (0-based)
+	 * @return Y coordinate
+	 */
+	public float getY(int atom){
+		return coordinates[3*atom+1];
+	}
+
+	/**
+	 * Get Z coordinate of the given atom
+	 * @param atom Atom index in the frame (0-based)
+	 * @return Z coordinate
+	 */
+	public float getZ(int atom){
+		return coordinates[3*atom+2];
+	}
+
+	/**
+	 * Check if box information is available for this frame
+	 * @return True if box information is available
+	 */
+	public boolean hasBox() {
+		return hasBox;
+	}
+
+	/**
+	 * Set flag for box information
+	 * @param hasBox True if box information is available
+	 */
+	public void setHasBox(boolean hasBox) {
+		this.hasBox = hasBox;
+	}
+
+	/**
+	 * Get box buffer (lengths a,b,c then angles alpha,beta,gamma when available)
+	 * @return Box buffer
+	 */
+	public float[] getBox() {
+		return box;
+	}
+
+	/**
+	 * Get temperature associated to this frame (e.g. REMD header)
+	 * @return Temperature or NaN if not available
+	 */
+	public double getTemperature() {
+		return temperature;
+	}
+
+	/**
+	 * Set temperature associated to this frame (e.g. REMD header)
+	 * @param temperature Temperature
+	 */
+	public void setTemperature(double temperature) {
+		this.temperature = temperature;
+	}
+}
@@ -0,0 +1,247 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.parse.chem;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Index of the frames of a trajectory with variable-size frames: byte offset, step number
+ * and time of each frame. The index is built once by scanning the file and can be persisted
+ * as a hidden sidecar file next to the trajectory ('.&lt;name&gt;.idx'). A sidecar is only used
+ * if the size and modification time of the trajectory did not change since it was written.
+ * @author Julien Thibault, University of Utah
+ *
+ */
+public class TrajectoryFrameIndex {
+
+	private final static int SIDECAR_MAGIC = 0x49424658; //'IBFX'
+	private final static int SIDECAR_VERSION = 1;
+	private final static String SIDECAR_EXTENSION = ".idx";
+	private final static int INITIAL_CAPACITY = 1024;
+
+	private int numberOfAtoms = 0;
+	private int numberOfFrames = 0;
+	private long[] offsets;
+	private long[] steps;
+	private float[] times;
+	private long endOffset = 0;
+
+	/**
+	 * New empty index
+	 * @param numberOfAtoms Number of atoms in each frame
+	 */
+	public TrajectoryFrameIndex(int numberOfAtoms){
+		this.numberOfAtoms = numberOfAtoms;
+		this.offsets = new long[INITIAL_CAPACITY];
+		this.steps = new long[INITIAL_CAPACITY];
+		this.times = new float[INITIAL_CAPACITY];
+	}
+
+	/**
+	 * Add frame to the index
+	 * @param offset Offset of the frame in the file (bytes)
+	 * @param step Step number (0 if not available)
+	 * @param time Time of the frame (NaN if not available)
+	 */
+	public void addFrame(long offset, long step, float time)
+	{
+		if (numberOfFrames == offsets.length){
+			int capacity = 2*offsets.length;
+			offsets = Arrays.copyOf(offsets, capacity);
+			steps = Arrays.copyOf(steps, capacity);
+			times = Arrays.copyOf(times, capacity);
+		}
+		offsets[numberOfFrames] = offset;
+		steps[numberOfFrames] = step;
+		times[numberOfFrames] = time;
+		numberOfFrames++;
+	}
+
+	/**
+	 * Get number of atoms in each frame
+	 * @return Number of atoms
+	 */
+	public int getNumberOfAtoms() {
+		return numberOfAtoms;
+	}
+
+	/**
+	 * Get number of indexed frames
+	 * @return Number of frames
+	 */
+	public int getNumberOfFrames() {
+		return numberOfFrames;
+	}
+
+	/**
+	 * Get offset of a frame
+	 * @param frame Frame index (0-based)
+	 * @return Offset in the file (bytes)
+	 */
+	public long getOffset(int frame) {
+		checkFrameIndex(frame);
+		return offsets[frame];
+	}
+
+	/**
+	 * Get size of a frame, computed from the offset of the next frame
+	 * @param frame Frame index (0-based)
+	 * @return Frame size (bytes)
+	 */
+	public long getFrameSize(int frame) {
+		checkFrameIndex(frame);
+		long next = (frame+1 < numberOfFrames ? offsets[frame+1] : endOffset);
+		return next - offsets[frame];
+	}
+
+	/**
+	 * Get step number of a frame
+	 * @param frame Frame index (0-based)
+	 * @return Step number
+	 */
+	public long getStep(int frame) {
+		checkFrameIndex(frame);
+		return steps[frame];
+	}
+
+	/**
+	 * Get time of a frame
+	 * @param frame Frame index (0-based)
+	 * @return Time (NaN if not available)
+	 */
+	public float getTime(int frame) {
+		checkFrameIndex(frame);
+		return times[frame];
+	}
+
+	/**
+	 * Get offset of the end of the last frame
+	 * @return Offset (bytes)
+	 */
+	public long getEndOffset() {
+		return endOffset;
+	}
+
+	/**
+	 * Set offset of the end of the last frame
+	 * @param endOffset Offset (bytes)
+	 */
+	public void setEndOffset(long endOffset) {
+		this.endOffset = endOffset;
+	}
+
+	/**
+	 * Get path to the sidecar file of a trajectory
+	 * @param trajectoryFile Trajectory file
+	 * @return Sidecar file
+	 */
+	public static File getSidecarFile(File trajectoryFile){
+		return new File(trajectoryFile.getAbsoluteFile().getParentFile(), "." + trajectoryFile.getName() + SIDECAR_EXTENSION);
+	}
+
+	/**
+	 * Load index from the sidecar file of a trajectory
+	 * @param trajectoryFile Trajectory file
+	 * @return Index, or null if there is no sidecar or if the trajectory changed since it was indexed
+	 */
+	public static TrajectoryFrameIndex load(File trajectoryFile)
+	{
+		File sidecar = getSidecarFile(trajectoryFile);
+		if (!sidecar.exists())
+			return null;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(sidecar)));
+			if (in.readInt() != SIDECAR_MAGIC || in.readInt() != SIDECAR_VERSION)
+				return null;
+			if (in.readLong() != trajectoryFile.length() || in.readLong() != trajectoryFile.lastModified())
+				return null;
+			TrajectoryFrameIndex index = new TrajectoryFrameIndex(in.readInt());
+			int nFrames = in.readInt();
+			index.endOffset = in.readLong();
+			for (int f=0; f<nFrames; f++){
+				long offset = in.readLong();
+				long step = in.readLong();
+				float time = in.readFloat();
+				index.addFrame(offset, step, time);
+			}
+			return index;
+		}
+		catch (IOException e){
+			return null;
+		}
+		finally {
+			if (in != null)
+				try {
+					in.close();
+				} catch (IOException e) {
+				}
+		}
+	}
+
+	/**
+	 * Save index as a sidecar file next to the trajectory
+	 * @param trajectoryFile Trajectory file
+	 * @throws IOException
+	 */
+	public void store(File trajectoryFile) throws IOException
+	{
+		File sidecar = getSidecarFile(trajectoryFile);
+		File tmpFile = new File(sidecar.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+		try {
+			out.writeInt(SIDECAR_MAGIC);
+			out.writeInt(SIDECAR_VERSION);
+			out.writeLong(trajectoryFile.length());
+			out.writeLong(trajectoryFile.lastModified());
+			out.writeInt(numberOfAtoms);
+			out.writeInt(numberOfFrames);
+			out.writeLong(endOffset);
+			for (int f=0; f<numberOfFrames; f++){
+				out.writeLong(offsets[f]);
+				out.writeLong(steps[f]);
+				out.writeFloat(times[f]);
+			}
+		}
+		finally {
+			out.close();
+		}
+		if (sidecar.exists() && !sidecar.delete()){
+			tmpFile.delete();
+			throw new IOException("Cannot replace frame index " + sidecar.getAbsolutePath());
+		}
+		if (!tmpFile.renameTo(sidecar)){
+			tmpFile.delete();
+			throw new IOException("Cannot save frame index " + sidecar.getAbsolutePath());
+		}
+	}
+
+	private void checkFrameIndex(int frame){
+		if (frame < 0 || frame >= numberOfFrames)
+			throw new IndexOutOfBoundsException("Frame index: " + frame + ", number of frames: " + numberOfFrames);
+	}
+}
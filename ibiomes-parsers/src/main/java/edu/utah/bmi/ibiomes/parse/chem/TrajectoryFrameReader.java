@@ -0,0 +1,176 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.parse.chem;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Frame-major trajectory reader. The trajectory file is read once, frame by frame,
+ * and coordinates are stored in a single reusable frame buffer.
+ * @author Julien Thibault, University of Utah
+ *
+ */
+public abstract class TrajectoryFrameReader implements Iterator<TrajectoryFrame>, Closeable {
+
+	protected int numberOfAtoms;
+	protected int[] atomSelection;
+	protected int[] selectionIndex;
+	protected int frameStride = 1;
+
+	private TrajectoryFrame frame;
+	private int nextFrameIndex = 0;
+	private boolean frameLoaded = false;
+	private boolean endReached = false;
+
+	/**
+	 * New frame reader
+	 * @param numberOfAtoms Number of atoms in the system
+	 * @param atomSelection Indexes (0-based) of the atoms to read, or null to read all atoms
+	 * @param frameStride Read every n-th frame (1 to read all frames)
+	 */
+	public TrajectoryFrameReader(int numberOfAtoms, int[] atomSelection, int frameStride)
+	{
+		if (numberOfAtoms < 1)
+			throw new IllegalArgumentException("Invalid number of atoms: " + numberOfAtoms);
+		this.numberOfAtoms = numberOfAtoms;
+		this.frameStride = (frameStride < 1 ? 1 : frameStride);
+		this.atomSelection = atomSelection;
+
+		//map each atom to its position in the frame buffer (-1 if not selected)
+		this.selectionIndex = new int[numberOfAtoms];
+		if (atomSelection == null){
+			for (int a=0; a<numberOfAtoms; a++)
+				selectionIndex[a] = a;
+			this.frame = new TrajectoryFrame(numberOfAtoms);
+		}
+		else {
+			for (int a=0; a<numberOfAtoms; a++)
+				selectionIndex[a] = -1;
+			for (int s=0; s<atomSelection.length; s++){
+				if (atomSelection[s] < 0 || atomSelection[s] >= numberOfAtoms)
+					throw new IllegalArgumentException("Invalid atom index in selection: " + atomSelection[s]);
+				selectionIndex[atomSelection[s]] = s;
+			}
+			this.frame = new TrajectoryFrame(atomSelection.length);
+		}
+	}
+
+	/**
+	 * Get number of atoms in the system
+	 * @return Number of atoms
+	 */
+	public int getNumberOfAtoms() {
+		return numberOfAtoms;
+	}
+
+	/**
+	 * Get frame stride
+	 * @return Frame stride
+	 */
+	public int getFrameStride() {
+		return frameStride;
+	}
+
+	/**
+	 * Read next frame (taking the frame stride into account)
+	 * @return Next frame or null if the end of the trajectory was reached.
+	 * The returned object is overwritten by the next call.
+	 * @throws IOException
+	 */
+	public TrajectoryFrame readNextFrame() throws IOException
+	{
+		if (!loadNextFrame())
+			return null;
+		frameLoaded = false;
+		return frame;
+	}
+
+	@Override
+	public boolean hasNext() {
+		try {
+			return loadNextFrame();
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot read trajectory frame: " + e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public TrajectoryFrame next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		frameLoaded = false;
+		return frame;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Load next selected frame into the frame buffer, if not already loaded
+	 * @return True if a frame is available
+	 * @throws IOException
+	 */
+	private boolean loadNextFrame() throws IOException
+	{
+		if (frameLoaded)
+			return true;
+		if (endReached)
+			return false;
+
+		//skip frames according to stride
+		if (nextFrameIndex > 0){
+			for (int s=1; s<frameStride; s++){
+				if (!skipFrame()){
+					endReached = true;
+					return false;
+				}
+				nextFrameIndex++;
+			}
+		}
+		if (!readFrame(frame)){
+			endReached = true;
+			return false;
+		}
+		frame.setIndex(nextFrameIndex);
+		nextFrameIndex++;
+		frameLoaded = true;
+		return true;
+	}
+
+	/**
+	 * Read next frame in the file into the given buffer. Only the selected atoms
+	 * (see selectionIndex) must be stored.
+	 * @param frame Frame buffer
+	 * @return False if the end of the file was reached
+	 * @throws IOException
+	 */
+	protected abstract boolean readFrame(TrajectoryFrame frame) throws IOException;
+
+	/**
+	 * Skip next frame in the file
+	 * @return False if the end of the file was reached
+	 * @throws IOException
+	 */
+	protected abstract boolean skipFrame() throws IOException;
+}
@@ -0,0 +1,582 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.parse.chem;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import edu.utah.bmi.ibiomes.metadata.MetadataAVU;
+import edu.utah.bmi.ibiomes.metadata.MetadataAVUList;
+import edu.utah.bmi.ibiomes.metadata.MethodMetadata;
+import edu.utah.bmi.ibiomes.metadata.TrajectoryMetadata;
+import edu.utah.bmi.ibiomes.parse.LocalFile;
+import edu.utah.bmi.ibiomes.quantity.TimeLength;
+
+/**
+ * Trajectory split into several files (segments), e.g. md1.mdcrd, md2.mdcrd.gz, ..., md50.nc,
+ * seen as a single time series with a global frame index. Segments can have different formats
+ * and compression. Frame counts and times are taken from the file headers; frames duplicated 
+ * at the boundary of two segments (restarts) are excluded from the global index. 
+ * Only the segment holding the requested frame is open at a given time.
+ * @author Julien Thibault, University of Utah
+ *
+ */
+public class VirtualTrajectory implements RandomAccessTrajectoryReader {
+
+	/**
+	 * Segment ordering rule
+	 */
+	public enum SegmentOrder {
+		/**
+		 * Number in the file name (md2 before md10)
+		 */
+		NAME,
+		/**
+		 * Time of the first frame, as stored in the trajectory. 
+		 * Segments are ordered by name if the time of a segment is not available.
+		 */
+		SIMULATION_TIME,
+		/**
+		 * Last modification time of the file
+		 */
+		MODIFICATION_TIME
+	}
+
+	private final static Pattern SEGMENT_NAME_PATTERN = Pattern.compile("^(.*?)(\\d+)$");
+	private final static Pattern COMPRESSION_EXTENSION_PATTERN = Pattern.compile("\\.(gz|bz2|xz|zip|Z)$");
+	private final static double TIME_TOLERANCE = 1e-3;
+
+	private List<AbstractTrajectoryFile> segments;
+	private int numberOfAtoms;
+	private int[] segmentFrames;
+	private int[] skippedFrames;
+	private int[] firstFrames;
+	private double defaultFrameInterval = Double.NaN;
+
+	private int openSegment = -1;
+	private RandomAccessTrajectoryReader segmentReader = null;
+	private TrajectoryFrameReader sequentialReader = null;
+	private int sequentialPosition = 0;
+
+	/**
+	 * New virtual trajectory. Overlapping frames are detected using the frame times stored in the segments.
+	 * @param segments Trajectory segments
+	 * @param numberOfAtoms Number of atoms in the system (used to read frames and to count the frames of 
+	 * segments that do not store a frame count, such as AMBER ASCII trajectories)
+	 * @param order Segment ordering rule
+	 * @throws Exception
+	 */
+	public VirtualTrajectory(List<? extends AbstractTrajectoryFile> segments, int numberOfAtoms, SegmentOrder order) throws Exception
+	{
+		if (segments == null || segments.isEmpty())
+			throw new IllegalArgumentException("No trajectory segment");
+		this.numberOfAtoms = numberOfAtoms;
+		this.segments = sortSegments(segments, order);
+
+		int nSegments = this.segments.size();
+		this.segmentFrames = new int[nSegments];
+		this.skippedFrames = new int[nSegments];
+		this.firstFrames = new int[nSegments+1];
+		for (int s=0; s<nSegments; s++)
+			segmentFrames[s] = countFrames(this.segments.get(s));
+
+		//frames of a segment with a time before the end of the previous segment are duplicates
+		for (int s=1; s<nSegments; s++){
+			AbstractTrajectoryFile previous = this.segments.get(s-1);
+			AbstractTrajectoryFile segment = this.segments.get(s);
+			double interval = segment.getFrameInterval();
+			if (segmentFrames[s-1] == 0 || Double.isNaN(previous.getStartTime()) || Double.isNaN(segment.getStartTime()) 
+					|| Double.isNaN(interval) || interval <= 0.0)
+				continue;
+			double previousEnd = previous.getStartTime() + (segmentFrames[s-1]-1) * 
+					(segmentFrames[s-1] > 1 ? previous.getFrameInterval() : 0.0);
+			if (Double.isNaN(previousEnd))
+				continue;
+			double overlap = (previousEnd - segment.getStartTime()) / interval;
+			if (overlap > -TIME_TOLERANCE)
+				skippedFrames[s] = Math.min(segmentFrames[s], (int)Math.floor(overlap + TIME_TOLERANCE) + 1);
+		}
+		updateLayout();
+	}
+
+	/**
+	 * New virtual trajectory, with segments ordered by name
+	 * @param segments Trajectory segments
+	 * @param numberOfAtoms Number of atoms in the system
+	 * @throws Exception
+	 */
+	public VirtualTrajectory(List<? extends AbstractTrajectoryFile> segments, int numberOfAtoms) throws Exception {
+		this(segments, numberOfAtoms, SegmentOrder.NAME);
+	}
+
+	/**
+	 * Group trajectory files that are segments of the same run: files in the same directory whose names
+	 * only differ by a number (e.g. md1.mdcrd, md2.mdcrd.gz, md3.nc)
+	 * @param files List of files
+	 * @return Segments of each run (at least 2 per run), indexed by run name (directory and name prefix)
+	 */
+	public static Map<String, List<AbstractTrajectoryFile>> groupSegments(List<? extends LocalFile> files)
+	{
+		Map<String, List<AbstractTrajectoryFile>> groups = new LinkedHashMap<String, List<AbstractTrajectoryFile>>();
+		for (LocalFile file : files){
+			if (!(file instanceof AbstractTrajectoryFile))
+				continue;
+			Matcher matcher = SEGMENT_NAME_PATTERN.matcher(getBaseName(file.getName()));
+			if (!matcher.matches())
+				continue;
+			String run = file.getParent() + File.separator + matcher.group(1);
+			List<AbstractTrajectoryFile> group = groups.get(run);
+			if (group == null){
+				group = new ArrayList<AbstractTrajectoryFile>();
+				groups.put(run, group);
+			}
+			group.add((AbstractTrajectoryFile)file);
+		}
+		Map<String, List<AbstractTrajectoryFile>> runs = new LinkedHashMap<String, List<AbstractTrajectoryFile>>();
+		for (Map.Entry<String, List<AbstractTrajectoryFile>> group : groups.entrySet()){
+			if (group.getValue().size() > 1)
+				runs.put(group.getKey(), group.getValue());
+		}
+		return runs;
+	}
+
+	/**
+	 * Detect frames duplicated at segment boundaries by comparing coordinates, for boundaries
+	 * where frame times are not available (e.g. AMBER ASCII trajectories). The first frame of 
+	 * a segment is excluded if it matches the last frame of the previous segment.
+	 * @param tolerance Maximum difference between coordinates (Angstroms)
+	 * @return Number of duplicated frames found
+	 * @throws Exception
+	 */
+	public int removeDuplicateBoundaryFrames(double tolerance) throws Exception
+	{
+		int duplicates = 0;
+		TrajectoryFrame last = new TrajectoryFrame(numberOfAtoms);
+		TrajectoryFrame first = new TrajectoryFrame(numberOfAtoms);
+		int[] selectionIndex = new int[numberOfAtoms];
+		for (int a=0; a<numberOfAtoms; a++)
+			selectionIndex[a] = a;
+		for (int s=1; s<segments.size(); s++)
+		{
+			if (skippedFrames[s] > 0 || segmentFrames[s] == 0 || segmentFrames[s-1] == 0)
+				continue;
+			readSegmentFrame(s-1, segmentFrames[s-1]-1, last, selectionIndex);
+			readSegmentFrame(s, 0, first, selectionIndex);
+			float[] x1 = last.getCoordinates();
+			float[] x2 = first.getCoordinates();
+			boolean same = true;
+			for (int i=0; i<x1.length && same; i++)
+				same = (Math.abs(x1[i]-x2[i]) <= tolerance);
+			if (same){
+				skippedFrames[s] = 1;
+				duplicates++;
+			}
+		}
+		updateLayout();
+		return duplicates;
+	}
+
+	/**
+	 * Get segments, in trajectory order
+	 * @return Trajectory segments
+	 */
+	public List<AbstractTrajectoryFile> getSegments() {
+		return Collections.unmodifiableList(segments);
+	}
+
+	/**
+	 * Get number of frames in the trajectory (duplicated frames excluded)
+	 * @return Number of frames
+	 */
+	@Override
+	public int getNumberOfFrames() {
+		return firstFrames[segments.size()];
+	}
+
+	@Override
+	public int getNumberOfAtoms() {
+		return numberOfAtoms;
+	}
+
+	/**
+	 * Get number of frames of a segment included in the trajectory
+	 * @param segment Segment index
+	 * @return Number of frames
+	 */
+	public int getNumberOfFrames(int segment) {
+		return segmentFrames[segment] - skippedFrames[segment];
+	}
+
+	/**
+	 * Get number of frames of a segment excluded from the trajectory because they duplicate 
+	 * the end of the previous segment
+	 * @param segment Segment index
+	 * @return Number of duplicated frames
+	 */
+	public int getNumberOfDuplicateFrames(int segment) {
+		return skippedFrames[segment];
+	}
+
+	/**
+	 * Get index of the segment holding a frame
+	 * @param frame Global frame index (0-based)
+	 * @return Segment index
+	 */
+	public int getSegmentIndex(int frame)
+	{
+		checkFrameIndex(frame);
+		//last segment starting at or before the frame
+		int low = 0;
+		int high = segments.size()-1;
+		while (low < high){
+			int mid = (low + high + 1) >>> 1;
+			if (firstFrames[mid] <= frame)
+				low = mid;
+			else high = mid-1;
+		}
+		return low;
+	}
+
+	/**
+	 * Get time between two consecutive frames, used for segments that do not store frame times
+	 * @return Time (ps)
+	 */
+	public double getDefaultFrameInterval() {
+		return defaultFrameInterval;
+	}
+
+	/**
+	 * Set time between two consecutive frames, used for segments that do not store frame times
+	 * (e.g. from the output frequency in the MD input files)
+	 * @param frameInterval Time (ps)
+	 */
+	public void setDefaultFrameInterval(double frameInterval) {
+		this.defaultFrameInterval = frameInterval;
+	}
+
+	/**
+	 * Get simulation time of a frame
+	 * @param frame Global frame index (0-based)
+	 * @return Time (ps), or NaN if the segment does not store frame times
+	 */
+	public double getFrameTime(int frame)
+	{
+		int s = getSegmentIndex(frame);
+		AbstractTrajectoryFile segment = segments.get(s);
+		int localFrame = frame - firstFrames[s] + skippedFrames[s];
+		if (localFrame == 0)
+			return segment.getStartTime();
+		return segment.getStartTime() + localFrame * segment.getFrameInterval();
+	}
+
+	/**
+	 * Get total simulated time, from the number of frames and the frame interval of each segment
+	 * @return Simulated time (ps), or NaN if the frame interval of a segment is not known
+	 */
+	public double getSimulatedTime()
+	{
+		double time = 0.0;
+		for (int s=0; s<segments.size(); s++){
+			int nFrames = getNumberOfFrames(s);
+			if (nFrames == 0)
+				continue;
+			double interval = segments.get(s).getFrameInterval();
+			if (Double.isNaN(interval))
+				interval = defaultFrameInterval;
+			if (Double.isNaN(interval))
+				return Double.NaN;
+			time += nFrames * interval;
+		}
+		return time;
+	}
+
+	@Override
+	public void readFrame(int frame, TrajectoryFrame buffer, int[] selectionIndex) throws IOException
+	{
+		int s = getSegmentIndex(frame);
+		readSegmentFrame(s, frame - firstFrames[s] + skippedFrames[s], buffer, selectionIndex);
+		buffer.setIndex(frame);
+	}
+
+	@Override
+	public TrajectoryFrameReader getFrameReader(int[] atomSelection, int frameStride)
+	{
+		final VirtualTrajectory trajectory = this;
+		return new TrajectoryFrameReader(numberOfAtoms, atomSelection, frameStride) {
+			private int nextFrame = 0;
+			@Override
+			protected boolean readFrame(TrajectoryFrame frame) throws IOException {
+				if (nextFrame >= trajectory.getNumberOfFrames())
+					return false;
+				trajectory.readFrame(nextFrame++, frame, selectionIndex);
+				return true;
+			}
+			@Override
+			protected boolean skipFrame() throws IOException {
+				if (nextFrame >= trajectory.getNumberOfFrames())
+					return false;
+				nextFrame++;
+				return true;
+			}
+			@Override
+			public void close() throws IOException {
+				trajectory.close();
+			}
+		};
+	}
+
+	/**
+	 * Get metadata of the whole trajectory: number of segments and frames, simulated time
+	 * @return Trajectory metadata
+	 */
+	public MetadataAVUList getMetadata()
+	{
+		MetadataAVUList metadata = new MetadataAVUList();
+		metadata.add(new MetadataAVU(TrajectoryMetadata.TRAJECTORY_SEGMENT_COUNT, String.valueOf(segments.size())));
+		metadata.add(new MetadataAVU(TrajectoryMetadata.TIME_STEP_COUNT, String.valueOf(getNumberOfFrames())));
+		double time = getSimulatedTime();
+		if (!Double.isNaN(time) && time > 0.0)
+			metadata.add(new MetadataAVU(MethodMetadata.SIMULATED_TIME, String.valueOf(time), TimeLength.Picosecond));
+		return metadata;
+	}
+
+	/**
+	 * Close the segment currently open
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		openSegment = -1;
+		try {
+			if (segmentReader != null)
+				segmentReader.close();
+			if (sequentialReader != null)
+				sequentialReader.close();
+		}
+		finally {
+			segmentReader = null;
+			sequentialReader = null;
+		}
+	}
+
+	/**
+	 * Read a frame of a segment. The segment is opened if it is not the current one.
+	 * Segments that do not support random access (e.g. compressed files) are read sequentially,
+	 * and reopened if a previous frame is requested.
+	 * @param segment Segment index
+	 * @param localFrame Frame index in the segment
+	 * @param buffer Frame buffer
+	 * @param selectionIndex Position of each atom in the frame buffer (-1 if the atom is not selected)
+	 * @throws IOException
+	 */
+	private void readSegmentFrame(int segment, int localFrame, TrajectoryFrame buffer, int[] selectionIndex) throws IOException
+	{
+		if (segment != openSegment || (sequentialReader != null && localFrame < sequentialPosition))
+			openSegment(segment);
+		if (segmentReader != null){
+			segmentReader.readFrame(localFrame, buffer, selectionIndex);
+			return;
+		}
+		TrajectoryFrame frame = null;
+		while (sequentialPosition <= localFrame){
+			frame = sequentialReader.readNextFrame();
+			if (frame == null)
+				throw new IOException("Unexpected end of trajectory '" + segments.get(segment).getAbsolutePath() + "' (frame " + localFrame + ")");
+			sequentialPosition++;
+		}
+		float[] from = frame.getCoordinates();
+		float[] to = buffer.getCoordinates();
+		for (int a=0; a<numberOfAtoms; a++){
+			int s = selectionIndex[a];
+			if (s >= 0){
+				to[3*s] = from[3*a];
+				to[3*s+1] = from[3*a+1];
+				to[3*s+2] = from[3*a+2];
+			}
+		}
+		System.arraycopy(frame.getBox(), 0, buffer.getBox(), 0, 6);
+		buffer.setHasBox(frame.hasBox());
+		buffer.setTemperature(frame.getTemperature());
+	}
+
+	/**
+	 * Open a segment, closing the segment currently open
+	 * @param segment Segment index
+	 * @throws IOException
+	 */
+	private void openSegment(int segment) throws IOException
+	{
+		close();
+		AbstractTrajectoryFile file = segments.get(segment);
+		try {
+			if (file.supportsRandomAccess()){
+				try {
+					segmentReader = file.getRandomAccessReader(numberOfAtoms);
+				}
+				catch (IOException e){
+					//file cannot be indexed: sequential reading
+				}
+			}
+			if (segmentReader == null){
+				sequentialReader = file.getFrameReader(numberOfAtoms);
+				sequentialPosition = 0;
+			}
+		}
+		catch (IOException e){
+			throw e;
+		}
+		catch (Exception e){
+			throw new IOException("Cannot open trajectory '" + file.getAbsolutePath() + "': " + e.getMessage(), e);
+		}
+		openSegment = segment;
+	}
+
+	/**
+	 * Get number of frames of a segment. The header value is used when available, otherwise 
+	 * the segment is indexed (or read once if it cannot be indexed).
+	 * @param segment Trajectory segment
+	 * @return Number of frames
+	 * @throws Exception
+	 */
+	private int countFrames(AbstractTrajectoryFile segment) throws Exception
+	{
+		if (segment.getNumberOfFrames() > 0)
+			return segment.getNumberOfFrames();
+		if (numberOfAtoms < 1)
+			throw new IllegalArgumentException("The number of atoms is required to count the frames of '" + segment.getAbsolutePath() + "'");
+		if (segment.supportsRandomAccess()){
+			RandomAccessTrajectoryReader reader = null;
+			try {
+				reader = segment.getRandomAccessReader(numberOfAtoms);
+				return reader.getNumberOfFrames();
+			}
+			catch (IOException e){
+				//file cannot be indexed: sequential reading
+			}
+			finally {
+				if (reader != null)
+					reader.close();
+			}
+		}
+		int nFrames = 0;
+		TrajectoryFrameReader frameReader = segment.getFrameReader(numberOfAtoms);
+		try {
+			while (frameReader.readNextFrame() != null)
+				nFrames++;
+		}
+		finally {
+			frameReader.close();
+		}
+		return nFrames;
+	}
+
+	/**
+	 * Compute global index of the first frame of each segment
+	 */
+	private void updateLayout()
+	{
+		firstFrames[0] = 0;
+		for (int s=0; s<segments.size(); s++)
+			firstFrames[s+1] = firstFrames[s] + segmentFrames[s] - skippedFrames[s];
+	}
+
+	/**
+	 * Sort segments
+	 * @param segments Trajectory segments
+	 * @param order Ordering rule
+	 * @return Sorted list of segments
+	 */
+	private static List<AbstractTrajectoryFile> sortSegments(List<? extends AbstractTrajectoryFile> segments, SegmentOrder order)
+	{
+		List<AbstractTrajectoryFile> sorted = new ArrayList<AbstractTrajectoryFile>(segments);
+		if (order == SegmentOrder.SIMULATION_TIME){
+			for (AbstractTrajectoryFile segment : sorted){
+				if (Double.isNaN(segment.getStartTime()))
+					order = SegmentOrder.NAME;
+			}
+		}
+		final SegmentOrder rule = order;
+		Collections.sort(sorted, new Comparator<AbstractTrajectoryFile>() {
+			@Override
+			public int compare(AbstractTrajectoryFile s1, AbstractTrajectoryFile s2) {
+				int c = 0;
+				if (rule == SegmentOrder.SIMULATION_TIME)
+					c = Double.compare(s1.getStartTime(), s2.getStartTime());
+				else if (rule == SegmentOrder.MODIFICATION_TIME)
+					c = Long.compare(s1.lastModified(), s2.lastModified());
+				if (c == 0)
+					c = compareNames(s1.getName(), s2.getName());
+				return c;
+			}
+		});
+		return sorted;
+	}
+
+	/**
+	 * Compare segment names: common prefix, then segment number
+	 * @param name1 First file name
+	 * @param name2 Second file name
+	 * @return Comparison result
+	 */
+	private static int compareNames(String name1, String name2)
+	{
+		Matcher m1 = SEGMENT_NAME_PATTERN.matcher(getBaseName(name1));
+		Matcher m2 = SEGMENT_NAME_PATTERN.matcher(getBaseName(name2));
+		if (m1.matches() && m2.matches()){
+			int c = m1.group(1).compareTo(m2.group(1));
+			if (c != 0)
+				return c;
+			String n1 = m1.group(2).replaceFirst("^0+(?=.)", "");
+			String n2 = m2.group(2).replaceFirst("^0+(?=.)", "");
+			if (n1.length() != n2.length())
+				return (n1.length() < n2.length() ? -1 : 1);
+			c = n1.compareTo(n2);
+			if (c != 0)
+				return c;
+		}
+		return name1.compareTo(name2);
+	}
+
+	/**
+	 * Get file name without compression and format extensions (e.g. 'md12' for 'md12.mdcrd.gz')
+	 * @param name File name
+	 * @return Base name
+	 */
+	private static String getBaseName(String name)
+	{
+		String baseName = COMPRESSION_EXTENSION_PATTERN.matcher(name).replaceFirst("");
+		int dot = baseName.lastIndexOf('.');
+		if (dot > 0)
+			baseName = baseName.substring(0, dot);
+		return baseName;
+	}
+
+	private void checkFrameIndex(int frame){
+		if (frame < 0 || frame >= getNumberOfFrames())
+			throw new IndexOutOfBoundsException("Frame index: " + frame + ", number of frames: " + getNumberOfFrames());
+	}
+}
@@ -18,76 +18,184 @@
 
 package edu.utah.bmi.ibiomes.parse.chem.amber;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
+/**
+ * Section (%FLAG) of an AMBER parameter/topology file. Values are decoded 
+ * from the fixed-width fields into a typed array (int, real or char) according
+ * to the section format (e.g. 20a4, 10I8, 5E16.8).
+ * @author Julien Thibault, University of Utah
+ *
+ */
 public class AmberFileSection 
 {
+	public static final String TYPE_CHAR = "char";
+	public static final String TYPE_INT = "int";
+	public static final String TYPE_EXP = "exp";
+	
 	private String _title;
-	private String[] _format;
-	private String _content;
-	private List<String> _values;
+	private String _format;
 	private String _type;
+	private int _valuesPerLine;
+	private int _fieldWidth;
+	private int _size = 0;
+	private int[] _intValues;
+	private double[] _realValues;
+	private String[] _charValues;
 	
 	/**
 	 * Constructor
-	 * @param title
-	 * @param format
-	 * @param content
-	 * @param values
-	 * @param type
+	 * @param title Section title (%FLAG)
+	 * @param format Section format as given in %FORMAT (e.g. 10I8)
+	 * @param expectedSize Expected number of values
+	 * @throws IllegalArgumentException if the format is not recognized
 	 */
-	public AmberFileSection(String title, String[] format, String content, ArrayList<String> values, String type)
+	public AmberFileSection(String title, String format, int expectedSize)
 	{
 		_title = title;
 		_format = format;
-		_content = content;
-		_values = values;
-		_type = type;
-	}
-	
-	public AmberFileSection() {
 		
+		int typeIndex = -1;
+		for (int i=0; i<format.length() && typeIndex<0; i++){
+			char c = format.charAt(i);
+			if (c == 'a' || c == 'I' || c == 'E')
+				typeIndex = i;
+		}
+		if (typeIndex < 0)
+			throw new IllegalArgumentException("Unknown type in format '"+ format+"'");
+		char typeChar = format.charAt(typeIndex);
+		if (typeChar == 'a')
+			_type = TYPE_CHAR;
+		else if (typeChar == 'I')
+			_type = TYPE_INT;
+		else _type = TYPE_EXP;
+		
+		try {
+			_valuesPerLine = (typeIndex > 0 ? Integer.parseInt(format.substring(0, typeIndex).trim()) : 1);
+			String width = format.substring(typeIndex+1);
+			int dot = width.indexOf('.');
+			if (dot >= 0)
+				width = width.substring(0, dot);
+			_fieldWidth = Integer.parseInt(width.trim());
+		}
+		catch (NumberFormatException e){
+			throw new IllegalArgumentException("Invalid format '"+ format+"'");
+		}
+		if (_valuesPerLine < 1 || _fieldWidth < 1)
+			throw new IllegalArgumentException("Invalid format '"+ format+"'");
+		
+		int capacity = Math.max(expectedSize, 16);
+		if (_type == TYPE_CHAR)
+			_charValues = new String[capacity];
+		else if (_type == TYPE_INT)
+			_intValues = new int[capacity];
+		else _realValues = new double[capacity];
 	}
 
 	public String getTitle() {
 		return _title;
 	}
 	
-	public String[] getFormat() {
+	public String getFormat() {
 		return _format;
 	}
 	
-	public String getContent() {
-		return _content;
+	public String getType() {
+		return _type;
 	}
-	public List<String> getValues() {
-		return _values;
+	
+	/**
+	 * Get maximum number of values per line
+	 * @return Number of values per line
+	 */
+	public int getValuesPerLine() {
+		return _valuesPerLine;
 	}
-	public String getValue(int i) {
-		return _values.get(i);
+	
+	/**
+	 * Get width of the fixed-width fields
+	 * @return Field width (number of characters)
+	 */
+	public int getFieldWidth() {
+		return _fieldWidth;
 	}
-	public String getType() {
-		return _type;
+	
+	/**
+	 * Get number of values
+	 * @return Number of values
+	 */
+	public int size() {
+		return _size;
 	}
-
-	public void setTitle(String title) {
-		this._title = title;
+	
+	/**
+	 * Get integer value (int sections)
+	 * @param i Value index
+	 * @return Value
+	 */
+	public int getIntValue(int i) {
+		checkIndex(i, _intValues);
+		return _intValues[i];
 	}
-
-	public void setFormat(String[] format) {
-		this._format = format;
+	
+	/**
+	 * Get real value (exp sections)
+	 * @param i Value index
+	 * @return Value
+	 */
+	public double getRealValue(int i) {
+		checkIndex(i, _realValues);
+		return _realValues[i];
 	}
-
-	public void setContent(String content) {
-		this._content = content;
+	
+	/**
+	 * Get string value. Numeric values are converted to strings.
+	 * @param i Value index
+	 * @return Value
+	 */
+	public String getValue(int i) {
+		if (_type == TYPE_INT)
+			return String.valueOf(getIntValue(i));
+		else if (_type == TYPE_EXP)
+			return String.valueOf(getRealValue(i));
+		checkIndex(i, _charValues);
+		return _charValues[i];
 	}
-
-	public void setValues(List<String> values) {
-		this._values = values;
+	
+	void addIntValue(int value) {
+		if (_size == _intValues.length)
+			_intValues = Arrays.copyOf(_intValues, 2*_size);
+		_intValues[_size++] = value;
 	}
-
-	public void setType(String type) {
-		this._type = type;
+	
+	void addRealValue(double value) {
+		if (_size == _realValues.length)
+			_realValues = Arrays.copyOf(_realValues, 2*_size);
+		_realValues[_size++] = value;
+	}
+	
+	void addCharValue(String value) {
+		if (_size == _charValues.length)
+			_charValues = Arrays.copyOf(_charValues, 2*_size);
+		_charValues[_size++] = value;
+	}
+	
+	/**
+	 * Release unused capacity once all values were read
+	 */
+	void trimToSize() {
+		if (_intValues != null && _intValues.length > _size)
+			_intValues = Arrays.copyOf(_intValues, _size);
+		else if (_realValues != null && _realValues.length > _size)
+			_realValues = Arrays.copyOf(_realValues, _size);
+		else if (_charValues != null && _charValues.length > _size)
+			_charValues = Arrays.copyOf(_charValues, _size);
+	}
+	
+	private void checkIndex(int i, Object values) {
+		if (values == null)
+			throw new IllegalStateException("Section " + _title + " does not contain values of this type (" + _type + ")");
+		if (i < 0 || i >= _size)
+			throw new IndexOutOfBoundsException("Value index: " + i + ", number of values in section " + _title + ": " + _size);
 	}
 }
@@ -22,8 +22,10 @@ import java.io.File;
 import java.io.IOException;
 import java.util.List;
 
+import ucar.ma2.InvalidRangeException;
 import ucar.nc2.Attribute;
 import ucar.nc2.Dimension;
+import ucar.nc2.Variable;
 import edu.utah.bmi.ibiomes.experiment.Software;
 import edu.utah.bmi.ibiomes.io.IBIOMESFileReader;
 import edu.utah.bmi.ibiomes.metadata.MetadataAVU;
@@ -32,6 +34,8 @@ import edu.utah.bmi.ibiomes.metadata.TopologyMetadata;
 import edu.utah.bmi.ibiomes.metadata.TrajectoryMetadata;
 import edu.utah.bmi.ibiomes.parse.LocalFile;
 import edu.utah.bmi.ibiomes.parse.chem.AbstractTrajectoryFile;
+import edu.utah.bmi.ibiomes.parse.chem.RandomAccessTrajectoryReader;
+import edu.utah.bmi.ibiomes.parse.chem.TrajectoryFrameReader;
 import ucar.nc2.NetcdfFile;
 
 /**
@@ -110,6 +114,19 @@ public class AmberNetcdfFile extends AbstractTrajectoryFile
 				
 			}*/
 			
+			//frame times
+			Variable timeVar = netcdffile.findVariable("time");
+			if (timeVar!=null && nSteps>0){
+				try {
+					double startTime = timeVar.read("0:0").getDouble(0);
+					double endTime = timeVar.read((nSteps-1) + ":" + (nSteps-1)).getDouble(0);
+					this.setFrameTiming(startTime, nSteps>1 ? (endTime-startTime)/(nSteps-1) : Double.NaN);
+				}
+				catch (InvalidRangeException e){
+					//time variable does not match the frame dimension: no frame timing
+				}
+			}
+			
 			//attributes
 			List<Attribute> globalAtributes = netcdffile.getGlobalAttributes();
 			for (Attribute attr : globalAtributes)
@@ -157,6 +174,36 @@ public class AmberNetcdfFile extends AbstractTrajectoryFile
 		return applicationName;
 	}
 
+	@Override
+	public boolean supportsRandomAccess() {
+		return true;
+	}
+	
+	/**
+	 * Open the trajectory for frame-range and atom-range reads
+	 * @return NetCDF trajectory reader (must be closed after use)
+	 * @throws IOException
+	 */
+	public AmberNetcdfTrajectoryReader getReader() throws IOException {
+		return new AmberNetcdfTrajectoryReader(this);
+	}
+	
+	@Override
+	public RandomAccessTrajectoryReader getRandomAccessReader(int numberOfAtoms) throws Exception
+	{
+		AmberNetcdfTrajectoryReader reader = getReader();
+		if (reader.getNumberOfAtoms() != numberOfAtoms){
+			reader.close();
+			throw new IOException("Number of atoms in NetCDF file (" + reader.getNumberOfAtoms() + ") does not match the expected number of atoms (" + numberOfAtoms + ")");
+		}
+		return reader;
+	}
+	
+	@Override
+	public TrajectoryFrameReader getFrameReader(int numberOfAtoms, int[] atomSelection, int frameStride) throws Exception {
+		return getRandomAccessReader(numberOfAtoms).getFrameReader(atomSelection, frameStride);
+	}
+
 	public static boolean checkFormat(String path) {
 		IBIOMESFileReader fileReader = null;
 		try {
@@ -0,0 +1,499 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.parse.chem.amber;
+
+import java.io.File;
+import java.io.IOException;
+
+import ucar.ma2.Array;
+import ucar.ma2.IndexIterator;
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Section;
+import ucar.nc2.Attribute;
+import ucar.nc2.Dimension;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.Variable;
+import edu.utah.bmi.ibiomes.parse.chem.RandomAccessTrajectoryReader;
+import edu.utah.bmi.ibiomes.parse.chem.TrajectoryFrame;
+import edu.utah.bmi.ibiomes.parse.chem.TrajectoryFrameReader;
+
+/**
+ * Reader for AMBER NetCDF trajectories (coordinates, velocities, time and unit cell).
+ * Data is read with hyperslab reads (frame range, atom range, frame stride) into
+ * caller-provided float buffers, so that buffers can be reused from one read to the next.
+ * Variable handles are looked up once when the file is opened.
+ * @author Julien Thibault, University of Utah
+ *
+ */
+public class AmberNetcdfTrajectoryReader implements RandomAccessTrajectoryReader {
+
+	public final static String DIM_FRAME = "frame";
+	public final static String DIM_ATOM = "atom";
+	public final static String VAR_COORDINATES = "coordinates";
+	public final static String VAR_VELOCITIES = "velocities";
+	public final static String VAR_TIME = "time";
+	public final static String VAR_CELL_LENGTHS = "cell_lengths";
+	public final static String VAR_CELL_ANGLES = "cell_angles";
+	public final static String VAR_TEMP0 = "temp0";
+	public final static String ATTR_SCALE_FACTOR = "scale_factor";
+
+	/**
+	 * Default number of values read at once when streaming frames
+	 */
+	public final static int DEFAULT_CHUNK_SIZE = 1 << 22;
+
+	private File file;
+	private NetcdfFile netcdfFile;
+	private int numberOfFrames = 0;
+	private int numberOfAtoms = 0;
+	private Variable coordinatesVar;
+	private Variable velocitiesVar;
+	private Variable timeVar;
+	private Variable cellLengthsVar;
+	private Variable cellAnglesVar;
+	private Variable temp0Var;
+	private float velocityScale = 1.0f;
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+	private float[] cellLengths = null;
+	private float[] cellAngles = null;
+
+	/**
+	 * Open AMBER NetCDF trajectory
+	 * @param file NetCDF file
+	 * @throws IOException
+	 */
+	public AmberNetcdfTrajectoryReader(File file) throws IOException
+	{
+		this.file = file;
+		this.netcdfFile = NetcdfFile.open(file.getAbsolutePath());
+		try {
+			Dimension frameDim = netcdfFile.findDimension(DIM_FRAME);
+			Dimension atomDim = netcdfFile.findDimension(DIM_ATOM);
+			if (atomDim == null)
+				throw new IOException("No '" + DIM_ATOM + "' dimension in NetCDF file " + file.getAbsolutePath());
+			this.numberOfAtoms = atomDim.getLength();
+			this.numberOfFrames = (frameDim == null ? 0 : frameDim.getLength());
+
+			this.coordinatesVar = netcdfFile.findVariable(VAR_COORDINATES);
+			this.velocitiesVar = netcdfFile.findVariable(VAR_VELOCITIES);
+			this.timeVar = netcdfFile.findVariable(VAR_TIME);
+			this.cellLengthsVar = netcdfFile.findVariable(VAR_CELL_LENGTHS);
+			this.cellAnglesVar = netcdfFile.findVariable(VAR_CELL_ANGLES);
+			this.temp0Var = netcdfFile.findVariable(VAR_TEMP0);
+			if (velocitiesVar != null){
+				Attribute scale = velocitiesVar.findAttribute(ATTR_SCALE_FACTOR);
+				if (scale != null && scale.getNumericValue() != null)
+					this.velocityScale = scale.getNumericValue().floatValue();
+			}
+		}
+		catch (IOException e){
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Get number of frames
+	 * @return Number of frames
+	 */
+	public int getNumberOfFrames() {
+		return numberOfFrames;
+	}
+
+	/**
+	 * Get number of atoms
+	 * @return Number of atoms
+	 */
+	public int getNumberOfAtoms() {
+		return numberOfAtoms;
+	}
+
+	/**
+	 * Check if the file stores coordinates
+	 * @return True if coordinates are available
+	 */
+	public boolean hasCoordinates() {
+		return coordinatesVar != null;
+	}
+
+	/**
+	 * Check if the file stores velocities
+	 * @return True if velocities are available
+	 */
+	public boolean hasVelocities() {
+		return velocitiesVar != null;
+	}
+
+	/**
+	 * Check if the file stores the time of each frame
+	 * @return True if times are available
+	 */
+	public boolean hasTime() {
+		return timeVar != null;
+	}
+
+	/**
+	 * Check if the file stores unit cell information
+	 * @return True if unit cell lengths and angles are available
+	 */
+	public boolean hasBox() {
+		return cellLengthsVar != null && cellAnglesVar != null;
+	}
+
+	/**
+	 * Get number of values read at once when streaming frames
+	 * @return Chunk size (number of float values)
+	 */
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * Set number of values read at once when streaming frames. Reads always cover at least one frame.
+	 * @param chunkSize Chunk size (number of float values)
+	 */
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = (chunkSize < 1 ? 1 : chunkSize);
+	}
+
+	/**
+	 * Read coordinates of a range of frames and atoms
+	 * @param firstFrame Index of the first frame (0-based)
+	 * @param nFrames Number of frames to read
+	 * @param frameStride Read every n-th frame starting from the first frame
+	 * @param firstAtom Index of the first atom (0-based)
+	 * @param nAtoms Number of atoms to read
+	 * @param buffer Buffer to reuse (can be null). A new buffer is allocated if too small.
+	 * @return Buffer holding the coordinates, frame by frame (x1,y1,z1,x2,y2,z2,...)
+	 * @throws IOException
+	 */
+	public float[] readCoordinates(int firstFrame, int nFrames, int frameStride, int firstAtom, int nAtoms, float[] buffer) throws IOException
+	{
+		if (coordinatesVar == null)
+			throw new IOException("No coordinates in NetCDF file " + file.getAbsolutePath());
+		return readAtomSlab(coordinatesVar, firstFrame, nFrames, frameStride, firstAtom, nAtoms, 1.0f, buffer);
+	}
+
+	/**
+	 * Read coordinates of all atoms for a given frame
+	 * @param frame Frame index (0-based)
+	 * @param buffer Buffer to reuse (can be null)
+	 * @return Buffer holding the coordinates (x1,y1,z1,x2,y2,z2,...)
+	 * @throws IOException
+	 */
+	public float[] readCoordinates(int frame, float[] buffer) throws IOException {
+		return readCoordinates(frame, 1, 1, 0, numberOfAtoms, buffer);
+	}
+
+	/**
+	 * Read velocities of a range of frames and atoms. The scale factor stored in the file is applied.
+	 * @param firstFrame Index of the first frame (0-based)
+	 * @param nFrames Number of frames to read
+	 * @param frameStride Read every n-th frame starting from the first frame
+	 * @param firstAtom Index of the first atom (0-based)
+	 * @param nAtoms Number of atoms to read
+	 * @param buffer Buffer to reuse (can be null). A new buffer is allocated if too small.
+	 * @return Buffer holding the velocities, frame by frame (vx1,vy1,vz1,vx2,...)
+	 * @throws IOException
+	 */
+	public float[] readVelocities(int firstFrame, int nFrames, int frameStride, int firstAtom, int nAtoms, float[] buffer) throws IOException
+	{
+		if (velocitiesVar == null)
+			throw new IOException("No velocities in NetCDF file " + file.getAbsolutePath());
+		return readAtomSlab(velocitiesVar, firstFrame, nFrames, frameStride, firstAtom, nAtoms, velocityScale, buffer);
+	}
+
+	/**
+	 * Read time of a range of frames
+	 * @param firstFrame Index of the first frame (0-based)
+	 * @param nFrames Number of frames to read
+	 * @param frameStride Read every n-th frame starting from the first frame
+	 * @param buffer Buffer to reuse (can be null)
+	 * @return Buffer holding the times (ps)
+	 * @throws IOException
+	 */
+	public float[] readTimes(int firstFrame, int nFrames, int frameStride, float[] buffer) throws IOException
+	{
+		if (timeVar == null)
+			throw new IOException("No time variable in NetCDF file " + file.getAbsolutePath());
+		return readFrameSlab(timeVar, firstFrame, nFrames, frameStride, buffer);
+	}
+
+	/**
+	 * Check if the trajectory stores the target temperature of each frame (replica exchange)
+	 * @return True if the file has a temperature variable
+	 */
+	public boolean hasTemperatures() {
+		return (temp0Var != null);
+	}
+
+	/**
+	 * Read target temperature of a range of frames (replica exchange)
+	 * @param firstFrame Index of the first frame (0-based)
+	 * @param nFrames Number of frames to read
+	 * @param frameStride Read every n-th frame starting from the first frame
+	 * @param buffer Buffer to reuse (can be null)
+	 * @return Buffer holding the temperatures (K)
+	 * @throws IOException
+	 */
+	public float[] readTemperatures(int firstFrame, int nFrames, int frameStride, float[] buffer) throws IOException
+	{
+		if (temp0Var == null)
+			throw new IOException("No temperature variable in NetCDF file " + file.getAbsolutePath());
+		return readFrameSlab(temp0Var, firstFrame, nFrames, frameStride, buffer);
+	}
+
+	/**
+	 * Read unit cell of a range of frames
+	 * @param firstFrame Index of the first frame (0-based)
+	 * @param nFrames Number of frames to read
+	 * @param frameStride Read every n-th frame starting from the first frame
+	 * @param buffer Buffer to reuse (can be null)
+	 * @return Buffer holding the unit cell of each frame (lengths a,b,c then angles alpha,beta,gamma)
+	 * @throws IOException
+	 */
+	public float[] readBoxes(int firstFrame, int nFrames, int frameStride, float[] buffer) throws IOException
+	{
+		if (!hasBox())
+			throw new IOException("No unit cell information in NetCDF file " + file.getAbsolutePath());
+		//lengths and angles are read into buffers kept between calls, then interleaved
+		cellLengths = readFrameSlab(cellLengthsVar, firstFrame, nFrames, frameStride, cellLengths);
+		cellAngles = readFrameSlab(cellAnglesVar, firstFrame, nFrames, frameStride, cellAngles);
+		if (buffer == null || buffer.length < 6*nFrames)
+			buffer = new float[6*nFrames];
+		for (int f=0; f<nFrames; f++){
+			System.arraycopy(cellLengths, 3*f, buffer, 6*f, 3);
+			System.arraycopy(cellAngles, 3*f, buffer, 6*f+3, 3);
+		}
+		return buffer;
+	}
+
+	/**
+	 * Copy coordinates (and unit cell and temperature, if available) of a frame into a frame buffer
+	 * @param frame Frame index (0-based)
+	 * @param buffer Frame buffer
+	 * @param selectionIndex Position of each atom in the frame buffer (-1 if the atom is not selected)
+	 * @throws IOException
+	 */
+	public void readFrame(int frame, TrajectoryFrame buffer, int[] selectionIndex) throws IOException
+	{
+		int[] span = getSelectionSpan(selectionIndex);
+		float[] xyz = readCoordinates(frame, 1, 1, span[0], span[1], null);
+		copySelection(xyz, 0, span[0], span[1], selectionIndex, buffer);
+		if (hasBox()){
+			readBoxes(frame, 1, 1, buffer.getBox());
+			buffer.setHasBox(true);
+		}
+		else buffer.setHasBox(false);
+		if (hasTemperatures())
+			buffer.setTemperature(readTemperatures(frame, 1, 1, null)[0]);
+		buffer.setIndex(frame);
+	}
+
+	/**
+	 * Open the trajectory for frame streaming. Frames are read by chunks of consecutive
+	 * (strided) frames, restricted to the range of atoms covering the selection.
+	 * @param atomSelection Indexes (0-based) of the atoms to read, or null to read all atoms
+	 * @param frameStride Read every n-th frame (1 to read all frames)
+	 * @return Frame reader (closing the frame reader closes this reader)
+	 */
+	public TrajectoryFrameReader getFrameReader(int[] atomSelection, int frameStride)
+	{
+		final AmberNetcdfTrajectoryReader reader = this;
+		return new TrajectoryFrameReader(numberOfAtoms, atomSelection, frameStride) {
+			private int[] span = null;
+			private float[] coordinates = null;
+			private float[] boxes = null;
+			private float[] temperatures = null;
+			private int chunkFirstFrame = 0;
+			private int chunkFrames = 0;
+			private int nextFrame = 0;
+
+			@Override
+			protected boolean readFrame(TrajectoryFrame frame) throws IOException {
+				if (nextFrame >= reader.getNumberOfFrames())
+					return false;
+				if (span == null)
+					span = getSelectionSpan(selectionIndex);
+				int chunkIndex = (nextFrame - chunkFirstFrame) / this.frameStride;
+				boolean inChunk = (nextFrame >= chunkFirstFrame
+						&& (nextFrame - chunkFirstFrame) % this.frameStride == 0
+						&& chunkIndex < chunkFrames);
+				if (!inChunk)
+					loadChunk();
+				chunkIndex = (nextFrame - chunkFirstFrame) / this.frameStride;
+				copySelection(coordinates, chunkIndex, span[0], span[1], selectionIndex, frame);
+				if (boxes != null){
+					System.arraycopy(boxes, 6*chunkIndex, frame.getBox(), 0, 6);
+					frame.setHasBox(true);
+				}
+				else frame.setHasBox(false);
+				if (temperatures != null)
+					frame.setTemperature(temperatures[chunkIndex]);
+				nextFrame++;
+				return true;
+			}
+
+			@Override
+			protected boolean skipFrame() throws IOException {
+				if (nextFrame >= reader.getNumberOfFrames())
+					return false;
+				nextFrame++;
+				return true;
+			}
+
+			/**
+			 * Read the next chunk of frames, starting at the next frame
+			 * @throws IOException
+			 */
+			private void loadChunk() throws IOException {
+				int remaining = (reader.getNumberOfFrames() - nextFrame + this.frameStride - 1) / this.frameStride;
+				int framesPerChunk = Math.max(1, reader.getChunkSize() / (3*span[1]));
+				chunkFirstFrame = nextFrame;
+				chunkFrames = Math.min(framesPerChunk, remaining);
+				coordinates = reader.readCoordinates(chunkFirstFrame, chunkFrames, this.frameStride, span[0], span[1], coordinates);
+				if (reader.hasBox())
+					boxes = reader.readBoxes(chunkFirstFrame, chunkFrames, this.frameStride, boxes);
+				if (reader.hasTemperatures())
+					temperatures = reader.readTemperatures(chunkFirstFrame, chunkFrames, this.frameStride, temperatures);
+			}
+
+			@Override
+			public void close() throws IOException {
+				reader.close();
+			}
+		};
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (netcdfFile != null){
+			netcdfFile.close();
+			netcdfFile = null;
+		}
+	}
+
+	/**
+	 * Read hyperslab of a (frame, atom, spatial) variable
+	 */
+	private float[] readAtomSlab(Variable var, int firstFrame, int nFrames, int frameStride, int firstAtom, int nAtoms, float scale, float[] buffer) throws IOException
+	{
+		checkFrameRange(firstFrame, nFrames, frameStride);
+		if (firstAtom < 0 || nAtoms < 1 || firstAtom + nAtoms > numberOfAtoms)
+			throw new IndexOutOfBoundsException("Atom range: " + firstAtom + "+" + nAtoms + ", number of atoms: " + numberOfAtoms);
+		try {
+			Section section = new Section();
+			section.appendRange(firstFrame, firstFrame + (nFrames-1)*frameStride, frameStride);
+			section.appendRange(firstAtom, firstAtom + nAtoms - 1);
+			section.appendRange(0, 2);
+			return readSection(var, section, 3*nFrames*nAtoms, scale, buffer);
+		}
+		catch (InvalidRangeException e){
+			throw new IOException("Invalid range for variable '" + var.getShortName() + "': " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Read hyperslab of a (frame) or (frame, n) variable
+	 */
+	private float[] readFrameSlab(Variable var, int firstFrame, int nFrames, int frameStride, float[] buffer) throws IOException
+	{
+		checkFrameRange(firstFrame, nFrames, frameStride);
+		try {
+			Section section = new Section();
+			section.appendRange(firstFrame, firstFrame + (nFrames-1)*frameStride, frameStride);
+			int valuesPerFrame = 1;
+			for (int d=1; d<var.getRank(); d++){
+				int length = var.getShape(d);
+				section.appendRange(0, length - 1);
+				valuesPerFrame *= length;
+			}
+			return readSection(var, section, nFrames*valuesPerFrame, 1.0f, buffer);
+		}
+		catch (InvalidRangeException e){
+			throw new IOException("Invalid range for variable '" + var.getShortName() + "': " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Read section of a variable into a float buffer
+	 */
+	private float[] readSection(Variable var, Section section, int size, float scale, float[] buffer) throws IOException, InvalidRangeException
+	{
+		if (buffer == null || buffer.length < size)
+			buffer = new float[size];
+		Array data = var.read(section);
+		IndexIterator it = data.getIndexIterator();
+		if (scale == 1.0f){
+			for (int i=0; i<size; i++)
+				buffer[i] = it.getFloatNext();
+		}
+		else {
+			for (int i=0; i<size; i++)
+				buffer[i] = it.getFloatNext() * scale;
+		}
+		return buffer;
+	}
+
+	private void checkFrameRange(int firstFrame, int nFrames, int frameStride)
+	{
+		if (frameStride < 1)
+			throw new IllegalArgumentException("Invalid frame stride: " + frameStride);
+		if (firstFrame < 0 || nFrames < 1 || firstFrame + (long)(nFrames-1)*frameStride >= numberOfFrames)
+			throw new IndexOutOfBoundsException("Frame range: " + firstFrame + "+" + nFrames + " (stride " + frameStride + "), number of frames: " + numberOfFrames);
+	}
+
+	/**
+	 * Get the smallest atom range covering the selection
+	 * @param selectionIndex Position of each atom in the frame buffer (-1 if the atom is not selected)
+	 * @return First atom and number of atoms
+	 */
+	private int[] getSelectionSpan(int[] selectionIndex)
+	{
+		int first = -1;
+		int last = -1;
+		for (int a=0; a<numberOfAtoms; a++){
+			if (selectionIndex[a] >= 0){
+				if (first < 0)
+					first = a;
+				last = a;
+			}
+		}
+		if (first < 0)
+			return new int[]{0, 1};
+		return new int[]{first, last - first + 1};
+	}
+
+	/**
+	 * Copy selected atoms of a frame from a hyperslab buffer to a frame buffer
+	 */
+	private static void copySelection(float[] xyz, int frameInChunk, int firstAtom, int nAtoms, int[] selectionIndex, TrajectoryFrame frame)
+	{
+		float[] coordinates = frame.getCoordinates();
+		int offset = 3*frameInChunk*nAtoms;
+		for (int a=0; a<nAtoms; a++){
+			int idx = selectionIndex[firstAtom + a];
+			if (idx >= 0){
+				coordinates[3*idx] = xyz[offset + 3*a];
+				coordinates[3*idx+1] = xyz[offset + 3*a+1];
+				coordinates[3*idx+2] = xyz[offset + 3*a+2];
+			}
+		}
+	}
+}
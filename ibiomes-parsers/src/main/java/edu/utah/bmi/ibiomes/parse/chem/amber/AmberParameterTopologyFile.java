@@ -20,20 +20,21 @@ package edu.utah.bmi.ibiomes.parse.chem.amber;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 
 import edu.utah.bmi.ibiomes.conf.IBIOMESConfiguration;
 import edu.utah.bmi.ibiomes.conf.IBIOMESExecutionTimeSummary;
 import edu.utah.bmi.ibiomes.dictionaries.AtomicElement;
 import edu.utah.bmi.ibiomes.dictionaries.PeriodicTable;
-import edu.utah.bmi.ibiomes.io.IBIOMESFileReader;
+import edu.utah.bmi.ibiomes.metadata.MetadataAVUList;
 import edu.utah.bmi.ibiomes.parse.LocalFile;
 import edu.utah.bmi.ibiomes.parse.chem.AbstractTopologyFile;
-import edu.utah.bmi.ibiomes.topo.Atom;
-import edu.utah.bmi.ibiomes.topo.Bond;
+import edu.utah.bmi.ibiomes.topo.AtomTable;
 import edu.utah.bmi.ibiomes.topo.MolecularSystem;
 import edu.utah.bmi.ibiomes.topo.MolecularSystemFactory;
-import edu.utah.bmi.ibiomes.topo.bio.Residue;
+import edu.utah.bmi.ibiomes.topo.TopologyTable;
 import edu.utah.bmi.ibiomes.topo.comp.AmberAtomTypeDictionary;
 
 /**
@@ -51,30 +52,40 @@ public class AmberParameterTopologyFile extends AbstractTopologyFile
 	private static final String PARMTOP_SECTION_CHARGE 					= "CHARGE";
 	private static final String PARMTOP_SECTION_MASS 					= "MASS";
 	private static final String PARMTOP_SECTION_ATOM_TYPE				= "AMBER_ATOM_TYPE";
-	private static final String PARMTOP_SECTION_BOND_FORCE_CONSTANT		= "BOND_FORCE_CONSTANT";
-	private static final String PARMTOP_SECTION_BOND_EQUIL_VALUE		= "BOND_EQUIL_VALUE";
 	private static final String PARMTOP_SECTION_BONDS_INC_HYDROGEN		= "BONDS_INC_HYDROGEN";
 	private static final String PARMTOP_SECTION_BONDS_WITHOUT_HYDROGEN	= "BONDS_WITHOUT_HYDROGEN";
 	private static final String PARMTOP_SECTION_RESIDUE_POINTER			= "RESIDUE_POINTER";
 	private static final String PARMTOP_SECTION_RESIDUE_LABEL			= "RESIDUE_LABEL";
 	private static final String PARMTOP_SECTION_TITLE					= "TITLE";
 	
-	private static final String REGEX_SECTIONS_OF_INTEREST	= 
-				  "("+PARMTOP_SECTION_ATOM_NAME+")|"
-				+ "("+PARMTOP_SECTION_CHARGE+")|"
-				+ "("+PARMTOP_SECTION_MASS+")|"
-				+ "("+PARMTOP_SECTION_ATOM_TYPE+")|"
-				+ "("+PARMTOP_SECTION_POINTERS+")|"
-				+ "("+PARMTOP_SECTION_BOND_FORCE_CONSTANT+")|"
-				+ "("+PARMTOP_SECTION_BOND_EQUIL_VALUE+")|"
-				+ "("+PARMTOP_SECTION_BONDS_INC_HYDROGEN+")|"
-				+ "("+PARMTOP_SECTION_BONDS_WITHOUT_HYDROGEN+")|"
-				+ "("+PARMTOP_SECTION_RESIDUE_POINTER+")|"
-				+ "("+PARMTOP_SECTION_RESIDUE_LABEL+")|"
-				+ "("+PARMTOP_SECTION_TITLE+")";
+	private static final String[] PARMTOP_SECTIONS_HEADER = {
+		PARMTOP_SECTION_TITLE, 
+		PARMTOP_SECTION_POINTERS
+	};
+	private static final String[] PARMTOP_SECTIONS_TOPOLOGY = {
+		PARMTOP_SECTION_POINTERS,
+		PARMTOP_SECTION_ATOM_NAME,
+		PARMTOP_SECTION_CHARGE,
+		PARMTOP_SECTION_MASS,
+		PARMTOP_SECTION_ATOM_TYPE,
+		PARMTOP_SECTION_BONDS_INC_HYDROGEN,
+		PARMTOP_SECTION_BONDS_WITHOUT_HYDROGEN,
+		PARMTOP_SECTION_RESIDUE_POINTER,
+		PARMTOP_SECTION_RESIDUE_LABEL
+	};
+	
+	private String topologyTitle = null;
+	private int numberOfAtoms = 0;
+	private int numberOfResidues = 0;
+	private int numberOfBondsWithHydrogen = 0;
+	private int numberOfBondsWithoutHydrogen = 0;
+	private boolean topologyLoaded = false;
+	private transient TopologyTable topologyTable = null;
 	
 	/**
-	 * Default constructor. Load molecule topology.
+	 * Default constructor. Only the file header (title and pointers) is decoded; the sizes of 
+	 * the atom, bond and residue sections are checked against the pointers in the same pass, 
+	 * so that malformed files are rejected up front. The topology is decoded when first needed.
 	 * @param localPath Topology file path.
 	 * @throws Exception
 	 */
@@ -86,7 +97,7 @@ public class AmberParameterTopologyFile extends AbstractTopologyFile
 		if (timingsOn)
 			startTime = System.currentTimeMillis();
 		
-		boolean success = parseFile();
+		boolean success = parseHeader();
 		
 		if (timingsOn){
 			long endTime = System.currentTimeMillis();
@@ -96,197 +107,240 @@ public class AmberParameterTopologyFile extends AbstractTopologyFile
 	}
 
 	/**
-	 * Parse file to load molecule topology
-	 * @throws Exception
+	 * Parse file header (TITLE and POINTERS sections) and check the number of values
+	 * in the topology sections without decoding them
+	 * @return True if the header was successfully parsed and the section sizes match
 	 */
-	private boolean parseFile()
+	private boolean parseHeader()
 	{
 		try{
-			ArrayList<AmberFileSection> topSections = loadAmberTopologyFile(this.getAbsolutePath());
-			//load list of atoms
-			ArrayList<Atom> atomList = loadAtoms(topSections);
-			//add bond info (set list of bonded atoms for each atom)
-			loadBonds(atomList, topSections);
-			//load residue info and assign atoms
-			ArrayList<Residue> residueList = loadResidues(atomList, topSections);
+			AmberParameterTopologyReader reader = new AmberParameterTopologyReader(this);
+			HashMap<String, Integer> valueCounts = new HashMap<String, Integer>();
+			HashMap<String, AmberFileSection> sections = reader.readSections(
+					Arrays.asList(PARMTOP_SECTIONS_HEADER), null, Arrays.asList(PARMTOP_SECTIONS_TOPOLOGY), valueCounts);
 			
-			//identify molecules
-	        MolecularSystemFactory moleculeFactory = new MolecularSystemFactory();
-	        MolecularSystem molecularSystem = moleculeFactory.identifyMoleculesUsingResidues(residueList, false);
-	        
-	        //set system description
-			String title = getTopologyTitle(topSections);
-			molecularSystem.setDescription(title);
-			molecularSystem.setDefinitionFiles(this.getCanonicalPath());
-				        
-			this.molecularSystems = new ArrayList<MolecularSystem>();
-			this.molecularSystems.add(molecularSystem);
+			AmberFileSection section = getSection(sections, PARMTOP_SECTION_POINTERS);
+			/*
+			NATOM  : total number of atoms 
+			NTYPES : total number of distinct atom types
+			NBONH  : number of bonds containing hydrogen
+			MBONA  : number of bonds not containing hydrogen
+			NTHETH : number of angles containing hydrogen
+			MTHETA : number of angles not containing hydrogen
+			NPHIH  : number of dihedrals containing hydrogen
+			MPHIA  : number of dihedrals not containing hydrogen
+			NHPARM : currently not used
+			NPARM  : currently not used
+			NEXT   : number of excluded atoms
+			NRES   : number of residues
+			 */
+			this.numberOfAtoms = section.getIntValue(0);
+			this.numberOfBondsWithHydrogen = section.getIntValue(2);
+			this.numberOfBondsWithoutHydrogen = section.getIntValue(3);
+			this.numberOfResidues = section.getIntValue(11);
+			this.topologyTitle = getTopologyTitle(sections);
 			
+			HashMap<String, Integer> expectedSizes = getExpectedSectionSizes();
+			for (String title : PARMTOP_SECTIONS_TOPOLOGY){
+				if (!expectedSizes.containsKey(title))
+					continue;
+				Integer count = valueCounts.get(title);
+				if (count == null)
+					throw new IOException("Section " + title + " not found");
+				if (count.intValue() != expectedSizes.get(title).intValue())
+					throw new IOException("Section " + title + ": expected number of values: " + expectedSizes.get(title) + ". Actual: " + count);
+			}
 			return true;
 		}
 		catch (Exception e){
-			this.format = LocalFile.FORMAT_UNKNOWN;
+			handleParsingError(e);
+			return false;
+		}
+	}
+	
+	/**
+	 * Get expected number of values in the topology sections, based on the pointers
+	 * @return Expected number of values indexed by section title
+	 */
+	private HashMap<String, Integer> getExpectedSectionSizes()
+	{
+		HashMap<String, Integer> expectedSizes = new HashMap<String, Integer>();
+		expectedSizes.put(PARMTOP_SECTION_ATOM_NAME, numberOfAtoms);
+		expectedSizes.put(PARMTOP_SECTION_CHARGE, numberOfAtoms);
+		expectedSizes.put(PARMTOP_SECTION_MASS, numberOfAtoms);
+		expectedSizes.put(PARMTOP_SECTION_ATOM_TYPE, numberOfAtoms);
+		expectedSizes.put(PARMTOP_SECTION_BONDS_INC_HYDROGEN, 3*numberOfBondsWithHydrogen);
+		expectedSizes.put(PARMTOP_SECTION_BONDS_WITHOUT_HYDROGEN, 3*numberOfBondsWithoutHydrogen);
+		expectedSizes.put(PARMTOP_SECTION_RESIDUE_POINTER, numberOfResidues);
+		expectedSizes.put(PARMTOP_SECTION_RESIDUE_LABEL, numberOfResidues);
+		return expectedSizes;
+	}
+	
+	/**
+	 * Decode topology sections (atoms, bonds and residues) into the columnar topology, if not already done.
+	 * @return True if the topology is available
+	 */
+	private synchronized boolean loadTopologyTable()
+	{
+		if (this.topologyTable != null)
+			return true;
+		if (this.format.equals(LocalFile.FORMAT_UNKNOWN))
+			return false;
+		try{
+			AmberParameterTopologyReader reader = new AmberParameterTopologyReader(this);
+			HashMap<String, AmberFileSection> topSections = reader.readSections(Arrays.asList(PARMTOP_SECTIONS_TOPOLOGY), getExpectedSectionSizes());
+			//load atoms, bonds and residues into columnar topology
+			TopologyTable topology = loadAtoms(topSections);
+			loadBonds(topology.getAtomTable(), topSections);
+			loadResidues(topology, topSections);
+			topology.setTitle(topologyTitle);
+			topology.trimToSize();
+			this.topologyTable = topology;
+			return true;
+		}
+		catch (Exception e){
+			handleParsingError(e);
+			return false;
+		}
+	}
+	
+	/**
+	 * Identify molecules from the topology, if not already done.
+	 */
+	private synchronized void loadTopology()
+	{
+		if (topologyLoaded)
+			return;
+		topologyLoaded = true;
+		if (this.format.equals(LocalFile.FORMAT_UNKNOWN))
+			return;
+		
+		boolean timingsOn = false;
+		long startTime = 0;
+		try {
+			timingsOn = (IBIOMESConfiguration.getInstance().hasCollectTimingsOn());
+		} catch (Exception e) {
+		}
+		if (timingsOn)
+			startTime = System.currentTimeMillis();
+		
+		boolean success = (loadTopologyTable() && identifyMolecules());
+		
+		if (timingsOn){
+			long endTime = System.currentTimeMillis();
 			try {
-				if (IBIOMESConfiguration.getInstance().isOutputToConsole())
-					System.out.println("WARNING: cannot parse '"+this.getAbsolutePath()+"' as an AMBER parameter/topology file.");
-				if (IBIOMESConfiguration.getInstance().isOutputErrorStackToConsole())
-					e.printStackTrace();
-			} catch (Exception e1) {
+				IBIOMESExecutionTimeSummary.getInstance().addExecutionTimingRecord(
+						"AMBER parmtop molecules", this.getAbsolutePath(), success, endTime - startTime);
+			} catch (Exception e) {
 			}
-			return false;
 		}
 	}
 	
 	/**
-	 * Load Amber topology file
-	 * @param topFilePath
-	 * @return List of sections in the topology file
-	 * @throws Exception
+	 * Identify molecules using the residues and bonds of the topology table
+	 * @return True if the molecules were successfully identified
 	 */
-	private ArrayList<AmberFileSection> loadAmberTopologyFile(String topFilePath) throws Exception 
+	private boolean identifyMolecules()
 	{
-		ArrayList<AmberFileSection> sections = new ArrayList<AmberFileSection>();
-		StringBuilder contents = null;
-	    String line = null;
-	    String title = null;
-	    String format = null;
-	    
-	    IBIOMESFileReader br = new IBIOMESFileReader(this);
 		try{
-			
-		    line = br.readLine();
-		    //System.out.println("Version: " + line.substring(9));
-		    boolean isSectionOfInterest = false;
-		    
-	        while (( line = br.readLine()) != null){
-	        	
-	        	if (line.startsWith("%FLAG")) {
-	        		
-	        		if (contents != null) 
-	        		{
-	        			//store previous section
-	        			AmberFileSection section = new AmberFileSection();
-	            		section.setContent(contents.toString());
-	            		section.setFormat(format.split("a|I|E"));
-	            		if (format.indexOf('a')>0)
-	            			section.setType("char");
-	            		else if (format.indexOf('I')>0)
-	            			section.setType("int");
-	            		else if (format.indexOf('E')>0)
-	            			section.setType("exp");
-	            		else {
-	            	        br.close();
-	            			throw new Exception("Unknown type in format '"+ format+"'");
-	            		}            		
-	            		section.setValues(getValues(section.getContent(), section.getFormat()[1]));
-	            		section.setTitle(title);
-	            		sections.add(section);
-	        		}
-	        		
-	        		//get section title
-	        		title = line.substring(6).trim();
-	        		//if section of interest initialize new section structure
-	        		if (title.matches(REGEX_SECTIONS_OF_INTEREST))
-	        		{
-	        			isSectionOfInterest = true;
-		        		contents = new StringBuilder();
-		        		//get format line
-		        		line = br.readLine();
-		        		format = line.substring(7).trim();
-		        		format = format.substring(1, format.length()-1);
-	        		}
-	        		else isSectionOfInterest = false;
-	        	}
-	        	else if (isSectionOfInterest){
-		        	contents.append(line);
-	        	}
-	        }
-	        br.close();
+	        MolecularSystemFactory moleculeFactory = new MolecularSystemFactory();
+	        MolecularSystem molecularSystem = moleculeFactory.identifyMoleculesUsingTopology(topologyTable);
 	        
-	        //add last section
-	        AmberFileSection section = new AmberFileSection();
-	        section.setContent(contents.toString());
-			section.setFormat(format.split("a|I|E"));
-			if (format.indexOf('a')>0)
-				section.setType("char");
-			else if (format.indexOf('I')>0)
-				section.setType("int");
-			else if (format.indexOf('E')>0)
-				section.setType("exp");
-			else throw new Exception("Unknown type in format '"+ format+"'");
-			
-			section.setValues(getValues(section.getContent(), section.getFormat()[1]));
-			section.setTitle(title);
-			sections.add(section);	
+	        //set system description
+			molecularSystem.setDescription(topologyTable.getTitle());
+			molecularSystem.setDefinitionFiles(this.getCanonicalPath());
+				        
+			this.molecularSystems = new ArrayList<MolecularSystem>();
+			this.molecularSystems.add(molecularSystem);
 			
-			return sections;
+			return true;
 		}
 		catch (Exception e){
-			try {
-				if (br!=null)
-					br.close();
-			} catch (Exception e1) {
-			}
-			throw e;
+			handleParsingError(e);
+			return false;
 		}
 	}
 	
-	private List<String> getValues(String line, String nCharPerValue)
+	private void handleParsingError(Exception e)
 	{
-		int i = 0;
-		int indCom = nCharPerValue.indexOf('.');
-		if (indCom > 0)
-			nCharPerValue = nCharPerValue.substring(0,indCom);
-		int shift = Integer.parseInt(nCharPerValue);
-		
-		ArrayList<String> values = new ArrayList<String>();
-		while ((i + shift) <= line.length())
-		{
-			String value = line.substring(i, i + shift).trim();
-			values.add(value);
-			i = i + shift;
+		this.format = LocalFile.FORMAT_UNKNOWN;
+		try {
+			if (IBIOMESConfiguration.getInstance().isOutputToConsole())
+				System.out.println("WARNING: cannot parse '"+this.getAbsolutePath()+"' as an AMBER parameter/topology file.");
+			if (IBIOMESConfiguration.getInstance().isOutputErrorStackToConsole())
+				e.printStackTrace();
+		} catch (Exception e1) {
 		}
-		return values;
 	}
 	
 	/**
-	 * Create list of atoms and their properties
+	 * Get molecular systems. Molecules are identified on first call.
+	 * @return Molecular systems (null if the topology could not be parsed)
+	 */
+	@Override
+	public List<MolecularSystem> getMolecularSystems() {
+		loadTopology();
+		return molecularSystems;
+	}
+	
+	/**
+	 * Get metadata. Molecules are identified on first call, unless metadata 
+	 * recorded by a previous parsing run were set for this file.
+	 */
+	@Override
+	public MetadataAVUList getMetadata() throws Exception {
+		if (hasCachedMetadata())
+			return getCachedMetadata();
+		loadTopology();
+		return super.getMetadata();
+	}
+	
+	/**
+	 * Get columnar topology (atoms, bonds and residues) loaded from the file.
+	 * Sections are decoded on first call.
+	 * @return Topology table or null if the file could not be parsed
+	 */
+	public TopologyTable getTopologyTable() {
+		loadTopologyTable();
+		return topologyTable;
+	}
+	
+	/**
+	 * Get topology title (TITLE section)
+	 * @return Title
+	 */
+	public String getTopologyTitle() {
+		return topologyTitle;
+	}
+	
+	/**
+	 * Get number of atoms (from the POINTERS section)
+	 * @return Number of atoms
+	 */
+	public int getNumberOfAtoms() {
+		return numberOfAtoms;
+	}
+	
+	/**
+	 * Get number of residues (from the POINTERS section)
+	 * @return Number of residues
+	 */
+	public int getNumberOfResidues() {
+		return numberOfResidues;
+	}
+	
+	/**
+	 * Create table of atoms and their properties
 	 * @param topSections Topology-related sections
-	 * @return List of atom objects
+	 * @return Topology table with atoms
 	 * @throws IOException 
 	 */
-	private ArrayList<Atom> loadAtoms(ArrayList<AmberFileSection> topSections) throws IOException
+	private TopologyTable loadAtoms(HashMap<String, AmberFileSection> topSections) throws IOException
 	{
-		ArrayList<Atom> atomList = new ArrayList<Atom>();
 		PeriodicTable table = PeriodicTable.getInstance(); 
 		AmberAtomTypeDictionary atomTypeDefs = AmberAtomTypeDictionary.getInstance();
 		
-		AmberFileSection section = getSection(topSections, PARMTOP_SECTION_POINTERS);
-		
-		/*
-		NATOM  : total number of atoms 
-		NTYPES : total number of distinct atom types
-		NBONH  : number of bonds containing hydrogen
-		MBONA  : number of bonds not containing hydrogen
-		NTHETH : number of angles containing hydrogen
-		MTHETA : number of angles not containing hydrogen
-		NPHIH  : number of dihedrals containing hydrogen
-		MPHIA  : number of dihedrals not containing hydrogen
-		NHPARM : currently not used
-		NPARM  : currently not used
-		NEXT   : number of excluded atoms
-		NRES   : number of residues
-		 */
-		
-		int nAtoms = Integer.parseInt(section.getValue(0));
-		/*System.out.print("Number of atoms: ");
-		System.out.println(nAtoms);
-		System.out.print("Number of distinct atom types: ");
-		System.out.println(section.values.get(1));
-		System.out.print("Number of bonds containing hydrogen: ");
-		System.out.println(section.values.get(2));
-		System.out.print("Number of bonds not containing hydrogen: ");
-		System.out.println(section.values.get(3));*/
+		int nAtoms = numberOfAtoms;
 		
 		AmberFileSection sectionAtomNames = getSection(topSections, PARMTOP_SECTION_ATOM_NAME);
 		AmberFileSection sectionAtomCharges = getSection(topSections,PARMTOP_SECTION_CHARGE);
@@ -294,179 +348,117 @@ public class AmberParameterTopologyFile extends AbstractTopologyFile
 		AmberFileSection sectionAtomTypes = getSection(topSections, PARMTOP_SECTION_ATOM_TYPE);
 		
 		//check that number of atoms match
-		if (nAtoms != sectionAtomNames.getValues().size()){
-			System.out.println("Expected number of atoms: " + nAtoms + ". Actual: " + sectionAtomNames.getValues().size());
-			throw new IOException("Expected number of atoms: " + nAtoms + ". Actual: " + sectionAtomNames.getValues().size());
+		if (nAtoms != sectionAtomNames.size()){
+			System.out.println("Expected number of atoms: " + nAtoms + ". Actual: " + sectionAtomNames.size());
+			throw new IOException("Expected number of atoms: " + nAtoms + ". Actual: " + sectionAtomNames.size());
 		}
 		
+		TopologyTable topology = new TopologyTable(nAtoms, numberOfResidues);
+		AtomTable atoms = topology.getAtomTable();
+		//elements found in the AMBER dictionary (looked up once per atom type)
+		HashMap<String, AtomicElement> typeElements = new HashMap<String, AtomicElement>();
 		for (int a=0; a<nAtoms; a++){
 			String atomName = sectionAtomNames.getValue(a);
-			float atomCharge = Float.parseFloat(sectionAtomCharges.getValue(a)) / AMBER_CHARGE_CONSTANT;
-			double atomMass = Double.parseDouble(sectionAtomMasses.getValue(a));
+			float atomCharge = (float)sectionAtomCharges.getRealValue(a) / AMBER_CHARGE_CONSTANT;
+			double atomMass = sectionAtomMasses.getRealValue(a);
 			String atomType = sectionAtomTypes.getValue(a);
 			AtomicElement element = null;
 			//try to find element based on AMBER dictionary
-			element = atomTypeDefs.getElementForAtomType(atomType);
+			if (typeElements.containsKey(atomType))
+				element = typeElements.get(atomType);
+			else {
+				element = atomTypeDefs.getElementForAtomType(atomType);
+				typeElements.put(atomType, element);
+			}
 			if (element == null)
 				//try to find element based on name and mass
 				element = table.getElementByMass(atomType, atomMass);
-			//create atom object
-			Atom atom = new Atom(a, atomName, 
-					atomCharge,
-					atomMass,
-					atomType,
-					element);
-			atomList.add(atom);
+			atoms.addAtom(a, atomName, atomType, atomCharge, atomMass, element);
 		}
-		return atomList;
+		return topology;
 	}
 	
 	/**
-	 * Build list of bonds from amber file
-	 * @param atomList List of atoms
+	 * Load bonds from amber file
+	 * @param atoms Atom table
 	 * @param topSections Topology-related sections
-	 * @return List of bond objects
+	 * @throws IOException 
 	 */
-	private ArrayList<Bond> loadBonds(ArrayList<Atom> atomList, ArrayList<AmberFileSection> topSections)
+	private void loadBonds(AtomTable atoms, HashMap<String, AmberFileSection> topSections) throws IOException
 	{
-		ArrayList<Bond> bondList = new ArrayList<Bond>();
-		
 		/*
 		 	the atom numbers in the following arrays that describe bonds, angles, 
 		 	and dihedrals are coordinate array indexes for runtime speed. The true 
 		 	atom number equals the absolute value of the number divided by three, 
 		 	plus one.
 		 */
-
-		AmberFileSection sectionBondForceCst = getSection(topSections, PARMTOP_SECTION_BOND_FORCE_CONSTANT);
-		AmberFileSection sectionBondEquilVal = getSection(topSections, PARMTOP_SECTION_BOND_EQUIL_VALUE);
-		
 		AmberFileSection sectionBondsH = getSection(topSections, PARMTOP_SECTION_BONDS_INC_HYDROGEN);
-		for (int b=0; b<sectionBondsH.getValues().size(); b=b+3)
+		for (int b=0; b+2<sectionBondsH.size(); b=b+3)
 		{
-			int atom1Id = Integer.parseInt(sectionBondsH.getValue(b));
-			int atom2Id = Integer.parseInt(sectionBondsH.getValue(b+1));
-			
-			Atom atom1 = atomList.get((atom1Id / 3 ) );
-			Atom atom2 = atomList.get((atom2Id / 3 ) );
-			int bondType = Integer.parseInt(sectionBondsH.getValue(b+2));
-			double forceCst = Double.parseDouble(sectionBondForceCst.getValue(bondType - 1));
-			double equilVal = Double.parseDouble(sectionBondEquilVal.getValue(bondType - 1));
-			Bond bond = new Bond(atom1,atom2,bondType,forceCst,equilVal,true);
-			bondList.add(bond);
-			
-			if (atom1.getBondedAtoms()==null)
-				atom1.setBondedAtoms(new ArrayList<Atom>());
-			if (atom2.getBondedAtoms()==null)
-				atom2.setBondedAtoms(new ArrayList<Atom>());
-			atom1.getBondedAtoms().add(atom2);
-			atom2.getBondedAtoms().add(atom1);
+			int atom1Id = sectionBondsH.getIntValue(b);
+			int atom2Id = sectionBondsH.getIntValue(b+1);
+			atoms.addBond(atom1Id / 3, atom2Id / 3);
 		}
 		
 		AmberFileSection sectionBondsNoH = getSection(topSections, PARMTOP_SECTION_BONDS_WITHOUT_HYDROGEN);
-		for (int b=0; b<sectionBondsNoH.getValues().size(); b=b+3)
+		for (int b=0; b+2<sectionBondsNoH.size(); b=b+3)
 		{
-			int atom1Id = Integer.parseInt(sectionBondsNoH.getValue(b));
-			int atom2Id = Integer.parseInt(sectionBondsNoH.getValue(b+1));
-			
-			Atom atom1 = atomList.get((atom1Id / 3 ) );
-			Atom atom2 = atomList.get((atom2Id / 3 ) );
-			int bondType = Integer.parseInt(sectionBondsNoH.getValue(b+2));
-			double forceCst = Double.parseDouble(sectionBondForceCst.getValue(bondType - 1));
-			double equilVal = Double.parseDouble(sectionBondEquilVal.getValue(bondType - 1));
-			Bond bond = new Bond(atom1,atom2,bondType,forceCst,equilVal,true);
-			bondList.add(bond);
-
-			if (atom1.getBondedAtoms()==null)
-				atom1.setBondedAtoms(new ArrayList<Atom>());
-			if (atom2.getBondedAtoms()==null)
-				atom2.setBondedAtoms(new ArrayList<Atom>());
-			atom1.getBondedAtoms().add(atom2);
-			atom2.getBondedAtoms().add(atom1);
+			int atom1Id = sectionBondsNoH.getIntValue(b);
+			int atom2Id = sectionBondsNoH.getIntValue(b+1);
+			atoms.addBond(atom1Id / 3, atom2Id / 3);
 		}
-		
-		/*System.out.println("================================================");
-		System.out.println("BONDS");
-		System.out.println("================================================");
-		for (int b=0; b<bondList.size(); b++){
-			
-			Bond bond = bondList.get(b);
-			Atom atom1 = bond.getAtoms().get(0);
-			Atom atom2 = bond.getAtoms().get(1);
-			System.out.println("BOND " + (b+1) + ": " + bond.toString());
-		}*/
-		
-		return bondList;
 	}
 	
 	/**
-	 * Load list of residues
-	 * @param atomList Atom list
+	 * Load residues
+	 * @param topology Topology table
 	 * @param sections Sections
-	 * @return List of residues
 	 * @throws IOException 
 	 */
-	private ArrayList<Residue> loadResidues(ArrayList<Atom> atomList, ArrayList<AmberFileSection> sections) throws IOException
+	private void loadResidues(TopologyTable topology, HashMap<String, AmberFileSection> sections) throws IOException
 	{
-		ArrayList<Residue> residueList = new ArrayList<Residue>();
 		AmberFileSection sectionResiduePointers = getSection(sections, PARMTOP_SECTION_RESIDUE_POINTER);
 		AmberFileSection sectionResidueLabels = getSection(sections, PARMTOP_SECTION_RESIDUE_LABEL);
 		
 		//check that number of residues match
-		AmberFileSection section = getSection(sections, PARMTOP_SECTION_POINTERS);
-		int nResidues = Integer.parseInt(section.getValue(11));
-		if (nResidues != sectionResiduePointers.getValues().size()){
-			System.out.println("Expected number of residues: " + nResidues + ". Actual: " + sectionResiduePointers.getValues().size());
-			throw new IOException("Expected number of residues: " + nResidues + ". Actual: " + sectionResiduePointers.getValues().size());
+		int nResidues = numberOfResidues;
+		if (nResidues != sectionResiduePointers.size()){
+			System.out.println("Expected number of residues: " + nResidues + ". Actual: " + sectionResiduePointers.size());
+			throw new IOException("Expected number of residues: " + nResidues + ". Actual: " + sectionResiduePointers.size());
 		}
 		
-		for (int r=0; r<sectionResidueLabels.getValues().size(); r++)
+		for (int r=0; r<sectionResidueLabels.size(); r++)
 		{
-			//create new Residue
 			String residueLabel = sectionResidueLabels.getValue(r);
-			Residue residue = new Residue(residueLabel);
-
-			int start = Integer.parseInt(sectionResiduePointers.getValue(r)) - 1;
-			int end = atomList.size();
-			if (r < sectionResidueLabels.getValues().size() - 1) 
-				end = Integer.parseInt(sectionResiduePointers.getValue(r+1)) - 1;
-			//add atoms
-			for (int a=start; a<end; a++){
-				residue.addAtom(atomList.get(a));
-			}
-			residueList.add(residue);
+			int start = sectionResiduePointers.getIntValue(r) - 1;
+			topology.addResidue(residueLabel, start);
 		}
-		return residueList;
 	}
 		
-	private String getTopologyTitle(ArrayList<AmberFileSection> sections){
-		AmberFileSection sectionTitle = getSection(sections, PARMTOP_SECTION_TITLE);
-		List<String> vals = sectionTitle.getValues();
-		String title = "";
-		for (String val : vals){
-			title += val;
+	private String getTopologyTitle(HashMap<String, AmberFileSection> sections){
+		AmberFileSection sectionTitle = sections.get(PARMTOP_SECTION_TITLE);
+		if (sectionTitle == null)
+			return "";
+		StringBuilder title = new StringBuilder();
+		for (int i=0; i<sectionTitle.size(); i++){
+			title.append(sectionTitle.getValue(i));
 		}
-		return title.trim();
+		return title.toString().trim();
 	}
 	
 	/**
 	 * Get section in the file
-	 * @param sections List of sections
+	 * @param sections Sections indexed by title
 	 * @param title Section title
 	 * @return Section
+	 * @throws IOException if the section is missing
 	 */
-	private AmberFileSection getSection(ArrayList<AmberFileSection> sections, String title)
+	private AmberFileSection getSection(HashMap<String, AmberFileSection> sections, String title) throws IOException
 	{
-		int i = 0;
-		AmberFileSection section = null;
-		while (i < sections.size())
-		{
-			if (sections.get(i).getTitle().compareTo(title)==0){
-				return sections.get(i);
-			}
-			i++;
-		}
+		AmberFileSection section = sections.get(title);
+		if (section == null)
+			throw new IOException("Section " + title + " not found");
 		return section;
 	}
 	
-}
+}
\ No newline at end of file
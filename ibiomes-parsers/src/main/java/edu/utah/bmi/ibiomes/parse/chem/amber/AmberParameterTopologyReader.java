@@ -0,0 +1,326 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.parse.chem.amber;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import org.apache.commons.compress.compressors.CompressorException;
+
+import edu.utah.bmi.ibiomes.io.IBIOMESFileReader;
+
+/**
+ * Single-pass reader for AMBER parameter/topology files (parmtop). Only the requested
+ * sections are decoded: fixed-width fields are parsed directly into the typed arrays
+ * of the section, other sections are skipped line by line without being stored.
+ * Sections can also be counted without being decoded, to check their size.
+ * Reading stops as soon as all the requested sections were found.
+ * @author Julien Thibault, University of Utah
+ *
+ */
+public class AmberParameterTopologyReader {
+
+	private final static int MAX_EXACT_POWER_OF_TEN = 22;
+	private final static long MAX_EXACT_MANTISSA = 1L << 53;
+	private final static double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+	
+	private File file;
+	private HashMap<String, String> stringPool = new HashMap<String, String>();
+	
+	/**
+	 * New reader
+	 * @param file AMBER parameter/topology file
+	 */
+	public AmberParameterTopologyReader(File file){
+		this.file = file;
+	}
+	
+	/**
+	 * Read sections from the file
+	 * @param titles Titles (%FLAG) of the sections to read
+	 * @param expectedSizes Expected number of values per section title (used to size arrays), or null
+	 * @return Sections found in the file, indexed by title
+	 * @throws IOException
+	 * @throws CompressorException 
+	 */
+	public HashMap<String, AmberFileSection> readSections(Collection<String> titles, HashMap<String, Integer> expectedSizes) throws IOException, CompressorException
+	{
+		return readSections(titles, expectedSizes, null, null);
+	}
+	
+	/**
+	 * Read sections from the file and count the values of other sections in the same pass.
+	 * Counted sections are not decoded: only the number of fields on each line is added up.
+	 * @param titles Titles (%FLAG) of the sections to read
+	 * @param expectedSizes Expected number of values per section title (used to size arrays), or null
+	 * @param countedTitles Titles of the sections whose values are only counted, or null
+	 * @param valueCounts Number of values found in each counted section, indexed by title (filled by this method)
+	 * @return Sections found in the file, indexed by title
+	 * @throws IOException
+	 * @throws CompressorException 
+	 */
+	public HashMap<String, AmberFileSection> readSections(Collection<String> titles, HashMap<String, Integer> expectedSizes, 
+			Collection<String> countedTitles, HashMap<String, Integer> valueCounts) throws IOException, CompressorException
+	{
+		HashSet<String> titleSet = new HashSet<String>(titles);
+		HashSet<String> countedTitleSet = new HashSet<String>();
+		if (countedTitles != null)
+			countedTitleSet.addAll(countedTitles);
+		countedTitleSet.removeAll(titleSet);
+		HashMap<String, AmberFileSection> sections = new HashMap<String, AmberFileSection>();
+		HashSet<String> countedSections = new HashSet<String>();
+		AmberFileSection section = null;
+		String sectionTitle = null;
+		boolean isSectionOfInterest = false;
+		boolean isCountedSection = false;
+		boolean counting = false;
+		int count = 0;
+		
+		IBIOMESFileReader br = new IBIOMESFileReader(file);
+		try {
+			String line = null;
+			while ((line = br.readLine()) != null)
+			{
+				if (line.startsWith("%")){
+					if (line.startsWith("%FLAG")){
+						if (section != null){
+							if (counting){
+								valueCounts.put(section.getTitle(), count);
+								countedSections.add(section.getTitle());
+							}
+							else {
+								section.trimToSize();
+								sections.put(section.getTitle(), section);
+							}
+							section = null;
+							if (sections.size() == titleSet.size() && countedSections.size() == countedTitleSet.size())
+								break;
+						}
+						sectionTitle = line.substring(5).trim();
+						isSectionOfInterest = titleSet.contains(sectionTitle) && !sections.containsKey(sectionTitle);
+						isCountedSection = countedTitleSet.contains(sectionTitle) && !countedSections.contains(sectionTitle);
+					}
+					else if (line.startsWith("%FORMAT") && (isSectionOfInterest || isCountedSection)){
+						String format = line.substring(7).trim();
+						if (format.startsWith("(") && format.endsWith(")"))
+							format = format.substring(1, format.length()-1);
+						int expectedSize = 0;
+						if (isSectionOfInterest && expectedSizes != null && expectedSizes.containsKey(sectionTitle))
+							expectedSize = expectedSizes.get(sectionTitle);
+						try {
+							//counted sections only use the format (field width and number of fields per line)
+							section = new AmberFileSection(sectionTitle, format, expectedSize);
+						}
+						catch (IllegalArgumentException e){
+							throw new IOException(e.getMessage() + " (section " + sectionTitle + ")");
+						}
+						counting = !isSectionOfInterest;
+						count = 0;
+					}
+					//%VERSION and %COMMENT lines are ignored
+				}
+				else if (section != null){
+					if (counting)
+						count += Math.min(line.length() / section.getFieldWidth(), section.getValuesPerLine());
+					else decodeLine(section, line);
+				}
+			}
+			if (section != null){
+				if (counting)
+					valueCounts.put(section.getTitle(), count);
+				else {
+					section.trimToSize();
+					sections.put(section.getTitle(), section);
+				}
+			}
+		}
+		finally {
+			br.close();
+		}
+		return sections;
+	}
+	
+	/**
+	 * Decode fixed-width fields of a line and add values to the section
+	 * @param section Section
+	 * @param line Line
+	 * @throws IOException
+	 */
+	private void decodeLine(AmberFileSection section, String line) throws IOException
+	{
+		int width = section.getFieldWidth();
+		int nFields = Math.min(line.length() / width, section.getValuesPerLine());
+		String type = section.getType();
+		if (type.equals(AmberFileSection.TYPE_INT)){
+			for (int f=0; f<nFields; f++)
+				section.addIntValue(parseInt(line, f*width, (f+1)*width));
+		}
+		else if (type.equals(AmberFileSection.TYPE_EXP)){
+			for (int f=0; f<nFields; f++)
+				section.addRealValue(parseReal(line, f*width, (f+1)*width));
+		}
+		else {
+			for (int f=0; f<nFields; f++)
+				section.addCharValue(intern(line.substring(f*width, (f+1)*width).trim()));
+		}
+	}
+	
+	private String intern(String value){
+		String pooled = stringPool.get(value);
+		if (pooled == null){
+			stringPool.put(value, value);
+			pooled = value;
+		}
+		return pooled;
+	}
+	
+	/**
+	 * Parse fixed-width integer field without creating intermediate strings
+	 * @param line Line
+	 * @param start Start of the field
+	 * @param end End of the field
+	 * @return Value
+	 * @throws IOException
+	 */
+	private static int parseInt(String line, int start, int end) throws IOException
+	{
+		int i = start;
+		while (i < end && line.charAt(i) == ' ')
+			i++;
+		boolean negative = false;
+		if (i < end && (line.charAt(i) == '-' || line.charAt(i) == '+')){
+			negative = (line.charAt(i) == '-');
+			i++;
+		}
+		if (i == end)
+			throw new IOException("Invalid integer field: '" + line.substring(start, end) + "'");
+		long value = 0;
+		for (; i<end; i++){
+			char c = line.charAt(i);
+			if (c >= '0' && c <= '9'){
+				value = value*10 + (c - '0');
+				if (value > Integer.MAX_VALUE + 1L)
+					throw new IOException("Integer field out of range: '" + line.substring(start, end) + "'");
+			}
+			else if (c == ' '){
+				//trailing spaces only
+				while (i < end && line.charAt(i) == ' ')
+					i++;
+				if (i < end)
+					throw new IOException("Invalid integer field: '" + line.substring(start, end) + "'");
+			}
+			else throw new IOException("Invalid integer field: '" + line.substring(start, end) + "'");
+		}
+		value = (negative ? -value : value);
+		if (value > Integer.MAX_VALUE)
+			throw new IOException("Integer field out of range: '" + line.substring(start, end) + "'");
+		return (int)value;
+	}
+	
+	/**
+	 * Parse fixed-width real field (e.g. E16.8) without creating intermediate strings.
+	 * The result is exact (same as Double.parseDouble) when the mantissa fits in 53 bits 
+	 * and the decimal exponent is within [-22,22]; other values are handed to Double.parseDouble.
+	 * @param line Line
+	 * @param start Start of the field
+	 * @param end End of the field
+	 * @return Value
+	 * @throws IOException
+	 */
+	private static double parseReal(String line, int start, int end) throws IOException
+	{
+		int i = start;
+		while (i < end && line.charAt(i) == ' ')
+			i++;
+		int last = end;
+		while (last > i && line.charAt(last-1) == ' ')
+			last--;
+		boolean negative = false;
+		if (i < last && (line.charAt(i) == '-' || line.charAt(i) == '+')){
+			negative = (line.charAt(i) == '-');
+			i++;
+		}
+		long mantissa = 0;
+		int decimals = 0;
+		int nDigits = 0;
+		boolean pointFound = false;
+		int exponent = 0;
+		boolean exact = true;
+		for (; i<last; i++){
+			char c = line.charAt(i);
+			if (c >= '0' && c <= '9'){
+				if (mantissa >= MAX_EXACT_MANTISSA / 10)
+					exact = false;
+				else {
+					mantissa = mantissa*10 + (c - '0');
+					if (pointFound)
+						decimals++;
+				}
+				nDigits++;
+			}
+			else if (c == '.' && !pointFound)
+				pointFound = true;
+			else if (c == 'E' || c == 'e' || c == 'D' || c == 'd'){
+				i++;
+				boolean negativeExp = false;
+				if (i < last && (line.charAt(i) == '-' || line.charAt(i) == '+')){
+					negativeExp = (line.charAt(i) == '-');
+					i++;
+				}
+				if (i == last)
+					exact = false;
+				for (; i<last && exact; i++){
+					char e = line.charAt(i);
+					if (e >= '0' && e <= '9' && exponent < 1000)
+						exponent = exponent*10 + (e - '0');
+					else exact = false;
+				}
+				if (negativeExp)
+					exponent = -exponent;
+				break;
+			}
+			else {
+				exact = false;
+				break;
+			}
+		}
+		if (exact && nDigits > 0){
+			int power = exponent - decimals;
+			if (mantissa == 0)
+				return (negative ? -0.0 : 0.0);
+			if (mantissa < MAX_EXACT_MANTISSA && power >= -MAX_EXACT_POWER_OF_TEN && power <= MAX_EXACT_POWER_OF_TEN){
+				double value = (power >= 0 ? mantissa * POWERS_OF_TEN[power] : mantissa / POWERS_OF_TEN[-power]);
+				return (negative ? -value : value);
+			}
+		}
+		//unusual notation or precision: use standard parser
+		String field = line.substring(start, end).trim();
+		try {
+			return Double.parseDouble(field.replace('D', 'E').replace('d', 'e'));
+		}
+		catch (NumberFormatException e){
+			throw new IOException("Invalid real field: '" + field + "'");
+		}
+	}
+}
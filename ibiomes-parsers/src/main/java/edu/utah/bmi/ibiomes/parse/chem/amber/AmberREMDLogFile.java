@@ -0,0 +1,246 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.parse.chem.amber;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.utah.bmi.ibiomes.conf.IBIOMESConfiguration;
+import edu.utah.bmi.ibiomes.io.IBIOMESFileReader;
+import edu.utah.bmi.ibiomes.metadata.MetadataAVUList;
+import edu.utah.bmi.ibiomes.parse.LocalFile;
+import edu.utah.bmi.ibiomes.parse.chem.ChemicalFile;
+import edu.utah.bmi.ibiomes.parse.chem.REMDExchangeHistory;
+
+/**
+ * AMBER replica exchange log (rem.log) for temperature REMD. For each exchange, the file 
+ * lists the target temperature of each replica (Temp0) before the exchange. Attempts and 
+ * acceptances are read from the Neibr# and Success columns when present (AMBER 12 and later). 
+ * Older logs do not list exchange partners: neighbor pairs are assumed to alternate between 
+ * even and odd pairs at each exchange, and acceptances are derived from temperature changes.
+ * @author Julien Thibault, University of Utah
+ *
+ */
+public class AmberREMDLogFile extends ChemicalFile {
+
+	private static final long serialVersionUID = -4164871722935853297L;
+
+	private final static String HEADER = "# Replica Exchange log file";
+	private final static String NUMEXCHG_PREFIX = "# numexchg is";
+	private final static String COLUMNS_PREFIX = "# Rep#";
+	private final static String EXCHANGE_PREFIX = "# exchange";
+	private final static String COLUMN_REPLICA = "Rep#";
+	private final static String COLUMN_NEIGHBOR = "Neibr#";
+	private final static String COLUMN_TEMP0 = "Temp0";
+	private final static String COLUMN_SUCCESS = "Success";
+
+	private REMDExchangeHistory history = null;
+	private int numberOfExchangesRequested = 0;
+
+	private int replicaColumn = -1;
+	private int neighborColumn = -1;
+	private int temperatureColumn = -1;
+	private int successColumn = -1;
+	private int[] previousStates = null;
+
+	/**
+	 * Parse AMBER REMD log
+	 * @param localPath Path to the log file
+	 * @throws IOException
+	 */
+	public AmberREMDLogFile(String localPath) throws IOException {
+		super(localPath, FORMAT_AMBER_REMD_LOG);
+		try {
+			parseFile();
+		}
+		catch (Exception e){
+			handleParsingError(e);
+		}
+	}
+	
+	private void handleParsingError(Exception e)
+	{
+		this.format = LocalFile.FORMAT_UNKNOWN;
+		try {
+			if (IBIOMESConfiguration.getInstance().isOutputToConsole())
+				System.out.println("WARNING: cannot parse '"+this.getAbsolutePath()+"' as an AMBER REMD log file.");
+			if (IBIOMESConfiguration.getInstance().isOutputErrorStackToConsole())
+				e.printStackTrace();
+		} catch (Exception e1) {
+		}
+	}
+
+	/**
+	 * Get exchange history
+	 * @return Exchange history (state of each replica at each exchange, acceptance statistics)
+	 */
+	public REMDExchangeHistory getExchangeHistory() {
+		return history;
+	}
+
+	/**
+	 * Get number of exchanges requested in the MD input (numexchg)
+	 * @return Number of exchanges
+	 */
+	public int getNumberOfExchangesRequested() {
+		return numberOfExchangesRequested;
+	}
+
+	/**
+	 * Get file metadata and exchange statistics
+	 * @throws Exception 
+	 */
+	@Override
+	public MetadataAVUList getMetadata() throws Exception {
+		MetadataAVUList metadata = super.getMetadata();
+		if (history != null)
+			metadata.addAll(history.getMetadata());
+		return metadata;
+	}
+
+	/**
+	 * Read exchanges, one block of lines (one line per replica) at a time
+	 * @throws Exception
+	 */
+	private void parseFile() throws Exception
+	{
+		IBIOMESFileReader reader = new IBIOMESFileReader(this);
+		try {
+			String line = reader.readLine();
+			if (line == null || !line.trim().startsWith(HEADER))
+				throw new Exception("Header for AMBER REMD log files not found in '"+this.getAbsolutePath()+"'.");
+			List<String[]> rows = new ArrayList<String[]>();
+			while ((line = reader.readLine()) != null)
+			{
+				line = line.trim();
+				if (line.startsWith(EXCHANGE_PREFIX)){
+					if (rows.size()>0)
+						addExchange(rows);
+					rows.clear();
+				}
+				else if (line.startsWith(NUMEXCHG_PREFIX)){
+					this.numberOfExchangesRequested = Integer.parseInt(line.substring(NUMEXCHG_PREFIX.length()).trim());
+				}
+				else if (line.startsWith(COLUMNS_PREFIX)){
+					readColumns(line);
+				}
+				else if (line.length()>0 && !line.startsWith("#")){
+					rows.add(line.split("\\s+"));
+				}
+			}
+			if (rows.size()>0)
+				addExchange(rows);
+			if (history == null)
+				throw new Exception("No exchange found in '"+this.getAbsolutePath()+"'.");
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Find columns from the column description (e.g. 'Rep#, Neibr#, Temp0, PotE(x_1), ..., Success, Success rate (i,i+1)')
+	 * @param line Column description line
+	 * @throws Exception
+	 */
+	private void readColumns(String line) throws Exception
+	{
+		//do not split on commas inside parentheses
+		String[] columns = line.substring(1).split(",(?![^(]*\\))");
+		for (int c=0; c<columns.length; c++){
+			String column = columns[c].trim();
+			if (column.equals(COLUMN_REPLICA))
+				replicaColumn = c;
+			else if (column.equals(COLUMN_NEIGHBOR))
+				neighborColumn = c;
+			else if (column.equals(COLUMN_TEMP0))
+				temperatureColumn = c;
+			else if (column.equals(COLUMN_SUCCESS))
+				successColumn = c;
+		}
+		if (replicaColumn == -1 || temperatureColumn == -1)
+			throw new Exception("Unsupported REMD log format in '"+this.getAbsolutePath()+"' (no replica or temperature column)");
+	}
+
+	/**
+	 * Add exchange to the history
+	 * @param rows Lines of the exchange block (one per replica)
+	 * @throws Exception
+	 */
+	private void addExchange(List<String[]> rows) throws Exception
+	{
+		if (temperatureColumn == -1)
+			throw new Exception("Column description not found in '"+this.getAbsolutePath()+"'");
+		int nReplicas = rows.size();
+		double[] temperatures = new double[nReplicas];
+		int[] neighbors = new int[nReplicas];
+		boolean[] success = new boolean[nReplicas];
+		boolean[] found = new boolean[nReplicas];
+		for (String[] row : rows){
+			int r = Integer.parseInt(row[replicaColumn]) - 1;
+			if (r < 0 || r >= nReplicas || found[r])
+				throw new Exception("Invalid replica number '" + row[replicaColumn] + "' in exchange " + (getNumberOfExchanges()+1));
+			found[r] = true;
+			temperatures[r] = Double.parseDouble(row[temperatureColumn]);
+			if (neighborColumn != -1 && successColumn != -1){
+				neighbors[r] = Integer.parseInt(row[neighborColumn]) - 1;
+				success[r] = row[successColumn].equals("T");
+			}
+		}
+		if (history == null)
+			history = new REMDExchangeHistory(temperatures);
+		else if (nReplicas != history.getNumberOfReplicas())
+			throw new Exception("Inconsistent number of replicas in exchange " + (getNumberOfExchanges()+1));
+
+		//replicas must be in different states (temperature REMD)
+		int[] states = new int[nReplicas];
+		boolean[] occupied = new boolean[nReplicas];
+		for (int r=0; r<nReplicas; r++){
+			states[r] = history.getStateIndex(temperatures[r]);
+			if (occupied[states[r]])
+				throw new Exception("Several replicas at " + temperatures[r] + "K in exchange " + (getNumberOfExchanges()+1) + " (only temperature REMD is supported)");
+			occupied[states[r]] = true;
+		}
+		
+		if (neighborColumn != -1 && successColumn != -1){
+			//attempts listed by both partners
+			for (int r=0; r<nReplicas; r++){
+				int n = neighbors[r];
+				if (n > r && n < nReplicas && Math.abs(states[r]-states[n]) == 1)
+					history.addAttempt(Math.min(states[r], states[n]), success[r]);
+			}
+		}
+		else if (previousStates != null){
+			//outcome of the previous exchange: pairs alternate between exchanges
+			int previousExchange = getNumberOfExchanges()-1;
+			for (int r=0; r<nReplicas; r++){
+				int pair = previousStates[r];
+				if (pair < nReplicas-1 && pair % 2 == previousExchange % 2)
+					history.addAttempt(pair, states[r] == pair+1);
+			}
+		}
+		history.addExchange(states);
+		previousStates = states;
+	}
+
+	private int getNumberOfExchanges(){
+		return (history == null ? 0 : history.getNumberOfExchanges());
+	}
+}
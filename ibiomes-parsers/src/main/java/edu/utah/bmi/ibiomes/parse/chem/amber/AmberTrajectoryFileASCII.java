@@ -23,11 +23,11 @@ import java.util.ArrayList;
 import java.util.List;
 
 import edu.utah.bmi.ibiomes.conf.IBIOMESConfiguration;
-import edu.utah.bmi.ibiomes.io.IBIOMESFileReader;
 import edu.utah.bmi.ibiomes.parse.LocalFile;
 import edu.utah.bmi.ibiomes.parse.chem.AbstractTrajectoryFile;
+import edu.utah.bmi.ibiomes.parse.chem.RandomAccessTrajectoryReader;
+import edu.utah.bmi.ibiomes.parse.chem.TrajectoryFrameReader;
 import edu.utah.bmi.ibiomes.topo.Atom;
-import edu.utah.bmi.ibiomes.topo.Coordinate3D;
 import edu.utah.bmi.ibiomes.topo.Trajectory;
 
 /**
@@ -49,6 +49,69 @@ public class AmberTrajectoryFileASCII extends AbstractTrajectoryFile
 		super(path, FORMAT_AMBER_TRAJ_ASCII);
 	}
 	
+	/**
+	 * Open the trajectory for random frame access (uncompressed files only).
+	 * The frame index is read from the sidecar file if it is up-to-date.
+	 * @param numberOfAtoms Number of atoms in the system
+	 * @return Indexed reader (must be closed after use)
+	 * @throws IOException
+	 */
+	public AmberTrajectoryReaderASCII getReader(int numberOfAtoms) throws IOException {
+		return new AmberTrajectoryReaderASCII(this, numberOfAtoms);
+	}
+	
+	/**
+	 * Check if frames can be read in any order (uncompressed files only)
+	 * @return True if the file is not compressed
+	 */
+	@Override
+	public boolean supportsRandomAccess() {
+		try {
+			return !AmberTrajectoryReaderASCII.isCompressed(this);
+		}
+		catch (IOException e){
+			return false;
+		}
+	}
+	
+	@Override
+	public RandomAccessTrajectoryReader getRandomAccessReader(int numberOfAtoms) throws Exception {
+		return getReader(numberOfAtoms);
+	}
+	
+	/**
+	 * Open the trajectory for frame streaming. Uncompressed files are read through the frame index,
+	 * and large files are decoded by several threads (see parser threads in the configuration).
+	 * Compressed files are read once, frame by frame.
+	 * The number of atoms is not stored in the trajectory file and must be read from the topology.
+	 * @param numberOfAtoms Number of atoms in the system
+	 * @param atomSelection Indexes (0-based) of the atoms to read, or null to read all atoms
+	 * @param frameStride Read every n-th frame (1 to read all frames)
+	 * @return Frame reader (must be closed after use)
+	 * @throws Exception
+	 */
+	@Override
+	public TrajectoryFrameReader getFrameReader(int numberOfAtoms, int[] atomSelection, int frameStride) throws Exception
+	{
+		AmberTrajectoryReaderASCII reader = null;
+		try {
+			reader = getReader(numberOfAtoms);
+		}
+		catch (IOException e){
+			//compressed file or no complete frame: sequential parsing
+			return new AmberTrajectoryFrameReaderASCII(this, numberOfAtoms, atomSelection, frameStride);
+		}
+		if (this.length() >= AmberTrajectoryReaderASCII.PARALLEL_DECODING_THRESHOLD){
+			try {
+				reader.setNumberOfThreads(IBIOMESConfiguration.getInstance().getParserThreads());
+			}
+			catch (Exception e){
+				//configuration not available: sequential decoding
+			}
+		}
+		return reader.getFrameReader(atomSelection, frameStride);
+	}
+	
 	/**
 	 * Retrieve atom trajectories
 	 * @param atomList
@@ -57,110 +120,14 @@ public class AmberTrajectoryFileASCII extends AbstractTrajectoryFile
 	 */
 	public List<Trajectory> getTrajectories(ArrayList<Atom> atomList) throws Exception 
 	{
-		//ArrayList<AMBERFileSection> frames = new ArrayList<AMBERFileSection>();
-	    IBIOMESFileReader br = null;
-	    
-	    /*System.out.println("================================================");
-		System.out.println("TRAJECTORIES");
-		System.out.println("================================================");*/
-		
-	    int coordLength = 8; 
-	    int shift = 0;
-	    int nAtoms = atomList.size();
-	    
-	    ArrayList<Trajectory> trajectories = new ArrayList<Trajectory>();
-	    
-	    try{
-		    //for each atom
-		    for (int a=0;a<nAtoms;a++)
-		    {
-		    	br = new IBIOMESFileReader(this);
-		    	//skip title line and mark
-			    br.readLine();
-			    
-			    //skip to access coordinates of current atom
-			    br.skip(shift);
-			    
-			    boolean atomDone = false;
-			    int f = 0;
-			    
-			    //System.out.println("Atom #" + (a+1) + "...");
-			    
-			    int shiftForNl = 0;
-			    int shiftForNlSkip = 0;
-			    
-			    //create new trajectory for current atom
-			    Trajectory traj = new Trajectory();
-			    
-			    //while all the frames for the current atom have not been collected
-			    while (!atomDone){
-				    	
-			    	shiftForNl = 0;
-			    	if ((3*a + 1) % 10 == 0){
-			    		shiftForNl = 1;
-			    		shiftForNlSkip = 1;
-			    	}
-			    	char[] cbufX = new char[coordLength + shiftForNl];
-			    	if (br.read(cbufX) < 0)
-			    		break;
-			    	String sbufX = new String(cbufX);
-			    	double x = Double.parseDouble(sbufX.substring(0,coordLength).trim());
-			    	
-			    	shiftForNl = 0;
-			    	if ((3*a + 2) % 10 == 0){
-			    		shiftForNl = 1;
-			    		shiftForNlSkip = 1;
-			    	}
-			    	char[] cbufY = new char[coordLength + shiftForNl];
-			    	br.read(cbufY);
-			    	String sbufY = new String(cbufY);
-			    	double y = Double.parseDouble(sbufY.substring(0,coordLength).trim());
-			    	
-			    	shiftForNl = 0;
-			    	if ((3*a + 3) % 10 == 0){
-			    		shiftForNl = 1;
-			    		shiftForNlSkip = 1;
-			    	}
-			    	char[] cbufZ = new char[coordLength + shiftForNl];
-			    	br.read(cbufZ);
-			    	String sbufZ = new String(cbufZ);
-			    	double z = Double.parseDouble(sbufZ.substring(0,coordLength).trim());
-			    	
-			    	Coordinate3D coord = new Coordinate3D(x, y, z);
-			    	traj.addCoordinates(coord);
-			    	//System.out.println(x + "," + y + "," + z);
-			    	
-			    	int nSkip = coordLength*(nAtoms-1)*3;
-			    	int nNewLineChars = (int)Math.ceil((double)nSkip/((double)(10*coordLength))) + 1;
-			    	nSkip = nSkip + nNewLineChars - shiftForNlSkip;
-			    	br.skip(nSkip);
-		        	
-			    	
-			    	f++;
-		    	}
-			    br.close();
-			    
-			    //save trajectory file for current atom
-			    //traj.store("trajectories/test_" + a + ".traj");
-			    //traj.storeXML("trajectories/test_" + a + ".xml");
-			    
-			    trajectories.add(traj);
-			    
-		    	shift += coordLength*3 + shiftForNlSkip;
-			}
-	        return trajectories;
-	    }
+		try{
+			return readTrajectories(atomList.size());
+		}
 		catch (Exception e){
 			this.format = LocalFile.FORMAT_UNKNOWN;
 			System.out.println("ERROR: cannot parse '"+this.getAbsolutePath()+"' as an AMBER trajectory file.");
 			if (IBIOMESConfiguration.getInstance().isOutputErrorStackToConsole())
 				e.printStackTrace();
-			if (br!=null){
-				try{
-					br.close();
-				} catch(Exception e2){
-				}
-			}
 			throw e;
 		}
 	}
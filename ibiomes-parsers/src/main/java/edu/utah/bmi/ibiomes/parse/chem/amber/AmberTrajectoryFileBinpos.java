@@ -18,10 +18,18 @@
 
 package edu.utah.bmi.ibiomes.parse.chem.amber;
 
+import java.io.File;
 import java.io.IOException;
 
+import edu.utah.bmi.ibiomes.conf.IBIOMESConfiguration;
+import edu.utah.bmi.ibiomes.io.IBIOMESFileReader;
+import edu.utah.bmi.ibiomes.metadata.MetadataAVU;
+import edu.utah.bmi.ibiomes.metadata.MetadataAVUList;
+import edu.utah.bmi.ibiomes.metadata.TopologyMetadata;
 import edu.utah.bmi.ibiomes.parse.LocalFile;
 import edu.utah.bmi.ibiomes.parse.chem.AbstractTrajectoryFile;
+import edu.utah.bmi.ibiomes.parse.chem.RandomAccessTrajectoryReader;
+import edu.utah.bmi.ibiomes.parse.chem.TrajectoryFrameReader;
 
 /**
  * AMBER BINPOS trajectory file
@@ -32,34 +40,108 @@ public class AmberTrajectoryFileBinpos extends AbstractTrajectoryFile
 {
 	private static final long serialVersionUID = 7539188574632577402L;
 	
+	private int numberOfAtoms = 0;
+	
 	/**
-	 * Load an AMBER trajectory file
+	 * Load an AMBER trajectory file. Only the header is read.
 	 * @param path
 	 * @throws IOException 
 	 */
 	public AmberTrajectoryFileBinpos(String path) throws IOException
 	{
 		super(path, LocalFile.FORMAT_AMBER_TRAJ_BINPOS);
-		
+		parseHeader();
+	}
+	
+	/**
+	 * Read number of atoms and compute number of frames from the file size
+	 */
+	private void parseHeader()
+	{
+		AmberTrajectoryReaderBinpos reader = null;
+		try {
+			reader = new AmberTrajectoryReaderBinpos(this);
+			this.numberOfAtoms = reader.getNumberOfAtoms();
+			this.setNumberOfFrames(reader.getNumberOfFrames());
+			reader.close();
+		}
+		catch (Exception e){
+			this.format = LocalFile.FORMAT_UNKNOWN;
+			try {
+				if (IBIOMESConfiguration.getInstance().isOutputToConsole())
+					System.out.println("WARNING: cannot parse '"+this.getAbsolutePath()+"' as an AMBER BINPOS trajectory file.");
+				if (IBIOMESConfiguration.getInstance().isOutputErrorStackToConsole())
+					e.printStackTrace();
+			} catch (Exception e1) {
+			}
+			if (reader!=null)
+				try {
+					reader.close();
+				} catch (IOException e1) {
+				}
+		}
+	}
+	
+	/**
+	 * Get number of atoms
+	 * @return Number of atoms
+	 */
+	public int getNumberOfAtoms() {
+		return numberOfAtoms;
+	}
+	
+	@Override
+	public boolean supportsRandomAccess() {
+		return true;
+	}
+	
+	/**
+	 * Open the trajectory for random frame access
+	 * @return Memory-mapped reader (must be closed after use)
+	 * @throws IOException
+	 */
+	public AmberTrajectoryReaderBinpos getReader() throws IOException {
+		return new AmberTrajectoryReaderBinpos(this);
+	}
+	
+	@Override
+	public RandomAccessTrajectoryReader getRandomAccessReader(int numberOfAtoms) throws Exception
+	{
+		AmberTrajectoryReaderBinpos reader = getReader();
+		if (reader.getNumberOfAtoms() != numberOfAtoms){
+			reader.close();
+			throw new IOException("Number of atoms in BINPOS file (" + reader.getNumberOfAtoms() + ") does not match the expected number of atoms (" + numberOfAtoms + ")");
+		}
+		return reader;
+	}
+	
+	@Override
+	public TrajectoryFrameReader getFrameReader(int numberOfAtoms, int[] atomSelection, int frameStride) throws Exception {
+		return getRandomAccessReader(numberOfAtoms).getFrameReader(atomSelection, frameStride);
+	}
+	
+	@Override
+	public MetadataAVUList getMetadata() throws Exception
+	{
+		MetadataAVUList metadata = super.getMetadata();
+		if (numberOfAtoms>0)
+			metadata.add(new MetadataAVU(TopologyMetadata.COUNT_ATOMS, String.valueOf(numberOfAtoms)));
+		return metadata;
 	}
 
+	/**
+	 * Check if the file is a BINPOS trajectory (Scripps binary format) using the 'fxyz' magic number
+	 * @param path Path to the file
+	 * @return True if the file starts with the BINPOS magic number
+	 */
 	public static boolean checkFormat(String path) {
-		
-		/*unsigned char buffer[4];
-		  buffer[0] = ' ';
-		  buffer[1] = ' ';
-		  buffer[2] = ' ';
-		  buffer[3] = ' ';
-		  if ( OpenFile() ) return false;
-		  IO->Read(buffer, 4);
-		  CloseFile();
-		  // Check for the magic header of the Scripps binary format.
-		  if (buffer[0] == 'f' &&
-		      buffer[1] == 'x' &&
-		      buffer[2] == 'y' &&
-		      buffer[3] == 'z')
-		    return true;*/
-		  return false;
-
+		try {
+			IBIOMESFileReader fileReader = new IBIOMESFileReader(new File(path));
+			byte[] header = fileReader.readFirstBytes(4);
+			fileReader.close();
+			return AmberTrajectoryReaderBinpos.hasMagicNumber(header);
+		} catch (Exception e) {
+			return false;
+		}
 	}
 }
@@ -44,12 +44,13 @@ public class AmberTrajectoryFileFactory
 		if (AmberNetcdfFile.checkFormat(path)){
 			trajFile = new DefaultLocalFileImpl(path, LocalFile.FORMAT_AMBER_TRAJ_NETCDF);
 		}
+		else if (AmberTrajectoryFileBinpos.checkFormat(path)){
+			//header only: number of atoms and frames
+			trajFile = new AmberTrajectoryFileBinpos(path);
+		}
 		else if (AmberTrajectoryFileASCII.checkFormat(path)){
 			trajFile = new DefaultLocalFileImpl(path, LocalFile.FORMAT_AMBER_TRAJ_ASCII);
 		}
-		else if (AmberTrajectoryFileBinpos.checkFormat(path)){
-			trajFile = new DefaultLocalFileImpl(path, LocalFile.FORMAT_AMBER_TRAJ_BINPOS);
-		}
 		else if (AmberTrajectoryFileBin.checkFormat(path)){
 			trajFile = new DefaultLocalFileImpl(path, LocalFile.FORMAT_AMBER_TRAJ_BIN);
 		}
@@ -0,0 +1,249 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.parse.chem.amber;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.compress.compressors.CompressorException;
+
+import edu.utah.bmi.ibiomes.io.IBIOMESFileReader;
+import edu.utah.bmi.ibiomes.parse.chem.TrajectoryFrame;
+import edu.utah.bmi.ibiomes.parse.chem.TrajectoryFrameReader;
+
+/**
+ * Frame reader for AMBER ASCII trajectories (mdcrd): title line, then for each frame
+ * an optional (H)REMD header line, the 3N coordinates in 10F8.3 format and an optional box line.
+ * @author Julien Thibault, University of Utah
+ *
+ */
+public class AmberTrajectoryFrameReaderASCII extends TrajectoryFrameReader {
+
+	private final static int COORD_LENGTH = 8;
+	private final static int COORDS_PER_LINE = 10;
+	private final static double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8};
+
+	private IBIOMESFileReader reader;
+	private String title;
+	private String pendingLine = null;
+	private int linesPerFrame;
+	private boolean formatChecked = false;
+	private boolean hasRemdHeader = false;
+	private boolean hasBox = false;
+
+	/**
+	 * Open AMBER ASCII trajectory for frame streaming
+	 * @param file Trajectory file
+	 * @param numberOfAtoms Number of atoms in the system
+	 * @param atomSelection Indexes (0-based) of the atoms to read, or null to read all atoms
+	 * @param frameStride Read every n-th frame (1 to read all frames)
+	 * @throws IOException
+	 * @throws CompressorException
+	 */
+	public AmberTrajectoryFrameReaderASCII(File file, int numberOfAtoms, int[] atomSelection, int frameStride) throws IOException, CompressorException
+	{
+		super(numberOfAtoms, atomSelection, frameStride);
+		this.linesPerFrame = (3*numberOfAtoms + COORDS_PER_LINE - 1) / COORDS_PER_LINE;
+		this.reader = new IBIOMESFileReader(file);
+		this.title = reader.readLine();
+	}
+
+	/**
+	 * Get trajectory title
+	 * @return Title
+	 */
+	public String getTitle() {
+		return title;
+	}
+
+	/**
+	 * Check if frames are preceded by a (H)REMD header
+	 * @return True if frames have a REMD header (only known after the first frame was read)
+	 */
+	public boolean hasRemdHeader() {
+		return hasRemdHeader;
+	}
+
+	/**
+	 * Check if frames are followed by box information
+	 * @return True if frames have box information (only known after the first frame was read)
+	 */
+	public boolean hasBox() {
+		return hasBox;
+	}
+
+	@Override
+	protected boolean readFrame(TrajectoryFrame frame) throws IOException
+	{
+		String line = nextLine();
+		if (line == null || line.trim().length()==0)
+			return false;
+
+		//REMD header
+		if (!formatChecked)
+			hasRemdHeader = isRemdHeader(line);
+		if (hasRemdHeader){
+			frame.setTemperature(parseRemdTemperature(line));
+			line = nextLine();
+			if (line == null)
+				throw new IOException("Unexpected end of file in frame header");
+		}
+
+		//coordinates
+		float[] coordinates = frame.getCoordinates();
+		int nCoords = 3*numberOfAtoms;
+		int k = 0;
+		while (k < nCoords){
+			if (line == null)
+				throw new IOException("Unexpected end of file: expected " + numberOfAtoms + " atoms per frame");
+			int nFields = Math.min(COORDS_PER_LINE, nCoords - k);
+			for (int i=0; i<nFields; i++){
+				int idx = selectionIndex[(k+i)/3];
+				if (idx >= 0)
+					coordinates[3*idx + (k+i)%3] = parseField(line, i*COORD_LENGTH);
+			}
+			k += nFields;
+			if (k < nCoords)
+				line = nextLine();
+		}
+
+		//box information: a line with 3 values after the first frame
+		if (!formatChecked){
+			String boxLine = nextLine();
+			if (boxLine != null && numberOfAtoms > 1 && !isRemdHeader(boxLine) && countFields(boxLine) == 3){
+				hasBox = true;
+				parseBox(boxLine, frame);
+			}
+			else pendingLine = boxLine;
+			formatChecked = true;
+		}
+		else if (hasBox){
+			String boxLine = nextLine();
+			if (boxLine == null)
+				throw new IOException("Unexpected end of file: box information missing");
+			parseBox(boxLine, frame);
+		}
+		frame.setHasBox(hasBox);
+		return true;
+	}
+
+	@Override
+	protected boolean skipFrame() throws IOException
+	{
+		int nLines = linesPerFrame + (hasRemdHeader ? 1 : 0) + (hasBox ? 1 : 0);
+		for (int l=0; l<nLines; l++){
+			String line = nextLine();
+			if (line == null || (l==0 && line.trim().length()==0))
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+
+	private String nextLine() throws IOException {
+		if (pendingLine != null){
+			String line = pendingLine;
+			pendingLine = null;
+			return line;
+		}
+		return reader.readLine();
+	}
+
+	private void parseBox(String line, TrajectoryFrame frame) throws IOException {
+		float[] box = frame.getBox();
+		for (int i=0; i<3; i++)
+			box[i] = parseField(line, i*COORD_LENGTH);
+	}
+
+	private static boolean isRemdHeader(String line){
+		return (line.startsWith("REMD") || line.startsWith("HREMD"));
+	}
+
+	private static double parseRemdTemperature(String line){
+		String[] fields = line.trim().split("\\s+");
+		try {
+			return Double.parseDouble(fields[fields.length-1]);
+		}
+		catch (NumberFormatException e){
+			return Double.NaN;
+		}
+	}
+
+	private static int countFields(String line){
+		int length = line.length();
+		while (length > 0 && line.charAt(length-1) <= ' ')
+			length--;
+		return (length + COORD_LENGTH - 1) / COORD_LENGTH;
+	}
+
+	/**
+	 * Parse fixed-width (F8.3) value without creating intermediate strings
+	 * @param line Line
+	 * @param start Start of the field
+	 * @return Value
+	 * @throws IOException
+	 */
+	private static float parseField(String line, int start) throws IOException
+	{
+		int end = start + COORD_LENGTH;
+		if (end > line.length())
+			throw new IOException("Line too short for coordinate field: '" + line + "'");
+
+		int i = start;
+		while (i < end && line.charAt(i) == ' ')
+			i++;
+		boolean negative = false;
+		if (i < end && (line.charAt(i) == '-' || line.charAt(i) == '+')){
+			negative = (line.charAt(i) == '-');
+			i++;
+		}
+		long mantissa = 0;
+		int decimals = 0;
+		boolean pointFound = false;
+		boolean digitFound = false;
+		for (; i<end; i++){
+			char c = line.charAt(i);
+			if (c >= '0' && c <= '9'){
+				mantissa = mantissa*10 + (c - '0');
+				digitFound = true;
+				if (pointFound)
+					decimals++;
+			}
+			else if (c == '.' && !pointFound)
+				pointFound = true;
+			else {
+				//unusual notation (e.g. exponent): use standard parser
+				try {
+					return Float.parseFloat(line.substring(start, end).trim());
+				}
+				catch (NumberFormatException e){
+					throw new IOException("Invalid coordinate field: '" + line.substring(start, end) + "'");
+				}
+			}
+		}
+		if (!digitFound)
+			throw new IOException("Invalid coordinate field: '" + line.substring(start, end) + "'");
+		double value = mantissa / POWERS_OF_TEN[decimals];
+		return (float)(negative ? -value : value);
+	}
+}
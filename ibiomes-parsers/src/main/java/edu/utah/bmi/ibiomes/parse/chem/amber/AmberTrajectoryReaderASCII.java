@@ -0,0 +1,769 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package edu.utah.bmi.ibiomes.parse.chem.amber;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.compress.compressors.CompressorException;
+
+import edu.utah.bmi.ibiomes.io.IBIOMESFileReader;
+import edu.utah.bmi.ibiomes.parse.chem.RandomAccessTrajectoryReader;
+import edu.utah.bmi.ibiomes.parse.chem.TrajectoryFrame;
+import edu.utah.bmi.ibiomes.parse.chem.TrajectoryFrameIndex;
+import edu.utah.bmi.ibiomes.parse.chem.TrajectoryFrameReader;
+
+/**
+ * Random-access reader for uncompressed AMBER ASCII trajectories (mdcrd). Frames written by 
+ * AMBER have a fixed width, so frame offsets are computed from the title line, the number of atoms 
+ * and the REMD/box flags, then validated on a sample of frames. Files with irregular lines are 
+ * indexed by a single line scan instead. The frame index is persisted as a sidecar file 
+ * ({@link TrajectoryFrameIndex}). Large files can be decoded by several threads, each thread 
+ * parsing a different set of frames.
+ * @author Julien Thibault, University of Utah
+ *
+ */
+public class AmberTrajectoryReaderASCII implements RandomAccessTrajectoryReader {
+
+	/**
+	 * Minimum file size (bytes) for which parallel decoding is worth it
+	 */
+	public final static long PARALLEL_DECODING_THRESHOLD = 1L << 26;
+	/**
+	 * Default number of bytes decoded by a single task
+	 */
+	public final static int DEFAULT_CHUNK_SIZE = 1 << 24;
+	
+	private final static int COORD_LENGTH = 8;
+	private final static int COORDS_PER_LINE = 10;
+	private final static int MAX_TITLE_LENGTH = 4096;
+	private final static int VALIDATION_SAMPLES = 16;
+	private final static int SCAN_BUFFER_SIZE = 1 << 20;
+	private final static double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8};
+
+	private File file;
+	private int numberOfAtoms;
+	private String title;
+	private boolean hasRemdHeader = false;
+	private boolean hasBox = false;
+	private boolean fixedLayout = false;
+	private long titleLength;
+	private int[] lineLengths;
+	private long frameSize;
+	private TrajectoryFrameIndex index;
+	private int numberOfThreads = 1;
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+	
+	private RandomAccessFile randomAccessFile;
+	private FileChannel channel;
+	private ByteBuffer frameBuffer = null;
+	private ExecutorService executor = null;
+	
+	/**
+	 * Open AMBER ASCII trajectory. The frame index is loaded from the sidecar file, or built
+	 * from the frame layout.
+	 * @param file Trajectory file (uncompressed)
+	 * @param numberOfAtoms Number of atoms in the system (from the topology)
+	 * @throws IOException
+	 */
+	public AmberTrajectoryReaderASCII(File file, int numberOfAtoms) throws IOException {
+		this(file, numberOfAtoms, true);
+	}
+	
+	/**
+	 * Open AMBER ASCII trajectory
+	 * @param file Trajectory file (uncompressed)
+	 * @param numberOfAtoms Number of atoms in the system (from the topology)
+	 * @param useSidecar Load/save the frame index from/to a sidecar file
+	 * @throws IOException
+	 */
+	public AmberTrajectoryReaderASCII(File file, int numberOfAtoms, boolean useSidecar) throws IOException
+	{
+		if (numberOfAtoms < 1)
+			throw new IllegalArgumentException("Invalid number of atoms: " + numberOfAtoms);
+		if (isCompressed(file))
+			throw new IOException("Cannot index compressed trajectory " + file.getAbsolutePath());
+		this.file = file;
+		this.numberOfAtoms = numberOfAtoms;
+		this.randomAccessFile = new RandomAccessFile(file, "r");
+		this.channel = randomAccessFile.getChannel();
+		try {
+			readLayout();
+			if (useSidecar){
+				index = TrajectoryFrameIndex.load(file);
+				if (index != null && index.getNumberOfAtoms() != numberOfAtoms)
+					index = null;
+			}
+			if (index == null){
+				index = buildIndex();
+				if (useSidecar){
+					try {
+						index.store(file);
+					}
+					catch (IOException e){
+						//read-only location: the index is only kept in memory
+					}
+				}
+			}
+		}
+		catch (IOException e){
+			close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Get number of atoms
+	 * @return Number of atoms
+	 */
+	public int getNumberOfAtoms() {
+		return numberOfAtoms;
+	}
+	
+	/**
+	 * Get number of complete frames in the file
+	 * @return Number of frames
+	 */
+	public int getNumberOfFrames() {
+		return index.getNumberOfFrames();
+	}
+	
+	/**
+	 * Get trajectory title
+	 * @return Title
+	 */
+	public String getTitle() {
+		return title;
+	}
+	
+	/**
+	 * Check if frames are preceded by a (H)REMD header
+	 * @return True if frames have a REMD header
+	 */
+	public boolean hasRemdHeader() {
+		return hasRemdHeader;
+	}
+	
+	/**
+	 * Check if frames are followed by box information
+	 * @return True if frames have box information
+	 */
+	public boolean hasBox() {
+		return hasBox;
+	}
+	
+	/**
+	 * Check if all frames have the same size (frame offsets computed from the layout of the first frame)
+	 * @return True if the frame layout is fixed, false if the frames were indexed by a line scan.
+	 * Not known if the index was loaded from a sidecar file.
+	 */
+	public boolean isFixedLayout() {
+		return fixedLayout;
+	}
+	
+	/**
+	 * Get frame index
+	 * @return Frame index
+	 */
+	public TrajectoryFrameIndex getIndex() {
+		return index;
+	}
+	
+	/**
+	 * Get offset of a frame
+	 * @param frame Frame index (0-based)
+	 * @return Offset in the file (bytes)
+	 */
+	public long getFrameOffset(int frame) {
+		return index.getOffset(frame);
+	}
+	
+	/**
+	 * Get number of threads used to decode frames
+	 * @return Number of threads
+	 */
+	public int getNumberOfThreads() {
+		return numberOfThreads;
+	}
+
+	/**
+	 * Set number of threads used to decode frames when streaming
+	 * @param numberOfThreads Number of threads (1 for sequential decoding)
+	 */
+	public void setNumberOfThreads(int numberOfThreads) {
+		if (numberOfThreads < 1)
+			this.numberOfThreads = 1;
+		else this.numberOfThreads = numberOfThreads;
+	}
+	
+	/**
+	 * Get number of bytes decoded by a single task
+	 * @return Chunk size (bytes)
+	 */
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * Set number of bytes decoded by a single task. Chunks contain at least one frame.
+	 * @param chunkSize Chunk size (bytes)
+	 */
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+	
+	/**
+	 * Read a frame
+	 * @param frame Frame index (0-based)
+	 * @param buffer Frame buffer
+	 * @param selectionIndex Position of each atom in the frame buffer (-1 if the atom is not selected), or null for all atoms
+	 * @throws IOException
+	 */
+	public void readFrame(int frame, TrajectoryFrame buffer, int[] selectionIndex) throws IOException
+	{
+		frameBuffer = readFrameBytes(frame, frameBuffer);
+		decodeFrame(frameBuffer, buffer, selectionIndex);
+	}
+	
+	/**
+	 * Open the trajectory for frame streaming. If more than one thread is used, frames are 
+	 * decoded in batches: each thread parses a different chunk of the batch.
+	 * @param atomSelection Indexes (0-based) of the atoms to read, or null to read all atoms
+	 * @param frameStride Read every n-th frame (1 to read all frames)
+	 * @return Frame reader (closing the frame reader closes this reader)
+	 */
+	public TrajectoryFrameReader getFrameReader(int[] atomSelection, int frameStride)
+	{
+		final AmberTrajectoryReaderASCII reader = this;
+		return new TrajectoryFrameReader(numberOfAtoms, atomSelection, frameStride) {
+			private int nextFrame = 0;
+			private TrajectoryFrame[] batch = null;
+			private int batchFirst = 0;
+			private int batchCount = 0;
+			@Override
+			protected boolean readFrame(TrajectoryFrame frame) throws IOException {
+				if (nextFrame >= reader.getNumberOfFrames())
+					return false;
+				if (reader.getNumberOfThreads() <= 1){
+					reader.readFrame(nextFrame++, frame, selectionIndex);
+					return true;
+				}
+				int b = (nextFrame - batchFirst) / this.frameStride;
+				if (batch == null || nextFrame < batchFirst || (nextFrame - batchFirst) % this.frameStride != 0 || b >= batchCount){
+					loadBatch();
+					b = 0;
+				}
+				TrajectoryFrame decoded = batch[b];
+				System.arraycopy(decoded.getCoordinates(), 0, frame.getCoordinates(), 0, decoded.getCoordinates().length);
+				System.arraycopy(decoded.getBox(), 0, frame.getBox(), 0, decoded.getBox().length);
+				frame.setHasBox(decoded.hasBox());
+				frame.setTemperature(decoded.getTemperature());
+				nextFrame++;
+				return true;
+			}
+			@Override
+			protected boolean skipFrame() throws IOException {
+				if (nextFrame >= reader.getNumberOfFrames())
+					return false;
+				nextFrame++;
+				return true;
+			}
+			@Override
+			public void close() throws IOException {
+				reader.close();
+			}
+			private void loadBatch() throws IOException {
+				int batchSize = reader.getNumberOfThreads() * reader.getFramesPerTask();
+				if (batch == null){
+					int nSelected = (atomSelection == null ? numberOfAtoms : atomSelection.length);
+					batch = new TrajectoryFrame[batchSize];
+					for (int i=0; i<batchSize; i++)
+						batch[i] = new TrajectoryFrame(nSelected);
+				}
+				int remaining = (reader.getNumberOfFrames() - nextFrame + this.frameStride - 1) / this.frameStride;
+				batchFirst = nextFrame;
+				batchCount = Math.min(batchSize, remaining);
+				int[] frames = new int[batchCount];
+				for (int i=0; i<batchCount; i++)
+					frames[i] = batchFirst + i*this.frameStride;
+				reader.decodeFrames(frames, batch, selectionIndex);
+			}
+		};
+	}
+	
+	/**
+	 * Decode a set of frames in parallel. The frames are split into consecutive chunks, one task per chunk.
+	 * @param frames Indexes of the frames to decode
+	 * @param buffers Frame buffers (one per frame)
+	 * @param selectionIndex Position of each atom in the frame buffers (-1 if the atom is not selected), or null for all atoms
+	 * @throws IOException
+	 */
+	private void decodeFrames(final int[] frames, final TrajectoryFrame[] buffers, final int[] selectionIndex) throws IOException
+	{
+		if (executor == null)
+			executor = Executors.newFixedThreadPool(numberOfThreads);
+		int framesPerTask = getFramesPerTask();
+		List<Future<Object>> results = new ArrayList<Future<Object>>();
+		for (int start=0; start<frames.length; start+=framesPerTask)
+		{
+			final int first = start;
+			final int last = Math.min(frames.length, start + framesPerTask);
+			results.add(executor.submit(new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					ByteBuffer bytes = null;
+					for (int i=first; i<last; i++){
+						bytes = readFrameBytes(frames[i], bytes);
+						decodeFrame(bytes, buffers[i], selectionIndex);
+						buffers[i].setIndex(frames[i]);
+					}
+					return null;
+				}
+			}));
+		}
+		try {
+			for (Future<Object> result : results)
+				result.get();
+		}
+		catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IOException("Frame decoding interrupted");
+		}
+		catch (ExecutionException e){
+			if (e.getCause() instanceof IOException)
+				throw (IOException)e.getCause();
+			throw new IOException("Cannot decode frames of " + file.getAbsolutePath() + ": " + e.getCause().getMessage(), e.getCause());
+		}
+	}
+	
+	/**
+	 * Get number of frames decoded by a single task
+	 * @return Number of frames
+	 */
+	private int getFramesPerTask(){
+		return (int)Math.max(1, chunkSize / Math.max(1, frameSize));
+	}
+	
+	/**
+	 * Read the title and the first frame to determine the frame layout (line lengths, REMD header, box)
+	 * @throws IOException
+	 */
+	private void readLayout() throws IOException
+	{
+		int linesPerFrame = (3*numberOfAtoms + COORDS_PER_LINE - 1) / COORDS_PER_LINE;
+		long fileSize = channel.size();
+		//title, REMD header, coordinates and box line
+		int length = (int)Math.min(fileSize, 3L*MAX_TITLE_LENGTH + 3L*COORD_LENGTH*numberOfAtoms + 2L*linesPerFrame);
+		ByteBuffer head = readBytes(0, length);
+		byte[] bytes = head.array();
+		
+		//title
+		int titleEnd = indexOfLineEnd(bytes, 0, length);
+		if (titleEnd == length)
+			throw new IOException("No frame found in " + file.getAbsolutePath());
+		title = new String(bytes, 0, trimLineEnd(bytes, 0, titleEnd), "US-ASCII");
+		titleLength = titleEnd + 1;
+		
+		//first frame
+		List<Integer> lengths = new ArrayList<Integer>();
+		int p = titleEnd + 1;
+		int lineEnd = indexOfLineEnd(bytes, p, length);
+		hasRemdHeader = (lineEnd < length && isRemdHeader(bytes, p, lineEnd));
+		int nLines = linesPerFrame + (hasRemdHeader ? 1 : 0);
+		for (int l=0; l<nLines; l++){
+			lineEnd = indexOfLineEnd(bytes, p, length);
+			if (lineEnd == length)
+				throw new IOException("No complete frame found in " + file.getAbsolutePath() + " (" + numberOfAtoms + " atoms)");
+			lengths.add(lineEnd + 1 - p);
+			p = lineEnd + 1;
+		}
+		//box information: a line with 3 values after the coordinates
+		lineEnd = indexOfLineEnd(bytes, p, length);
+		if (lineEnd < length && numberOfAtoms > 1 && !isRemdHeader(bytes, p, lineEnd) && countFields(bytes, p, lineEnd) == 3){
+			hasBox = true;
+			lengths.add(lineEnd + 1 - p);
+		}
+		lineLengths = new int[lengths.size()];
+		frameSize = 0;
+		for (int l=0; l<lineLengths.length; l++){
+			lineLengths[l] = lengths.get(l);
+			frameSize += lineLengths[l];
+		}
+	}
+	
+	/**
+	 * Build frame index: offsets computed from the layout of the first frame if all sampled
+	 * frames match it, line scan otherwise.
+	 * @return Frame index
+	 * @throws IOException
+	 */
+	private TrajectoryFrameIndex buildIndex() throws IOException
+	{
+		fixedLayout = checkFixedLayout();
+		if (!fixedLayout)
+			return scanFrames();
+		
+		int nFrames = (int)((channel.size() - titleLength) / frameSize);
+		TrajectoryFrameIndex frameIndex = new TrajectoryFrameIndex(numberOfAtoms);
+		for (int f=0; f<nFrames; f++)
+			frameIndex.addFrame(titleLength + f*frameSize, 0, Float.NaN);
+		frameIndex.setEndOffset(titleLength + nFrames*frameSize);
+		return frameIndex;
+	}
+	
+	/**
+	 * Check that frames have the same layout as the first frame: line ends of a sample of frames
+	 * (including the last one) must be at the expected positions, and the data after the last 
+	 * frame must be blank.
+	 * @return True if frame offsets can be computed from the frame size
+	 * @throws IOException
+	 */
+	private boolean checkFixedLayout() throws IOException
+	{
+		long dataSize = channel.size() - titleLength;
+		long nFrames = dataSize / frameSize;
+		long remainder = dataSize - nFrames*frameSize;
+		if (remainder > MAX_TITLE_LENGTH)
+			return false;
+		ByteBuffer tail = readBytes(titleLength + nFrames*frameSize, (int)remainder);
+		while (tail.hasRemaining()){
+			if (tail.get() > ' ')
+				return false;
+		}
+		
+		long nSamples = Math.min(nFrames, VALIDATION_SAMPLES);
+		ByteBuffer bytes = null;
+		for (long s=0; s<nSamples; s++)
+		{
+			long f = (nSamples == 1 ? 0 : s * (nFrames-1) / (nSamples-1));
+			bytes = readBytes(titleLength + f*frameSize, (int)frameSize, bytes);
+			byte[] data = bytes.array();
+			int p = 0;
+			for (int l=0; l<lineLengths.length; l++){
+				int lineEnd = p + lineLengths[l] - 1;
+				if (indexOfLineEnd(data, p, lineEnd + 1) != lineEnd)
+					return false;
+				p = lineEnd + 1;
+			}
+			if (hasRemdHeader && !isRemdHeader(data, 0, lineLengths[0]))
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Index frames by counting lines (frames with irregular line lengths). 
+	 * Reading stops at the first blank line; an incomplete frame at the end is ignored.
+	 * @return Frame index
+	 * @throws IOException
+	 */
+	private TrajectoryFrameIndex scanFrames() throws IOException
+	{
+		TrajectoryFrameIndex frameIndex = new TrajectoryFrameIndex(numberOfAtoms);
+		int linesPerFrame = lineLengths.length;
+		long fileSize = channel.size();
+		long position = titleLength;
+		long frameStart = titleLength;
+		int lineCount = 0;
+		boolean lineHasContent = false;
+		boolean blankLine = false;
+		ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+		while (position < fileSize && !blankLine)
+		{
+			buffer.clear();
+			int n = channel.read(buffer, position);
+			if (n <= 0)
+				break;
+			byte[] data = buffer.array();
+			for (int i=0; i<n; i++){
+				byte b = data[i];
+				if (b == '\n'){
+					if (lineCount == 0 && !lineHasContent){
+						blankLine = true;
+						break;
+					}
+					lineHasContent = false;
+					if (++lineCount == linesPerFrame){
+						frameIndex.addFrame(frameStart, 0, Float.NaN);
+						frameStart = position + i + 1;
+						lineCount = 0;
+					}
+				}
+				else if (b > ' ')
+					lineHasContent = true;
+			}
+			position += n;
+		}
+		//last line without line break
+		if (!blankLine && lineCount == linesPerFrame - 1 && lineHasContent){
+			frameIndex.addFrame(frameStart, 0, Float.NaN);
+			frameStart = fileSize;
+		}
+		if (frameIndex.getNumberOfFrames() == 0)
+			throw new IOException("No complete frame found in " + file.getAbsolutePath() + " (" + numberOfAtoms + " atoms)");
+		frameIndex.setEndOffset(frameStart);
+		return frameIndex;
+	}
+	
+	/**
+	 * Parse frame
+	 * @param bytes Frame content
+	 * @param frame Frame buffer
+	 * @param selectionIndex Position of each atom in the frame buffer (-1 if the atom is not selected), or null for all atoms
+	 * @throws IOException
+	 */
+	private void decodeFrame(ByteBuffer bytes, TrajectoryFrame frame, int[] selectionIndex) throws IOException
+	{
+		byte[] data = bytes.array();
+		int end = bytes.limit();
+		int p = 0;
+		
+		//REMD header
+		if (hasRemdHeader){
+			int lineEnd = indexOfLineEnd(data, p, end);
+			frame.setTemperature(parseRemdTemperature(new String(data, p, trimLineEnd(data, p, lineEnd), "US-ASCII")));
+			p = lineEnd + 1;
+		}
+		
+		//coordinates
+		float[] coordinates = frame.getCoordinates();
+		int nCoords = 3*numberOfAtoms;
+		int k = 0;
+		while (k < nCoords){
+			if (p >= end)
+				throw new IOException("Unexpected end of frame: expected " + numberOfAtoms + " atoms per frame");
+			int lineEnd = indexOfLineEnd(data, p, end);
+			int lineLength = trimLineEnd(data, p, lineEnd);
+			int nFields = Math.min(COORDS_PER_LINE, nCoords - k);
+			for (int i=0; i<nFields; i++){
+				int atom = (k+i)/3;
+				int idx = (selectionIndex == null ? atom : selectionIndex[atom]);
+				if (idx >= 0)
+					coordinates[3*idx + (k+i)%3] = parseField(data, p + i*COORD_LENGTH, p + lineLength);
+			}
+			k += nFields;
+			p = lineEnd + 1;
+		}
+		
+		//box
+		if (hasBox){
+			int lineEnd = indexOfLineEnd(data, p, end);
+			int lineLength = trimLineEnd(data, p, lineEnd);
+			float[] box = frame.getBox();
+			for (int i=0; i<3; i++)
+				box[i] = parseField(data, p + i*COORD_LENGTH, p + lineLength);
+		}
+		frame.setHasBox(hasBox);
+	}
+	
+	/**
+	 * Read the content of a frame
+	 * @param frame Frame index (0-based)
+	 * @param buffer Buffer to reuse (can be null)
+	 * @return Array-backed buffer holding the frame (position 0)
+	 * @throws IOException
+	 */
+	private ByteBuffer readFrameBytes(int frame, ByteBuffer buffer) throws IOException {
+		return readBytes(index.getOffset(frame), (int)index.getFrameSize(frame), buffer);
+	}
+	
+	private ByteBuffer readBytes(long offset, int length) throws IOException {
+		return readBytes(offset, length, null);
+	}
+	
+	/**
+	 * Read bytes from the file (positional read, safe for concurrent use)
+	 * @param offset Offset in the file
+	 * @param length Number of bytes to read
+	 * @param buffer Buffer to reuse (can be null)
+	 * @return Array-backed buffer (position 0)
+	 * @throws IOException
+	 */
+	private ByteBuffer readBytes(long offset, int length, ByteBuffer buffer) throws IOException
+	{
+		if (buffer == null || buffer.capacity() < length)
+			buffer = ByteBuffer.allocate(length);
+		buffer.clear();
+		buffer.limit(length);
+		while (buffer.hasRemaining()){
+			int n = channel.read(buffer, offset + buffer.position());
+			if (n < 0)
+				throw new IOException("Unexpected end of file " + file.getAbsolutePath() + " (offset " + offset + ")");
+		}
+		buffer.flip();
+		return buffer;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		if (executor != null){
+			executor.shutdownNow();
+			executor = null;
+		}
+		frameBuffer = null;
+		if (channel != null)
+			channel.close();
+		if (randomAccessFile != null)
+			randomAccessFile.close();
+	}
+	
+	/**
+	 * Check if a file is compressed (gzip, bzip2, zip)
+	 * @param file File
+	 * @return True if the file is compressed
+	 * @throws IOException
+	 */
+	static boolean isCompressed(File file) throws IOException
+	{
+		IBIOMESFileReader reader = null;
+		try {
+			reader = new IBIOMESFileReader(file);
+			return reader.isCompressed();
+		}
+		catch (CompressorException e){
+			return true;
+		}
+		finally {
+			if (reader != null)
+				reader.close();
+		}
+	}
+	
+	/**
+	 * Find end of line
+	 * @param data Data
+	 * @param start Start of the line
+	 * @param end End of the data
+	 * @return Position of the line break, or end if there is none
+	 */
+	private static int indexOfLineEnd(byte[] data, int start, int end){
+		int i = start;
+		while (i < end && data[i] != '\n')
+			i++;
+		return i;
+	}
+	
+	/**
+	 * Get length of a line without the trailing carriage return
+	 * @param data Data
+	 * @param start Start of the line
+	 * @param lineEnd Position of the line break
+	 * @return Line length
+	 */
+	private static int trimLineEnd(byte[] data, int start, int lineEnd){
+		if (lineEnd > start && data[lineEnd-1] == '\r')
+			return lineEnd - 1 - start;
+		return lineEnd - start;
+	}
+	
+	private static boolean isRemdHeader(byte[] data, int start, int end){
+		return (startsWith(data, start, end, "REMD") || startsWith(data, start, end, "HREMD"));
+	}
+	
+	private static boolean startsWith(byte[] data, int start, int end, String prefix){
+		if (end - start < prefix.length())
+			return false;
+		for (int i=0; i<prefix.length(); i++){
+			if (data[start+i] != prefix.charAt(i))
+				return false;
+		}
+		return true;
+	}
+	
+	private static double parseRemdTemperature(String line){
+		String[] fields = line.trim().split("\\s+");
+		try {
+			return Double.parseDouble(fields[fields.length-1]);
+		}
+		catch (NumberFormatException e){
+			return Double.NaN;
+		}
+	}
+	
+	private static int countFields(byte[] data, int start, int end){
+		int length = end - start;
+		while (length > 0 && data[start + length - 1] <= ' ')
+			length--;
+		return (length + COORD_LENGTH - 1) / COORD_LENGTH;
+	}
+	
+	/**
+	 * Parse fixed-width (F8.3) value
+	 * @param data Data
+	 * @param start Start of the field
+	 * @param lineEnd End of the line
+	 * @return Value
+	 * @throws IOException
+	 */
+	private static float parseField(byte[] data, int start, int lineEnd) throws IOException
+	{
+		int end = start + COORD_LENGTH;
+		if (end > lineEnd)
+			throw new IOException("Line too short for coordinate field: '" + new String(data, start, Math.max(0, lineEnd - start), "US-ASCII") + "'");
+		
+		int i = start;
+		while (i < end && data[i] == ' ')
+			i++;
+		boolean negative = false;
+		if (i < end && (data[i] == '-' || data[i] == '+')){
+			negative = (data[i] == '-');
+			i++;
+		}
+		long mantissa = 0;
+		int decimals = 0;
+		boolean pointFound = false;
+		boolean digitFound = false;
+		for (; i<end; i++){
+			byte c = data[i];
+			if (c >= '0' && c <= '9'){
+				mantissa = mantissa*10 + (c - '0');
+				digitFound = true;
+				if (pointFound)
+					decimals++;
+			}
+			else if (c == '.' && !pointFound)
+				pointFound = true;
+			else {
+				//unusual notation (e.g. exponent): use standard parser
+				String field = new String(data, start, COORD_LENGTH, "US-ASCII");
+				try {
+					return Float.parseFloat(field.trim());
+				}
+				catch (NumberFormatException e){
+					throw new IOException("Invalid coordinate field: '" + field + "'");
+				}
+			}
+		}
+		if (!digitFound)
+			throw new IOException("Invalid coordinate field: '" + new String(data, start, COORD_LENGTH, "US-ASCII") + "'");
+		double value = mantissa / POWERS_OF_TEN[decimals];
+		return (float)(negative ? -value : value);
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.parse.chem.amber;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import edu.utah.bmi.ibiomes.parse.chem.MappedTrajectoryReader;
+import edu.utah.bmi.ibiomes.parse.chem.TrajectoryFrame;
+
+/**
+ * Memory-mapped reader for AMBER BINPOS trajectories (Scripps binary format):
+ * 'fxyz' magic number, then for each frame the number of atoms followed by the 
+ * interleaved coordinates (x1,y1,z1,x2,...) in single precision. The byte order is 
+ * detected from the atom count of the first frame.
+ * @author Julien Thibault, University of Utah
+ *
+ */
+public class AmberTrajectoryReaderBinpos extends MappedTrajectoryReader {
+
+	private final static byte[] BINPOS_MAGIC = {'f','x','y','z'};
+	private final static int HEADER_LENGTH = 4;
+	
+	/**
+	 * Open BINPOS trajectory and read its header
+	 * @param file BINPOS file
+	 * @throws IOException
+	 */
+	public AmberTrajectoryReaderBinpos(File file) throws IOException
+	{
+		super(file);
+		try {
+			readHeader();
+		}
+		catch (IOException e){
+			close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Check BINPOS magic number
+	 * @param header First bytes of the file
+	 * @return True if the file starts with the BINPOS magic number
+	 */
+	public static boolean hasMagicNumber(byte[] header)
+	{
+		if (header == null || header.length < BINPOS_MAGIC.length)
+			return false;
+		for (int i=0; i<BINPOS_MAGIC.length; i++){
+			if (header[i] != BINPOS_MAGIC[i])
+				return false;
+		}
+		return true;
+	}
+	
+	private void readHeader() throws IOException
+	{
+		ByteBuffer header = readBytes(0, HEADER_LENGTH + 4);
+		byte[] magic = new byte[HEADER_LENGTH];
+		header.get(magic);
+		if (!hasMagicNumber(magic))
+			throw new IOException("Not a BINPOS file: " + file.getAbsolutePath());
+		
+		//atom count written in native order of the machine that produced the file
+		long dataSize = getFileSize() - HEADER_LENGTH;
+		ByteOrder[] orders = {ByteOrder.nativeOrder(), 
+				(ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN)};
+		int nAtoms = 0;
+		for (ByteOrder order : orders){
+			header.order(order);
+			int n = header.getInt(HEADER_LENGTH);
+			if (n > 0 && 4 + 12L*n <= dataSize){
+				nAtoms = n;
+				byteOrder = order;
+				break;
+			}
+		}
+		if (nAtoms == 0)
+			throw new IOException("Invalid number of atoms in BINPOS file: " + file.getAbsolutePath());
+		numberOfAtoms = nAtoms;
+		setFrameLayout(HEADER_LENGTH, 4 + 12L*nAtoms);
+	}
+	
+	/**
+	 * Get coordinates of a frame (view on the mapped file, no copy)
+	 * @param frame Frame index (0-based)
+	 * @return Interleaved coordinates (x1,y1,z1,x2,y2,z2,...)
+	 * @throws IOException
+	 */
+	public FloatBuffer getCoordinates(int frame) throws IOException
+	{
+		ByteBuffer buffer = getFrameBuffer(frame);
+		int n = buffer.getInt(0);
+		if (n != numberOfAtoms)
+			throw new IOException("Invalid atom count in frame " + frame + ": " + n + " (expected " + numberOfAtoms + ")");
+		buffer.position(4);
+		return buffer.slice().order(byteOrder).asFloatBuffer();
+	}
+	
+	@Override
+	public void readFrame(int frame, TrajectoryFrame buffer, int[] selectionIndex) throws IOException
+	{
+		FloatBuffer xyz = getCoordinates(frame);
+		float[] coordinates = buffer.getCoordinates();
+		for (int a=0; a<numberOfAtoms; a++){
+			int idx = selectionIndex[a];
+			if (idx >= 0){
+				coordinates[3*idx] = xyz.get(3*a);
+				coordinates[3*idx+1] = xyz.get(3*a+1);
+				coordinates[3*idx+2] = xyz.get(3*a+2);
+			}
+		}
+		buffer.setHasBox(false);
+	}
+}
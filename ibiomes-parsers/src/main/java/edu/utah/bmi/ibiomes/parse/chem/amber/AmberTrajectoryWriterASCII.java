@@ -0,0 +1,141 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.parse.chem.amber;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import edu.utah.bmi.ibiomes.parse.chem.TrajectoryFrame;
+import edu.utah.bmi.ibiomes.parse.chem.TrajectoryFrameWriter;
+
+/**
+ * Writer for AMBER ASCII trajectories (mdcrd): title line, then for each frame
+ * the 3N coordinates in 10F8.3 format and the box lengths (3F8.3) if available.
+ * Values that do not fit in a field are written as asterisks, as in AMBER.
+ * @author Julien Thibault, University of Utah
+ *
+ */
+public class AmberTrajectoryWriterASCII implements TrajectoryFrameWriter {
+
+	private final static int FIELD_WIDTH = 8;
+	private final static int FIELDS_PER_LINE = 10;
+	private final static int BUFFER_SIZE = 1 << 16;
+
+	private OutputStream out;
+	private int numberOfAtoms;
+	private byte[] line = new byte[FIELD_WIDTH*FIELDS_PER_LINE + 1];
+	private int numberOfFrames = 0;
+
+	/**
+	 * Create new AMBER ASCII trajectory
+	 * @param file Trajectory file (overwritten if it exists)
+	 * @param title Title
+	 * @param numberOfAtoms Number of atoms in each frame
+	 * @throws IOException
+	 */
+	public AmberTrajectoryWriterASCII(File file, String title, int numberOfAtoms) throws IOException
+	{
+		this.numberOfAtoms = numberOfAtoms;
+		this.out = new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE);
+		String titleLine = (title == null ? "" : title.replace('\n', ' ').trim());
+		if (titleLine.length() > FIELD_WIDTH*FIELDS_PER_LINE)
+			titleLine = titleLine.substring(0, FIELD_WIDTH*FIELDS_PER_LINE);
+		out.write((titleLine + "\n").getBytes("US-ASCII"));
+	}
+
+	/**
+	 * Get number of frames written so far
+	 * @return Number of frames
+	 */
+	public int getNumberOfFrames() {
+		return numberOfFrames;
+	}
+
+	@Override
+	public void writeFrame(TrajectoryFrame frame) throws IOException
+	{
+		if (frame.getNumberOfAtoms() != numberOfAtoms)
+			throw new IOException("Number of atoms in frame (" + frame.getNumberOfAtoms() + ") does not match the number of atoms in the trajectory (" + numberOfAtoms + ")");
+		writeValues(frame.getCoordinates(), 3*numberOfAtoms);
+		if (frame.hasBox())
+			writeValues(frame.getBox(), 3);
+		numberOfFrames++;
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+
+	/**
+	 * Write values, 10 per line
+	 * @param values Values
+	 * @param count Number of values to write
+	 * @throws IOException
+	 */
+	private void writeValues(float[] values, int count) throws IOException
+	{
+		int field = 0;
+		for (int i=0; i<count; i++){
+			formatField(values[i], line, field*FIELD_WIDTH);
+			if (++field == FIELDS_PER_LINE || i == count-1){
+				line[field*FIELD_WIDTH] = '\n';
+				out.write(line, 0, field*FIELD_WIDTH + 1);
+				field = 0;
+			}
+		}
+	}
+
+	/**
+	 * Format value as F8.3
+	 * @param value Value
+	 * @param buffer Line buffer
+	 * @param position Position of the field in the line
+	 */
+	private static void formatField(float value, byte[] buffer, int position)
+	{
+		long scaled = Math.round(value * 1000.0);
+		boolean negative = (scaled < 0);
+		if (negative)
+			scaled = -scaled;
+		int p = position + FIELD_WIDTH - 1;
+		for (int d=0; d<3; d++){
+			buffer[p--] = (byte)('0' + scaled % 10);
+			scaled /= 10;
+		}
+		buffer[p--] = '.';
+		do {
+			buffer[p--] = (byte)('0' + scaled % 10);
+			scaled /= 10;
+		} while (scaled > 0 && p >= position);
+		if (scaled > 0 || (negative && p < position)){
+			//overflow
+			for (int i=0; i<FIELD_WIDTH; i++)
+				buffer[position+i] = '*';
+			return;
+		}
+		if (negative)
+			buffer[p--] = '-';
+		while (p >= position)
+			buffer[p--] = ' ';
+	}
+}
@@ -21,31 +21,49 @@ package edu.utah.bmi.ibiomes.parse.chem.common;
 import java.io.IOException;
 
 import edu.utah.bmi.ibiomes.conf.IBIOMESConfiguration;
-import edu.utah.bmi.ibiomes.io.IBIOMESFileReader;
+import edu.utah.bmi.ibiomes.metadata.MetadataAVU;
 import edu.utah.bmi.ibiomes.metadata.MetadataAVUList;
+import edu.utah.bmi.ibiomes.metadata.MethodMetadata;
+import edu.utah.bmi.ibiomes.metadata.TopologyMetadata;
+import edu.utah.bmi.ibiomes.metadata.TrajectoryMetadata;
 import edu.utah.bmi.ibiomes.parse.LocalFile;
-import edu.utah.bmi.ibiomes.parse.chem.ChemicalFile;
+import edu.utah.bmi.ibiomes.parse.chem.AbstractTrajectoryFile;
+import edu.utah.bmi.ibiomes.parse.chem.RandomAccessTrajectoryReader;
+import edu.utah.bmi.ibiomes.parse.chem.TrajectoryFrameReader;
+import edu.utah.bmi.ibiomes.quantity.TimeLength;
 
 /**
  * DCD trajectory file (used in CHARMM and NAMD).
  * @author Julien Thibault
  *
  */
-public class DCDTrajectoryFile extends ChemicalFile 
+public class DCDTrajectoryFile extends AbstractTrajectoryFile 
 {
 	/**
 	 * 
 	 */
 	private static final long serialVersionUID = 1302934223068675594L;
+	
+	private int numberOfAtoms = 0;
+	private int startStep = 0;
+	private int stepInterval = 0;
+	private double timeStepLength = 0.0;
+	private boolean hasUnitCell = false;
 
 	/**
-	 * Default constructor for DCD trajectory files.
+	 * Default constructor for DCD trajectory files. Only the header is read.
 	 * @param localPath Path to the file
 	 * @throws Exception 
 	 */
 	public DCDTrajectoryFile(String localPath) throws Exception
 	{
 		super(localPath, FORMAT_DCD_TRAJECTORY);
+		try {
+			parseFile();
+		}
+		catch (Exception e){
+			//format already set to unknown
+		}
 	}
 	
 	/**
@@ -62,6 +80,60 @@ public class DCDTrajectoryFile extends ChemicalFile
 			parseFile();
 	}
 	
+	/**
+	 * Get number of atoms
+	 * @return Number of atoms
+	 */
+	public int getNumberOfAtoms() {
+		return numberOfAtoms;
+	}
+	
+	/**
+	 * Get time step length
+	 * @return Time step length (fs)
+	 */
+	public double getTimeStepLength() {
+		return timeStepLength;
+	}
+	
+	/**
+	 * Check if frames include unit cell information
+	 * @return True if frames have unit cell information
+	 */
+	public boolean hasUnitCell() {
+		return hasUnitCell;
+	}
+	
+	@Override
+	public boolean supportsRandomAccess() {
+		return true;
+	}
+	
+	/**
+	 * Open the trajectory for random frame access
+	 * @return Memory-mapped reader (must be closed after use)
+	 * @throws IOException
+	 */
+	public DCDTrajectoryReader getReader() throws IOException {
+		return new DCDTrajectoryReader(this);
+	}
+	
+	@Override
+	public RandomAccessTrajectoryReader getRandomAccessReader(int numberOfAtoms) throws Exception
+	{
+		DCDTrajectoryReader reader = getReader();
+		if (reader.getNumberOfAtoms() != numberOfAtoms){
+			reader.close();
+			throw new IOException("Number of atoms in DCD file (" + reader.getNumberOfAtoms() + ") does not match the expected number of atoms (" + numberOfAtoms + ")");
+		}
+		return reader;
+	}
+	
+	@Override
+	public TrajectoryFrameReader getFrameReader(int numberOfAtoms, int[] atomSelection, int frameStride) throws Exception {
+		return getRandomAccessReader(numberOfAtoms).getFrameReader(atomSelection, frameStride);
+	}
+	
 	/**
 	 * Get file metadata and DCD-specific metadata
 	 * @throws Exception 
@@ -69,21 +141,41 @@ public class DCDTrajectoryFile extends ChemicalFile
 	@Override
 	public MetadataAVUList getMetadata() throws Exception{
 		
-		//get analysis file metadata
+		//get trajectory file metadata
 		MetadataAVUList metadata = super.getMetadata();
 		
-		//get GROMACS-specific metadata
-		//metadata.add(new MetadataAVU(BiosimMetadata.TOTAL_MOLECULE_CHARGE, _charge));
+		//get DCD-specific metadata
+		if (numberOfAtoms>0)
+			metadata.add(new MetadataAVU(TopologyMetadata.COUNT_ATOMS, String.valueOf(numberOfAtoms)));
+		if (getNumberOfFrames()>0 && stepInterval>0){
+			metadata.add(new MetadataAVU(TrajectoryMetadata.TIME_STEP_START, String.valueOf(startStep)));
+			metadata.add(new MetadataAVU(TrajectoryMetadata.TIME_STEP_END, String.valueOf(startStep + (long)(getNumberOfFrames()-1)*stepInterval)));
+		}
+		if (timeStepLength>0.0)
+			metadata.add(new MetadataAVU(MethodMetadata.TIME_STEP_LENGTH, String.valueOf(timeStepLength), TimeLength.Femtosecond));
 		
 		return metadata;
 	}
 	
+	/**
+	 * Read DCD header (number of atoms and frames, time step)
+	 * @throws Exception
+	 */
 	private void parseFile() throws Exception{
-		IBIOMESFileReader br = null;
+		DCDTrajectoryReader reader = null;
 	    try{
-	    	br = new IBIOMESFileReader(this);
-			//TODO
-			br.close(); 
+	    	reader = new DCDTrajectoryReader(this);
+	    	this.numberOfAtoms = reader.getNumberOfAtoms();
+	    	this.setNumberOfFrames(reader.getNumberOfFrames());
+	    	this.startStep = reader.getStartStep();
+	    	this.stepInterval = reader.getStepInterval();
+	    	this.timeStepLength = reader.getTimeStepInFemtoseconds();
+	    	if (timeStepLength>0.0 && stepInterval>0)
+	    		this.setFrameTiming(startStep*timeStepLength/1000.0, stepInterval*timeStepLength/1000.0);
+	    	this.hasUnitCell = reader.hasUnitCell();
+	    	if (reader.getTitle().length()>0)
+	    		this.description = reader.getTitle();
+	    	reader.close(); 
 		}
 	    catch (Exception e){
 	    	this.format = LocalFile.FORMAT_UNKNOWN;
@@ -91,9 +183,9 @@ public class DCDTrajectoryFile extends ChemicalFile
 				System.out.println("WARNING: cannot parse '"+this.getAbsolutePath()+"' as a DCD trajectory file.");
 			if (IBIOMESConfiguration.getInstance().isOutputErrorStackToConsole())
 				e.printStackTrace();
-			if (br!=null)
+			if (reader!=null)
 				try {
-					br.close();
+					reader.close();
 				} catch (IOException e1) {
 				}
 			throw e;
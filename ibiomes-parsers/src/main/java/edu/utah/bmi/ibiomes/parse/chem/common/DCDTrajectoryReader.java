@@ -0,0 +1,419 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.parse.chem.common;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import edu.utah.bmi.ibiomes.parse.chem.MappedTrajectoryReader;
+import edu.utah.bmi.ibiomes.parse.chem.TrajectoryFrame;
+
+/**
+ * Memory-mapped reader for DCD trajectories (CHARMM, NAMD, X-PLOR). The byte order and 
+ * the size of the Fortran record markers (4 or 8 bytes) are detected from the first record.
+ * Frames are made of an optional unit cell record (CHARMM/NAMD), the X, Y and Z records 
+ * and an optional 4th dimension record. Coordinates can be accessed without copy 
+ * through FloatBuffer views on the mapped file.
+ * @author Julien Thibault, University of Utah
+ *
+ */
+public class DCDTrajectoryReader extends MappedTrajectoryReader {
+
+	/**
+	 * Conversion factor from AKMA time units to femtoseconds
+	 */
+	public final static double AKMA_TIME_UNIT_IN_FS = 48.88821;
+	
+	private final static byte[] DCD_MAGIC = {'C','O','R','D'};
+	private final static int HEADER_RECORD_LENGTH = 84;
+	private final static int TITLE_LINE_LENGTH = 80;
+	private final static int UNIT_CELL_RECORD_LENGTH = 48;
+	
+	private int markerSize = 4;
+	private int numberOfFramesInHeader;
+	private int startStep;
+	private int stepInterval;
+	private int fixedAtomCount;
+	private double timeStep;
+	private boolean hasUnitCell = false;
+	private boolean has4thDimension = false;
+	private int charmmVersion = 0;
+	private String title;
+	private int xOffset;
+	private int yOffset;
+	private int zOffset;
+	
+	/**
+	 * Open DCD trajectory and read its header
+	 * @param file DCD file
+	 * @throws IOException
+	 */
+	public DCDTrajectoryReader(File file) throws IOException
+	{
+		super(file);
+		try {
+			readHeader();
+		}
+		catch (IOException e){
+			close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Read header records, detect byte order and marker size, compute frame layout
+	 * @throws IOException
+	 */
+	private void readHeader() throws IOException
+	{
+		detectRecordFormat();
+		
+		//first record: 'CORD' + 20 control integers
+		ByteBuffer header = readBytes(markerSize + 4, HEADER_RECORD_LENGTH - 4);
+		int[] icntrl = new int[20];
+		for (int i=0; i<20; i++)
+			icntrl[i] = header.getInt(4*i);
+		numberOfFramesInHeader = icntrl[0];
+		startStep = icntrl[1];
+		stepInterval = icntrl[2];
+		fixedAtomCount = icntrl[8];
+		charmmVersion = icntrl[19];
+		if (charmmVersion != 0){
+			//CHARMM format (also used by NAMD): single-precision time step
+			timeStep = header.getFloat(4*9);
+			hasUnitCell = (icntrl[10] != 0);
+			has4thDimension = (icntrl[11] != 0);
+		}
+		else {
+			//X-PLOR format: double-precision time step
+			timeStep = header.getDouble(4*9);
+		}
+		long offset = 2*markerSize + HEADER_RECORD_LENGTH;
+		
+		//title record
+		int titleRecordLength = (int)readMarker(offset);
+		ByteBuffer titleRecord = readBytes(offset + markerSize, titleRecordLength);
+		int nTitleLines = titleRecord.getInt(0);
+		StringBuilder titleBuilder = new StringBuilder();
+		for (int l=0; l<nTitleLines && 4+(l+1)*TITLE_LINE_LENGTH <= titleRecordLength; l++){
+			byte[] lineBytes = new byte[TITLE_LINE_LENGTH];
+			titleRecord.position(4 + l*TITLE_LINE_LENGTH);
+			titleRecord.get(lineBytes);
+			if (l>0)
+				titleBuilder.append('\n');
+			titleBuilder.append(new String(lineBytes, "ISO-8859-1").trim());
+		}
+		title = titleBuilder.toString();
+		offset = skipRecord(offset, titleRecordLength);
+		
+		//number of atoms
+		int atomRecordLength = (int)readMarker(offset);
+		if (atomRecordLength != 4)
+			throw new IOException("Invalid DCD atom count record (length " + atomRecordLength + ")");
+		numberOfAtoms = readBytes(offset + markerSize, 4).getInt(0);
+		if (numberOfAtoms < 1)
+			throw new IOException("Invalid number of atoms in DCD header: " + numberOfAtoms);
+		offset = skipRecord(offset, atomRecordLength);
+		
+		//indexes of free atoms (if some atoms are fixed)
+		if (fixedAtomCount > 0){
+			int freeAtomRecordLength = (int)readMarker(offset);
+			offset = skipRecord(offset, freeAtomRecordLength);
+		}
+		
+		//frame layout
+		int coordinateBlockLength = 4*numberOfAtoms + 2*markerSize;
+		int cellBlockLength = (hasUnitCell ? UNIT_CELL_RECORD_LENGTH + 2*markerSize : 0);
+		xOffset = cellBlockLength + markerSize;
+		yOffset = xOffset + coordinateBlockLength;
+		zOffset = yOffset + coordinateBlockLength;
+		long size = cellBlockLength + 3*coordinateBlockLength + (has4thDimension ? coordinateBlockLength : 0);
+		if (fixedAtomCount > 0){
+			//first frame contains all atoms, next frames only the free atoms
+			long freeBlockLength = 4*(numberOfAtoms - fixedAtomCount) + 2*markerSize;
+			long freeSize = cellBlockLength + 3*freeBlockLength + (has4thDimension ? freeBlockLength : 0);
+			long firstFrameEnd = offset + size;
+			setFrameLayout(firstFrameEnd, freeSize);
+			if (getFileSize() >= firstFrameEnd)
+				numberOfFrames = Math.min(Integer.MAX_VALUE - 1, numberOfFrames) + 1;
+		}
+		else {
+			setFrameLayout(offset, size);
+			//check record markers of the first frame
+			if (numberOfFrames > 0){
+				long xMarker = readMarker(offset + xOffset - markerSize);
+				if (xMarker != 4*numberOfAtoms)
+					throw new IOException("Invalid DCD coordinate record (length " + xMarker + ", expected " + 4*numberOfAtoms + ")");
+			}
+		}
+	}
+	
+	/**
+	 * Detect byte order and record marker size (4 or 8 bytes) from the first record
+	 * @throws IOException
+	 */
+	private void detectRecordFormat() throws IOException
+	{
+		ByteBuffer start = readBytes(0, 12);
+		markerSize = getMarkerSize(start);
+		if (markerSize == 0)
+			throw new IOException("Not a DCD file: " + file.getAbsolutePath());
+		byteOrder = start.order();
+	}
+	
+	/**
+	 * Check if the given bytes are the start of a DCD file ('CORD' record with 4- or 8-byte 
+	 * record markers, in either byte order)
+	 * @param bytes First bytes of the file
+	 * @return True if the bytes start a DCD header record
+	 */
+	public static boolean isDCDHeader(byte[] bytes)
+	{
+		if (bytes.length < 12)
+			return false;
+		return (getMarkerSize(ByteBuffer.wrap(bytes)) > 0);
+	}
+	
+	/**
+	 * Get size of the record markers from the first bytes of the file. The byte order 
+	 * of the buffer is set to the byte order of the file when the header is recognized.
+	 * @param start First 12 bytes of the file
+	 * @return Marker size (4 or 8), or 0 if the header is not a DCD header
+	 */
+	private static int getMarkerSize(ByteBuffer start)
+	{
+		ByteOrder[] orders = {ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN};
+		for (ByteOrder order : orders){
+			start.order(order);
+			if (start.getInt(0) == HEADER_RECORD_LENGTH && hasMagic(start, 4))
+				return 4;
+			if (start.getLong(0) == HEADER_RECORD_LENGTH && hasMagic(start, 8))
+				return 8;
+		}
+		return 0;
+	}
+	
+	private static boolean hasMagic(ByteBuffer buffer, int position){
+		for (int i=0; i<DCD_MAGIC.length; i++){
+			if (buffer.get(position + i) != DCD_MAGIC[i])
+				return false;
+		}
+		return true;
+	}
+	
+	private long readMarker(long offset) throws IOException {
+		ByteBuffer buffer = readBytes(offset, markerSize);
+		return (markerSize == 4 ? buffer.getInt(0) : buffer.getLong(0));
+	}
+	
+	/**
+	 * Skip Fortran record (checks that the end marker matches the start marker)
+	 * @param offset Offset of the record
+	 * @param recordLength Record length
+	 * @return Offset of the next record
+	 * @throws IOException
+	 */
+	private long skipRecord(long offset, long recordLength) throws IOException {
+		long endMarker = readMarker(offset + markerSize + recordLength);
+		if (endMarker != recordLength)
+			throw new IOException("Invalid DCD record at offset " + offset + " (markers " + recordLength + " and " + endMarker + ")");
+		return offset + 2*markerSize + recordLength;
+	}
+	
+	/**
+	 * Get title (REMARKS lines)
+	 * @return Title
+	 */
+	public String getTitle() {
+		return title;
+	}
+	
+	/**
+	 * Get number of frames as given in the header (may be 0 or outdated if the 
+	 * simulation was interrupted; see getNumberOfFrames() for the number of frames in the file)
+	 * @return Number of frames in the header
+	 */
+	public int getNumberOfFramesInHeader() {
+		return numberOfFramesInHeader;
+	}
+	
+	/**
+	 * Get MD step of the first frame
+	 * @return First step
+	 */
+	public int getStartStep() {
+		return startStep;
+	}
+	
+	/**
+	 * Get number of MD steps between frames
+	 * @return Number of steps between frames
+	 */
+	public int getStepInterval() {
+		return stepInterval;
+	}
+	
+	/**
+	 * Get MD time step in AKMA units
+	 * @return Time step
+	 */
+	public double getTimeStep() {
+		return timeStep;
+	}
+	
+	/**
+	 * Get MD time step in femtoseconds
+	 * @return Time step (fs)
+	 */
+	public double getTimeStepInFemtoseconds() {
+		return timeStep * AKMA_TIME_UNIT_IN_FS;
+	}
+	
+	/**
+	 * Get number of fixed atoms
+	 * @return Number of fixed atoms
+	 */
+	public int getFixedAtomCount() {
+		return fixedAtomCount;
+	}
+	
+	/**
+	 * Check if frames include unit cell information
+	 * @return True if frames have a unit cell record
+	 */
+	public boolean hasUnitCell() {
+		return hasUnitCell;
+	}
+	
+	/**
+	 * Check if the file was written in CHARMM format (CHARMM, NAMD) rather than X-PLOR format
+	 * @return True for CHARMM format
+	 */
+	public boolean isCharmmFormat() {
+		return (charmmVersion != 0);
+	}
+	
+	/**
+	 * Get size of the Fortran record markers
+	 * @return Marker size (4 or 8 bytes)
+	 */
+	public int getRecordMarkerSize() {
+		return markerSize;
+	}
+	
+	/**
+	 * Get X coordinates of a frame (view on the mapped file, no copy)
+	 * @param frame Frame index (0-based)
+	 * @return X coordinates of all atoms
+	 * @throws IOException
+	 */
+	public FloatBuffer getX(int frame) throws IOException {
+		return getCoordinateView(frame, xOffset);
+	}
+	
+	/**
+	 * Get Y coordinates of a frame (view on the mapped file, no copy)
+	 * @param frame Frame index (0-based)
+	 * @return Y coordinates of all atoms
+	 * @throws IOException
+	 */
+	public FloatBuffer getY(int frame) throws IOException {
+		return getCoordinateView(frame, yOffset);
+	}
+	
+	/**
+	 * Get Z coordinates of a frame (view on the mapped file, no copy)
+	 * @param frame Frame index (0-based)
+	 * @return Z coordinates of all atoms
+	 * @throws IOException
+	 */
+	public FloatBuffer getZ(int frame) throws IOException {
+		return getCoordinateView(frame, zOffset);
+	}
+	
+	/**
+	 * Get unit cell of a frame as stored in the file: A, gamma, B, beta, alpha, C
+	 * (angles are stored as cosines by recent NAMD versions)
+	 * @param frame Frame index (0-based)
+	 * @return Unit cell or null if the file has no unit cell information
+	 * @throws IOException
+	 */
+	public double[] getUnitCell(int frame) throws IOException
+	{
+		if (!hasUnitCell)
+			return null;
+		if (fixedAtomCount > 0)
+			throw new IOException("Frame access is not supported for DCD files with fixed atoms");
+		ByteBuffer buffer = getFrameBuffer(frame);
+		double[] cell = new double[6];
+		for (int i=0; i<6; i++)
+			cell[i] = buffer.getDouble(markerSize + 8*i);
+		return cell;
+	}
+	
+	@Override
+	public void readFrame(int frame, TrajectoryFrame buffer, int[] selectionIndex) throws IOException
+	{
+		FloatBuffer x = getX(frame);
+		FloatBuffer y = getY(frame);
+		FloatBuffer z = getZ(frame);
+		float[] coordinates = buffer.getCoordinates();
+		for (int a=0; a<numberOfAtoms; a++){
+			int idx = selectionIndex[a];
+			if (idx >= 0){
+				coordinates[3*idx] = x.get(a);
+				coordinates[3*idx+1] = y.get(a);
+				coordinates[3*idx+2] = z.get(a);
+			}
+		}
+		buffer.setHasBox(hasUnitCell);
+		if (hasUnitCell){
+			double[] cell = getUnitCell(frame);
+			float[] box = buffer.getBox();
+			box[0] = (float)cell[0];
+			box[1] = (float)cell[2];
+			box[2] = (float)cell[5];
+			double alpha = cell[4];
+			double beta = cell[3];
+			double gamma = cell[1];
+			if (Math.abs(alpha) <= 1.0 && Math.abs(beta) <= 1.0 && Math.abs(gamma) <= 1.0){
+				//cosines
+				alpha = Math.toDegrees(Math.acos(alpha));
+				beta = Math.toDegrees(Math.acos(beta));
+				gamma = Math.toDegrees(Math.acos(gamma));
+			}
+			box[3] = (float)alpha;
+			box[4] = (float)beta;
+			box[5] = (float)gamma;
+		}
+	}
+	
+	private FloatBuffer getCoordinateView(int frame, int offset) throws IOException
+	{
+		if (fixedAtomCount > 0)
+			throw new IOException("Frame access is not supported for DCD files with fixed atoms");
+		ByteBuffer buffer = getFrameBuffer(frame);
+		buffer.position(offset);
+		buffer.limit(offset + 4*numberOfAtoms);
+		return buffer.slice().order(byteOrder).asFloatBuffer();
+	}
+}
@@ -75,6 +75,8 @@ public class PDBFile extends AbstractTopologyFile implements TrajectoryFile {
 	 * @throws Exception 	 */
 	@Override
 	public MetadataAVUList getMetadata() throws Exception {
+		if (hasCachedMetadata())
+			return getCachedMetadata();
 		
 		MetadataAVUList metadata = super.getMetadata();
 		
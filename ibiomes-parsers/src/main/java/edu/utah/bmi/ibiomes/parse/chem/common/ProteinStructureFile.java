@@ -96,6 +96,8 @@ public class ProteinStructureFile extends AbstractTopologyFile implements Topolo
 	 */
 	@Override
 	public MetadataAVUList getMetadata() throws Exception {
+		if (hasCachedMetadata())
+			return getCachedMetadata();
 		
 		MetadataAVUList metadata = super.getMetadata();
 		
@@ -52,6 +52,8 @@ public class GAMESSOutputFile extends AbstractProcessGroupSetFile
 	 */
 	@Override
 	public MetadataAVUList getMetadata() throws Exception{
+		if (hasCachedMetadata())
+			return getCachedMetadata();
 		
 		//get file metadata
 		MetadataAVUList metadata = super.getMetadata();
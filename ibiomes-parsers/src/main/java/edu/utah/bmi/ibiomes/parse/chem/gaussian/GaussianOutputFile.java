@@ -18,11 +18,13 @@
 
 package edu.utah.bmi.ibiomes.parse.chem.gaussian;
 
-import java.io.IOException;
 import java.util.ArrayList;
+import java.util.regex.Pattern;
 
 import edu.utah.bmi.ibiomes.parse.LocalFile;
 import edu.utah.bmi.ibiomes.parse.chem.AbstractProcessGroupSetFile;
+import edu.utah.bmi.ibiomes.parse.chem.OutputFileScanner;
+import edu.utah.bmi.ibiomes.parse.chem.OutputMarker;
 import edu.utah.bmi.ibiomes.quantity.TimeLength;
 import edu.utah.bmi.ibiomes.topo.Atom;
 import edu.utah.bmi.ibiomes.topo.Coordinate3D;
@@ -37,7 +39,6 @@ import edu.utah.bmi.ibiomes.experiment.TaskExecution;
 import edu.utah.bmi.ibiomes.experiment.comp.ParameterSet;
 import edu.utah.bmi.ibiomes.experiment.comp.qm.QMParameterSet;
 import edu.utah.bmi.ibiomes.experiment.comp.qm.QMTask;
-import edu.utah.bmi.ibiomes.io.IBIOMESFileReader;
 import edu.utah.bmi.ibiomes.metadata.CalculationMetadata;
 import edu.utah.bmi.ibiomes.metadata.MetadataAVU;
 import edu.utah.bmi.ibiomes.metadata.MetadataAVUList;
@@ -58,6 +59,7 @@ public class GaussianOutputFile extends AbstractProcessGroupSetFile
 	private static final String stoichiometryMarker = "Stoichiometry";
 	private static final String basisSetMarker = "Standard basis: ";
 	private static final String chargeAndMultiplicityMarker = "[Cc]harge(\\s)*\\=(\\s)*(\\-)?\\d(\\s)*[Mm]ultiplicity(\\s)*\\=(\\s)*\\d";
+	private static final Pattern chargeAndMultiplicityPattern = Pattern.compile(chargeAndMultiplicityMarker);
 	private static final String topologyMarker = "Symbolic(\\s)+Z\\-[Mm]atrix\\:";
 	private static final String electronCountMarker = "\\s*\\d+ alpha electrons\\s*\\d+ beta electrons";
 	private static final String energyStateMarker = "SCF Done: ";
@@ -75,6 +77,9 @@ public class GaussianOutputFile extends AbstractProcessGroupSetFile
 	private int[] energyCycles = null;
 	private double energyFinal = 0.0;
 	private double executionTime;
+	private String basisSet = null;
+	private String totalCharge = null;
+	private String spinMultiplicity = null;
 	
 	/**
 	 * Default constructor for Gaussian log files.
@@ -141,6 +146,8 @@ public class GaussianOutputFile extends AbstractProcessGroupSetFile
 	 */
 	@Override
 	public MetadataAVUList getMetadata() throws Exception{
+		if (hasCachedMetadata())
+			return getCachedMetadata();
 		
 		//get parameter/topology file metadata
 		MetadataAVUList metadata = super.getMetadata();
@@ -160,13 +167,10 @@ public class GaussianOutputFile extends AbstractProcessGroupSetFile
 	
 	private void parseFile() throws Exception
 	{
-		String basisSet = null;
-		String multiplicity = null;
-		String charge = null;
 		String method = ParameterSet.METHOD_QM;
 		String levelOfTheory = null;
 		this.software = new Software(Software.GAUSSIAN);
-		ArrayList<MolecularSystem> systems = new ArrayList<MolecularSystem>();
+		final ArrayList<MolecularSystem> systems = new ArrayList<MolecularSystem>();
 		ArrayList<ExperimentTask> tasks = new ArrayList<ExperimentTask>();
 		
 		/*
@@ -179,309 +183,242 @@ public class GaussianOutputFile extends AbstractProcessGroupSetFile
 		 Job cpu time:  0 days  0 hours  0 minutes 44.5 seconds.
  
 		 */
-		IBIOMESFileReader br = null;
-	    String line = null;
-	    boolean found = false;
-	    
-	    try{
-			ArrayList<String> relatedFiles = new ArrayList<String>();
-			relatedFiles.add(this.getCanonicalPath());
-			
-	    	br =  new IBIOMESFileReader(this);
-	    	 
-		    //get Gaussian version and timestamp
-		    //
-		    // ******************************************
-		    // Gaussian 03:  AM64L-G03RevE.01 11-Sep-2007
-		    //                21-Feb-2009 
-		    // ******************************************
-			while (( line = br.readLine()) != null && !found)
-			{
-				line = line.trim();
-				if (line.startsWith("***********************"))
-				{
-					line = br.readLine().trim();
-					String[] values = line.split("\\s+");
-					software.setVersion(values[1].substring(0,values[1].length()-1));
-					software.setExecutableName(values[2]);
-					timestamp = br.readLine().trim();	
-							
-					found = true;
-				}
-			}
-			
-			if (found == false){
-				br.close();
-				br = new IBIOMESFileReader(this);
+		OutputFileScanner scanner = new OutputFileScanner(this);
+		
+		ArrayList<String> relatedFiles = new ArrayList<String>();
+		relatedFiles.add(this.getCanonicalPath());
+		
+		//get Gaussian version and timestamp
+		//
+		// ******************************************
+		// Gaussian 03:  AM64L-G03RevE.01 11-Sep-2007
+		//                21-Feb-2009 
+		// ******************************************
+		scanner.addMarker(new OutputMarker("***********************", 1) {
+			public void onMatch(String line, OutputFileScanner scanner) throws Exception {
+				line = scanner.readLine().trim();
+				String[] values = line.split("\\s+");
+				software.setVersion(values[1].substring(0,values[1].length()-1));
+				software.setExecutableName(values[2]);
+				timestamp = scanner.readLine().trim();
 			}
-			else found = false;
-			
-			
-			// Total charge and spin multiplicity
-			//
-			// e.g. Charge =  0 Multiplicity = 2
-			
-			while (( line = br.readLine()) != null && !found)
-			{
-				line = line.trim();
-				if (line.matches(chargeAndMultiplicityMarker))
-				{
-					String[] values = line.split("\\s+");
-					charge = values[2];
-					multiplicity = values[5];
-					found = true;
-				}
+		});
+		
+		// Total charge and spin multiplicity
+		//
+		// e.g. Charge =  0 Multiplicity = 2
+		scanner.addMarker(new OutputMarker("ultiplicity", chargeAndMultiplicityMarker, 1) {
+			public void onMatch(String line, OutputFileScanner scanner) throws Exception {
+				setChargeAndMultiplicity(line);
 			}
-
-			br.close();
-			br = new IBIOMESFileReader(this);
-			found = false;
-
-			// topology (atom types and coordinates)
-			while (( line = br.readLine()) != null && !found)
-			{
-				line = line.trim();
-				if (line.matches(topologyMarker))
+		});
+		
+		// topology (atom types and coordinates)
+		// The charge and multiplicity line follows the topology marker in Gaussian 09/16 logs 
+		// (it precedes it in Gaussian 03 logs): lines read here are not submitted to the other markers.
+		scanner.addMarker(new OutputMarker("Symbolic", topologyMarker, 1) {
+			public void onMatch(String line, OutputFileScanner scanner) throws Exception {
+				int id = 0;
+				ArrayList<Atom> atomList = new ArrayList<Atom>();
+				while ((line = scanner.readLine()) != null && line.trim().length()>0)
 				{
-					found = true;
-					int id = 0;
-			        ArrayList<Atom> atomList = new ArrayList<Atom>();
-					while (( line = br.readLine()).trim().length()>0)
-					{
-						line = line.trim();
-						if (!line.matches(chargeAndMultiplicityMarker)){
-							String[] values = line.trim().split("\\s+");
-							if (values.length<4)
-								break;
-							Atom atom = new Atom(id, values[0]+id, values[0]);
-							try{
-								Coordinate3D coord = new Coordinate3D(
-										Double.parseDouble(values[1]),
-										Double.parseDouble(values[2]),
-										Double.parseDouble(values[3]));
-								atom.setCoordinates(coord);
-				        		atomList.add(atom);
-							} catch (NumberFormatException e){
-								break;
-							}
+					line = line.trim();
+					if (line.indexOf("ultiplicity")>=0 && chargeAndMultiplicityPattern.matcher(line).matches()){
+						setChargeAndMultiplicity(line);
+					}
+					else {
+						String[] values = line.trim().split("\\s+");
+						if (values.length<4)
+							break;
+						Atom atom = new Atom(id, values[0]+id, values[0]);
+						try{
+							Coordinate3D coord = new Coordinate3D(
+									Double.parseDouble(values[1]),
+									Double.parseDouble(values[2]),
+									Double.parseDouble(values[3]));
+							atom.setCoordinates(coord);
+							atomList.add(atom);
+						} catch (NumberFormatException e){
+							break;
 						}
 					}
-			        MolecularSystemFactory moleculeFactory = new MolecularSystemFactory();
-			        MolecularSystem molecularSystem = moleculeFactory.identifyMoleculesUsingAtoms(atomList, true);
-					molecularSystem.setDefinitionFiles(this.getCanonicalPath());
-					systems.add(molecularSystem);
 				}
+				MolecularSystemFactory moleculeFactory = new MolecularSystemFactory();
+				MolecularSystem molecularSystem = moleculeFactory.identifyMoleculesUsingAtoms(atomList, true);
+				molecularSystem.setDefinitionFiles(getCanonicalPath());
+				systems.add(molecularSystem);
 			}
-			
-			if (found == false){
-				br.close();
-				br = new IBIOMESFileReader(this);
-			}
-			else found = false;
-			
-			// get chemical composition
-		    //
-			//  e.g.  Stoichiometry  C26H29NO2  C18H15P C25H18FeN5S(2)
-			//    
-			//
-			while (( line = br.readLine()) != null && !found)
-			{
-				line = line.trim();
-				if (line.startsWith(stoichiometryMarker)){
-					String[] values = line.split("\\s+");
-					String stoichiometryRaw = values[1];
-					StringBuilder strBuilder = new StringBuilder();
-					strBuilder.append(stoichiometryRaw.substring(0,1));
-					String currentChar = null;
-					for (int c=1; c<stoichiometryRaw.length();c++){
+		});
+		
+		// get chemical composition
+		//
+		//  e.g.  Stoichiometry  C26H29NO2  C18H15P C25H18FeN5S(2)
+		//    
+		//
+		scanner.addMarker(new OutputMarker(stoichiometryMarker, 1) {
+			public void onMatch(String line, OutputFileScanner scanner) throws Exception {
+				String[] values = line.split("\\s+");
+				String stoichiometryRaw = values[1];
+				StringBuilder strBuilder = new StringBuilder();
+				strBuilder.append(stoichiometryRaw.substring(0,1));
+				String currentChar = null;
+				for (int c=1; c<stoichiometryRaw.length();c++){
+				
+					currentChar = stoichiometryRaw.substring(c,c+1);
+					if (currentChar.equals("("))
+						break;
 					
-						currentChar = stoichiometryRaw.substring(c,c+1);
-						if (currentChar.equals("("))
-							break;
-						
-						String prevChar = stoichiometryRaw.substring(c-1,c);
-						
-						if (!prevChar.matches("\\d") && currentChar.matches("\\d")){
-							strBuilder.append(":");
-						}
-						else if (prevChar.matches("\\d") && !currentChar.matches("\\d")){
-							strBuilder.append(" ");
-						}
-						else if (prevChar.matches("[A-Za-z]") && currentChar.matches("[A-Z]")){
-							strBuilder.append(":1 ");
-						}
-						else if (prevChar.matches("[a-z]")){
-							strBuilder.append(":");
-						}
-						strBuilder.append(currentChar);
-					}
+					String prevChar = stoichiometryRaw.substring(c-1,c);
 					
-					this.stoichiometry = strBuilder.toString();
-					if (this.stoichiometry.substring(this.stoichiometry.length()-1).matches("[A-Za-z]")){
-						this.stoichiometry += ":1";
+					if (!prevChar.matches("\\d") && currentChar.matches("\\d")){
+						strBuilder.append(":");
 					}
-					found = true;
+					else if (prevChar.matches("\\d") && !currentChar.matches("\\d")){
+						strBuilder.append(" ");
+					}
+					else if (prevChar.matches("[A-Za-z]") && currentChar.matches("[A-Z]")){
+						strBuilder.append(":1 ");
+					}
+					else if (prevChar.matches("[a-z]")){
+						strBuilder.append(":");
+					}
+					strBuilder.append(currentChar);
 				}
-			}
-			
-			if (found == false){
-				br.close();
-				br =  new IBIOMESFileReader(this);
-			}
-			else found = false;
-			
-			// Electron count
-			//
-			// e.g. 64 alpha electrons       64 beta electrons
-			
-			while (( line = br.readLine()) != null && !found)
-			{
-				line = line.trim();
-				if (line.matches(electronCountMarker))
-				{
-					String[] values = line.split("\\s+");
-					electronCountAlpha = Integer.parseInt(values[0]);
-					electronCountBeta = Integer.parseInt(values[3]);
-					electronCount = electronCountAlpha + electronCountBeta;
-					found = true;
+				
+				stoichiometry = strBuilder.toString();
+				if (stoichiometry.substring(stoichiometry.length()-1).matches("[A-Za-z]")){
+					stoichiometry += ":1";
 				}
 			}
-			
-			if (found == false){
-				br.close();
-				br =  new IBIOMESFileReader(this);
+		});
+		
+		// Electron count
+		//
+		// e.g. 64 alpha electrons       64 beta electrons
+		scanner.addMarker(new OutputMarker("alpha electrons", electronCountMarker, 1) {
+			public void onMatch(String line, OutputFileScanner scanner) throws Exception {
+				String[] values = line.split("\\s+");
+				electronCountAlpha = Integer.parseInt(values[0]);
+				electronCountBeta = Integer.parseInt(values[3]);
+				electronCount = electronCountAlpha + electronCountBeta;
 			}
-			else found = false;
-						
-			// Basis set
-			//
-			// e.g. Standard basis: 6-31G(d) (6D, 7F)
-			while (( line = br.readLine()) != null && !found)
-			{
-				line = line.trim();
-				if (line.startsWith(basisSetMarker))
-				{
-					basisSet = line.substring(basisSetMarker.length());
-					found = true;
-				}
+		});
+		
+		// Basis set
+		//
+		// e.g. Standard basis: 6-31G(d) (6D, 7F)
+		scanner.addMarker(new OutputMarker(basisSetMarker, 1) {
+			public void onMatch(String line, OutputFileScanner scanner) throws Exception {
+				basisSet = line.substring(basisSetMarker.length());
 			}
-			
-			if (found == false){
-				br.close();
-				br =  new IBIOMESFileReader(this);
+		});
+		
+		// Normal termination?
+		//
+		// e.g. Normal termination of Gaussian 03 at Sun Feb 22 00:18:44 2009.
+		scanner.addMarker(new OutputMarker(terminationMarker, 1) {
+			public void onMatch(String line, OutputFileScanner scanner) throws Exception {
+				termination = TaskExecution.TERMINATION_STATUS_NORMAL;
 			}
-			else found = false;
-			
-			// Normal termination?
-			//
-			// e.g. Normal termination of Gaussian 03 at Sun Feb 22 00:18:44 2009.
-			while (( line = br.readLine()) != null && !found)
-			{
-				line = line.trim();
-				if (line.startsWith(terminationMarker))
-				{
-					this.termination = TaskExecution.TERMINATION_STATUS_NORMAL;
-				}
+		});
+		
+		//execution time
+		//
+		//e.g. "Job cpu time:  0 days  0 hours 10 minutes 24.8 seconds."
+		scanner.addMarker(new OutputMarker(executionTimeMarker, OutputMarker.UNLIMITED_MATCHES) {
+			public void onMatch(String line, OutputFileScanner scanner) throws Exception {
+				line = line.substring(executionTimeMarker.length()).trim();
+				String[] timeValues = line.split("\\s+");
+				executionTime += 
+						Double.parseDouble(timeValues[0]) * 365.0 * 24.0
+						+ Double.parseDouble(timeValues[2]) * 24.0
+						+ Double.parseDouble(timeValues[4])
+						+ Double.parseDouble(timeValues[6]) / 60.0;
+				executionTime = Math.round(executionTime);
 			}
-			br.close();
-			
-			//execution time
-			//
-			//e.g. "Job cpu time:  0 days  0 hours 10 minutes 24.8 seconds."
-			br =  new IBIOMESFileReader(this);
-			while (( line = br.readLine()) != null)
-			{
-				line = line.trim();
-				if (line.startsWith(executionTimeMarker))
-				{
-					line = line.substring(executionTimeMarker.length()).trim();
-					String[] timeValues = line.split("\\s+");
-					this.executionTime += 
-							Double.parseDouble(timeValues[0]) * 365.0 * 24.0
-							+ Double.parseDouble(timeValues[2]) * 24.0
-							+ Double.parseDouble(timeValues[4])
-							+ Double.parseDouble(timeValues[6]) / 60.0;
-					this.executionTime = Math.round(this.executionTime);
-				}
+		});
+		
+		// Evolution of energy
+		//
+		// e.g. SCF Done:  E(RM062X) =  -344.910796138     A.U. after   17 cycles
+		final ArrayList<String> energyStrList = new ArrayList<String>();
+		final ArrayList<String> energyNCyclesStrList = new ArrayList<String>();
+		scanner.addMarker(new OutputMarker(energyStateMarker, OutputMarker.UNLIMITED_MATCHES) {
+			public void onMatch(String line, OutputFileScanner scanner) throws Exception {
+				String[] values = line.split("\\s+");
+				energyStrList.add(values[4]);
+				energyNCyclesStrList.add(values[7]);
 			}
-			br.close();
+		});
+		
+		//read file once
+		scanner.scan();
+		if (totalCharge == null)
+			throw new Exception("Total charge and spin multiplicity not found in '"+this.getAbsolutePath()+"'");
+		
+		int e=0;
+		energy = new double[energyStrList.size()];
+		for (String energyStr : energyStrList){
+			energy[e] = Double.parseDouble(energyStr);
+			e++;
+		}
+		e=0;
+		energyCycles = new int[energyNCyclesStrList.size()];
+		for (String energyStr : energyNCyclesStrList){
+			energyCycles[e] = Integer.parseInt(energyStr);
+			e++;
+		}
+		if (energy.length>0)
+			energyFinal = energy[energy.length-1];
+
+		//add corresponding method
+		
+		if (method.equals(ParameterSet.METHOD_QM))
+		{
+			QMParameterSet qm = new QMParameterSet();
+			if (levelOfTheory!=null)
+				qm.setSpecificMethodName(levelOfTheory);
+			if (basisSet!=null)
+				qm.setBasisSet(basisSet);
+			qm.setTotalCharge(Integer.parseInt(totalCharge));
+			qm.setSpinMultiplicity(Integer.parseInt(spinMultiplicity));
 			
-			// Evolution of energy
-			//
-			// e.g. SCF Done:  E(RM062X) =  -344.910796138     A.U. after   17 cycles
-			br =  new IBIOMESFileReader(this);
-			ArrayList<String> energyStrList = new ArrayList<String>();
-			ArrayList<String> energyNCyclesStrList = new ArrayList<String>();
-			while (( line = br.readLine()) != null)
-			{
-				line = line.trim();
-				if (line.startsWith(energyStateMarker))
-				{
-					String[] values = line.split("\\s+");
-					energyStrList.add(values[4]);
-					energyNCyclesStrList.add(values[7]);
-				}
-			}
-			int e=0;
-			energy = new double[energyStrList.size()];
-			for (String energyStr : energyStrList){
-				energy[e] = Double.parseDouble(energyStr);
-				e++;
-			}
-			e=0;
-			energyCycles = new int[energyNCyclesStrList.size()];
-			for (String energyStr : energyNCyclesStrList){
-				energyCycles[e] = Integer.parseInt(energyStr);
-				e++;
-			}
-			if (energy.length>0)
-				energyFinal = energy[energy.length-1];
-	
-			//add corresponding method
+			QMTask task = new QMTask(qm);
+			task.setSoftware(this.software);
+			task.setBoundaryConditions(boundaryConditions);
+			task.setOutputFiles(relatedFiles);
 			
-			if (method.equals(ParameterSet.METHOD_QM))
-			{
-				QMParameterSet qm = new QMParameterSet();
-				if (levelOfTheory!=null)
-					qm.setSpecificMethodName(levelOfTheory);
-				if (basisSet!=null)
-					qm.setBasisSet(basisSet);
-				qm.setTotalCharge(Integer.parseInt(charge));
-				qm.setSpinMultiplicity(Integer.parseInt(multiplicity));
-				
-				QMTask task = new QMTask(qm);
-				task.setSoftware(this.software);
-				task.setBoundaryConditions(boundaryConditions);
-				task.setOutputFiles(relatedFiles);
-				
-				TaskExecution execInfo = new TaskExecution(this.termination);
-				if (executionTime>0.0)
-					execInfo.setExecutionTime(new TimeLength(executionTime, TimeLength.Minute));
-				//TODO parse number of CPUs
-				execInfo.setNumberOfCPUs(0);
-				task.setTaskExecution(execInfo);
-				
-				tasks.add(task);
-			}
+			TaskExecution execInfo = new TaskExecution(this.termination);
+			if (executionTime>0.0)
+				execInfo.setExecutionTime(new TimeLength(executionTime, TimeLength.Minute));
+			//TODO parse number of CPUs
+			execInfo.setNumberOfCPUs(0);
+			task.setTaskExecution(execInfo);
 			
-			//build process groups
-			MolecularSystem molecularSystem = null;
-    		if (systems.size()>0)
-    			molecularSystem = systems.get(0);
-    		ExperimentProcess process = new ExperimentProcess(null, null, tasks);
-    		ExperimentProcessGroup processGroup = new ExperimentProcessGroup(null, null, molecularSystem, process);
-    		this.processGroups = new ArrayList<ExperimentProcessGroup>();
-    		this.processGroups.add(processGroup);
-	    }
-		catch (Exception e){
-			if (br!=null)
-				try {
-					br.close();
-				} catch (IOException e1) {
-				}
-			throw e;
+			tasks.add(task);
 		}
+		
+		//build process groups
+		MolecularSystem molecularSystem = null;
+		if (systems.size()>0)
+			molecularSystem = systems.get(0);
+		ExperimentProcess process = new ExperimentProcess(null, null, tasks);
+		ExperimentProcessGroup processGroup = new ExperimentProcessGroup(null, null, molecularSystem, process);
+		this.processGroups = new ArrayList<ExperimentProcessGroup>();
+		this.processGroups.add(processGroup);
 	}
 	
+	/**
+	 * Read total charge and spin multiplicity (first occurrence only)
+	 * @param line Line (e.g. "Charge =  0 Multiplicity = 2")
+	 */
+	private void setChargeAndMultiplicity(String line)
+	{
+		if (totalCharge != null)
+			return;
+		String[] values = line.split("\\s+");
+		totalCharge = values[2];
+		spinMultiplicity = values[5];
+	}
 	
 }
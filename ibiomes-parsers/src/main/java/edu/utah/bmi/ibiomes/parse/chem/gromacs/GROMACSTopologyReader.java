@@ -27,8 +27,10 @@ import org.apache.commons.compress.compressors.CompressorException;
 import edu.utah.bmi.ibiomes.io.IBIOMESFileReader;
 import edu.utah.bmi.ibiomes.topo.Atom;
 import edu.utah.bmi.ibiomes.topo.Compound;
+import edu.utah.bmi.ibiomes.topo.AtomTable;
 import edu.utah.bmi.ibiomes.topo.MolecularSystem;
 import edu.utah.bmi.ibiomes.topo.Molecule;
+import edu.utah.bmi.ibiomes.topo.TopologyTable;
 import edu.utah.bmi.ibiomes.topo.bio.DNA;
 import edu.utah.bmi.ibiomes.topo.bio.NucleicAcid;
 import edu.utah.bmi.ibiomes.topo.bio.Protein;
@@ -151,47 +153,14 @@ public class GROMACSTopologyReader {
 						throw new IOException("[ atoms ] section expected after [ moleculetype ] section.");
 					}
 					else
-					{						
-						List<Residue> residues = new ArrayList<Residue>();
+					{
+						TopologyTable topology = readMoleculeTopology(atomSection, getBondSection(sections, s));
+						List<Residue> residues = topology.createResidues();
 						List<Atom> atoms = new ArrayList<Atom>();
-						Residue currResidue = null;
-						int currResId = -1;
-						
-						for (String line : atomSection.getLines())
-						{
-							String[] values = line.split("\\s+");
-	        				int id = Integer.parseInt(values[0]);
-	        				String atomtype = values[1];
-	        				int resId = Integer.parseInt(values[2]);
-	        				String resName = values[3];
-	        				String atomName = values[4];
-	        				String cgnr = values[5];
-	        				float charge = 0.0f;
-	        				double mass = 0.0;
-	        				try{
-	        					if (values.length>6)
-	        						charge = Float.parseFloat(values[6]);
-	        					if (values.length>7)
-	        						mass = Double.parseDouble(values[7]);
-	        				}
-	        				catch (NumberFormatException e){
-	        				}
-	    					//create atom
-	        				//TODO dictionary of GROMACS atom types? 
-	        				atomtype = atomtype.substring(0,1);
-	    					Atom atom = new Atom(id, atomName, charge, mass, atomtype);
-	    					atoms.add(atom);
-	    					
-	    					//create new residue and/or add atom to residue
-	    					if (resId != currResId){
-	    						currResidue = new Residue(resName);
-	    						residues.add(currResidue);
-	    						currResId = resId;
-	    						//currResidue.setIsStandard();
-	    					}
-	    					currResidue.addAtom(atom);
+						for (Residue residue : residues){
+							atoms.addAll(residue.getAtoms());
 						}
-						//detect molecule type from residue chain
+						
 						ResidueChainParser chainParser = new ResidueChainParser(residues);
 						List<String> types = chainParser.getMoleculeTypes();
 						Molecule m = null;
@@ -231,6 +200,89 @@ public class GROMACSTopologyReader {
 		return molecules;
 	}
 	
+	/**
+	 * Load atoms, residues and bonds of a molecule type into a columnar topology
+	 * @param atomSection [ atoms ] section of the molecule type
+	 * @param bondSection [ bonds ] section of the molecule type (can be null)
+	 * @return Topology table
+	 * @throws IOException
+	 */
+	public static TopologyTable readMoleculeTopology(GROMACSTopologySection atomSection, GROMACSTopologySection bondSection) throws IOException
+	{
+		List<String> lines = atomSection.getLines();
+		TopologyTable topology = new TopologyTable(lines.size(), 16);
+		AtomTable atoms = topology.getAtomTable();
+		int currResId = -1;
+		
+		for (String line : lines)
+		{
+			String[] values = line.split("\\s+");
+			int id = Integer.parseInt(values[0]);
+			String atomtype = values[1];
+			int resId = Integer.parseInt(values[2]);
+			String resName = values[3];
+			String atomName = values[4];
+			float charge = 0.0f;
+			double mass = 0.0;
+			try{
+				if (values.length>6)
+					charge = Float.parseFloat(values[6]);
+				if (values.length>7)
+					mass = Double.parseDouble(values[7]);
+			}
+			catch (NumberFormatException e){
+			}
+			//TODO dictionary of GROMACS atom types? 
+			atomtype = atomtype.substring(0,1);
+			int a = atoms.addAtom(id, atomName, atomtype, charge, mass, null);
+			
+			//new residue
+			if (resId != currResId){
+				topology.addResidue(resName, a);
+				currResId = resId;
+			}
+		}
+		
+		//bonds (atom numbers are 1-based indexes in the [ atoms ] section)
+		if (bondSection != null){
+			for (String line : bondSection.getLines())
+			{
+				String[] values = line.split("\\s+");
+				if (values.length < 2)
+					continue;
+				try {
+					int a1 = Integer.parseInt(values[0]) - 1;
+					int a2 = Integer.parseInt(values[1]) - 1;
+					if (a1 >= 0 && a2 >= 0 && a1 < atoms.size() && a2 < atoms.size())
+						atoms.addBond(a1, a2);
+				}
+				catch (NumberFormatException e){
+				}
+			}
+		}
+		topology.trimToSize();
+		return topology;
+	}
+	
+	/**
+	 * Find [ bonds ] section of a molecule type
+	 * @param sections List of sections
+	 * @param s Index of the [ atoms ] section of the molecule type
+	 * @return Bonds section or null if the molecule type has no bonds
+	 */
+	private static GROMACSTopologySection getBondSection(List<GROMACSTopologySection> sections, int s){
+		s++;
+		while (s<sections.size()){
+			String name = sections.get(s).getName().toLowerCase();
+			if (name.equals("bonds"))
+				return sections.get(s);
+			else if (name.equals("moleculetype") || name.equals("system") || name.equals("molecules"))
+				return null;
+			s++;
+		}
+		return null;
+	}
+	
 	/**
 	 * Get GROMACS topology file section related to system information
 	 * @param sections List of sections
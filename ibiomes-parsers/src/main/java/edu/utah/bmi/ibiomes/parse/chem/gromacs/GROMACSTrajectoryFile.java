@@ -16,34 +16,125 @@
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+
 package edu.utah.bmi.ibiomes.parse.chem.gromacs;
 
+import java.io.DataInputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
 
+import edu.utah.bmi.ibiomes.conf.IBIOMESConfiguration;
+import edu.utah.bmi.ibiomes.metadata.MetadataAVU;
 import edu.utah.bmi.ibiomes.metadata.MetadataAVUList;
-import edu.utah.bmi.ibiomes.parse.chem.ChemicalFile;
+import edu.utah.bmi.ibiomes.metadata.MethodMetadata;
+import edu.utah.bmi.ibiomes.metadata.TopologyMetadata;
+import edu.utah.bmi.ibiomes.metadata.TrajectoryMetadata;
+import edu.utah.bmi.ibiomes.parse.LocalFile;
+import edu.utah.bmi.ibiomes.parse.chem.AbstractTrajectoryFile;
+import edu.utah.bmi.ibiomes.parse.chem.RandomAccessTrajectoryReader;
+import edu.utah.bmi.ibiomes.parse.chem.TrajectoryFrameReader;
+import edu.utah.bmi.ibiomes.quantity.TimeLength;
 
 /**
- * GROMACS output file (log).
+ * GROMACS trajectory file (XTC or TRR). Only frame headers are read to get the number
+ * of atoms and frames and the time step; coordinates are not decompressed.
  * @author Julien Thibault
  *
  */
-public class GROMACSTrajectoryFile extends ChemicalFile 
+public class GROMACSTrajectoryFile extends AbstractTrajectoryFile 
 {
 	/**
 	 * 
 	 */
 	private static final long serialVersionUID = 1302934223068675594L;
+	
+	private int magicNumber = 0;
+	private int numberOfAtoms = 0;
+	private long startStep = 0;
+	private long endStep = 0;
+	private double timeStepLength = 0.0;
 
 	/**
-	 * Default constructor for GROMACS log files.
+	 * Default constructor for GROMACS trajectory files. Only the frame headers are read.
 	 * @param localPath Path to the file
 	 * @throws IOException
 	 */
 	public GROMACSTrajectoryFile(String localPath) throws IOException
 	{
 		super(localPath, FORMAT_GROMACS_TRAJ);
-		parseFile();
+		try {
+			parseFile();
+		}
+		catch (Exception e){
+			//format already set to unknown
+		}
+	}
+	
+	/**
+	 * Check if the file is an XTC trajectory
+	 * @return True if the file is an XTC trajectory
+	 */
+	public boolean isXTC() {
+		return (magicNumber == XTCTrajectoryReader.MAGIC_NUMBER || magicNumber == XTCTrajectoryReader.MAGIC_NUMBER_LARGE);
+	}
+	
+	/**
+	 * Check if the file is a TRR trajectory
+	 * @return True if the file is a TRR trajectory
+	 */
+	public boolean isTRR() {
+		return (magicNumber == TRRTrajectoryReader.MAGIC_NUMBER);
+	}
+	
+	/**
+	 * Get number of atoms
+	 * @return Number of atoms
+	 */
+	public int getNumberOfAtoms() {
+		return numberOfAtoms;
+	}
+	
+	/**
+	 * Get time step length
+	 * @return Time step length (fs)
+	 */
+	public double getTimeStepLength() {
+		return timeStepLength;
+	}
+	
+	@Override
+	public boolean supportsRandomAccess() {
+		return true;
+	}
+	
+	/**
+	 * Open the trajectory for random frame access. The frame index is 
+	 * read from the sidecar file if it is up-to-date.
+	 * @return XTC or TRR reader (must be closed after use)
+	 * @throws IOException
+	 */
+	public XDRTrajectoryReader getReader() throws IOException {
+		if (isXTC())
+			return new XTCTrajectoryReader(this);
+		else if (isTRR())
+			return new TRRTrajectoryReader(this);
+		else throw new IOException("'" + this.getAbsolutePath() + "' is not an XTC or TRR trajectory");
+	}
+	
+	@Override
+	public RandomAccessTrajectoryReader getRandomAccessReader(int numberOfAtoms) throws Exception
+	{
+		XDRTrajectoryReader reader = getReader();
+		if (reader.getNumberOfAtoms() != numberOfAtoms){
+			reader.close();
+			throw new IOException("Number of atoms in GROMACS trajectory (" + reader.getNumberOfAtoms() + ") does not match the expected number of atoms (" + numberOfAtoms + ")");
+		}
+		return reader;
+	}
+	
+	@Override
+	public TrajectoryFrameReader getFrameReader(int numberOfAtoms, int[] atomSelection, int frameStride) throws Exception {
+		return getRandomAccessReader(numberOfAtoms).getFrameReader(atomSelection, frameStride);
 	}
 
 	/**
@@ -53,16 +144,73 @@ public class GROMACSTrajectoryFile extends ChemicalFile
 	@Override
 	public MetadataAVUList getMetadata() throws Exception{
 		
+		//get trajectory file metadata
 		MetadataAVUList metadata = super.getMetadata();
 		
 		//get GROMACS-specific metadata
-		//metadata.add(new MetadataAVU(BiosimMetadata.TOTAL_MOLECULE_CHARGE, _charge));
+		if (numberOfAtoms>0)
+			metadata.add(new MetadataAVU(TopologyMetadata.COUNT_ATOMS, String.valueOf(numberOfAtoms)));
+		if (getNumberOfFrames()>0){
+			metadata.add(new MetadataAVU(TrajectoryMetadata.TIME_STEP_START, String.valueOf(startStep)));
+			metadata.add(new MetadataAVU(TrajectoryMetadata.TIME_STEP_END, String.valueOf(endStep)));
+		}
+		if (timeStepLength>0.0)
+			metadata.add(new MetadataAVU(MethodMetadata.TIME_STEP_LENGTH, String.valueOf(timeStepLength), TimeLength.Femtosecond));
 		
 		return metadata;
 	}
 	
-	private void parseFile(){
-		
+	/**
+	 * Read frame headers (number of atoms and frames, steps, time step).
+	 * Files that are not XDR trajectories (e.g. legacy formats) are kept without trajectory metadata.
+	 * @throws Exception
+	 */
+	private void parseFile() throws Exception{
+		XDRTrajectoryReader reader = null;
+	    try{
+	    	this.magicNumber = readMagicNumber();
+	    	if (!isXTC() && !isTRR())
+	    		return;
+	    	reader = getReader();
+	    	this.numberOfAtoms = reader.getNumberOfAtoms();
+	    	this.setNumberOfFrames(reader.getNumberOfFrames());
+	    	this.startStep = reader.getStep(0);
+	    	this.endStep = reader.getStep(reader.getNumberOfFrames()-1);
+	    	this.timeStepLength = reader.getTimeStep() * 1000.0;
+	    	int lastFrame = reader.getNumberOfFrames()-1;
+	    	this.setFrameTiming(reader.getTime(0), 
+	    			lastFrame>0 ? ((double)reader.getTime(lastFrame) - reader.getTime(0))/lastFrame : Double.NaN);
+	    	reader.close(); 
+		}
+	    catch (Exception e){
+	    	this.format = LocalFile.FORMAT_UNKNOWN;
+			if (IBIOMESConfiguration.getInstance().isOutputToConsole())
+				System.out.println("WARNING: cannot parse '"+this.getAbsolutePath()+"' as a GROMACS trajectory file.");
+			if (IBIOMESConfiguration.getInstance().isOutputErrorStackToConsole())
+				e.printStackTrace();
+			if (reader!=null)
+				try {
+					reader.close();
+				} catch (IOException e1) {
+				}
+			throw e;
+		}
+	}
+	
+	/**
+	 * Read the magic number of the first frame (big-endian integer)
+	 * @return Magic number, or 0 if the file is too small
+	 * @throws IOException
+	 */
+	private int readMagicNumber() throws IOException {
+		if (this.length() < 4)
+			return 0;
+		DataInputStream in = new DataInputStream(new FileInputStream(this));
+		try {
+			return in.readInt();
+		}
+		finally {
+			in.close();
+		}
 	}
-
 }
@@ -0,0 +1,229 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package edu.utah.bmi.ibiomes.parse.chem.gromacs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import edu.utah.bmi.ibiomes.parse.chem.TrajectoryFrame;
+
+/**
+ * Reader for GROMACS TRR trajectories (full-precision coordinates, optional velocities and forces).
+ * Single and double precision files are supported.
+ * @author Julien Thibault, University of Utah
+ *
+ */
+public class TRRTrajectoryReader extends XDRTrajectoryReader {
+
+	/**
+	 * Magic number at the beginning of each TRR frame
+	 */
+	public final static int MAGIC_NUMBER = 1993;
+
+	//header: magic, version string, then 13 integers (block sizes, number of atoms, step, number of energies)
+	private final static int HEADER_PREFIX_LENGTH = 12;
+	private final static int HEADER_INT_COUNT = 13;
+	private final static int MAX_VERSION_LENGTH = 128;
+
+	/**
+	 * Open TRR trajectory. The frame index is loaded from the sidecar file,
+	 * or built by scanning the frame headers.
+	 * @param file Trajectory file
+	 * @throws IOException
+	 */
+	public TRRTrajectoryReader(File file) throws IOException {
+		this(file, true);
+	}
+
+	/**
+	 * Open TRR trajectory
+	 * @param file Trajectory file
+	 * @param useSidecar Load/save the frame index from/to a sidecar file
+	 * @throws IOException
+	 */
+	public TRRTrajectoryReader(File file, boolean useSidecar) throws IOException {
+		super(file);
+		try {
+			loadIndex(useSidecar);
+		}
+		catch (IOException e){
+			close();
+			throw e;
+		}
+	}
+
+	@Override
+	protected boolean readFrameHeader(long offset, long available, FrameHeader header) throws IOException
+	{
+		if (available < HEADER_PREFIX_LENGTH)
+			return false;
+		ByteBuffer buffer = readBytes(offset, HEADER_PREFIX_LENGTH);
+		int magic = buffer.getInt();
+		if (magic != MAGIC_NUMBER)
+			throw new IOException("Invalid TRR frame at offset " + offset + " in " + file.getAbsolutePath() + " (magic number: " + magic + ")");
+		buffer.getInt();
+		int versionLength = buffer.getInt();
+		if (versionLength < 0 || versionLength > MAX_VERSION_LENGTH)
+			throw new IOException("Invalid TRR frame at offset " + offset + " in " + file.getAbsolutePath());
+		int prefixLength = HEADER_PREFIX_LENGTH + padded(versionLength);
+		//largest possible header (double precision)
+		int length = prefixLength + 4*HEADER_INT_COUNT + 16;
+		if (available < length)
+			return false;
+		buffer = readBytes(offset, length);
+		buffer.position(prefixLength);
+		Header frameHeader = readHeader(buffer);
+		header.numberOfAtoms = frameHeader.numberOfAtoms;
+		header.step = frameHeader.step;
+		header.time = (float)frameHeader.time;
+		header.frameSize = frameHeader.headerSize + frameHeader.getDataSize();
+		return true;
+	}
+
+	@Override
+	public void readFrame(int frame, TrajectoryFrame buffer, int[] selectionIndex) throws IOException
+	{
+		ByteBuffer data = readFrameBytes(frame);
+		data.position(HEADER_PREFIX_LENGTH - 4);
+		data.position(HEADER_PREFIX_LENGTH + padded(data.getInt()));
+		Header header = readHeader(data);
+		data.position(header.headerSize);
+		if (header.xSize == 0)
+			throw new IOException("Frame " + frame + " of " + file.getAbsolutePath() + " has no coordinates");
+
+		buffer.setHasBox(header.boxSize > 0);
+		if (header.boxSize > 0){
+			double[] vectors = new double[9];
+			for (int i=0; i<9; i++)
+				vectors[i] = readReal(data, header.precision);
+			setBox(vectors, buffer.getBox());
+		}
+		data.position(data.position() + header.virialSize + header.pressureSize);
+
+		float[] coordinates = buffer.getCoordinates();
+		for (int a=0; a<numberOfAtoms; a++){
+			int s = (selectionIndex == null ? a : selectionIndex[a]);
+			if (s < 0){
+				data.position(data.position() + 3*header.precision);
+				continue;
+			}
+			coordinates[3*s] = (float)readReal(data, header.precision) * NM_TO_ANGSTROM;
+			coordinates[3*s+1] = (float)readReal(data, header.precision) * NM_TO_ANGSTROM;
+			coordinates[3*s+2] = (float)readReal(data, header.precision) * NM_TO_ANGSTROM;
+		}
+	}
+
+	/**
+	 * Read velocities of a frame
+	 * @param frame Frame index (0-based)
+	 * @param velocities Velocity buffer (3 values per atom, nm/ps)
+	 * @return False if the frame has no velocities
+	 * @throws IOException
+	 */
+	public boolean readVelocities(int frame, float[] velocities) throws IOException
+	{
+		ByteBuffer data = readFrameBytes(frame);
+		data.position(HEADER_PREFIX_LENGTH - 4);
+		data.position(HEADER_PREFIX_LENGTH + padded(data.getInt()));
+		Header header = readHeader(data);
+		if (header.vSize == 0)
+			return false;
+		data.position(header.headerSize + header.boxSize + header.virialSize + header.pressureSize + header.xSize);
+		for (int i=0; i<3*numberOfAtoms; i++)
+			velocities[i] = (float)readReal(data, header.precision);
+		return true;
+	}
+
+	/**
+	 * Read the integer part of the header and the time (buffer positioned after the version string)
+	 * @param buffer Buffer
+	 * @return Header
+	 * @throws IOException
+	 */
+	private Header readHeader(ByteBuffer buffer) throws IOException
+	{
+		Header header = new Header();
+		int irSize = buffer.getInt();
+		int eSize = buffer.getInt();
+		header.boxSize = buffer.getInt();
+		header.virialSize = buffer.getInt();
+		header.pressureSize = buffer.getInt();
+		int topSize = buffer.getInt();
+		int symSize = buffer.getInt();
+		header.xSize = buffer.getInt();
+		header.vSize = buffer.getInt();
+		header.fSize = buffer.getInt();
+		header.numberOfAtoms = buffer.getInt();
+		header.step = buffer.getInt();
+		buffer.getInt();
+		if (irSize != 0 || eSize != 0 || topSize != 0 || symSize != 0)
+			throw new IOException("Unsupported TRR frame in " + file.getAbsolutePath() + " (input record, energy or topology block)");
+
+		//precision (float or double) is derived from the size of the blocks
+		int n = header.numberOfAtoms;
+		if (header.boxSize > 0)
+			header.precision = header.boxSize / 9;
+		else if (header.xSize > 0 && n > 0)
+			header.precision = header.xSize / (3*n);
+		else if (header.vSize > 0 && n > 0)
+			header.precision = header.vSize / (3*n);
+		else if (header.fSize > 0 && n > 0)
+			header.precision = header.fSize / (3*n);
+		else
+			header.precision = 4;
+		if (header.precision != 4 && header.precision != 8)
+			throw new IOException("Invalid TRR frame in " + file.getAbsolutePath() + " (cannot determine precision)");
+
+		header.time = readReal(buffer, header.precision);
+		readReal(buffer, header.precision);
+		header.headerSize = buffer.position();
+		return header;
+	}
+
+	private static double readReal(ByteBuffer buffer, int precision){
+		return (precision == 8 ? buffer.getDouble() : buffer.getFloat());
+	}
+
+	private static int padded(int length){
+		return ((length + 3) / 4) * 4;
+	}
+
+	/**
+	 * TRR frame header
+	 */
+	private static class Header {
+		private int boxSize;
+		private int virialSize;
+		private int pressureSize;
+		private int xSize;
+		private int vSize;
+		private int fSize;
+		private int numberOfAtoms;
+		private long step;
+		private double time;
+		private int precision;
+		private int headerSize;
+
+		private long getDataSize(){
+			return (long)boxSize + virialSize + pressureSize + xSize + vSize + fSize;
+		}
+	}
+}
@@ -0,0 +1,313 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.parse.chem.gromacs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import edu.utah.bmi.ibiomes.parse.chem.RandomAccessTrajectoryReader;
+import edu.utah.bmi.ibiomes.parse.chem.TrajectoryFrame;
+import edu.utah.bmi.ibiomes.parse.chem.TrajectoryFrameIndex;
+import edu.utah.bmi.ibiomes.parse.chem.TrajectoryFrameReader;
+
+/**
+ * Random-access reader for GROMACS XDR trajectories (XTC, TRR). Frames have a variable size,
+ * so their offsets are collected in a single forward scan that only reads frame headers.
+ * The resulting index is persisted as a sidecar file ({@link TrajectoryFrameIndex}) and reused
+ * as long as the trajectory does not change. Coordinates and box vectors are converted from
+ * nanometers to Angstroms, as in the other trajectory readers.
+ * @author Julien Thibault, University of Utah
+ *
+ */
+public abstract class XDRTrajectoryReader implements RandomAccessTrajectoryReader {
+
+	/**
+	 * Conversion factor from nanometers to Angstroms
+	 */
+	public final static float NM_TO_ANGSTROM = 10.0f;
+
+	protected File file;
+	protected int numberOfAtoms = 0;
+	protected TrajectoryFrameIndex index;
+
+	private RandomAccessFile randomAccessFile;
+	private FileChannel channel;
+	private ByteBuffer frameBuffer = null;
+
+	/**
+	 * Open XDR trajectory
+	 * @param file Trajectory file
+	 * @throws IOException
+	 */
+	protected XDRTrajectoryReader(File file) throws IOException
+	{
+		this.file = file;
+		this.randomAccessFile = new RandomAccessFile(file, "r");
+		this.channel = randomAccessFile.getChannel();
+	}
+
+	/**
+	 * Load the frame index from the sidecar file, or build it by scanning the frame headers
+	 * @param useSidecar Use the sidecar file (load it if valid, save it after a scan)
+	 * @throws IOException
+	 */
+	protected void loadIndex(boolean useSidecar) throws IOException
+	{
+		if (useSidecar)
+			index = TrajectoryFrameIndex.load(file);
+		if (index == null){
+			index = buildIndex();
+			if (useSidecar){
+				try {
+					index.store(file);
+				}
+				catch (IOException e){
+					//read-only location: the index is only kept in memory
+				}
+			}
+		}
+		numberOfAtoms = index.getNumberOfAtoms();
+	}
+
+	/**
+	 * Scan frame headers to build the frame index. An incomplete frame at the end of the file is ignored.
+	 * @return Frame index
+	 * @throws IOException
+	 */
+	private TrajectoryFrameIndex buildIndex() throws IOException
+	{
+		long fileSize = channel.size();
+		long offset = 0;
+		FrameHeader header = new FrameHeader();
+		TrajectoryFrameIndex frameIndex = null;
+		while (offset < fileSize)
+		{
+			if (!readFrameHeader(offset, fileSize - offset, header) || offset + header.frameSize > fileSize)
+				break;
+			if (frameIndex == null)
+				frameIndex = new TrajectoryFrameIndex(header.numberOfAtoms);
+			else if (header.numberOfAtoms != frameIndex.getNumberOfAtoms())
+				throw new IOException("Inconsistent number of atoms in frame " + frameIndex.getNumberOfFrames() + " of " + file.getAbsolutePath());
+			frameIndex.addFrame(offset, header.step, header.time);
+			offset += header.frameSize;
+		}
+		if (frameIndex == null)
+			throw new IOException("No complete frame found in " + file.getAbsolutePath());
+		frameIndex.setEndOffset(offset);
+		return frameIndex;
+	}
+
+	/**
+	 * Get number of atoms
+	 * @return Number of atoms
+	 */
+	public int getNumberOfAtoms() {
+		return numberOfAtoms;
+	}
+
+	/**
+	 * Get number of complete frames in the file
+	 * @return Number of frames
+	 */
+	public int getNumberOfFrames() {
+		return index.getNumberOfFrames();
+	}
+
+	/**
+	 * Get frame index
+	 * @return Frame index
+	 */
+	public TrajectoryFrameIndex getIndex() {
+		return index;
+	}
+
+	/**
+	 * Get MD step number of a frame
+	 * @param frame Frame index (0-based)
+	 * @return Step number
+	 */
+	public long getStep(int frame) {
+		return index.getStep(frame);
+	}
+
+	/**
+	 * Get time of a frame
+	 * @param frame Frame index (0-based)
+	 * @return Time (ps)
+	 */
+	public float getTime(int frame) {
+		return index.getTime(frame);
+	}
+
+	/**
+	 * Get length of an MD time step, computed from the time and step number of the first two frames
+	 * @return Time step length (ps), or 0 if it cannot be computed
+	 */
+	public double getTimeStep()
+	{
+		if (index.getNumberOfFrames() < 2)
+			return 0.0;
+		long steps = index.getStep(1) - index.getStep(0);
+		if (steps <= 0)
+			return 0.0;
+		return ((double)index.getTime(1) - index.getTime(0)) / steps;
+	}
+
+	/**
+	 * Read the content of a frame (header and data)
+	 * @param frame Frame index (0-based)
+	 * @return Buffer holding the frame (big-endian, position 0), reused by the next call
+	 * @throws IOException
+	 */
+	protected ByteBuffer readFrameBytes(int frame) throws IOException
+	{
+		long offset = index.getOffset(frame);
+		int size = (int)index.getFrameSize(frame);
+		if (frameBuffer == null || frameBuffer.capacity() < size)
+			frameBuffer = ByteBuffer.allocate(size).order(ByteOrder.BIG_ENDIAN);
+		frameBuffer.clear();
+		frameBuffer.limit(size);
+		while (frameBuffer.hasRemaining()){
+			int n = channel.read(frameBuffer, offset + frameBuffer.position());
+			if (n < 0)
+				throw new IOException("Unexpected end of file " + file.getAbsolutePath() + " (frame " + frame + ")");
+		}
+		frameBuffer.flip();
+		return frameBuffer;
+	}
+
+	/**
+	 * Read bytes from the file (used to read frame headers)
+	 * @param offset Offset in the file
+	 * @param length Number of bytes to read
+	 * @return Big-endian buffer (position 0)
+	 * @throws IOException
+	 */
+	protected ByteBuffer readBytes(long offset, int length) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.BIG_ENDIAN);
+		while (buffer.hasRemaining()){
+			int n = channel.read(buffer, offset + buffer.position());
+			if (n < 0)
+				throw new IOException("Unexpected end of file " + file.getAbsolutePath() + " (offset " + offset + ")");
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Convert box vectors (3x3, nm) to box lengths (Angstroms) and angles (degrees)
+	 * @param vectors Box vectors (v1x,v1y,v1z,v2x,...)
+	 * @param box Box buffer (a,b,c,alpha,beta,gamma)
+	 */
+	protected static void setBox(double[] vectors, float[] box)
+	{
+		double a = Math.sqrt(dot(vectors, 0, 0));
+		double b = Math.sqrt(dot(vectors, 1, 1));
+		double c = Math.sqrt(dot(vectors, 2, 2));
+		box[0] = (float)a * NM_TO_ANGSTROM;
+		box[1] = (float)b * NM_TO_ANGSTROM;
+		box[2] = (float)c * NM_TO_ANGSTROM;
+		box[3] = angle(dot(vectors, 1, 2), b, c);
+		box[4] = angle(dot(vectors, 0, 2), a, c);
+		box[5] = angle(dot(vectors, 0, 1), a, b);
+	}
+
+	private static double dot(double[] vectors, int i, int j){
+		return vectors[3*i]*vectors[3*j] + vectors[3*i+1]*vectors[3*j+1] + vectors[3*i+2]*vectors[3*j+2];
+	}
+
+	private static float angle(double dot, double l1, double l2){
+		if (l1 == 0.0 || l2 == 0.0)
+			return 90.0f;
+		return (float)Math.toDegrees(Math.acos(Math.max(-1.0, Math.min(1.0, dot / (l1*l2)))));
+	}
+
+	/**
+	 * Open the trajectory for frame streaming
+	 * @param atomSelection Indexes (0-based) of the atoms to read, or null to read all atoms
+	 * @param frameStride Read every n-th frame (1 to read all frames)
+	 * @return Frame reader (closing the frame reader closes this reader)
+	 */
+	public TrajectoryFrameReader getFrameReader(int[] atomSelection, int frameStride)
+	{
+		final XDRTrajectoryReader reader = this;
+		return new TrajectoryFrameReader(numberOfAtoms, atomSelection, frameStride) {
+			private int nextFrame = 0;
+			@Override
+			protected boolean readFrame(TrajectoryFrame frame) throws IOException {
+				if (nextFrame >= reader.getNumberOfFrames())
+					return false;
+				reader.readFrame(nextFrame++, frame, selectionIndex);
+				return true;
+			}
+			@Override
+			protected boolean skipFrame() throws IOException {
+				if (nextFrame >= reader.getNumberOfFrames())
+					return false;
+				nextFrame++;
+				return true;
+			}
+			@Override
+			public void close() throws IOException {
+				reader.close();
+			}
+		};
+	}
+
+	/**
+	 * Read frame header
+	 * @param offset Offset of the frame
+	 * @param available Number of bytes available from the offset
+	 * @param header Header to fill (number of atoms, step, time, frame size)
+	 * @return False if there are not enough bytes left for a frame header
+	 * @throws IOException If the header is invalid
+	 */
+	protected abstract boolean readFrameHeader(long offset, long available, FrameHeader header) throws IOException;
+
+	/**
+	 * Copy coordinates (Angstroms) and box of a frame into a frame buffer
+	 * @param frame Frame index (0-based)
+	 * @param buffer Frame buffer
+	 * @param selectionIndex Position of each atom in the frame buffer (-1 if the atom is not selected)
+	 * @throws IOException
+	 */
+	public abstract void readFrame(int frame, TrajectoryFrame buffer, int[] selectionIndex) throws IOException;
+
+	@Override
+	public void close() throws IOException {
+		frameBuffer = null;
+		channel.close();
+		randomAccessFile.close();
+	}
+
+	/**
+	 * Information read from a frame header
+	 */
+	protected static class FrameHeader {
+		protected int numberOfAtoms;
+		protected long step;
+		protected float time;
+		protected long frameSize;
+	}
+}
@@ -0,0 +1,428 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package edu.utah.bmi.ibiomes.parse.chem.gromacs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import edu.utah.bmi.ibiomes.parse.chem.TrajectoryFrame;
+
+/**
+ * Reader for GROMACS XTC trajectories (compressed coordinates). Frame headers (step, time,
+ * number of atoms, compressed block size) are read without decompressing coordinates, so
+ * the frame index can be built quickly. The coordinate decoder follows the reference
+ * implementation of the XTC format (xdrfile library).
+ * @author Julien Thibault, University of Utah
+ *
+ */
+public class XTCTrajectoryReader extends XDRTrajectoryReader {
+
+	/**
+	 * Magic number at the beginning of each XTC frame
+	 */
+	public final static int MAGIC_NUMBER = 1995;
+	/**
+	 * Magic number of XTC frames with a 64-bit compressed block size (large systems)
+	 */
+	public final static int MAGIC_NUMBER_LARGE = 2023;
+
+	//magic, number of atoms, step, time, box (3x3), number of atoms
+	private final static int HEADER_LENGTH = 56;
+	//precision, minimum and maximum integer coordinates, small index, byte count
+	private final static int COMPRESSION_HEADER_LENGTH = 36;
+	//systems with up to 9 atoms are stored uncompressed
+	private final static int MIN_COMPRESSED_ATOMS = 10;
+
+	private final static int FIRSTIDX = 9;
+	private final static int[] MAGICINTS = {
+		0, 0, 0, 0, 0, 0, 0, 0, 0,
+		8, 10, 12, 16, 20, 25, 32, 40, 50, 64,
+		80, 101, 128, 161, 203, 256, 322, 406, 512, 645,
+		812, 1024, 1290, 1625, 2048, 2580, 3250, 4096, 5060, 6501,
+		8192, 10321, 13003, 16384, 20642, 26007, 32768, 41285, 52015, 65536,
+		82570, 104031, 131072, 165140, 208063, 262144, 330280, 416127, 524287, 660561,
+		832255, 1048576, 1321122, 1664510, 2097152, 2642245, 3329021, 4194304, 5284491, 6658042,
+		8388607, 10568983, 13316085, 16777216 };
+
+	private int[] integerCoordinates = null;
+
+	/**
+	 * Open XTC trajectory. The frame index is loaded from the sidecar file,
+	 * or built by scanning the frame headers.
+	 * @param file Trajectory file
+	 * @throws IOException
+	 */
+	public XTCTrajectoryReader(File file) throws IOException {
+		this(file, true);
+	}
+
+	/**
+	 * Open XTC trajectory
+	 * @param file Trajectory file
+	 * @param useSidecar Load/save the frame index from/to a sidecar file
+	 * @throws IOException
+	 */
+	public XTCTrajectoryReader(File file, boolean useSidecar) throws IOException {
+		super(file);
+		try {
+			loadIndex(useSidecar);
+		}
+		catch (IOException e){
+			close();
+			throw e;
+		}
+	}
+
+	@Override
+	protected boolean readFrameHeader(long offset, long available, FrameHeader header) throws IOException
+	{
+		if (available < HEADER_LENGTH)
+			return false;
+		ByteBuffer buffer = readBytes(offset, HEADER_LENGTH);
+		int magic = buffer.getInt();
+		if (magic != MAGIC_NUMBER && magic != MAGIC_NUMBER_LARGE)
+			throw new IOException("Invalid XTC frame at offset " + offset + " in " + file.getAbsolutePath() + " (magic number: " + magic + ")");
+		header.numberOfAtoms = buffer.getInt();
+		header.step = buffer.getInt();
+		header.time = buffer.getFloat();
+		if (header.numberOfAtoms < 0)
+			throw new IOException("Invalid XTC frame at offset " + offset + " in " + file.getAbsolutePath() + " (number of atoms: " + header.numberOfAtoms + ")");
+
+		if (header.numberOfAtoms < MIN_COMPRESSED_ATOMS){
+			header.frameSize = HEADER_LENGTH + 12L*header.numberOfAtoms;
+			return true;
+		}
+		int compressionHeaderLength = COMPRESSION_HEADER_LENGTH + (magic == MAGIC_NUMBER_LARGE ? 4 : 0);
+		if (available < HEADER_LENGTH + compressionHeaderLength)
+			return false;
+		buffer = readBytes(offset + HEADER_LENGTH + COMPRESSION_HEADER_LENGTH - 4, compressionHeaderLength - COMPRESSION_HEADER_LENGTH + 4);
+		long byteCount = (magic == MAGIC_NUMBER_LARGE ? buffer.getLong() : buffer.getInt());
+		if (byteCount < 0)
+			throw new IOException("Invalid XTC frame at offset " + offset + " in " + file.getAbsolutePath() + " (compressed size: " + byteCount + ")");
+		header.frameSize = HEADER_LENGTH + compressionHeaderLength + padded(byteCount);
+		return true;
+	}
+
+	@Override
+	public void readFrame(int frame, TrajectoryFrame buffer, int[] selectionIndex) throws IOException
+	{
+		ByteBuffer data = readFrameBytes(frame);
+		int magic = data.getInt();
+		data.position(16);
+		double[] vectors = new double[9];
+		boolean hasBox = false;
+		for (int i=0; i<9; i++){
+			vectors[i] = data.getFloat();
+			hasBox = hasBox || vectors[i] != 0.0;
+		}
+		buffer.setHasBox(hasBox);
+		if (hasBox)
+			setBox(vectors, buffer.getBox());
+		if (data.getInt() != numberOfAtoms)
+			throw new IOException("Invalid XTC frame " + frame + " in " + file.getAbsolutePath() + " (inconsistent number of atoms)");
+
+		float[] coordinates = buffer.getCoordinates();
+		if (numberOfAtoms < MIN_COMPRESSED_ATOMS){
+			for (int a=0; a<numberOfAtoms; a++){
+				int s = (selectionIndex == null ? a : selectionIndex[a]);
+				float x = data.getFloat();
+				float y = data.getFloat();
+				float z = data.getFloat();
+				if (s >= 0){
+					coordinates[3*s] = x * NM_TO_ANGSTROM;
+					coordinates[3*s+1] = y * NM_TO_ANGSTROM;
+					coordinates[3*s+2] = z * NM_TO_ANGSTROM;
+				}
+			}
+			return;
+		}
+
+		float precision = data.getFloat();
+		if (precision <= 0.0f)
+			throw new IOException("Invalid XTC frame " + frame + " in " + file.getAbsolutePath() + " (precision: " + precision + ")");
+		int[] minint = new int[]{ data.getInt(), data.getInt(), data.getInt() };
+		int[] maxint = new int[]{ data.getInt(), data.getInt(), data.getInt() };
+		int smallidx = data.getInt();
+		long byteCount = (magic == MAGIC_NUMBER_LARGE ? data.getLong() : data.getInt());
+		if (byteCount < 0 || byteCount > data.remaining())
+			throw new IOException("Invalid XTC frame " + frame + " in " + file.getAbsolutePath() + " (compressed size: " + byteCount + ")");
+
+		if (integerCoordinates == null)
+			integerCoordinates = new int[3*numberOfAtoms];
+		try {
+			decompress(data.array(), data.arrayOffset() + data.position(), (int)byteCount, minint, maxint, smallidx, integerCoordinates);
+		}
+		catch (ArrayIndexOutOfBoundsException e){
+			throw new IOException("Invalid XTC frame " + frame + " in " + file.getAbsolutePath() + " (corrupted coordinates)");
+		}
+
+		float scale = NM_TO_ANGSTROM / precision;
+		for (int a=0; a<numberOfAtoms; a++){
+			int s = (selectionIndex == null ? a : selectionIndex[a]);
+			if (s >= 0){
+				coordinates[3*s] = integerCoordinates[3*a] * scale;
+				coordinates[3*s+1] = integerCoordinates[3*a+1] * scale;
+				coordinates[3*s+2] = integerCoordinates[3*a+2] * scale;
+			}
+		}
+	}
+
+	/**
+	 * Decode compressed coordinates into integer coordinates (coordinates multiplied by the precision)
+	 * @param bytes Compressed data
+	 * @param offset Offset of the compressed block
+	 * @param length Length of the compressed block
+	 * @param minint Minimum integer coordinates
+	 * @param maxint Maximum integer coordinates
+	 * @param smallidx Initial index of the small-difference size in the magic integer table
+	 * @param coordinates Integer coordinate buffer (3 values per atom)
+	 * @throws IOException
+	 */
+	private void decompress(byte[] bytes, int offset, int length, int[] minint, int[] maxint, int smallidx, int[] coordinates) throws IOException
+	{
+		if (smallidx < FIRSTIDX || smallidx >= MAGICINTS.length)
+			throw new IOException("Invalid XTC compression parameters in " + file.getAbsolutePath());
+
+		int[] sizeint = new int[3];
+		int[] bitsizeint = new int[3];
+		int bitsize = 0;
+		for (int k=0; k<3; k++)
+			sizeint[k] = maxint[k] - minint[k] + 1;
+		if ((sizeint[0] | sizeint[1] | sizeint[2]) > 0xffffff){
+			for (int k=0; k<3; k++)
+				bitsizeint[k] = sizeOfInt(sizeint[k]);
+		}
+		else
+			bitsize = sizeOfInts(sizeint);
+
+		int smaller = MAGICINTS[Math.max(FIRSTIDX, smallidx - 1)] / 2;
+		int smallnum = MAGICINTS[smallidx] / 2;
+		int[] sizesmall = new int[]{ MAGICINTS[smallidx], MAGICINTS[smallidx], MAGICINTS[smallidx] };
+
+		BitReader bits = new BitReader(bytes, offset, length);
+		int[] thiscoord = new int[3];
+		int[] prevcoord = new int[3];
+		int run = 0;
+		int i = 0;
+		int out = 0;
+		while (i < numberOfAtoms)
+		{
+			if (bitsize == 0){
+				for (int k=0; k<3; k++)
+					thiscoord[k] = bits.receiveBits(bitsizeint[k]);
+			}
+			else
+				bits.receiveInts(bitsize, sizeint, thiscoord);
+			i++;
+			for (int k=0; k<3; k++){
+				thiscoord[k] += minint[k];
+				prevcoord[k] = thiscoord[k];
+			}
+
+			int isSmaller = 0;
+			if (bits.receiveBits(1) == 1){
+				run = bits.receiveBits(5);
+				isSmaller = run % 3;
+				run -= isSmaller;
+				isSmaller--;
+			}
+			if (run > 0)
+			{
+				if (i + run/3 > numberOfAtoms)
+					throw new IOException("Invalid XTC compressed block in " + file.getAbsolutePath() + " (too many atoms)");
+				for (int k=0; k<run; k+=3)
+				{
+					bits.receiveInts(smallidx, sizesmall, thiscoord);
+					i++;
+					for (int d=0; d<3; d++)
+						thiscoord[d] += prevcoord[d] - smallnum;
+					if (k == 0){
+						//first and second atoms are swapped (better compression of water molecules)
+						for (int d=0; d<3; d++){
+							int tmp = thiscoord[d];
+							thiscoord[d] = prevcoord[d];
+							prevcoord[d] = tmp;
+						}
+						for (int d=0; d<3; d++)
+							coordinates[out++] = prevcoord[d];
+					}
+					else {
+						for (int d=0; d<3; d++)
+							prevcoord[d] = thiscoord[d];
+					}
+					for (int d=0; d<3; d++)
+						coordinates[out++] = thiscoord[d];
+				}
+			}
+			else {
+				for (int d=0; d<3; d++)
+					coordinates[out++] = thiscoord[d];
+			}
+
+			smallidx += isSmaller;
+			if (smallidx < FIRSTIDX || smallidx >= MAGICINTS.length)
+				throw new IOException("Invalid XTC compressed block in " + file.getAbsolutePath());
+			if (isSmaller < 0){
+				smallnum = smaller;
+				smaller = (smallidx > FIRSTIDX ? MAGICINTS[smallidx - 1] / 2 : 0);
+			}
+			else if (isSmaller > 0){
+				smaller = smallnum;
+				smallnum = MAGICINTS[smallidx] / 2;
+			}
+			sizesmall[0] = sizesmall[1] = sizesmall[2] = MAGICINTS[smallidx];
+		}
+	}
+
+	/**
+	 * Get number of bits needed to store an integer
+	 * @param size Upper bound (exclusive) of the integer
+	 * @return Number of bits
+	 */
+	private static int sizeOfInt(int size)
+	{
+		long num = 1;
+		int nbits = 0;
+		while ((size & 0xffffffffL) >= num && nbits < 32){
+			nbits++;
+			num <<= 1;
+		}
+		return nbits;
+	}
+
+	/**
+	 * Get number of bits needed to store 3 integers packed as a single large integer
+	 * @param sizes Upper bounds (exclusive) of the integers
+	 * @return Number of bits
+	 */
+	private static int sizeOfInts(int[] sizes)
+	{
+		int[] bytes = new int[32];
+		int nbytes = 1;
+		bytes[0] = 1;
+		for (int i=0; i<sizes.length; i++){
+			long tmp = 0;
+			int bytecnt;
+			for (bytecnt=0; bytecnt<nbytes; bytecnt++){
+				tmp = bytes[bytecnt] * (sizes[i] & 0xffffffffL) + tmp;
+				bytes[bytecnt] = (int)(tmp & 0xff);
+				tmp >>>= 8;
+			}
+			while (tmp != 0){
+				bytes[bytecnt++] = (int)(tmp & 0xff);
+				tmp >>>= 8;
+			}
+			nbytes = bytecnt;
+		}
+		int num = 1;
+		int nbits = 0;
+		nbytes--;
+		while (bytes[nbytes] >= num){
+			nbits++;
+			num *= 2;
+		}
+		return nbits + nbytes*8;
+	}
+
+	private static long padded(long length){
+		return ((length + 3) / 4) * 4;
+	}
+
+	/**
+	 * Bit-level reader over the compressed block (most significant bits first)
+	 */
+	private static class BitReader {
+
+		private byte[] bytes;
+		private int position;
+		private int end;
+		private int lastBits = 0;
+		private int lastByte = 0;
+		private int[] intBytes = new int[32];
+
+		private BitReader(byte[] bytes, int offset, int length){
+			this.bytes = bytes;
+			this.position = offset;
+			this.end = offset + length;
+		}
+
+		private int nextByte(){
+			if (position >= end)
+				throw new ArrayIndexOutOfBoundsException(position);
+			return bytes[position++] & 0xff;
+		}
+
+		/**
+		 * Read unsigned integer
+		 * @param nbits Number of bits
+		 * @return Value
+		 */
+		private int receiveBits(int nbits)
+		{
+			int mask = (nbits >= 32 ? -1 : (1 << nbits) - 1);
+			int num = 0;
+			while (nbits >= 8){
+				lastByte = (lastByte << 8) | nextByte();
+				num |= (lastByte >>> lastBits) << (nbits - 8);
+				nbits -= 8;
+			}
+			if (nbits > 0){
+				if (lastBits < nbits){
+					lastBits += 8;
+					lastByte = (lastByte << 8) | nextByte();
+				}
+				lastBits -= nbits;
+				num |= (lastByte >>> lastBits) & ((1 << nbits) - 1);
+			}
+			return num & mask;
+		}
+
+		/**
+		 * Read 3 integers packed as a single large integer
+		 * @param nbits Number of bits of the packed integer
+		 * @param sizes Upper bounds (exclusive) of the integers
+		 * @param nums Integer buffer
+		 */
+		private void receiveInts(int nbits, int[] sizes, int[] nums)
+		{
+			int nbytes = 0;
+			intBytes[0] = intBytes[1] = intBytes[2] = intBytes[3] = 0;
+			while (nbits > 8){
+				intBytes[nbytes++] = receiveBits(8);
+				nbits -= 8;
+			}
+			if (nbits > 0)
+				intBytes[nbytes++] = receiveBits(nbits);
+			for (int i=2; i>0; i--){
+				long num = 0;
+				long size = sizes[i] & 0xffffffffL;
+				for (int j=nbytes-1; j>=0; j--){
+					num = (num << 8) | intBytes[j];
+					long p = num / size;
+					intBytes[j] = (int)p;
+					num = num - p*size;
+				}
+				nums[i] = (int)num;
+			}
+			nums[0] = intBytes[0] | (intBytes[1] << 8) | (intBytes[2] << 16) | (intBytes[3] << 24);
+		}
+	}
+}
@@ -34,13 +34,14 @@ import edu.utah.bmi.ibiomes.experiment.comp.mm.MDParameterSet;
 import edu.utah.bmi.ibiomes.experiment.comp.mm.MDTask;
 import edu.utah.bmi.ibiomes.experiment.comp.qm.QMParameterSet;
 import edu.utah.bmi.ibiomes.experiment.comp.qm.QMTask;
-import edu.utah.bmi.ibiomes.io.IBIOMESFileReader;
 import edu.utah.bmi.ibiomes.metadata.MetadataAVU;
 import edu.utah.bmi.ibiomes.metadata.MetadataAVUList;
 import edu.utah.bmi.ibiomes.metadata.MethodMetadata;
 import edu.utah.bmi.ibiomes.metadata.PlatformMetadata;
 import edu.utah.bmi.ibiomes.parse.LocalFile;
 import edu.utah.bmi.ibiomes.parse.chem.AbstractProcessGroupSetFile;
+import edu.utah.bmi.ibiomes.parse.chem.OutputFileScanner;
+import edu.utah.bmi.ibiomes.parse.chem.OutputMarker;
 import edu.utah.bmi.ibiomes.topo.Atom;
 import edu.utah.bmi.ibiomes.topo.MolecularSystem;
 import edu.utah.bmi.ibiomes.topo.MolecularSystemFactory;
@@ -120,6 +121,8 @@ public class NWChemOutputFile extends AbstractProcessGroupSetFile
 	 */
 	@Override
 	public MetadataAVUList getMetadata() throws Exception{
+		if (hasCachedMetadata())
+			return getCachedMetadata();
 		
 		//get parameter/topology file metadata
 		MetadataAVUList metadata = super.getMetadata();
@@ -168,277 +171,217 @@ public class NWChemOutputFile extends AbstractProcessGroupSetFile
 		interface api         qmmm:interface        qm              
 		*/
 
-		ArrayList<String> basisSets =  new ArrayList<String>();
+		final ArrayList<String> basisSets =  new ArrayList<String>();
+		final List<MolecularSystem> systems = new ArrayList<MolecularSystem>();
+		ArrayList<String> relatedFiles = new ArrayList<String>();
+		relatedFiles.add(this.getCanonicalPath());
 		
-		IBIOMESFileReader br = null;
-	    String line = null;
-	    boolean found = false;
-	    
-	    try{
-			List<MolecularSystem> systems = new ArrayList<MolecularSystem>();
-			ArrayList<String> relatedFiles = new ArrayList<String>();
-			relatedFiles.add(this.getCanonicalPath());
-	    	br = new IBIOMESFileReader(this);
-	    	
-	    	//skip empty lines
-	    	boolean isEmpty = true;
-	    	while (isEmpty){
-	    		line = br.readLine().trim();
-	    		if (line.length()>0)
-	    			isEmpty = false;
-	    	}
-	    	
-	    	//check if its a an MD ouput
-			if (line.startsWith(mdOutputMarker)){
-				isMDOutput = true;
-				method = ParameterSet.METHOD_MD;
-				found = true;
+		OutputFileScanner scanner = new OutputFileScanner(this);
+		String line = null;
+		try{
+			//skip empty lines
+			boolean isEmpty = true;
+			while (isEmpty){
+				line = scanner.readLine().trim();
+				if (line.length()>0)
+					isEmpty = false;
 			}
-			
-			//MD info
-			if (isMDOutput)
-			{
-				//force field
-				found = false;
-				while (( line = br.readLine()) != null && !found)
-				{
-					line = line.trim();
-					if (line.matches(forceFieldMarker)){
-						forceField = line.substring("Force field ".length()).trim().toUpperCase();
-						found = true;
-					}
+		}
+		catch (Exception e){
+			scanner.close();
+			throw e;
+		}
+		
+		//check if its a an MD ouput
+		if (line.startsWith(mdOutputMarker)){
+			isMDOutput = true;
+			method = ParameterSet.METHOD_MD;
+		}
+		
+		//MD info
+		if (isMDOutput)
+		{
+			//force field
+			scanner.addMarker(new OutputMarker("Force field", forceFieldMarker, 1) {
+				public void onMatch(String line, OutputFileScanner scanner) throws Exception {
+					forceField = line.substring("Force field ".length()).trim().toUpperCase();
 				}
-			}
-			//QM info
-			else {
-		    	found = false;
-		    	
-		    	//title / software version
-				while (( line = br.readLine()) != null && !found)
-				{
-					line = line.trim();
-					if (line.startsWith(titleMarker)){
-						software.setVersion(line.substring(titleMarker.length()).trim());
-						found = true;
-					}
+			});
+			scanner.scan();
+		}
+		//QM info
+		else {
+			//title / software version
+			OutputMarker titleOutputMarker = scanner.addMarker(new OutputMarker(titleMarker, 1) {
+				public void onMatch(String line, OutputFileScanner scanner) throws Exception {
+					software.setVersion(line.substring(titleMarker.length()).trim());
 				}
-		    	
-		    	if (found == false){
-					br.close();
-					throw new IOException("NWChem output file header (software package version) not found!");
+			});
+			
+			//timestamp
+			scanner.addMarker(new OutputMarker("date", timestampMarker, 1) {
+				public void onMatch(String line, OutputFileScanner scanner) throws Exception {
+					String[] splitLine = line.split("\\=");
+					timestamp = splitLine[1].trim();
 				}
-		    		
-		    	//timestamp
-				while (( line = br.readLine()) != null && !found)
-				{
-					line = line.trim();
-					if (line.matches(timestampMarker)){
-						String[] splitLine = line.split("\\=");
-						timestamp = splitLine[1].trim();
-						found = true;
+			});
+			
+			//topology info
+			scanner.addMarker(new OutputMarker("Tag", topologyMarker, 1) {
+				public void onMatch(String line, OutputFileScanner scanner) throws Exception {
+					line = scanner.readLine(); //skip one line
+					ArrayList<Atom> atomList = new ArrayList<Atom>();
+					int a = 0;
+					while (( line = scanner.readLine()) != null && line.trim().length()>0){
+						String[] lineSplit = line.trim().split("\\s+");
+						String atomName = lineSplit[1];
+						String atomType = atomName;
+						if (atomType.startsWith("bq"))
+							atomType = atomType.substring(2);
+						else if (atomType.startsWith("X") && atomType.matches("[A-Z][A-Z].*"))
+							atomType = atomType.substring(1);
+						
+						AtomicElement element = periodicTable.getElementBySymbol(atomType);
+						String symbol = atomType;
+						if (element != null)
+							symbol = element.getSymbol();
+						Atom atom = new Atom(a, atomName, symbol);
+						atom.setCharge(Float.parseFloat(lineSplit[2]));
+						double x = Double.parseDouble(lineSplit[3]);
+						double y = Double.parseDouble(lineSplit[4]);
+						double z = Double.parseDouble(lineSplit[5]);
+						atom.setCoordinates( x, y , z);
+						atomList.add(atom);
+						a++;
 					}
-				}
-				
-				if (found == false){
-					br.close();
-					br = new IBIOMESFileReader(this);
-				}
-				else found = false;
-				
-				//topology info
-				
-				while (( line = br.readLine()) != null && !found)
-				{
-					line = line.trim();
-					if (line.matches(topologyMarker)){
-						line = br.readLine(); //skip one line
-						ArrayList<Atom> atomList = new ArrayList<Atom>();
-						int a = 0;
-						while (( line = br.readLine()) != null && line.trim().length()>0){
-							String[] lineSplit = line.trim().split("\\s+");
-							String atomName = lineSplit[1];
-							String atomType = atomName;
-							if (atomType.startsWith("bq"))
-								atomType = atomType.substring(2);
-							else if (atomType.startsWith("X") && atomType.matches("[A-Z][A-Z].*"))
-								atomType = atomType.substring(1);
-							
-							AtomicElement element = periodicTable.getElementBySymbol(atomType);
-							String symbol = atomType;
-							if (element != null)
-								symbol = element.getSymbol();
-							Atom atom = new Atom(a, atomName, symbol);
-							atom.setCharge(Float.parseFloat(lineSplit[2]));
-							double x = Double.parseDouble(lineSplit[3]);
-							double y = Double.parseDouble(lineSplit[4]);
-							double z = Double.parseDouble(lineSplit[5]);
-							atom.setCoordinates( x, y , z);
-							atomList.add(atom);
-							a++;
-						}
-						if (atomList!=null && atomList.size()>0){
-							MolecularSystemFactory moleculeFactory = new MolecularSystemFactory();
-			    			MolecularSystem molecularSystem = moleculeFactory.identifyMoleculesUsingAtoms(atomList, true);
-			    			molecularSystem.setDefinitionFiles(this.getCanonicalPath());
-			    			systems.add(molecularSystem);
-					        
-						}
-						found = true;
+					if (atomList!=null && atomList.size()>0){
+						MolecularSystemFactory moleculeFactory = new MolecularSystemFactory();
+						MolecularSystem molecularSystem = moleculeFactory.identifyMoleculesUsingAtoms(atomList, true);
+						molecularSystem.setDefinitionFiles(getCanonicalPath());
+						systems.add(molecularSystem);
 					}
 				}
-				
-				if (found == false){
-					br.close();
-					br = new IBIOMESFileReader(this);
-				}
-				else found = false;
-				
-				
-				//basis set info
-				
-				while (( line = br.readLine()) != null && !found)
-				{
-					line = line.trim();
-					if (line.matches(basisSetsMarker)){
-						line = br.readLine(); //skip one line
-						while (( line = br.readLine()) != null && line.trim().length()>0){
-							String[] lineSplit = line.trim().split("\\s+");
-							String basisSet = lineSplit[1];
-							if (!basisSets.contains(basisSet)){
-			    				basisSets.add(basisSet);
-		    				}
+			});
+			
+			//basis set info
+			scanner.addMarker(new OutputMarker("Tag", basisSetsMarker, 1) {
+				public void onMatch(String line, OutputFileScanner scanner) throws Exception {
+					line = scanner.readLine(); //skip one line
+					while (( line = scanner.readLine()) != null && line.trim().length()>0){
+						String[] lineSplit = line.trim().split("\\s+");
+						String basisSet = lineSplit[1];
+						if (!basisSets.contains(basisSet)){
+							basisSets.add(basisSet);
 						}
-						found = true;
-					}
-				}
-				
-				if (found == false){
-					br.close();
-					br = new IBIOMESFileReader(this);
-				}
-				else found = false;
-								
-				// General info (method, charge, spin multiplicity, number of electrons)	
-				
-				while (( line = br.readLine()) != null && !found)
-				{
-					line = line.trim();
-					if (line.matches(scfCalculationTypeMarker))
-					{
-						//method
-						String[] values = line.split("\\:");
-						levelOfTheory = values[1].trim();
-						//wavefunction type
-						line = br.readLine().trim();
-						values = line.split("\\:");
-						wavefunctionType = values[1].trim();
-						//number of atoms
-						line = br.readLine().trim();
-						values = line.split("\\:");
-						nAtoms = Integer.parseInt(values[1].trim());
-						//number of electrons
-						line = br.readLine().trim();
-						values = line.split("\\:");
-						electronCount = Integer.parseInt(values[1].trim());
-						//number of alpha electrons
-						line = br.readLine().trim();
-						values = line.split("\\:");
-						electronCountAlpha = Integer.parseInt(values[1].trim());
-						//number of beta electrons
-						line = br.readLine().trim();
-						values = line.split("\\:");
-						electronCountBeta = Integer.parseInt(values[1].trim());
-						//charge
-						line = br.readLine().trim();
-						values = line.split("\\:");
-						charge = Integer.parseInt(values[1].trim());
-						//spin multiplicity
-						line = br.readLine().trim();
-						values = line.split("\\:");
-						multiplicity = Integer.parseInt(values[1].trim());
-						
-						found = true;
 					}
 				}
-				
-				if (found == false){
-					br.close();
-					br = new IBIOMESFileReader(this);
+			});
+							
+			// General info (method, charge, spin multiplicity, number of electrons)	
+			scanner.addMarker(new OutputMarker("SCF calculation type:", scfCalculationTypeMarker, 1) {
+				public void onMatch(String line, OutputFileScanner scanner) throws Exception {
+					//method
+					String[] values = line.split("\\:");
+					levelOfTheory = values[1].trim();
+					//wavefunction type
+					line = scanner.readLine().trim();
+					values = line.split("\\:");
+					wavefunctionType = values[1].trim();
+					//number of atoms
+					line = scanner.readLine().trim();
+					values = line.split("\\:");
+					nAtoms = Integer.parseInt(values[1].trim());
+					//number of electrons
+					line = scanner.readLine().trim();
+					values = line.split("\\:");
+					electronCount = Integer.parseInt(values[1].trim());
+					//number of alpha electrons
+					line = scanner.readLine().trim();
+					values = line.split("\\:");
+					electronCountAlpha = Integer.parseInt(values[1].trim());
+					//number of beta electrons
+					line = scanner.readLine().trim();
+					values = line.split("\\:");
+					electronCountBeta = Integer.parseInt(values[1].trim());
+					//charge
+					line = scanner.readLine().trim();
+					values = line.split("\\:");
+					charge = Integer.parseInt(values[1].trim());
+					//spin multiplicity
+					line = scanner.readLine().trim();
+					values = line.split("\\:");
+					multiplicity = Integer.parseInt(values[1].trim());
 				}
-				else found = false;
-			}
-				
-			br.close();
+			});
 			
-			//add corresponding method
-
-			ArrayList<ExperimentTask> tasks = new ArrayList<ExperimentTask>();
-			if (method.equals(ParameterSet.METHOD_QM))
-			{
-				QMParameterSet qm = new QMParameterSet();
-				if (levelOfTheory!=null)
-					qm.setSpecificMethodName(levelOfTheory);
-				if (basisSets!=null)
-					qm.setBasisSets(basisSets);
-				qm.setTotalCharge(charge);
-				qm.setSpinMultiplicity(multiplicity);
-				
-				QMTask task = new QMTask(qm);
-				task.setSoftware(software);
-				task.setOutputFiles(relatedFiles);
-				tasks.add(task);
+			//read file once
+			scanner.scan();
+			
+			if (titleOutputMarker.getMatchCount() == 0){
+				throw new IOException("NWChem output file header (software package version) not found!");
 			}
-			else {
-				MDParameterSet md = new MDParameterSet();
-				if (forceField!=null)
-					md.setForceField(forceField);
+		}
+		
+		//add corresponding method
 
-				MDTask task = new MDTask(md);
-				task.setSoftware(software);
-				task.setOutputFiles(relatedFiles);
-				tasks.add(task);
-			}
+		ArrayList<ExperimentTask> tasks = new ArrayList<ExperimentTask>();
+		if (method.equals(ParameterSet.METHOD_QM))
+		{
+			QMParameterSet qm = new QMParameterSet();
+			if (levelOfTheory!=null)
+				qm.setSpecificMethodName(levelOfTheory);
+			if (basisSets!=null)
+				qm.setBasisSets(basisSets);
+			qm.setTotalCharge(charge);
+			qm.setSpinMultiplicity(multiplicity);
 			
-			//create processes with molecular systems and methods
-			this.processGroups = new ArrayList<ExperimentProcessGroup>();
-			//if multiple systems, create multiple processes
-	    	if (systems.size()>1)
-	    	{
-	    		//if n methods = n systems assume 1 for 1
-	    		if (systems.size() == tasks.size()){
-	    			int m=0;
-	    			for (MolecularSystem system : systems){
-	    				
-	    				ExperimentProcessGroup processGroup = new ExperimentProcessGroup(
-	    						null, 
-	    						tasks.get(m).getDescription(), 
-	    						system, 
-	    						new ExperimentProcess(null, tasks.get(m).getDescription(), tasks.get(m)));
-	    				m++;
-	    				this.processGroups.add(processGroup);
-	    				//System.out.println(process.toString());
-	    			}
-	    		}
-	    		else{
-	    			//TODO handle 'set geometry' markers to assign correct geometry to the methods
-	    		}
-	    	}
-	    	else {
-	    		MolecularSystem molecularSystem = null;
-	    		if (systems.size()>0)
-	    			molecularSystem = systems.get(0);
-	    		ExperimentProcess process = new ExperimentProcess(null, null, tasks);
-	    		ExperimentProcessGroup processGroup = new ExperimentProcessGroup(null, null, molecularSystem, process);
-	    		processGroups.add(processGroup);
-	    	}
-	    }
-		catch (Exception e){
-			if (br!=null)
-				try {
-					br.close();
-				} catch (IOException e1) {
+			QMTask task = new QMTask(qm);
+			task.setSoftware(software);
+			task.setOutputFiles(relatedFiles);
+			tasks.add(task);
+		}
+		else {
+			MDParameterSet md = new MDParameterSet();
+			if (forceField!=null)
+				md.setForceField(forceField);
+
+			MDTask task = new MDTask(md);
+			task.setSoftware(software);
+			task.setOutputFiles(relatedFiles);
+			tasks.add(task);
+		}
+		
+		//create processes with molecular systems and methods
+		this.processGroups = new ArrayList<ExperimentProcessGroup>();
+		//if multiple systems, create multiple processes
+		if (systems.size()>1)
+		{
+			//if n methods = n systems assume 1 for 1
+			if (systems.size() == tasks.size()){
+				int m=0;
+				for (MolecularSystem system : systems){
+					
+					ExperimentProcessGroup processGroup = new ExperimentProcessGroup(
+							null, 
+							tasks.get(m).getDescription(), 
+							system, 
+							new ExperimentProcess(null, tasks.get(m).getDescription(), tasks.get(m)));
+					m++;
+					this.processGroups.add(processGroup);
+					//System.out.println(process.toString());
 				}
-			throw e;
+			}
+			else{
+				//TODO handle 'set geometry' markers to assign correct geometry to the methods
+			}
+		}
+		else {
+			MolecularSystem molecularSystem = null;
+			if (systems.size()>0)
+				molecularSystem = systems.get(0);
+			ExperimentProcess process = new ExperimentProcess(null, null, tasks);
+			ExperimentProcessGroup processGroup = new ExperimentProcessGroup(null, null, molecularSystem, process);
+			processGroups.add(processGroup);
 		}
 	}
 }
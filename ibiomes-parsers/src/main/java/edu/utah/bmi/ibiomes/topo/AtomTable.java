@@ -0,0 +1,397 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.topo;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.utah.bmi.ibiomes.dictionaries.AtomicElement;
+import edu.utah.bmi.ibiomes.dictionaries.PeriodicTable;
+
+/**
+ * Columnar list of atoms for large systems. Atom properties are stored in parallel
+ * primitive arrays, names and types in string pools, and bonds in compressed sparse
+ * row format (partners of atom a are bondPartners[bondStart[a]] to bondPartners[bondStart[a+1]-1]).
+ * Atom objects can be created from the table when the object model is needed.
+ * @author Julien Thibault, University of Utah
+ *
+ */
+public class AtomTable {
+
+	private int size = 0;
+	private int[] ids;
+	private int[] nameIds;
+	private int[] typeIds;
+	private float[] charges;
+	private double[] masses;
+	private short[] elements;
+	private float[] coordinates = null;
+	private StringPool names;
+	private StringPool types;
+
+	//bonds as pairs of atom indexes until the CSR index is built
+	private int bondCount = 0;
+	private int[] bondPairs;
+	private int[] bondStart = null;
+	private int[] bondPartners = null;
+
+	/**
+	 * New atom table
+	 * @param initialCapacity Expected number of atoms
+	 */
+	public AtomTable(int initialCapacity){
+		int capacity = Math.max(initialCapacity, 16);
+		this.ids = new int[capacity];
+		this.nameIds = new int[capacity];
+		this.typeIds = new int[capacity];
+		this.charges = new float[capacity];
+		this.masses = new double[capacity];
+		this.elements = new short[capacity];
+		this.bondPairs = new int[2*capacity];
+		this.names = new StringPool();
+		this.types = new StringPool();
+	}
+
+	/**
+	 * Add atom to the table
+	 * @param id Atom ID
+	 * @param name Atom name
+	 * @param type Atom type
+	 * @param charge Atom charge
+	 * @param mass Atom mass
+	 * @param element Atomic element (null if unknown)
+	 * @return Index of the new atom
+	 */
+	public int addAtom(int id, String name, String type, float charge, double mass, AtomicElement element)
+	{
+		if (size == ids.length)
+			grow(Math.max(2*size, 16));
+		ids[size] = id;
+		nameIds[size] = names.intern(name);
+		typeIds[size] = types.intern(type);
+		charges[size] = charge;
+		masses[size] = mass;
+		elements[size] = (short)(element != null ? element.getAtomicNumber() : 0);
+		return size++;
+	}
+
+	/**
+	 * Set atom coordinates
+	 * @param atom Atom index
+	 * @param x X coordinate
+	 * @param y Y coordinate
+	 * @param z Z coordinate
+	 */
+	public void setCoordinates(int atom, float x, float y, float z)
+	{
+		checkIndex(atom);
+		if (coordinates == null || coordinates.length < 3*ids.length){
+			float[] newCoordinates = new float[3*ids.length];
+			if (coordinates == null)
+				Arrays.fill(newCoordinates, Float.NaN);
+			else {
+				System.arraycopy(coordinates, 0, newCoordinates, 0, coordinates.length);
+				Arrays.fill(newCoordinates, coordinates.length, newCoordinates.length, Float.NaN);
+			}
+			coordinates = newCoordinates;
+		}
+		coordinates[3*atom] = x;
+		coordinates[3*atom+1] = y;
+		coordinates[3*atom+2] = z;
+	}
+
+	/**
+	 * Add bond between 2 atoms
+	 * @param atom1 Index of atom 1
+	 * @param atom2 Index of atom 2
+	 */
+	public void addBond(int atom1, int atom2)
+	{
+		checkIndex(atom1);
+		checkIndex(atom2);
+		if (2*bondCount == bondPairs.length)
+			bondPairs = Arrays.copyOf(bondPairs, 2*Math.max(1, 2*bondCount));
+		bondPairs[2*bondCount] = atom1;
+		bondPairs[2*bondCount+1] = atom2;
+		bondCount++;
+		bondStart = null;
+		bondPartners = null;
+	}
+
+	/**
+	 * Get number of atoms
+	 * @return Number of atoms
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Get atom ID
+	 * @param atom Atom index
+	 * @return Atom ID
+	 */
+	public int getId(int atom) {
+		checkIndex(atom);
+		return ids[atom];
+	}
+
+	/**
+	 * Get atom name
+	 * @param atom Atom index
+	 * @return Atom name
+	 */
+	public String getName(int atom) {
+		checkIndex(atom);
+		return names.get(nameIds[atom]);
+	}
+
+	/**
+	 * Get atom type
+	 * @param atom Atom index
+	 * @return Atom type
+	 */
+	public String getType(int atom) {
+		checkIndex(atom);
+		return types.get(typeIds[atom]);
+	}
+
+	/**
+	 * Get atom charge
+	 * @param atom Atom index
+	 * @return Atom charge
+	 */
+	public float getCharge(int atom) {
+		checkIndex(atom);
+		return charges[atom];
+	}
+
+	/**
+	 * Get atom mass
+	 * @param atom Atom index
+	 * @return Atom mass
+	 */
+	public double getMass(int atom) {
+		checkIndex(atom);
+		return masses[atom];
+	}
+
+	/**
+	 * Get atomic element
+	 * @param atom Atom index
+	 * @return Atomic element or null if unknown
+	 */
+	public AtomicElement getElement(int atom) {
+		checkIndex(atom);
+		if (elements[atom] == 0)
+			return null;
+		return PeriodicTable.getInstance().getElementByAtomicNumber(elements[atom]);
+	}
+
+	/**
+	 * Check if coordinates were set for the given atom
+	 * @param atom Atom index
+	 * @return True if coordinates are available
+	 */
+	public boolean hasCoordinates(int atom) {
+		checkIndex(atom);
+		return (coordinates != null && 3*atom < coordinates.length && !Float.isNaN(coordinates[3*atom]));
+	}
+
+	/**
+	 * Get X coordinate
+	 * @param atom Atom index
+	 * @return X coordinate
+	 */
+	public float getX(int atom) {
+		return getCoordinate(atom, 0);
+	}
+
+	/**
+	 * Get Y coordinate
+	 * @param atom Atom index
+	 * @return Y coordinate
+	 */
+	public float getY(int atom) {
+		return getCoordinate(atom, 1);
+	}
+
+	/**
+	 * Get Z coordinate
+	 * @param atom Atom index
+	 * @return Z coordinate
+	 */
+	public float getZ(int atom) {
+		return getCoordinate(atom, 2);
+	}
+
+	/**
+	 * Get number of bonds
+	 * @return Number of bonds
+	 */
+	public int getBondCount() {
+		return bondCount;
+	}
+
+	/**
+	 * Get number of atoms bonded to the given atom
+	 * @param atom Atom index
+	 * @return Number of bonded atoms
+	 */
+	public int getBondedAtomCount(int atom) {
+		checkIndex(atom);
+		buildBondIndex();
+		return bondStart[atom+1] - bondStart[atom];
+	}
+
+	/**
+	 * Get index of the k-th atom bonded to the given atom
+	 * @param atom Atom index
+	 * @param k Bonded atom rank (0 to getBondedAtomCount(atom)-1)
+	 * @return Index of the bonded atom
+	 */
+	public int getBondedAtom(int atom, int k) {
+		checkIndex(atom);
+		buildBondIndex();
+		if (k < 0 || k >= bondStart[atom+1] - bondStart[atom])
+			throw new IndexOutOfBoundsException("Bonded atom rank: " + k);
+		return bondPartners[bondStart[atom] + k];
+	}
+
+	/**
+	 * Release unused capacity once the table is filled
+	 */
+	public void trimToSize()
+	{
+		if (ids.length > size)
+			grow(size);
+		if (bondPairs.length > 2*bondCount)
+			bondPairs = Arrays.copyOf(bondPairs, 2*bondCount);
+	}
+
+	/**
+	 * Create atom object from the table (without residue, coordinates or bonds)
+	 * @param atom Atom index
+	 * @return Atom
+	 */
+	public Atom createAtom(int atom)
+	{
+		Atom a = new Atom(getId(atom), getName(atom), getCharge(atom), getMass(atom), getType(atom), getElement(atom));
+		if (hasCoordinates(atom))
+			a.setCoordinates(getX(atom), getY(atom), getZ(atom));
+		return a;
+	}
+
+	/**
+	 * Create atom objects from the table. Lists of bonded atoms are views
+	 * on the bond index of the table.
+	 * @return List of atoms
+	 */
+	public List<Atom> createAtoms()
+	{
+		buildBondIndex();
+		Atom[] atoms = new Atom[size];
+		for (int a=0; a<size; a++)
+			atoms[a] = createAtom(a);
+		for (int a=0; a<size; a++){
+			if (bondStart[a+1] > bondStart[a])
+				atoms[a].setBondedAtoms(new BondedAtomList(atoms, bondPartners, bondStart[a], bondStart[a+1]));
+		}
+		return new ArrayList<Atom>(Arrays.asList(atoms));
+	}
+
+	/**
+	 * Build bond index (CSR) from the list of bonds. Partners are stored in the order bonds were added.
+	 */
+	private void buildBondIndex()
+	{
+		if (bondStart != null && bondStart.length == size+1)
+			return;
+		bondStart = new int[size+1];
+		for (int b=0; b<2*bondCount; b++)
+			bondStart[bondPairs[b]+1]++;
+		for (int a=0; a<size; a++)
+			bondStart[a+1] += bondStart[a];
+		bondPartners = new int[2*bondCount];
+		int[] fill = Arrays.copyOf(bondStart, size);
+		for (int b=0; b<bondCount; b++){
+			int a1 = bondPairs[2*b];
+			int a2 = bondPairs[2*b+1];
+			bondPartners[fill[a1]++] = a2;
+			bondPartners[fill[a2]++] = a1;
+		}
+	}
+
+	private float getCoordinate(int atom, int dim){
+		checkIndex(atom);
+		if (coordinates == null || 3*atom >= coordinates.length)
+			return Float.NaN;
+		return coordinates[3*atom + dim];
+	}
+
+	private void grow(int capacity){
+		ids = Arrays.copyOf(ids, capacity);
+		nameIds = Arrays.copyOf(nameIds, capacity);
+		typeIds = Arrays.copyOf(typeIds, capacity);
+		charges = Arrays.copyOf(charges, capacity);
+		masses = Arrays.copyOf(masses, capacity);
+		elements = Arrays.copyOf(elements, capacity);
+		if (coordinates != null && coordinates.length > 3*capacity)
+			coordinates = Arrays.copyOf(coordinates, 3*capacity);
+	}
+
+	private void checkIndex(int atom){
+		if (atom < 0 || atom >= size)
+			throw new IndexOutOfBoundsException("Atom index: " + atom + ", number of atoms: " + size);
+	}
+
+	/**
+	 * Read-only list of bonded atoms backed by the bond index of the table
+	 * @author Julien Thibault, University of Utah
+	 *
+	 */
+	private static class BondedAtomList extends AbstractList<Atom> {
+
+		private Atom[] atoms;
+		private int[] bondPartners;
+		private int start;
+		private int end;
+
+		private BondedAtomList(Atom[] atoms, int[] bondPartners, int start, int end){
+			this.atoms = atoms;
+			this.bondPartners = bondPartners;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public Atom get(int index) {
+			if (index < 0 || index >= end - start)
+				throw new IndexOutOfBoundsException("Bonded atom rank: " + index);
+			return atoms[bondPartners[start + index]];
+		}
+
+		@Override
+		public int size() {
+			return end - start;
+		}
+	}
+}
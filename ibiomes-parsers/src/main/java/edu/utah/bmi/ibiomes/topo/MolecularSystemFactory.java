@@ -20,10 +20,17 @@ package edu.utah.bmi.ibiomes.topo;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 import org.apache.log4j.Logger;
 
+import edu.utah.bmi.ibiomes.conf.IBIOMESConfiguration;
 import edu.utah.bmi.ibiomes.dictionaries.AtomicElement;
 import edu.utah.bmi.ibiomes.dictionaries.PeriodicTable;
 import edu.utah.bmi.ibiomes.topo.bio.Biomolecule;
@@ -41,11 +48,108 @@ public class MolecularSystemFactory {
 
 	private final Logger logger = Logger.getLogger(MolecularSystemFactory.class);
 	private double bondLengthMargin = 0.08d;
+	private int numberOfThreads = 1;
+	
+	/**
+	 * Bond length cutoff for pairs of elements missing from BOND_LENGTH_CUTOFFS
+	 */
+	private final static double DEFAULT_BOND_LENGTH_CUTOFF = 1.60d;
+	
+	/**
+	 * Optimal covalent bond distances indexed by element names. When multiple hybridizations 
+	 * are possible the longest possible bond length is used.
+	 * Unless otherwise noted values taken from:
+	 * - Huheey, pps. A-21 to A-34; T.L. Cottrell, "The Strengths of Chemical Bonds," 
+	 *       2nd ed., Butterworths, London, 1958; 
+	 * - B. deB. Darwent, "National Standard Reference Data Series," National Bureau of Standards, 
+	 *       No. 31, Washington, DC, 1970; S.W. Benson, J. Chem. Educ., 42, 502 (1965).
+	 * Can be found on the web at:
+	 * - http://www.wiredchemist.com/chemistry/data/bond_energies_lengths.html
+	 */
+	private final static HashMap<String, HashMap<String, Double>> BOND_LENGTH_CUTOFFS = new HashMap<String, HashMap<String, Double>>();
+	
+	/**
+	 * Longest bond length cutoff returned by getBondLengthCutoff()
+	 */
+	public final static double MAX_BOND_LENGTH_CUTOFF;
+	
+	static {
+		// Self
+		addBondLengthCutoff(PeriodicTable.HYDROGEN, PeriodicTable.HYDROGEN, 0.74);
+		addBondLengthCutoff(PeriodicTable.CARBON, PeriodicTable.CARBON, 1.54);
+		addBondLengthCutoff(PeriodicTable.NITROGEN, PeriodicTable.NITROGEN, 1.45);
+		addBondLengthCutoff(PeriodicTable.OXYGEN, PeriodicTable.OXYGEN, 1.48);
+		addBondLengthCutoff(PeriodicTable.PHOSPHORUS, PeriodicTable.PHOSPHORUS, 2.21);
+		addBondLengthCutoff(PeriodicTable.SULFUR, PeriodicTable.SULFUR, 2.05); // S-S gas-phase value; S=S is 1.49
+		// Bonds to H
+		addBondLengthCutoff(PeriodicTable.HYDROGEN, PeriodicTable.CARBON, 1.09);
+		addBondLengthCutoff(PeriodicTable.HYDROGEN, PeriodicTable.NITROGEN, 1.01);
+		addBondLengthCutoff(PeriodicTable.HYDROGEN, PeriodicTable.OXYGEN, 0.96);
+		addBondLengthCutoff(PeriodicTable.HYDROGEN, PeriodicTable.PHOSPHORUS, 1.44);
+		addBondLengthCutoff(PeriodicTable.HYDROGEN, PeriodicTable.SULFUR, 1.34);
+		addBondLengthCutoff(PeriodicTable.HYDROGEN, PeriodicTable.IRON, 1.60);
+		// Bonds to C
+		addBondLengthCutoff(PeriodicTable.CARBON, PeriodicTable.NITROGEN, 1.47);
+		addBondLengthCutoff(PeriodicTable.CARBON, PeriodicTable.OXYGEN, 1.43);
+		addBondLengthCutoff(PeriodicTable.CARBON, PeriodicTable.FLUORINE, 1.35);
+		addBondLengthCutoff(PeriodicTable.CARBON, PeriodicTable.PHOSPHORUS, 1.84);
+		addBondLengthCutoff(PeriodicTable.CARBON, PeriodicTable.SULFUR, 1.82);
+		addBondLengthCutoff(PeriodicTable.CARBON, PeriodicTable.CHLORINE, 1.77);
+		addBondLengthCutoff(PeriodicTable.CARBON, PeriodicTable.BROMINE, 1.94);
+		addBondLengthCutoff(PeriodicTable.CARBON, PeriodicTable.IRON, 1.90); //TODO Better value?
+		// Bonds to N
+		addBondLengthCutoff(PeriodicTable.NITROGEN, PeriodicTable.OXYGEN, 1.40);
+		addBondLengthCutoff(PeriodicTable.NITROGEN, PeriodicTable.FLUORINE, 1.36);
+		addBondLengthCutoff(PeriodicTable.NITROGEN, PeriodicTable.PHOSPHORUS, 1.71); // Avg over all nX-pX from gaff.dat
+		addBondLengthCutoff(PeriodicTable.NITROGEN, PeriodicTable.SULFUR, 1.68); // Postma & Vos, Acta Cryst. (1973) B29, 915
+		addBondLengthCutoff(PeriodicTable.NITROGEN, PeriodicTable.CHLORINE, 1.75);
+		// Bonds to O
+		addBondLengthCutoff(PeriodicTable.OXYGEN, PeriodicTable.FLUORINE, 1.42);
+		addBondLengthCutoff(PeriodicTable.OXYGEN, PeriodicTable.PHOSPHORUS, 1.63);
+		addBondLengthCutoff(PeriodicTable.OXYGEN, PeriodicTable.SULFUR, 1.48);
+		// Bonds to F
+		addBondLengthCutoff(PeriodicTable.FLUORINE, PeriodicTable.PHOSPHORUS, 1.54);
+		addBondLengthCutoff(PeriodicTable.FLUORINE, PeriodicTable.SULFUR, 1.56);
+		// Bonds to P
+		addBondLengthCutoff(PeriodicTable.PHOSPHORUS, PeriodicTable.SULFUR, 1.86);
+		addBondLengthCutoff(PeriodicTable.PHOSPHORUS, PeriodicTable.CHLORINE, 2.03);
+		// Bonds to S
+		addBondLengthCutoff(PeriodicTable.SULFUR, PeriodicTable.CHLORINE, 2.07);
+		
+		double maxCutoff = DEFAULT_BOND_LENGTH_CUTOFF;
+		for (HashMap<String, Double> cutoffs : BOND_LENGTH_CUTOFFS.values()){
+			for (Double cutoff : cutoffs.values()){
+				maxCutoff = Math.max(maxCutoff, cutoff);
+			}
+		}
+		MAX_BOND_LENGTH_CUTOFF = maxCutoff;
+	}
+	
+	/**
+	 * Minimum number of atoms to use multiple threads for bond perception
+	 */
+	public final static int PARALLEL_BOND_PERCEPTION_THRESHOLD = 20000;
+	
+	/**
+	 * Maximum number of grid cells per atom (the cells are enlarged for sparse systems)
+	 */
+	private final static int MAX_CELLS_PER_ATOM = 8;
+	
+	/**
+	 * Number of grid cells processed by a single bond perception task
+	 */
+	private final static int CELLS_PER_TASK = 512;
 	
 	/**
 	 * New molecule factory.
 	 */
 	public MolecularSystemFactory(){
+		try {
+			this.numberOfThreads = IBIOMESConfiguration.getInstance().getParserThreads();
+		}
+		catch (Exception e){
+			logger.warn("Cannot load configuration: bond perception will be sequential");
+		}
 	}
 
 	/**
@@ -53,39 +157,108 @@ public class MolecularSystemFactory {
 	 * @param bondLengthMargin Extra bond length allowed to determine if 2 atoms are connected.
 	 */
 	public MolecularSystemFactory(double bondLengthMargin){
+		this();
 		this.bondLengthMargin = bondLengthMargin;
 	}
 	
 	/**
-	 * Set list of bonded atoms
+	 * Get maximum number of threads used for bond perception
+	 * @return Maximum number of threads
+	 */
+	public int getNumberOfThreads() {
+		return numberOfThreads;
+	}
+
+	/**
+	 * Set maximum number of threads used for bond perception
+	 * @param numberOfThreads Maximum number of threads (1 for sequential bond perception)
+	 */
+	public void setNumberOfThreads(int numberOfThreads) {
+		if (numberOfThreads < 1)
+			this.numberOfThreads = 1;
+		else this.numberOfThreads = numberOfThreads;
+	}
+	
+	/**
+	 * Set list of bonded atoms. Atoms are binned in a uniform grid whose cells 
+	 * are at least as large as the longest bond length cutoff, so only atoms 
+	 * in the same or adjacent cells are compared.
 	 * @param atoms
 	 */
 	private boolean setBondedAtoms(List<Atom> atoms){
-		int a1 = 0;
-		int a2 = 0;
-		while (a1<atoms.size()){
-			ArrayList<Atom> bondedAtoms = new ArrayList<Atom>();
-			Atom atom1 = atoms.get(a1);
-			if (atom1.getCoordinates()==null) return false;
-			a2 = 0;
-			//System.out.println(atom1.getName()+atom1.getId()+  " [" +atom1.getElement().getSymbol()+ "]");
-			while (a2<atoms.size()){
-				if (a1 != a2){
-					Atom atom2 = atoms.get(a2);
-					if (atom2.getCoordinates()==null) return false;
-					double distance = getAtomDistance(atom1, atom2);
-					double cutoff = getBondLengthCutoff(atom1, atom2);
-					if (distance <= (cutoff+bondLengthMargin)){
-						bondedAtoms.add(atom2);
-						//System.out.println("\t"+atom2.getName()+atom2.getId() +  " [" +atom2.getElement().getSymbol()+ "] ("+distance +" < " + (cutoff+bondLengthMargin) +")");
+		int nAtoms = atoms.size();
+		for (Atom atom : atoms){
+			if (atom.getCoordinates()==null) return false;
+		}
+		if (nAtoms == 0)
+			return true;
+		
+		AtomCellList cells = new AtomCellList(atoms, MAX_BOND_LENGTH_CUTOFF + bondLengthMargin);
+		BondPerceptionTask task = new BondPerceptionTask(cells, 0, cells.getNumberOfCells());
+		if (numberOfThreads > 1 && nAtoms >= PARALLEL_BOND_PERCEPTION_THRESHOLD){
+			if (ForkJoinTask.inForkJoinPool())
+				task.invoke();
+			else {
+				ForkJoinPool pool = new ForkJoinPool(numberOfThreads);
+				try {
+					pool.invoke(task);
+				}
+				finally {
+					pool.shutdown();
+				}
+			}
+		}
+		else task.compute();
+		return true;
+	}
+	
+	/**
+	 * Find atoms bonded to the atoms of the given grid cell
+	 * @param cells Cell list
+	 * @param cell Cell index
+	 */
+	private void setBondedAtomsInCell(AtomCellList cells, int cell)
+	{
+		int[] neighbors = new int[32];
+		for (int i=cells.cellStart[cell]; i<cells.cellStart[cell+1]; i++)
+		{
+			int a1 = cells.cellAtoms[i];
+			Atom atom1 = cells.atoms.get(a1);
+			double x1 = cells.x[a1], y1 = cells.y[a1], z1 = cells.z[a1];
+			int nNeighbors = 0;
+			
+			int cx = cells.cellX[cell], cy = cells.cellY[cell], cz = cells.cellZ[cell];
+			for (int ix=Math.max(cx-1,0); ix<=Math.min(cx+1,cells.nx-1); ix++){
+				for (int iy=Math.max(cy-1,0); iy<=Math.min(cy+1,cells.ny-1); iy++){
+					for (int iz=Math.max(cz-1,0); iz<=Math.min(cz+1,cells.nz-1); iz++){
+						int c = cells.getCellIndex(ix, iy, iz);
+						for (int j=cells.cellStart[c]; j<cells.cellStart[c+1]; j++){
+							int a2 = cells.cellAtoms[j];
+							if (a1 == a2)
+								continue;
+							double dx = x1 - cells.x[a2];
+							double dy = y1 - cells.y[a2];
+							double dz = z1 - cells.z[a2];
+							double distance2 = dx*dx + dy*dy + dz*dz;
+							if (distance2 > cells.cutoff2)
+								continue;
+							double cutoff = getBondLengthCutoff(atom1, cells.atoms.get(a2)) + bondLengthMargin;
+							if (distance2 <= cutoff*cutoff){
+								if (nNeighbors == neighbors.length)
+									neighbors = Arrays.copyOf(neighbors, 2*nNeighbors);
+								neighbors[nNeighbors++] = a2;
+							}
+						}
 					}
 				}
-				a2++;
 			}
-			a1++;
+			//keep atom list order
+			Arrays.sort(neighbors, 0, nNeighbors);
+			ArrayList<Atom> bondedAtoms = new ArrayList<Atom>(nNeighbors);
+			for (int n=0; n<nNeighbors; n++)
+				bondedAtoms.add(cells.atoms.get(neighbors[n]));
 			atom1.setBondedAtoms(bondedAtoms);
 		}
-		return true;
 	}
 	
 	/**
@@ -106,18 +279,23 @@ public class MolecularSystemFactory {
 			molecules.add(new Compound(null, atoms)); 
 		}
 		else {
-			while (atoms.size()>0)
-			{
-				Compound compound = new Compound();
-				//visit connected atoms and add reference to molecule
-				visitAtom(atoms.get(0), compound);
-				
-				//remove atoms that were connected
-				for (Atom atom : compound.getAtoms()){
-					atoms.remove(atom);
+			int nAtoms = atoms.size();
+			Atom[] atomArray = atoms.toArray(new Atom[nAtoms]);
+			int[] components = findConnectedComponents(atomArray);
+			
+			//build compounds in a single pass, in order of first atom
+			Compound[] compounds = new Compound[nAtoms];
+			for (int a=0; a<nAtoms; a++){
+				int root = components[a];
+				if (compounds[root] == null){
+					compounds[root] = new Compound();
+					molecules.add(compounds[root]);
 				}
-				compound.setName(compound.getAtomicCompositionCompact());
-				molecules.add(compound);
+				compounds[root].addAtom(atomArray[a]);
+				atomArray[a].setMolecule(compounds[root]);
+			}
+			for (Molecule molecule : molecules){
+				molecule.setName(molecule.getAtomicCompositionCompact());
 			}
 		}
 		system.setSoluteMolecules(molecules);
@@ -225,6 +403,104 @@ public class MolecularSystemFactory {
 		return system;
 	}
 	
+	/**
+	 * Identify molecules using the residues and bonds of a columnar topology. Same rules as 
+	 * identifyMoleculesUsingResidues() but residue types and connections are read from the table: 
+	 * residue and atom objects are only created for ions and solute molecules.
+	 * @param topology Topology table
+	 * @return Molecular system
+	 * @throws IOException 
+	 */
+	public MolecularSystem identifyMoleculesUsingTopology(TopologyTable topology) throws IOException{
+		
+		List<Ion> ions = new ArrayList<Ion>();
+		List<Molecule> solventMolecules = new ArrayList<Molecule>();
+		ArrayList<Molecule> soluteMolecules = new ArrayList<Molecule>();
+		MolecularSystem system = new MolecularSystem();
+		
+		//residue type looked up once per residue name
+		int nResidues = topology.getResidueCount();
+		ResidueType[] residueTypes = new ResidueType[nResidues];
+		HashMap<String, ResidueType> typesByName = new HashMap<String, ResidueType>();
+		for (int r=0; r<nResidues; r++){
+			String name = topology.getResidueName(r);
+			ResidueType type = typesByName.get(name);
+			if (type == null){
+				type = new Residue(name).getType();
+				typesByName.put(name, type);
+			}
+			residueTypes[r] = type;
+		}
+		
+		int r = 0;
+		while (r < nResidues)
+		{
+			if (residueTypes[r] == ResidueType.ION){
+				ions.add(new Ion(topology.createResidue(r)));
+			}
+			else if (residueTypes[r] == ResidueType.WATER){
+				solventMolecules.add(new Water());
+			}
+			else //build molecule using multiple residues
+			{
+				boolean connected = true;
+				BiomoleculeType moleculeType = BiomoleculeType.UNKNOWN;
+				int firstResidue = r;
+				while ((r < (nResidues-1)) && connected)
+				{
+					ResidueType currentType = residueTypes[r];
+					
+					//determine molecule type
+					if (currentType == ResidueType.AMINO_ACID) {
+						moleculeType = BiomoleculeType.PROTEIN;
+					}
+					else if (currentType == ResidueType.NUCLEIC_ACID_BASE){
+						if (moleculeType != BiomoleculeType.RNA && moleculeType != BiomoleculeType.DNA)
+							moleculeType = BiomoleculeType.NUCLEIC_ACID;
+					}
+					else if (currentType == ResidueType.RNA_BASE){
+						moleculeType = BiomoleculeType.RNA;
+					}
+					else if (currentType == ResidueType.DNA_BASE){
+						moleculeType = BiomoleculeType.DNA;
+					}
+					
+					//connected to next residue in the chain?
+					connected = topology.areResiduesBonded(r+1, r);
+					if (connected)
+						r++;
+				}
+				
+				if (r == firstResidue){
+					Residue residue = topology.createResidue(r);
+					//if single-atom residue with charge -> ion
+					if (	residue.getAtoms().size()==1
+							&& residue.getAtoms().get(0).getCharge()!=0.0)
+					{
+						ions.add(new Ion(residue.getAtoms().get(0)));
+					}
+					else{
+						Compound compound = new Compound(residue.getCode(), residue.getAtoms());
+						soluteMolecules.add(compound);
+					}
+				}
+				else {
+					List<Residue> moleculeResidues = new ArrayList<Residue>(r - firstResidue + 1);
+					for (int m=firstResidue; m<=r; m++)
+						moleculeResidues.add(topology.createResidue(m));
+					Biomolecule biomolecule = BiomoleculeFactory.getMoleculeFromType(moleculeType, moleculeResidues);
+					soluteMolecules.add(biomolecule);
+				}
+			}
+			r++;
+		}
+
+		system.setSolventMolecules(solventMolecules);
+		system.setIons(ions);
+		system.setSoluteMolecules(soluteMolecules);
+		return system;
+	}
+	
 	/**
 	 * Check if 2 residues are connected by looking at bonded atoms
 	 * @param residue1
@@ -245,48 +521,68 @@ public class MolecularSystemFactory {
 	}
 
 	/**
-	 * Visit atoms to assign molecule references 
-	 * @param atom Atom
-	 * @param compound Molecule
+	 * Find connected components of the bond graph (union-find on atom indexes).
+	 * Bonds to atoms that are not in the array are ignored.
+	 * @param atoms Atoms
+	 * @return Index of the component root for each atom
 	 */
-	private void visitAtom(Atom atom, Compound compound){
-		//if this atom is not assigned to a molecule yet
-		if (atom.getMolecule()==null){
-			compound.addAtom(atom);
-			atom.setMolecule(compound);
-			//visit boneded atoms
-			if (atom.getBondedAtoms()!=null){
-				for (Atom bondedAtom : atom.getBondedAtoms()){
-					visitAtom(bondedAtom, compound);
+	private int[] findConnectedComponents(Atom[] atoms)
+	{
+		int nAtoms = atoms.length;
+		IdentityHashMap<Atom, Integer> atomIndexes = new IdentityHashMap<Atom, Integer>(nAtoms);
+		for (int a=0; a<nAtoms; a++)
+			atomIndexes.put(atoms[a], a);
+		
+		int[] parent = new int[nAtoms];
+		int[] size = new int[nAtoms];
+		for (int a=0; a<nAtoms; a++){
+			parent[a] = a;
+			size[a] = 1;
+		}
+		for (int a=0; a<nAtoms; a++){
+			List<Atom> bondedAtoms = atoms[a].getBondedAtoms();
+			if (bondedAtoms == null)
+				continue;
+			for (Atom bondedAtom : bondedAtoms){
+				Integer b = atomIndexes.get(bondedAtom);
+				if (b == null)
+					continue;
+				int rootA = findRoot(parent, a);
+				int rootB = findRoot(parent, b);
+				if (rootA != rootB){
+					//union by size
+					if (size[rootA] < size[rootB]){
+						int tmp = rootA;
+						rootA = rootB;
+						rootB = tmp;
+					}
+					parent[rootB] = rootA;
+					size[rootA] += size[rootB];
 				}
 			}
 		}
+		for (int a=0; a<nAtoms; a++)
+			parent[a] = findRoot(parent, a);
+		return parent;
 	}
 	
 	/**
-	 * Calculate distance between 2 atoms based on their coordinates
-	 * @param atom1 Atom 1
-	 * @param atom2 Atom 2
-	 * @return Distance in angstroms
+	 * Find root of the given atom (with path halving)
+	 * @param parent Parent of each atom
+	 * @param a Atom index
+	 * @return Index of the root
 	 */
-	private double getAtomDistance(Atom atom1, Atom atom2) {
-		Coordinate3D c1 = atom1.getCoordinates();
-		Coordinate3D c2 = atom2.getCoordinates();
-		double d = Math.sqrt( Math.pow((c1.getX()-c2.getX()), 2) + Math.pow((c1.getY()-c2.getY()), 2) + Math.pow((c1.getZ()-c2.getZ()), 2));
-		return d;
+	private static int findRoot(int[] parent, int a){
+		while (parent[a] != a){
+			parent[a] = parent[parent[a]];
+			a = parent[a];
+		}
+		return a;
 	}
-
+	
 	/**
 	 * Return optimal covalent bond distance based on the element types of atom1 
-	 * and atom2. When multiple hybridizations are possible the longest possible 
-	 * bond length is used.
-	 * Unless otherwise noted values taken from:
-	 * - Huheey, pps. A-21 to A-34; T.L. Cottrell, "The Strengths of Chemical Bonds," 
-	 *       2nd ed., Butterworths, London, 1958; 
-	 * - B. deB. Darwent, "National Standard Reference Data Series," National Bureau of Standards, 
-	 *       No. 31, Washington, DC, 1970; S.W. Benson, J. Chem. Educ., 42, 502 (1965).
-	 * Can be found on the web at:
-	 * - http://www.wiredchemist.com/chemistry/data/bond_energies_lengths.html
+	 * and atom2 (see BOND_LENGTH_CUTOFFS). 
 	 * @param atom1 Atom 1
 	 * @param atom2 Atom 2
 	 * @return Cutoff for the length of the bond between atoms 1 and 2
@@ -295,86 +591,177 @@ public class MolecularSystemFactory {
 	{
 		AtomicElement atomType1 = atom1.getElement();
 		AtomicElement atomType2 = atom2.getElement();
-		int a1=-1, a2=-1;
-		if (atomType1!=null)
-			a1 = atomType1.getAtomicNumber();
-		if (atomType2!=null)
-			a2 = atomType2.getAtomicNumber();
-		
-		// Default cutoff
-		double cut = 1.60;
-		if (a1 == a2) {
-			// Self
-			String atomType1Name = atomType1.getName();
-			if (atomType1Name.equals(PeriodicTable.HYDROGEN)) 			return 0.74;
-			else if (atomType1Name.equals(PeriodicTable.CARBON)) 		return 1.54;
-			else if (atomType1Name.equals(PeriodicTable.NITROGEN)) 		return 1.45;
-			else if (atomType1Name.equals(PeriodicTable.OXYGEN)) 		return 1.48;
-			else if (atomType1Name.equals(PeriodicTable.PHOSPHORUS)) 	return 2.21;
-			else if (atomType1Name.equals(PeriodicTable.SULFUR)) 		return 2.05; // S-S gas-phase value; S=S is 1.49
-			else logger.warn("Use default bond length cutoff for '"+atom1.getType()+"-"+atom2.getType() + "'");
-		} else {
-			AtomicElement e1, e2;
-			
-			if (a1 < a2) {
-				e1 = atomType1;
-				e2 = atomType2;
-			} else {
-				e1 = atomType2;
-				e2 = atomType1;
+		if (atomType1 != null && atomType2 != null){
+			HashMap<String, Double> cutoffs = BOND_LENGTH_CUTOFFS.get(atomType1.getName());
+			if (cutoffs != null){
+				Double cutoff = cutoffs.get(atomType2.getName());
+				if (cutoff != null)
+					return cutoff;
 			}
-			String e1Name = e1.getName();
-			String e2Name = e2.getName();
-			if (e1Name.equals(PeriodicTable.HYDROGEN)){ // Bonds to H
-					if (e2Name.equals(PeriodicTable.CARBON))			return 1.09;
-					else if (e2Name.equals(PeriodicTable.NITROGEN))		return 1.01;
-					else if (e2Name.equals(PeriodicTable.OXYGEN))		return 0.96;
-					else if (e2Name.equals(PeriodicTable.PHOSPHORUS))	return 1.44;
-					else if (e2Name.equals(PeriodicTable.SULFUR))		return 1.34;
-					else if (e2Name.equals(PeriodicTable.IRON))			return 1.60;
-					else logger.warn("Use default bond length cutoff for '"+atom1.getType()+"-"+atom2.getType() + "'");
-			}
-			else if (e1Name.equals(PeriodicTable.CARBON)){ // Bonds to C
-				if (e2Name.equals(PeriodicTable.NITROGEN))				return 1.47;
-				else if (e2Name.equals(PeriodicTable.OXYGEN))     		return 1.43;
-				else if (e2Name.equals(PeriodicTable.FLUORINE))   		return 1.35;
-				else if (e2Name.equals(PeriodicTable.PHOSPHORUS)) 		return 1.84;
-				else if (e2Name.equals( PeriodicTable.SULFUR))    		return 1.82;
-				else if (e2Name.equals(PeriodicTable.CHLORINE))   		return 1.77;
-				else if (e2Name.equals(PeriodicTable.BROMINE))    		return 1.94;
-				else if (e2Name.equals(PeriodicTable.IRON))  	  		return 1.90; //TODO Better value?
-				else logger.warn("Use default bond length cutoff for '"+atom1.getType()+"-"+atom2.getType() + "'");
-			}
-			else if (e1Name.equals(PeriodicTable.NITROGEN)){ // Bonds to N
-				if (e2Name.equals(PeriodicTable.OXYGEN))    			return 1.40;
-				else if (e2Name.equals(PeriodicTable.FLUORINE))  		return 1.36;
-				else if (e2Name.equals(PeriodicTable.PHOSPHORUS)) 		return 1.71; // Avg over all nX-pX from gaff.dat
-				else if (e2Name.equals(PeriodicTable.SULFUR))    		return 1.68; // Postma & Vos, Acta Cryst. (1973) B29, 915
-				else if (e2Name.equals(PeriodicTable.CHLORINE))  		return 1.75;
-				else logger.warn("Use default bond length cutoff for '"+atom1+"-"+atom2 + "'");
+		}
+		logger.warn("Use default bond length cutoff for '"+atom1.getType()+"-"+atom2.getType() + "'");
+		return DEFAULT_BOND_LENGTH_CUTOFF;
+	}
+	
+	/**
+	 * Register bond length cutoff for a pair of elements (both orders)
+	 * @param element1 Name of element 1
+	 * @param element2 Name of element 2
+	 * @param cutoff Bond length cutoff
+	 */
+	private static void addBondLengthCutoff(String element1, String element2, double cutoff)
+	{
+		HashMap<String, Double> cutoffs = BOND_LENGTH_CUTOFFS.get(element1);
+		if (cutoffs == null){
+			cutoffs = new HashMap<String, Double>();
+			BOND_LENGTH_CUTOFFS.put(element1, cutoffs);
+		}
+		cutoffs.put(element2, cutoff);
+		cutoffs = BOND_LENGTH_CUTOFFS.get(element2);
+		if (cutoffs == null){
+			cutoffs = new HashMap<String, Double>();
+			BOND_LENGTH_CUTOFFS.put(element2, cutoffs);
+		}
+		cutoffs.put(element1, cutoff);
+	}
+	
+	/**
+	 * Uniform grid of atoms (cell list). Atoms are sorted by cell so that the atoms 
+	 * of cell c are cellAtoms[cellStart[c]] to cellAtoms[cellStart[c+1]-1].
+	 * @author Julien Thibault, University of Utah
+	 *
+	 */
+	private static class AtomCellList {
+		
+		private List<Atom> atoms;
+		private double[] x;
+		private double[] y;
+		private double[] z;
+		private double cutoff2;
+		private int nx, ny, nz;
+		private int[] cellStart;
+		private int[] cellAtoms;
+		private int[] cellX;
+		private int[] cellY;
+		private int[] cellZ;
+		
+		/**
+		 * Bin atoms in a uniform grid
+		 * @param atoms Atoms (with coordinates)
+		 * @param cutoff Maximum distance between 2 bonded atoms
+		 */
+		public AtomCellList(List<Atom> atoms, double cutoff)
+		{
+			int nAtoms = atoms.size();
+			this.atoms = (atoms instanceof java.util.RandomAccess ? atoms : new ArrayList<Atom>(atoms));
+			this.cutoff2 = cutoff*cutoff;
+			this.x = new double[nAtoms];
+			this.y = new double[nAtoms];
+			this.z = new double[nAtoms];
+			double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, minZ = Double.MAX_VALUE;
+			double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE, maxZ = -Double.MAX_VALUE;
+			for (int a=0; a<nAtoms; a++){
+				Coordinate3D c = this.atoms.get(a).getCoordinates();
+				x[a] = c.getX();
+				y[a] = c.getY();
+				z[a] = c.getZ();
+				minX = Math.min(minX, x[a]); maxX = Math.max(maxX, x[a]);
+				minY = Math.min(minY, y[a]); maxY = Math.max(maxY, y[a]);
+				minZ = Math.min(minZ, z[a]); maxZ = Math.max(maxZ, z[a]);
 			}
-			else if (e1Name.equals(PeriodicTable.OXYGEN)){ // Bonds to O
-				if (e2Name.equals(PeriodicTable.FLUORINE))  			return 1.42;
-				else if (e2Name.equals(PeriodicTable.PHOSPHORUS)) 		return 1.63;
-				else if (e2Name.equals(PeriodicTable.SULFUR))    		return 1.48;
-				else logger.warn("Use default bond length cutoff for '"+atom1.getType()+"-"+atom2.getType() + "'");
+			
+			//cell size: at least the cutoff, larger if the system is sparse
+			double cellSize = cutoff;
+			long maxCells = Math.max(27L, (long)MAX_CELLS_PER_ATOM * nAtoms);
+			while (countCells(maxX-minX, cellSize) * countCells(maxY-minY, cellSize) * countCells(maxZ-minZ, cellSize) > maxCells)
+				cellSize *= 2;
+			this.nx = (int)countCells(maxX-minX, cellSize);
+			this.ny = (int)countCells(maxY-minY, cellSize);
+			this.nz = (int)countCells(maxZ-minZ, cellSize);
+			int nCells = nx*ny*nz;
+			
+			//counting sort of atoms by cell
+			int[] atomCell = new int[nAtoms];
+			this.cellStart = new int[nCells+1];
+			for (int a=0; a<nAtoms; a++){
+				int ix = Math.min((int)((x[a]-minX)/cellSize), nx-1);
+				int iy = Math.min((int)((y[a]-minY)/cellSize), ny-1);
+				int iz = Math.min((int)((z[a]-minZ)/cellSize), nz-1);
+				atomCell[a] = getCellIndex(ix, iy, iz);
+				cellStart[atomCell[a]+1]++;
 			}
-			else if (e1Name.equals(PeriodicTable.FLUORINE)){ // Bonds to F
-				if (e2Name.equals(PeriodicTable.PHOSPHORUS)) 			return 1.54;
-				else if (e2Name.equals(PeriodicTable.SULFUR))    		return 1.56;
-				else logger.warn("Use default bond length cutoff for '"+atom1.getType()+"-"+atom2.getType() + "'");
+			for (int c=0; c<nCells; c++)
+				cellStart[c+1] += cellStart[c];
+			this.cellAtoms = new int[nAtoms];
+			int[] fill = Arrays.copyOf(cellStart, nCells);
+			for (int a=0; a<nAtoms; a++)
+				cellAtoms[fill[atomCell[a]]++] = a;
+			
+			this.cellX = new int[nCells];
+			this.cellY = new int[nCells];
+			this.cellZ = new int[nCells];
+			for (int ix=0; ix<nx; ix++){
+				for (int iy=0; iy<ny; iy++){
+					for (int iz=0; iz<nz; iz++){
+						int c = getCellIndex(ix, iy, iz);
+						cellX[c] = ix;
+						cellY[c] = iy;
+						cellZ[c] = iz;
+					}
+				}
 			}
-			else if (e1Name.equals(PeriodicTable.PHOSPHORUS)){ // Bonds to P
-				if (e2Name.equals(PeriodicTable.SULFUR))  				return 1.86;
-				else if (e2Name.equals(PeriodicTable.CHLORINE)) 		return 2.03;
-				else logger.warn("Use default bond length cutoff for '"+atom1.getType()+"-"+atom2.getType() + "'");
+		}
+		
+		private static long countCells(double length, double cellSize){
+			return (long)(length/cellSize) + 1;
+		}
+		
+		private int getCellIndex(int ix, int iy, int iz){
+			return (ix*ny + iy)*nz + iz;
+		}
+		
+		private int getNumberOfCells(){
+			return nx*ny*nz;
+		}
+	}
+	
+	/**
+	 * Bond perception for a range of grid cells. Each atom only updates its own 
+	 * list of bonded atoms so cell ranges can be processed concurrently.
+	 * @author Julien Thibault, University of Utah
+	 *
+	 */
+	private class BondPerceptionTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 3120455146713850541L;
+		
+		private AtomCellList cells;
+		private int firstCell;
+		private int lastCell;
+		
+		/**
+		 * New bond perception task
+		 * @param cells Cell list
+		 * @param firstCell First cell (inclusive)
+		 * @param lastCell Last cell (exclusive)
+		 */
+		public BondPerceptionTask(AtomCellList cells, int firstCell, int lastCell){
+			this.cells = cells;
+			this.firstCell = firstCell;
+			this.lastCell = lastCell;
+		}
+		
+		@Override
+		protected void compute() {
+			if (lastCell - firstCell <= CELLS_PER_TASK || !inForkJoinPool()){
+				for (int c=firstCell; c<lastCell; c++)
+					setBondedAtomsInCell(cells, c);
 			}
-			else if (e1Name.equals(PeriodicTable.SULFUR)){ // Bonds to S
-				if (e2Name.equals(PeriodicTable.CHLORINE)) 				return 2.07;
-				else logger.warn("Use default bond length cutoff for '"+atom1.getType()+"-"+atom2.getType() + "'");
+			else {
+				int middle = (firstCell + lastCell) / 2;
+				invokeAll(new BondPerceptionTask(cells, firstCell, middle),
+						new BondPerceptionTask(cells, middle, lastCell));
 			}
-			else logger.warn("Use default bond length cutoff for '"+atom1.getType()+"-"+atom2.getType() + "'");
 		}
-		return cut;
 	}
 }
@@ -0,0 +1,78 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.topo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Pool of distinct strings (e.g. atom names or types). Each distinct value is stored
+ * once and referenced by its index in the pool.
+ * @author Julien Thibault, University of Utah
+ *
+ */
+public class StringPool {
+
+	private HashMap<String, Integer> indexes;
+	private ArrayList<String> values;
+
+	/**
+	 * New empty pool
+	 */
+	public StringPool(){
+		this.indexes = new HashMap<String, Integer>();
+		this.values = new ArrayList<String>();
+	}
+
+	/**
+	 * Add value to the pool if not already there
+	 * @param value Value
+	 * @return Index of the value in the pool (-1 for null)
+	 */
+	public int intern(String value){
+		if (value == null)
+			return -1;
+		Integer index = indexes.get(value);
+		if (index == null){
+			index = values.size();
+			indexes.put(value, index);
+			values.add(value);
+		}
+		return index;
+	}
+
+	/**
+	 * Get value
+	 * @param index Index of the value in the pool
+	 * @return Value (null if index is -1)
+	 */
+	public String get(int index){
+		if (index < 0)
+			return null;
+		return values.get(index);
+	}
+
+	/**
+	 * Get number of distinct values
+	 * @return Number of distinct values
+	 */
+	public int size(){
+		return values.size();
+	}
+}
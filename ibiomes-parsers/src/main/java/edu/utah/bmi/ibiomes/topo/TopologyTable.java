@@ -0,0 +1,232 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.topo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.utah.bmi.ibiomes.topo.bio.Residue;
+
+/**
+ * Columnar topology: atom table plus residues stored as contiguous atom ranges
+ * (atoms of residue r are firstAtom[r] to firstAtom[r+1]-1). Residue and atom objects
+ * for the MolecularSystem/Molecule API can be created from the table, for all residues
+ * or only for the residues that need them.
+ * @author Julien Thibault, University of Utah
+ *
+ */
+public class TopologyTable {
+
+	private String title;
+	private AtomTable atoms;
+	private StringPool residueNames;
+	private int residueCount = 0;
+	private int[] residueNameIds;
+	private int[] residueFirstAtom;
+
+	/**
+	 * New topology table
+	 * @param expectedAtoms Expected number of atoms
+	 * @param expectedResidues Expected number of residues
+	 */
+	public TopologyTable(int expectedAtoms, int expectedResidues){
+		int capacity = Math.max(expectedResidues, 16);
+		this.atoms = new AtomTable(expectedAtoms);
+		this.residueNames = new StringPool();
+		this.residueNameIds = new int[capacity];
+		this.residueFirstAtom = new int[capacity];
+	}
+
+	/**
+	 * Get topology title
+	 * @return Title
+	 */
+	public String getTitle() {
+		return title;
+	}
+
+	/**
+	 * Set topology title
+	 * @param title Title
+	 */
+	public void setTitle(String title) {
+		this.title = title;
+	}
+
+	/**
+	 * Get atom table
+	 * @return Atom table
+	 */
+	public AtomTable getAtomTable() {
+		return atoms;
+	}
+
+	/**
+	 * Add residue. Residues must be added in atom order.
+	 * @param name Residue name
+	 * @param firstAtom Index of the first atom of the residue
+	 * @return Index of the new residue
+	 */
+	public int addResidue(String name, int firstAtom)
+	{
+		if (residueCount > 0 && firstAtom < residueFirstAtom[residueCount-1])
+			throw new IllegalArgumentException("Residues must be added in atom order (first atom: " + firstAtom + ")");
+		if (residueCount == residueNameIds.length){
+			residueNameIds = Arrays.copyOf(residueNameIds, 2*residueCount);
+			residueFirstAtom = Arrays.copyOf(residueFirstAtom, 2*residueCount);
+		}
+		residueNameIds[residueCount] = residueNames.intern(name);
+		residueFirstAtom[residueCount] = firstAtom;
+		return residueCount++;
+	}
+
+	/**
+	 * Get number of residues
+	 * @return Number of residues
+	 */
+	public int getResidueCount() {
+		return residueCount;
+	}
+
+	/**
+	 * Get residue name
+	 * @param residue Residue index
+	 * @return Residue name
+	 */
+	public String getResidueName(int residue) {
+		checkResidueIndex(residue);
+		return residueNames.get(residueNameIds[residue]);
+	}
+
+	/**
+	 * Get index of the first atom of a residue
+	 * @param residue Residue index
+	 * @return Index of the first atom
+	 */
+	public int getResidueFirstAtom(int residue) {
+		checkResidueIndex(residue);
+		return residueFirstAtom[residue];
+	}
+
+	/**
+	 * Get index of the atom following the last atom of a residue
+	 * @param residue Residue index
+	 * @return Index of the last atom + 1
+	 */
+	public int getResidueEndAtom(int residue) {
+		checkResidueIndex(residue);
+		if (residue == residueCount-1)
+			return atoms.size();
+		return residueFirstAtom[residue+1];
+	}
+
+	/**
+	 * Find residue containing the given atom
+	 * @param atom Atom index
+	 * @return Residue index or -1 if the atom is not part of a residue
+	 */
+	public int getResidueIndex(int atom)
+	{
+		if (residueCount == 0 || atom < residueFirstAtom[0] || atom >= atoms.size())
+			return -1;
+		int r = Arrays.binarySearch(residueFirstAtom, 0, residueCount, atom);
+		if (r < 0)
+			r = -r - 2;
+		else {
+			//empty residues share the same first atom
+			while (r < residueCount-1 && residueFirstAtom[r+1] == atom)
+				r++;
+		}
+		return r;
+	}
+
+	/**
+	 * Release unused capacity once the table is filled
+	 */
+	public void trimToSize()
+	{
+		atoms.trimToSize();
+		residueNameIds = Arrays.copyOf(residueNameIds, Math.max(residueCount, 1));
+		residueFirstAtom = Arrays.copyOf(residueFirstAtom, Math.max(residueCount, 1));
+	}
+
+	/**
+	 * Check if 2 residues are connected, i.e. if at least one atom of the first residue 
+	 * is bonded to an atom of the second residue
+	 * @param residue1 Index of residue 1
+	 * @param residue2 Index of residue 2
+	 * @return True if there is at least one atom bond between the 2 residues
+	 */
+	public boolean areResiduesBonded(int residue1, int residue2)
+	{
+		int first2 = getResidueFirstAtom(residue2);
+		int end2 = getResidueEndAtom(residue2);
+		int end1 = getResidueEndAtom(residue1);
+		for (int a=getResidueFirstAtom(residue1); a<end1; a++){
+			int nBonds = atoms.getBondedAtomCount(a);
+			for (int k=0; k<nBonds; k++){
+				int b = atoms.getBondedAtom(a, k);
+				if (b >= first2 && b < end2)
+					return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Create residue object (with its atoms, without bonds) from the table
+	 * @param residue Residue index
+	 * @return Residue
+	 */
+	public Residue createResidue(int residue)
+	{
+		Residue res = new Residue(getResidueName(residue));
+		int end = getResidueEndAtom(residue);
+		for (int a=residueFirstAtom[residue]; a<end; a++){
+			res.addAtom(atoms.createAtom(a));
+		}
+		return res;
+	}
+
+	/**
+	 * Create residue objects (with their atoms) from the table
+	 * @return List of residues
+	 */
+	public List<Residue> createResidues()
+	{
+		List<Atom> atomList = atoms.createAtoms();
+		List<Residue> residues = new ArrayList<Residue>(residueCount);
+		for (int r=0; r<residueCount; r++)
+		{
+			Residue residue = new Residue(getResidueName(r));
+			int end = getResidueEndAtom(r);
+			for (int a=residueFirstAtom[r]; a<end; a++){
+				residue.addAtom(atomList.get(a));
+			}
+			residues.add(residue);
+		}
+		return residues;
+	}
+
+	private void checkResidueIndex(int residue){
+		if (residue < 0 || residue >= residueCount)
+			throw new IndexOutOfBoundsException("Residue index: " + residue + ", number of residues: " + residueCount);
+	}
+}
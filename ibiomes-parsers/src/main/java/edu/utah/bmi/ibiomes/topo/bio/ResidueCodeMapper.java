@@ -51,7 +51,7 @@ public class ResidueCodeMapper
         br.close();
 	}
 	
-	public static ResidueCodeMapper getInstance() throws IOException, CompressorException {
+	public static synchronized ResidueCodeMapper getInstance() throws IOException, CompressorException {
 
 		if (_instance == null)
 			_instance = new ResidueCodeMapper();
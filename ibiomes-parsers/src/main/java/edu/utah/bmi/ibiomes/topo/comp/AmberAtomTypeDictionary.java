@@ -33,7 +33,7 @@ public class AmberAtomTypeDictionary extends AtomTypeDictionary {
 	 * Get dictionary instance
 	 * @return Dictionary instance
 	 */
-	public static AmberAtomTypeDictionary getInstance() {
+	public static synchronized AmberAtomTypeDictionary getInstance() {
 		if (dictionary == null)
 			dictionary = new AmberAtomTypeDictionary();
 		return dictionary;
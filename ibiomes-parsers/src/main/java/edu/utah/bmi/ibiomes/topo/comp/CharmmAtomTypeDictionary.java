@@ -33,7 +33,7 @@ public class CharmmAtomTypeDictionary extends AtomTypeDictionary {
 	 * Get dictionary instance
 	 * @return Dictionary instance
 	 */
-	public static CharmmAtomTypeDictionary getInstance() {
+	public static synchronized CharmmAtomTypeDictionary getInstance() {
 		if (dictionary == null)
 			dictionary = new CharmmAtomTypeDictionary();
 		return dictionary;
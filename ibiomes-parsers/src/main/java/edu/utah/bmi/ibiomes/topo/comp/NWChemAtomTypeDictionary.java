@@ -33,7 +33,7 @@ public class NWChemAtomTypeDictionary extends AtomTypeDictionary {
 	 * Get dictionary instance
 	 * @return Dictionary instance
 	 */
-	public static NWChemAtomTypeDictionary getInstance() {
+	public static synchronized NWChemAtomTypeDictionary getInstance() {
 		if (dictionary == null)
 			dictionary = new NWChemAtomTypeDictionary();
 		return dictionary;
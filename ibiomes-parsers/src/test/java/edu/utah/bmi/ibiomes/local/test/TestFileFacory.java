@@ -47,6 +47,15 @@ public class TestFileFacory {
 		
 		file = factory.getFile(TestCommon.TEST_DATA_DIR + "/nanoparticles/Molecule_20_PEI-PAMAM.sdf", null);
 		System.out.println(file.getMetadata());
+		
+		//format detection without software context
+		file = factory.getFile(TestCommon.TEST_DATA_DIR + "/amber/1BIVm1/solvtd.topo", null);
+		System.out.println(file.getMetadata());
+		
+		file = factory.getFile(TestCommon.TEST_DATA_DIR + "/nwchem/dft_bsse/dft_bsse.out", null);
+		System.out.println(file.getMetadata());
+		
+		factory.getFormatDetector().printCounters();
 	}
 
 }
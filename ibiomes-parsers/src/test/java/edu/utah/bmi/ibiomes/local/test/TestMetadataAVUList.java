@@ -0,0 +1,110 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.local.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import edu.utah.bmi.ibiomes.metadata.MetadataAVU;
+import edu.utah.bmi.ibiomes.metadata.MetadataAVUList;
+
+/**
+ * Test suite for metadata AVUs and AVU lists (interning, duplicate detection and attribute lookups)
+ * @author Julien Thibault, University of Utah
+ *
+ */
+public class TestMetadataAVUList
+{
+	@Test
+	public void testDuplicates()
+	{
+		MetadataAVUList list = new MetadataAVUList();
+		assertTrue(list.add(new MetadataAVU("METHOD", "MD")));
+		assertFalse(list.add(new MetadataAVU("method", "md")));
+		assertTrue(list.add(new MetadataAVU("METHOD", "QM")));
+		list.addAll(Arrays.asList(new MetadataAVU("Method", "Qm"), new MetadataAVU("SOFTWARE", "AMBER")));
+		assertEquals(3, list.size());
+		assertEquals(1, list.indexOfPair(new MetadataAVU("method", "QM")));
+		assertEquals(-1, list.indexOfPair(new MetadataAVU("SOFTWARE", "GROMACS")));
+	}
+	
+	@Test
+	public void testAttributeLookup()
+	{
+		MetadataAVUList list = new MetadataAVUList();
+		list.add(new MetadataAVU("METHOD", "MD"));
+		list.add(new MetadataAVU("SOFTWARE", "AMBER"));
+		list.add(new MetadataAVU("method", "QM"));
+		assertEquals(Arrays.asList("METHOD", "SOFTWARE"), list.getAttributes());
+		assertEquals(Arrays.asList("MD", "QM"), list.getValues("Method"));
+		assertEquals("MD", list.getValue("method"));
+		assertEquals("", list.getValue("SOLVENT"));
+		assertEquals(2, list.countAttributeOccurrences("METHOD"));
+		assertTrue(list.containsAttribute("software"));
+	}
+	
+	@Test
+	public void testIndexAfterRemoval()
+	{
+		MetadataAVUList list = new MetadataAVUList();
+		list.add(new MetadataAVU("METHOD", "MD"));
+		list.add(new MetadataAVU("SOFTWARE", "AMBER"));
+		list.updatePair("method", "QM");
+		assertEquals("QM", list.getValue("METHOD"));
+		assertEquals(1, list.countAttributeOccurrences("METHOD"));
+		assertEquals(1, list.indexOfPair(new MetadataAVU("METHOD", "QM")));
+		list.removeAVUWithAttribute("SOFTWARE");
+		assertFalse(list.containsAttribute("SOFTWARE"));
+		assertTrue(list.add(new MetadataAVU("SOFTWARE", "AMBER")));
+		list.set(0, new MetadataAVU("SOLVENT", "WATER"));
+		assertFalse(list.containsAttribute("METHOD"));
+		assertEquals("WATER", list.getValue("solvent"));
+	}
+	
+	@Test
+	public void testInterning() throws Exception
+	{
+		MetadataAVU avu1 = new MetadataAVU(new String("SOFTWARE_NAME"), new String("AMBER"), "ps");
+		MetadataAVU avu2 = new MetadataAVU(new String("SOFTWARE_NAME"), new String("AMBER"));
+		assertSame(avu1.getAttribute(), avu2.getAttribute());
+		assertSame(avu1.getValue(), avu2.getValue());
+		
+		//serialization
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(avu1);
+		out.close();
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		MetadataAVU copy = (MetadataAVU)in.readObject();
+		in.close();
+		assertSame(avu1.getAttribute(), copy.getAttribute());
+		assertSame(avu1.getValue(), copy.getValue());
+		assertEquals("ps", copy.getUnit());
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.local.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import edu.utah.bmi.ibiomes.metadata.MetadataDictionaryCache;
+import edu.utah.bmi.ibiomes.metadata.MetadataValueList;
+
+/**
+ * Test suite for the metadata dictionary cache
+ * @author Julien Thibault, University of Utah
+ *
+ */
+public class TestMetadataDictionaryCache
+{
+	@Test
+	public void testHitMiss()
+	{
+		MetadataDictionaryCache cache = new MetadataDictionaryCache();
+		MetadataValueList values = new MetadataValueList();
+		assertNull(cache.get("values:FORCE_FIELD"));
+		cache.put("values:FORCE_FIELD", values);
+		assertEquals(values, cache.get("values:FORCE_FIELD"));
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		
+		cache.put("values:SOFTWARE_NAME", values);
+		cache.put("attribute:SOFTWARE_NAME", values);
+		cache.invalidateAll("values:");
+		assertNull(cache.get("values:SOFTWARE_NAME"));
+		assertEquals(1, cache.size());
+		cache.clear();
+		assertEquals(0, cache.size());
+	}
+	
+	@Test
+	public void testExpiration() throws Exception
+	{
+		MetadataDictionaryCache cache = new MetadataDictionaryCache(20);
+		cache.put("attributes", new MetadataValueList());
+		Thread.sleep(50);
+		assertNull(cache.get("attributes"));
+		assertEquals(0, cache.size());
+	}
+}
@@ -5,11 +5,17 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.log4j.Logger;
+import org.junit.Assert;
 import org.junit.Test;
 
 import edu.utah.bmi.ibiomes.conf.IBIOMESConfiguration;
+import edu.utah.bmi.ibiomes.dictionaries.PeriodicTable;
+import edu.utah.bmi.ibiomes.topo.Atom;
+import edu.utah.bmi.ibiomes.topo.AtomTable;
 import edu.utah.bmi.ibiomes.topo.MolecularSystem;
+import edu.utah.bmi.ibiomes.topo.MolecularSystemFactory;
 import edu.utah.bmi.ibiomes.topo.Molecule;
+import edu.utah.bmi.ibiomes.topo.TopologyTable;
 import edu.utah.bmi.ibiomes.topo.bio.Biomolecule;
 import edu.utah.bmi.ibiomes.topo.bio.Residue;
 
@@ -115,6 +121,154 @@ public class TestMolecularSystemBuilder
 		}
 	}
 	
+	@Test
+	public void testBondPerception() throws Exception
+	{
+		IBIOMESConfiguration.getInstance(TestCommon.TEST_IBIOMES_CONFIG_FILE,true);
+		//large enough to use the parallel bond perception
+		int n = 20;
+		Assert.assertTrue(3*n*n*n >= MolecularSystemFactory.PARALLEL_BOND_PERCEPTION_THRESHOLD);
+		List<List<Atom>> systems = new ArrayList<List<Atom>>();
+		for (int nThreads=1; nThreads<=4; nThreads+=3)
+		{
+			List<Atom> atoms = buildWaterBox(n);
+			MolecularSystemFactory factory = new MolecularSystemFactory();
+			factory.setNumberOfThreads(nThreads);
+			MolecularSystem system = factory.identifyMoleculesUsingAtoms(atoms, true);
+			logger.info(system.toString());
+			Assert.assertEquals(n*n*n, system.getSoluteMolecules().size());
+			for (Molecule mol : system.getSoluteMolecules()){
+				Assert.assertEquals(3, mol.getAtoms().size());
+			}
+			systems.add(atoms);
+		}
+		//same bonds with serial and parallel bond perception
+		List<Atom> serial = systems.get(0);
+		List<Atom> parallel = systems.get(1);
+		for (int a=0;a<serial.size();a++){
+			List<Atom> serialBonds = serial.get(a).getBondedAtoms();
+			List<Atom> parallelBonds = parallel.get(a).getBondedAtoms();
+			Assert.assertEquals(serialBonds.size(), parallelBonds.size());
+			for (int b=0;b<serialBonds.size();b++){
+				Assert.assertEquals(serialBonds.get(b).getId(), parallelBonds.get(b).getId());
+			}
+		}
+	}
+	
+	@Test
+	public void testLongPolymer() throws Exception
+	{
+		IBIOMESConfiguration.getInstance(TestCommon.TEST_IBIOMES_CONFIG_FILE,true);
+		//linear chain of carbons (too long for a recursive traversal) followed by 2 separate atoms
+		PeriodicTable periodicTable = PeriodicTable.getInstance();
+		int n = 200000;
+		List<Atom> atoms = new ArrayList<Atom>();
+		for (int a=0;a<n+2;a++){
+			atoms.add(new Atom(a+1, "C"+a, 0.0f, 12.01, "CT", periodicTable.getElementByName(PeriodicTable.CARBON)));
+		}
+		for (int a=0;a<n;a++){
+			List<Atom> bondedAtoms = new ArrayList<Atom>();
+			if (a>0)
+				bondedAtoms.add(atoms.get(a-1));
+			if (a<n-1)
+				bondedAtoms.add(atoms.get(a+1));
+			atoms.get(a).setBondedAtoms(bondedAtoms);
+		}
+		MolecularSystem system = new MolecularSystemFactory().identifyMoleculesUsingAtoms(atoms, false);
+		Assert.assertEquals(3, system.getSoluteMolecules().size());
+		Assert.assertEquals(n, system.getSoluteMolecules().get(0).getAtoms().size());
+		Assert.assertEquals("C["+n+"]", system.getSoluteMolecules().get(0).getName());
+	}
+	
+	@Test
+	public void testTopologyTable() throws Exception
+	{
+		IBIOMESConfiguration.getInstance(TestCommon.TEST_IBIOMES_CONFIG_FILE,true);
+		//2 bonded glycines followed by 2 water molecules
+		PeriodicTable periodicTable = PeriodicTable.getInstance();
+		TopologyTable topology = new TopologyTable(0, 0);
+		AtomTable atoms = topology.getAtomTable();
+		String[] glyAtoms = {"N", "CA", "C", "O"};
+		for (int r=0;r<2;r++){
+			topology.addResidue("GLY", atoms.size());
+			for (int a=0;a<glyAtoms.length;a++){
+				String symbol = glyAtoms[a].substring(0,1);
+				atoms.addAtom(atoms.size()+1, glyAtoms[a], symbol, 0.0f, 12.01, periodicTable.getElementBySymbol(symbol));
+			}
+			int first = topology.getResidueFirstAtom(r);
+			atoms.addBond(first, first+1);
+			atoms.addBond(first+1, first+2);
+			atoms.addBond(first+2, first+3);
+			if (r>0)
+				atoms.addBond(first-2, first);
+		}
+		for (int r=0;r<2;r++){
+			int o = atoms.addAtom(atoms.size()+1, "O", "OW", -0.834f, 16.00, periodicTable.getElementByName(PeriodicTable.OXYGEN));
+			topology.addResidue("WAT", o);
+			for (int h=0;h<2;h++){
+				int hIndex = atoms.addAtom(atoms.size()+1, "H"+(h+1), "HW", 0.417f, 1.008, periodicTable.getElementByName(PeriodicTable.HYDROGEN));
+				atoms.addBond(o, hIndex);
+			}
+		}
+		topology.trimToSize();
+		
+		Assert.assertEquals(14, atoms.size());
+		Assert.assertEquals(4, topology.getResidueCount());
+		Assert.assertEquals(1, topology.getResidueIndex(5));
+		Assert.assertEquals(3, atoms.getBondedAtomCount(2));
+		Assert.assertEquals("HW", atoms.getType(13));
+		
+		List<Residue> residues = topology.createResidues();
+		Assert.assertEquals(4, residues.get(0).getAtoms().size());
+		MolecularSystem system = new MolecularSystemFactory().identifyMoleculesUsingResidues(residues, false);
+		logger.info(system.toString());
+		Assert.assertEquals(1, system.getSoluteMolecules().size());
+		Assert.assertEquals(8, system.getSoluteMolecules().get(0).getAtoms().size());
+		Assert.assertEquals(2, system.getSolventMolecules().size());
+		
+		//same molecules identified directly from the table
+		Assert.assertTrue(topology.areResiduesBonded(1, 0));
+		Assert.assertFalse(topology.areResiduesBonded(2, 1));
+		MolecularSystem tableSystem = new MolecularSystemFactory().identifyMoleculesUsingTopology(topology);
+		Assert.assertEquals(1, tableSystem.getSoluteMolecules().size());
+		Assert.assertEquals(8, tableSystem.getSoluteMolecules().get(0).getAtoms().size());
+		Assert.assertEquals(2, tableSystem.getSolventMolecules().size());
+		Assert.assertEquals(system.getSoluteMolecules().get(0).getAtomicCompositionCompact(), 
+				tableSystem.getSoluteMolecules().get(0).getAtomicCompositionCompact());
+		
+		//bonds can still be added once a table without bonds was trimmed
+		AtomTable ions = new AtomTable(2);
+		ions.addAtom(1, "NA", "IP", 1.0f, 22.99, periodicTable.getElementBySymbol("Na"));
+		ions.addAtom(2, "CL", "IM", -1.0f, 35.45, periodicTable.getElementBySymbol("Cl"));
+		ions.trimToSize();
+		Assert.assertEquals(0, ions.getBondCount());
+		ions.addBond(0, 1);
+		Assert.assertEquals(1, ions.getBondCount());
+		Assert.assertEquals(1, ions.getBondedAtom(0, 0));
+	}
+	
+	private static List<Atom> buildWaterBox(int n){
+		PeriodicTable periodicTable = PeriodicTable.getInstance();
+		List<Atom> atoms = new ArrayList<Atom>();
+		int id = 1;
+		for (int i=0;i<n;i++){
+			for (int j=0;j<n;j++){
+				for (int k=0;k<n;k++){
+					Atom o = new Atom(id++, "O", -0.834f, 16.00, "OW", periodicTable.getElementByName(PeriodicTable.OXYGEN));
+					o.setCoordinates(3.1*i, 3.1*j, 3.1*k);
+					Atom h1 = new Atom(id++, "H1", 0.417f, 1.008, "HW", periodicTable.getElementByName(PeriodicTable.HYDROGEN));
+					h1.setCoordinates(3.1*i + 0.957, 3.1*j, 3.1*k);
+					Atom h2 = new Atom(id++, "H2", 0.417f, 1.008, "HW", periodicTable.getElementByName(PeriodicTable.HYDROGEN));
+					h2.setCoordinates(3.1*i - 0.240, 3.1*j + 0.927, 3.1*k);
+					atoms.add(o);
+					atoms.add(h1);
+					atoms.add(h2);
+				}
+			}
+		}
+		return atoms;
+	}
+	
 	private static List<Residue> buildResidueList(String[] residueChain) throws IOException{
 		List<Residue> residues = new ArrayList<Residue>();
 		for (int r=0;r<residueChain.length;r++){
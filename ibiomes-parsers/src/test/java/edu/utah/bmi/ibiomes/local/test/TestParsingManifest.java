@@ -0,0 +1,137 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.local.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.utah.bmi.ibiomes.metadata.MetadataAVU;
+import edu.utah.bmi.ibiomes.parse.DefaultLocalFileImpl;
+import edu.utah.bmi.ibiomes.parse.DirectoryParsingManifest;
+import edu.utah.bmi.ibiomes.parse.DirectoryParsingManifestEntry;
+import edu.utah.bmi.ibiomes.parse.LocalFile;
+import edu.utah.bmi.ibiomes.parse.LocalFileFactory;
+import edu.utah.bmi.ibiomes.parse.chem.amber.AmberMdInputFile;
+
+/**
+ * Test suite for the directory parsing manifest
+ * @author Julien Thibault, University of Utah
+ *
+ */
+public class TestParsingManifest
+{
+	private static final String CONTEXT = "null|null";
+	
+	@Test
+	public void testUnchangedFiles() throws Exception
+	{
+		File file = createFile("ibiomes-manifest", "content\n");
+		DirectoryParsingManifest manifest = new DirectoryParsingManifest(true);
+		assertNull(manifest.findUnchangedEntry("a.txt", file, CONTEXT));
+		manifest.addEntry("a.txt", new DefaultLocalFileImpl(file.getAbsolutePath(), LocalFile.FORMAT_TXT), CONTEXT);
+		assertNotNull(manifest.findUnchangedEntry("a.txt", file, CONTEXT));
+		
+		//touched but same content: found through the checksum, then through the new modification time
+		long lastModified = file.lastModified() + 10000;
+		file.setLastModified(lastModified);
+		assertNotNull(manifest.findUnchangedEntry("a.txt", file, CONTEXT));
+		assertEquals(lastModified, manifest.getEntries().get(0).getLastModified());
+		
+		//replaced entry keeps a single instance per path
+		manifest.addEntry("a.txt", new DefaultLocalFileImpl(file.getAbsolutePath(), LocalFile.FORMAT_TXT), CONTEXT);
+		assertEquals(1, manifest.getEntries().size());
+		assertNull(manifest.findUnchangedEntry("a.txt", file, "AMBER|null"));
+		assertEquals(2, manifest.getMisses());
+		assertEquals(2, manifest.getHits());
+	}
+	
+	@Test
+	public void testStoreAndLoad() throws Exception
+	{
+		File file = createFile("ibiomes-manifest", "content\n");
+		File other = createFile("ibiomes-manifest", "other content\n");
+		File manifestFile = File.createTempFile("ibiomes-manifest", ".xml");
+		manifestFile.deleteOnExit();
+		
+		DirectoryParsingManifest manifest = new DirectoryParsingManifest(false);
+		manifest.addEntry("a.txt", new DefaultLocalFileImpl(file.getAbsolutePath(), LocalFile.FORMAT_TXT), CONTEXT);
+		manifest.addEntry("b.txt", new DefaultLocalFileImpl(other.getAbsolutePath(), LocalFile.FORMAT_TXT), CONTEXT);
+		manifest.store(manifestFile.getAbsolutePath());
+		
+		manifest = DirectoryParsingManifest.load(manifestFile.getAbsolutePath(), false);
+		assertEquals(2, manifest.getEntries().size());
+		assertNotNull(manifest.findUnchangedEntry("b.txt", other, CONTEXT));
+		
+		//entries of files not looked up during the run are dropped
+		manifest.removeUnseenEntries();
+		assertEquals(1, manifest.getEntries().size());
+		assertEquals("b.txt", manifest.getEntries().get(0).getPath());
+	}
+	
+	@Test
+	public void testWorkflowFiles() throws Exception
+	{
+		File file = createFile("ibiomes-manifest", "Minimization\n &cntrl\n  imin=1, maxcyc=100, ncyc=50,\n  ntb=1, cut=10.0,\n /\n");
+		AmberMdInputFile mdin = new AmberMdInputFile(file.getAbsolutePath());
+		assertFalse(DirectoryParsingManifest.isReusable(mdin));
+		
+		//metadata recorded even though the file must be instantiated again to build the workflow
+		DirectoryParsingManifest manifest = new DirectoryParsingManifest(false);
+		manifest.addEntry("min.in", mdin, CONTEXT);
+		DirectoryParsingManifestEntry entry = manifest.findUnchangedEntry("min.in", file, CONTEXT);
+		assertNotNull(entry);
+		assertFalse(entry.isReusable());
+		assertEquals(mdin.getMetadata().size(), entry.getMetadata().size());
+		assertEquals(1, manifest.getHits());
+		
+		//recorded metadata returned in place of the metadata extracted from the content
+		entry.getMetadata().add(new MetadataAVU("RECORDED_ATTRIBUTE", "recorded"));
+		AmberMdInputFile reloaded = (AmberMdInputFile)LocalFileFactory.instance().getFileInstanceFromFormat(file.getAbsolutePath(), entry.getFormat());
+		reloaded.setCachedMetadata(entry.getMetadata());
+		assertEquals("recorded", reloaded.getMetadata().getValue("RECORDED_ATTRIBUTE"));
+		assertEquals(mdin.getMetadata().size() + 1, reloaded.getMetadata().size());
+		
+		//entries without recorded metadata cannot be reused: not counted as hits
+		List<DirectoryParsingManifestEntry> entries = new ArrayList<DirectoryParsingManifestEntry>();
+		entries.add(new DirectoryParsingManifestEntry("min.in", file.length(), file.lastModified()));
+		manifest.setEntries(entries);
+		assertNull(manifest.findUnchangedEntry("min.in", file, CONTEXT));
+		assertEquals(1, manifest.getHits());
+		assertEquals(1, manifest.getMisses());
+	}
+	
+	private static File createFile(String prefix, String content) throws Exception
+	{
+		File file = File.createTempFile(prefix, ".txt");
+		file.deleteOnExit();
+		FileWriter writer = new FileWriter(file);
+		writer.write(content);
+		writer.close();
+		return file;
+	}
+}
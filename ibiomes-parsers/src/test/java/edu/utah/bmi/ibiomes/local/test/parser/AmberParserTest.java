@@ -17,6 +17,10 @@
 
 package edu.utah.bmi.ibiomes.local.test.parser;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
 import org.apache.log4j.Logger;
 import org.junit.Assert;
 import org.junit.Test;
@@ -147,6 +151,80 @@ public class AmberParserTest{
 		timingsSummary.clear();
 	}
 	
+	@Test
+	public void testMalformedTopology() throws Exception
+	{
+		LocalFileFactory ffactory = LocalFileFactory.instance();
+		
+		File valid = writeWaterTopology(new String[]{ "O", "H1", "H2" });
+		AmberParameterTopologyFile top = new AmberParameterTopologyFile(valid.getAbsolutePath());
+		Assert.assertEquals(LocalFile.FORMAT_AMBER_PARMTOP, top.getFormat());
+		Assert.assertEquals(3, top.getTopologyTable().getAtomTable().size());
+		Assert.assertEquals(LocalFile.FORMAT_AMBER_PARMTOP, ffactory.getFile(valid.getAbsolutePath(), Software.AMBER).getFormat());
+		
+		//header announces 3 atoms but the body only lists 2: rejected without loading the molecules
+		File malformed = writeWaterTopology(new String[]{ "O", "H1" });
+		top = new AmberParameterTopologyFile(malformed.getAbsolutePath());
+		Assert.assertEquals(LocalFile.FORMAT_UNKNOWN, top.getFormat());
+		Assert.assertFalse(LocalFile.FORMAT_AMBER_PARMTOP.equals(ffactory.getFile(malformed.getAbsolutePath(), Software.AMBER).getFormat()));
+		
+		//section sizes match but a value is invalid: only detected when the topology is decoded
+		File invalidValue = writeWaterTopology(new String[]{ "O", "H1", "H2" }, "  not-a-number  ");
+		top = new AmberParameterTopologyFile(invalidValue.getAbsolutePath());
+		Assert.assertEquals(LocalFile.FORMAT_AMBER_PARMTOP, top.getFormat());
+		Assert.assertNull(top.getTopologyTable());
+		Assert.assertEquals(LocalFile.FORMAT_UNKNOWN, top.getFormat());
+	}
+	
+	/**
+	 * Write minimal AMBER topology of a water molecule (3 atoms, 2 bonds, 1 residue)
+	 * @param atomNames Names listed in the ATOM_NAME section
+	 * @return Topology file
+	 * @throws IOException
+	 */
+	private File writeWaterTopology(String[] atomNames) throws IOException
+	{
+		return writeWaterTopology(atomNames, " -1.51973982E+01");
+	}
+	
+	/**
+	 * Write minimal AMBER topology of a water molecule (3 atoms, 2 bonds, 1 residue)
+	 * @param atomNames Names listed in the ATOM_NAME section
+	 * @param oxygenCharge Field (16 characters) listed for the oxygen in the CHARGE section
+	 * @return Topology file
+	 * @throws IOException
+	 */
+	private File writeWaterTopology(String[] atomNames, String oxygenCharge) throws IOException
+	{
+		File file = File.createTempFile("ibiomes-water", ".prmtop");
+		file.deleteOnExit();
+		StringBuilder names = new StringBuilder();
+		for (String name : atomNames)
+			names.append(String.format("%-4s", name));
+		FileWriter writer = new FileWriter(file);
+		writer.write(
+				"%VERSION  VERSION_STAMP = V0001.000\n" +
+				"%FLAG TITLE\n%FORMAT(20a4)\nWAT\n" +
+				"%FLAG POINTERS\n%FORMAT(10I8)\n" +
+				"       3       2       2       0       1       0       0       0       0       0\n" +
+				"       3       1       0       1       0       1       0       0       0       0\n" +
+				"       0       0       0       0       0       0       0       0       3       0\n" +
+				"       0\n" +
+				"%FLAG ATOM_NAME\n%FORMAT(20a4)\n" + names + "\n" +
+				"%FLAG CHARGE\n%FORMAT(5E16.8)\n" +
+				oxygenCharge + "  7.59869910E+00  7.59869910E+00\n" +
+				"%FLAG MASS\n%FORMAT(5E16.8)\n" +
+				"  1.60000000E+01  1.00800000E+00  1.00800000E+00\n" +
+				"%FLAG AMBER_ATOM_TYPE\n%FORMAT(20a4)\nOW  HW  HW  \n" +
+				"%FLAG BONDS_INC_HYDROGEN\n%FORMAT(10I8)\n" +
+				"       0       3       1       0       6       1\n" +
+				"%FLAG BONDS_WITHOUT_HYDROGEN\n%FORMAT(10I8)\n\n" +
+				"%FLAG RESIDUE_LABEL\n%FORMAT(20a4)\nWAT \n" +
+				"%FLAG RESIDUE_POINTER\n%FORMAT(10I8)\n       1\n");
+		writer.close();
+		return file;
+	}
+	
 	@Test
 	public void testInputs() throws Exception
 	{
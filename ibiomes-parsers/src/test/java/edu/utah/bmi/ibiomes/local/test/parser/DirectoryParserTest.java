@@ -17,6 +17,9 @@
 
 package edu.utah.bmi.ibiomes.local.test.parser;
 
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -163,6 +166,51 @@ public class DirectoryParserTest {
 		}
 	}
 	
+	@Test
+	public void testParallelParsing() throws Exception
+	{
+		for (int f=0; f<amberCollections.length; f++)
+		{
+			System.out.println("Parsing Amber experiment " + amberCollections[f] + " with multiple threads...");
+			DirectoryParser parser  = new DirectoryParser(amberCollections[f]);
+			parser.setNumberOfThreads(1);
+			String sequentialTree = listFiles(parser.parseDirectories(Software.AMBER));
+			parser.setNumberOfThreads(4);
+			String parallelTree = listFiles(parser.parseDirectories(Software.AMBER));
+			assertEquals(sequentialTree, parallelTree);
+		}
+	}
+	
+	@Test
+	public void testIncrementalParsing() throws Exception
+	{
+		File manifestFile = File.createTempFile("ibiomes-manifest", ".xml");
+		manifestFile.deleteOnExit();
+		for (int f=0; f<amberCollections.length; f++)
+		{
+			System.out.println("Parsing Amber experiment " + amberCollections[f] + " with parsing manifest...");
+			manifestFile.delete();
+			DirectoryParser parser  = new DirectoryParser(amberCollections[f]);
+			String fullTree = listFiles(parser.parseDirectories(Software.AMBER));
+			parser.setManifestPath(manifestFile.getAbsolutePath());
+			parser.parseDirectories(Software.AMBER);
+			String incrementalTree = listFiles(parser.parseDirectories(Software.AMBER));
+			assertEquals(fullTree, incrementalTree);
+		}
+	}
+	
+	private String listFiles(LocalDirectory dir){
+		StringBuilder sb = new StringBuilder(dir.getAbsolutePath() + "\n");
+		for (ArrayList<LocalFile> filesInFormat : dir.getFiles()){
+			for (LocalFile file : filesInFormat){
+				sb.append(file.getName() + " (" + file.getFormat() + ")\n");
+			}
+		}
+		for (LocalDirectory subdir : dir.getSubdirectories()){
+			sb.append(listFiles(subdir));
+		}
+		return sb.toString();
+	}
 	
 	private void dumpDirectory(LocalDirectory dir){
 		logger.debug("Directory: " + dir.getAbsolutePath());
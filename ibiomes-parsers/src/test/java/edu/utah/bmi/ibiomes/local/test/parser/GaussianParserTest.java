@@ -18,6 +18,8 @@
 
 package edu.utah.bmi.ibiomes.local.test.parser;
 
+import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
 
 import org.apache.log4j.Logger;
@@ -35,6 +37,8 @@ import edu.utah.bmi.ibiomes.conf.IBIOMESConfiguration;
 import edu.utah.bmi.ibiomes.experiment.Software;
 import edu.utah.bmi.ibiomes.local.test.TestCommon;
 import edu.utah.bmi.ibiomes.metadata.MetadataAVUList;
+import edu.utah.bmi.ibiomes.metadata.MethodMetadata;
+import edu.utah.bmi.ibiomes.metadata.TopologyMetadata;
 
 /**
  * Test suite for Gaussian file parsers
@@ -206,4 +210,46 @@ public class GaussianParserTest {
 			assert(false);
 		}
 	}
+
+	@Test
+	public void testGaussian09LineOrder() throws Exception
+	{
+		//charge and multiplicity listed after the topology marker (Gaussian 09/16)
+		File file = File.createTempFile("ibiomes-test-g09", ".log");
+		try {
+			FileWriter writer = new FileWriter(file);
+			writer.write(
+					" ******************************************\n" +
+					" Gaussian 09:  EM64L-G09RevC.01 23-Sep-2011\n" +
+					"                12-Mar-2013 \n" +
+					" ******************************************\n" +
+					" ----------\n" +
+					" water anion\n" +
+					" ----------\n" +
+					" Symbolic Z-matrix:\n" +
+					" Charge = -1 Multiplicity = 2\n" +
+					" O                     0.        0.        0.117 \n" +
+					" H                     0.        0.757    -0.469 \n" +
+					" H                     0.       -0.757    -0.469 \n" +
+					" \n" +
+					" Stoichiometry    H2O(1-,2)\n" +
+					" Standard basis: 6-31G(d) (6D, 7F)\n" +
+					"     6 alpha electrons        5 beta electrons\n" +
+					" SCF Done:  E(UB3LYP) =  -75.9581     A.U. after   12 cycles\n" +
+					" Job cpu time:  0 days  0 hours  0 minutes  5.0 seconds.\n" +
+					" Normal termination of Gaussian 09 at Tue Mar 12 10:00:00 2013.\n");
+			writer.close();
+			
+			GaussianOutputFile out = new GaussianOutputFile(file.getAbsolutePath());
+			Assert.assertEquals(GaussianOutputFile.FILE_FORMAT, out.getFormat());
+			MetadataAVUList metadata = out.getMetadata();
+			Assert.assertEquals("-1", metadata.getValue(TopologyMetadata.TOTAL_MOLECULE_CHARGE));
+			Assert.assertEquals("2", metadata.getValue(MethodMetadata.QM_SPIN_MULTIPLICITY));
+			Assert.assertEquals("3", metadata.getValue(TopologyMetadata.COUNT_ATOMS));
+			Assert.assertEquals(11, out.getTotalElectronCount());
+		}
+		finally {
+			file.delete();
+		}
+	}
 }
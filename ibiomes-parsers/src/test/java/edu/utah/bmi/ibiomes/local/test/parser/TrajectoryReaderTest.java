@@ -0,0 +1,1016 @@
+/*
+ * iBIOMES - Integrated Biomolecular Simulations
+ * Copyright (C) 2014  Julien Thibault, University of Utah
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.utah.bmi.ibiomes.local.test.parser;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import ucar.ma2.ArrayDouble;
+import ucar.ma2.ArrayFloat;
+import ucar.ma2.DataType;
+import ucar.nc2.Attribute;
+import ucar.nc2.NetcdfFileWriter;
+import ucar.nc2.Variable;
+
+import edu.utah.bmi.ibiomes.conf.IBIOMESConfiguration;
+import edu.utah.bmi.ibiomes.io.FileHeaderSample;
+import edu.utah.bmi.ibiomes.local.test.TestCommon;
+import edu.utah.bmi.ibiomes.metadata.MetadataAVUList;
+import edu.utah.bmi.ibiomes.metadata.MethodMetadata;
+import edu.utah.bmi.ibiomes.metadata.TrajectoryMetadata;
+import edu.utah.bmi.ibiomes.parse.FileFormatDetector;
+import edu.utah.bmi.ibiomes.parse.FileFormatSignature;
+import edu.utah.bmi.ibiomes.parse.LocalFile;
+import edu.utah.bmi.ibiomes.parse.LocalFileFactory;
+import edu.utah.bmi.ibiomes.parse.chem.AbstractTrajectoryFile;
+import edu.utah.bmi.ibiomes.parse.chem.REMDExchangeHistory;
+import edu.utah.bmi.ibiomes.parse.chem.REMDTrajectoryDemultiplexer;
+import edu.utah.bmi.ibiomes.parse.chem.TrajectoryFrame;
+import edu.utah.bmi.ibiomes.parse.chem.TrajectoryFrameIndex;
+import edu.utah.bmi.ibiomes.parse.chem.TrajectoryFrameReader;
+import edu.utah.bmi.ibiomes.parse.chem.VirtualTrajectory;
+import edu.utah.bmi.ibiomes.parse.chem.VirtualTrajectory.SegmentOrder;
+import edu.utah.bmi.ibiomes.parse.chem.amber.AmberNetcdfFile;
+import edu.utah.bmi.ibiomes.parse.chem.amber.AmberREMDLogFile;
+import edu.utah.bmi.ibiomes.parse.chem.amber.AmberNetcdfTrajectoryReader;
+import edu.utah.bmi.ibiomes.parse.chem.amber.AmberTrajectoryFileASCII;
+import edu.utah.bmi.ibiomes.parse.chem.amber.AmberTrajectoryFileBinpos;
+import edu.utah.bmi.ibiomes.parse.chem.amber.AmberTrajectoryReaderASCII;
+import edu.utah.bmi.ibiomes.parse.chem.amber.AmberTrajectoryReaderBinpos;
+import edu.utah.bmi.ibiomes.parse.chem.amber.AmberTrajectoryWriterASCII;
+import edu.utah.bmi.ibiomes.parse.chem.common.DCDTrajectoryFile;
+import edu.utah.bmi.ibiomes.parse.chem.common.DCDTrajectoryReader;
+import edu.utah.bmi.ibiomes.parse.chem.gromacs.GROMACSTrajectoryFile;
+import edu.utah.bmi.ibiomes.parse.chem.gromacs.TRRTrajectoryReader;
+import edu.utah.bmi.ibiomes.parse.chem.gromacs.XDRTrajectoryReader;
+import edu.utah.bmi.ibiomes.parse.chem.gromacs.XTCTrajectoryReader;
+
+/**
+ * Tests for the trajectory readers (DCD, BINPOS, NetCDF, TRR, XTC, mdcrd, multi-segment, REMD) using generated files
+ * @author Julien Thibault, University of Utah
+ *
+ */
+public class TrajectoryReaderTest {
+
+	private final static int N_ATOMS = 7;
+	private final static int N_FRAMES = 5;
+	
+	public TrajectoryReaderTest() throws Exception{
+		IBIOMESConfiguration.getInstance(TestCommon.TEST_IBIOMES_CONFIG_FILE, true);
+	}
+	
+	@Test
+	public void testDCDCharmm() throws Exception
+	{
+		//NAMD-like file: little-endian, 4-byte markers, unit cell
+		File file = writeDCD(ByteOrder.LITTLE_ENDIAN, 4, true);
+		try {
+			DCDTrajectoryFile dcd = new DCDTrajectoryFile(file.getAbsolutePath());
+			Assert.assertEquals(N_ATOMS, dcd.getNumberOfAtoms());
+			Assert.assertEquals(N_FRAMES, dcd.getNumberOfFrames());
+			Assert.assertTrue(dcd.hasUnitCell());
+			Assert.assertEquals(2.0, dcd.getTimeStepLength(), 1e-3);
+			
+			DCDTrajectoryReader reader = dcd.getReader();
+			Assert.assertTrue(reader.isCharmmFormat());
+			for (int f=N_FRAMES-1; f>=0; f--){
+				FloatBuffer x = reader.getX(f);
+				FloatBuffer z = reader.getZ(f);
+				Assert.assertEquals(N_ATOMS, x.remaining());
+				Assert.assertEquals(coordinate(f, 3, 0), x.get(3), 0.0f);
+				Assert.assertEquals(coordinate(f, 6, 2), z.get(6), 0.0f);
+				Assert.assertEquals(10.0 + f, reader.getUnitCell(f)[0], 0.0);
+			}
+			reader.close();
+			
+			//frame streaming with selection and stride
+			TrajectoryFrameReader frames = dcd.getFrameReader(N_ATOMS, new int[]{5, 1}, 2);
+			int n = 0;
+			TrajectoryFrame frame = null;
+			while ((frame = frames.readNextFrame()) != null){
+				Assert.assertEquals(coordinate(frame.getIndex(), 5, 1), frame.getY(0), 0.0f);
+				Assert.assertEquals(coordinate(frame.getIndex(), 1, 0), frame.getX(1), 0.0f);
+				Assert.assertEquals(90.0f, frame.getBox()[3], 1e-3f);
+				n++;
+			}
+			frames.close();
+			Assert.assertEquals((N_FRAMES+1)/2, n);
+		}
+		finally {
+			file.delete();
+		}
+	}
+	
+	@Test
+	public void testDCDXplorBigEndian() throws Exception
+	{
+		//big-endian, 8-byte markers, no unit cell
+		File file = writeDCD(ByteOrder.BIG_ENDIAN, 8, false);
+		try {
+			DCDTrajectoryReader reader = new DCDTrajectoryReader(file);
+			Assert.assertEquals(ByteOrder.BIG_ENDIAN, reader.getByteOrder());
+			Assert.assertEquals(8, reader.getRecordMarkerSize());
+			Assert.assertEquals(N_FRAMES, reader.getNumberOfFrames());
+			Assert.assertFalse(reader.hasUnitCell());
+			Assert.assertEquals(coordinate(2, 4, 1), reader.getY(2).get(4), 0.0f);
+			reader.close();
+		}
+		finally {
+			file.delete();
+		}
+	}
+	
+	@Test
+	public void testDCDDetection() throws Exception
+	{
+		//'CORD' at offset 4 or 8 depending on the record marker size, in both byte orders
+		FileFormatSignature signature = null;
+		for (FileFormatSignature candidate : LocalFileFactory.instance().getFormatDetector().getSignatures()){
+			if (candidate.getName().equals(LocalFile.FORMAT_DCD_TRAJECTORY))
+				signature = candidate;
+		}
+		Assert.assertNotNull(signature);
+		ByteOrder[] orders = {ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN};
+		for (ByteOrder order : orders){
+			for (int markerSize = 4; markerSize <= 8; markerSize += 4){
+				File file = writeDCD(order, markerSize, false);
+				try {
+					FileHeaderSample sample = FileHeaderSample.read(file.getAbsolutePath(), FileFormatDetector.HEADER_SAMPLE_SIZE);
+					Assert.assertTrue(signature.matchesContent(sample));
+					LocalFile dcd = LocalFileFactory.instance().getFile(file.getAbsolutePath(), null);
+					Assert.assertEquals(LocalFile.FORMAT_DCD_TRAJECTORY, dcd.getFormat());
+				}
+				finally {
+					file.delete();
+				}
+			}
+		}
+		Assert.assertFalse(DCDTrajectoryReader.isDCDHeader("CORD not a DCD header".getBytes()));
+	}
+	
+	@Test
+	public void testBinpos() throws Exception
+	{
+		File file = File.createTempFile("ibiomes-test", ".binpos");
+		try {
+			ByteBuffer buffer = ByteBuffer.allocate(4 + N_FRAMES*(4 + 12*N_ATOMS)).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.put(new byte[]{'f','x','y','z'});
+			for (int f=0; f<N_FRAMES; f++){
+				buffer.putInt(N_ATOMS);
+				for (int a=0; a<N_ATOMS; a++)
+					for (int d=0; d<3; d++)
+						buffer.putFloat(coordinate(f, a, d));
+			}
+			write(file, buffer);
+			
+			Assert.assertTrue(AmberTrajectoryFileBinpos.checkFormat(file.getAbsolutePath()));
+			AmberTrajectoryFileBinpos binpos = new AmberTrajectoryFileBinpos(file.getAbsolutePath());
+			Assert.assertEquals(N_ATOMS, binpos.getNumberOfAtoms());
+			Assert.assertEquals(N_FRAMES, binpos.getNumberOfFrames());
+			
+			AmberTrajectoryReaderBinpos reader = binpos.getReader();
+			FloatBuffer xyz = reader.getCoordinates(3);
+			Assert.assertEquals(3*N_ATOMS, xyz.remaining());
+			Assert.assertEquals(coordinate(3, 2, 1), xyz.get(3*2+1), 0.0f);
+			reader.close();
+		}
+		finally {
+			file.delete();
+		}
+	}
+	
+	@Test
+	public void testNetcdf() throws Exception
+	{
+		File file = File.createTempFile("ibiomes-test", ".nc");
+		try {
+			NetcdfFileWriter writer = NetcdfFileWriter.createNew(NetcdfFileWriter.Version.netcdf3, file.getAbsolutePath());
+			writer.addUnlimitedDimension("frame");
+			writer.addDimension(null, "spatial", 3);
+			writer.addDimension(null, "atom", N_ATOMS);
+			writer.addDimension(null, "cell_spatial", 3);
+			writer.addDimension(null, "cell_angular", 3);
+			writer.addGroupAttribute(null, new Attribute("Conventions", "AMBER"));
+			Variable timeVar = writer.addVariable(null, "time", DataType.FLOAT, "frame");
+			Variable coordinatesVar = writer.addVariable(null, "coordinates", DataType.FLOAT, "frame atom spatial");
+			Variable lengthsVar = writer.addVariable(null, "cell_lengths", DataType.DOUBLE, "frame cell_spatial");
+			Variable anglesVar = writer.addVariable(null, "cell_angles", DataType.DOUBLE, "frame cell_angular");
+			writer.create();
+			
+			ArrayFloat.D1 time = new ArrayFloat.D1(N_FRAMES);
+			ArrayFloat.D3 xyz = new ArrayFloat.D3(N_FRAMES, N_ATOMS, 3);
+			ArrayDouble.D2 lengths = new ArrayDouble.D2(N_FRAMES, 3);
+			ArrayDouble.D2 angles = new ArrayDouble.D2(N_FRAMES, 3);
+			for (int f=0; f<N_FRAMES; f++){
+				time.set(f, 2.0f*f);
+				for (int a=0; a<N_ATOMS; a++)
+					for (int d=0; d<3; d++)
+						xyz.set(f, a, d, coordinate(f, a, d));
+				for (int d=0; d<3; d++){
+					lengths.set(f, d, 10.0 + f);
+					angles.set(f, d, 90.0);
+				}
+			}
+			writer.write(timeVar, time);
+			writer.write(coordinatesVar, xyz);
+			writer.write(lengthsVar, lengths);
+			writer.write(anglesVar, angles);
+			writer.close();
+			
+			AmberNetcdfFile netcdf = new AmberNetcdfFile(file.getAbsolutePath(), true);
+			Assert.assertEquals(N_ATOMS, netcdf.getNumberOfAtoms());
+			Assert.assertEquals(N_FRAMES, netcdf.getNumberOfFrames());
+			
+			//hyperslab: frames 1 and 3, atoms 2 to 4
+			AmberNetcdfTrajectoryReader reader = netcdf.getReader();
+			Assert.assertTrue(reader.hasBox());
+			Assert.assertFalse(reader.hasVelocities());
+			float[] buffer = reader.readCoordinates(1, 2, 2, 2, 3, null);
+			Assert.assertEquals(coordinate(1, 2, 0), buffer[0], 0.0f);
+			Assert.assertEquals(coordinate(3, 4, 2), buffer[3*3 + 3*2 + 2], 0.0f);
+			//buffer reused
+			Assert.assertSame(buffer, reader.readCoordinates(0, buffer));
+			Assert.assertEquals(6.0f, reader.readTimes(0, 2, 3, null)[1], 0.0f);
+			
+			//strided streaming of an atom subset, one frame per read
+			reader.setChunkSize(1);
+			TrajectoryFrameReader frameReader = reader.getFrameReader(new int[]{5, 1}, 2);
+			int nFrames = 0;
+			TrajectoryFrame frame;
+			while ((frame = frameReader.readNextFrame()) != null){
+				Assert.assertEquals(2*nFrames, frame.getIndex());
+				Assert.assertEquals(coordinate(frame.getIndex(), 5, 1), frame.getY(0), 0.0f);
+				Assert.assertEquals(coordinate(frame.getIndex(), 1, 2), frame.getZ(1), 0.0f);
+				Assert.assertTrue(frame.hasBox());
+				Assert.assertEquals(10.0f + frame.getIndex(), frame.getBox()[0], 0.0f);
+				nFrames++;
+			}
+			Assert.assertEquals(3, nFrames);
+			frameReader.close();
+		}
+		finally {
+			file.delete();
+		}
+	}
+	
+	@Test
+	public void testTRR() throws Exception
+	{
+		File file = File.createTempFile("ibiomes-test", ".trr");
+		try {
+			//double precision, coordinates and velocities, box in the first frames only
+			ByteBuffer buffer = ByteBuffer.allocate(N_FRAMES*(256 + 48*N_ATOMS)).order(ByteOrder.BIG_ENDIAN);
+			for (int f=0; f<N_FRAMES; f++){
+				boolean hasBox = (f < 3);
+				buffer.putInt(TRRTrajectoryReader.MAGIC_NUMBER);
+				buffer.putInt(13);
+				buffer.putInt(12);
+				buffer.put("GMX_trn_file".getBytes("US-ASCII"));
+				int[] sizes = {0, 0, hasBox ? 72 : 0, 0, 0, 0, 0, 24*N_ATOMS, 24*N_ATOMS, 0, N_ATOMS, 1000*f, 0};
+				for (int size : sizes)
+					buffer.putInt(size);
+				buffer.putDouble(2.0*f);
+				buffer.putDouble(0.0);
+				if (hasBox)
+					for (int i=0; i<9; i++)
+						buffer.putDouble(i%4 == 0 ? 1.0 + f : 0.0);
+				for (int a=0; a<N_ATOMS; a++)
+					for (int d=0; d<3; d++)
+						buffer.putDouble(coordinate(f, a, d) / 10.0);
+				for (int a=0; a<N_ATOMS; a++)
+					for (int d=0; d<3; d++)
+						buffer.putDouble(-a);
+			}
+			write(file, buffer);
+			
+			GROMACSTrajectoryFile trr = new GROMACSTrajectoryFile(file.getAbsolutePath());
+			Assert.assertTrue(trr.isTRR());
+			Assert.assertEquals(N_ATOMS, trr.getNumberOfAtoms());
+			Assert.assertEquals(N_FRAMES, trr.getNumberOfFrames());
+			Assert.assertEquals(2.0, trr.getTimeStepLength(), 1e-6);
+			Assert.assertTrue(TrajectoryFrameIndex.getSidecarFile(file).exists());
+			
+			XDRTrajectoryReader reader = trr.getReader();
+			TrajectoryFrame frame = new TrajectoryFrame(N_ATOMS);
+			reader.readFrame(4, frame, null);
+			Assert.assertFalse(frame.hasBox());
+			Assert.assertEquals(coordinate(4, 6, 2), frame.getZ(6), 1e-3f);
+			reader.readFrame(1, frame, null);
+			Assert.assertTrue(frame.hasBox());
+			Assert.assertEquals(20.0f, frame.getBox()[0], 1e-4f);
+			Assert.assertEquals(90.0f, frame.getBox()[5], 1e-4f);
+			Assert.assertEquals(coordinate(1, 3, 1), frame.getY(3), 1e-3f);
+			float[] velocities = new float[3*N_ATOMS];
+			Assert.assertTrue(((TRRTrajectoryReader)reader).readVelocities(2, velocities));
+			Assert.assertEquals(-5.0f, velocities[3*5], 0.0f);
+			reader.close();
+		}
+		finally {
+			TrajectoryFrameIndex.getSidecarFile(file).delete();
+			file.delete();
+		}
+	}
+	
+	@Test
+	public void testXTC() throws Exception
+	{
+		final int nAtoms = 12;
+		File file = File.createTempFile("ibiomes-test", ".xtc");
+		try {
+			ByteBuffer buffer = ByteBuffer.allocate(N_FRAMES*(256 + 12*nAtoms)).order(ByteOrder.BIG_ENDIAN);
+			for (int f=0; f<N_FRAMES; f++)
+				putXTCFrame(buffer, f, nAtoms);
+			//truncated frame (interrupted run)
+			buffer.putInt(XTCTrajectoryReader.MAGIC_NUMBER);
+			buffer.putInt(nAtoms);
+			write(file, buffer);
+			
+			//header-only parsing
+			GROMACSTrajectoryFile xtc = new GROMACSTrajectoryFile(file.getAbsolutePath());
+			Assert.assertTrue(xtc.isXTC());
+			Assert.assertEquals(nAtoms, xtc.getNumberOfAtoms());
+			Assert.assertEquals(N_FRAMES, xtc.getNumberOfFrames());
+			Assert.assertEquals(2.0, xtc.getTimeStepLength(), 1e-6);
+			
+			//frame index reloaded from the sidecar file
+			File sidecar = TrajectoryFrameIndex.getSidecarFile(file);
+			Assert.assertTrue(sidecar.exists());
+			TrajectoryFrameIndex index = TrajectoryFrameIndex.load(file);
+			Assert.assertNotNull(index);
+			Assert.assertEquals(N_FRAMES, index.getNumberOfFrames());
+			Assert.assertEquals(4000L, index.getStep(4));
+			
+			//random access, decompressed coordinates
+			XDRTrajectoryReader reader = xtc.getReader();
+			TrajectoryFrame frame = new TrajectoryFrame(nAtoms);
+			for (int f=N_FRAMES-1; f>=0; f--){
+				reader.readFrame(f, frame, null);
+				for (int a=0; a<nAtoms; a++)
+					for (int d=0; d<3; d++)
+						Assert.assertEquals(coordinate(f, a, d), frame.getCoordinates()[3*a+d], 1e-3f);
+				Assert.assertEquals(10.0f + f, frame.getBox()[1], 1e-4f);
+			}
+			Assert.assertEquals(8.0f, reader.getTime(4), 0.0f);
+			reader.close();
+			
+			//frame streaming with selection and stride
+			TrajectoryFrameReader frames = xtc.getFrameReader(nAtoms, new int[]{2, 0, 11}, 2);
+			int n = 0;
+			while ((frame = frames.readNextFrame()) != null){
+				Assert.assertEquals(2*n, frame.getIndex());
+				Assert.assertEquals(coordinate(frame.getIndex(), 2, 0), frame.getX(0), 1e-3f);
+				Assert.assertEquals(coordinate(frame.getIndex(), 0, 1), frame.getY(1), 1e-3f);
+				Assert.assertEquals(coordinate(frame.getIndex(), 11, 2), frame.getZ(2), 1e-3f);
+				n++;
+			}
+			frames.close();
+			Assert.assertEquals(3, n);
+		}
+		finally {
+			TrajectoryFrameIndex.getSidecarFile(file).delete();
+			file.delete();
+		}
+	}
+	
+	@Test
+	public void testGromacsFixtures() throws Exception
+	{
+		//64 water molecules and 2 ions, 4 frames: XTC (precision 1000) and single-precision TRR 
+		//encoded with the xdrfile algorithms, reference coordinates in nm
+		float[][] reference = readReference("/gromacs/water.ref");
+		int nAtoms = reference[0].length/3;
+		File xtcFile = copyResource("/gromacs/water.xtc", ".xtc");
+		File trrFile = copyResource("/gromacs/water.trr", ".trr");
+		try {
+			GROMACSTrajectoryFile xtc = new GROMACSTrajectoryFile(xtcFile.getAbsolutePath());
+			Assert.assertTrue(xtc.isXTC());
+			Assert.assertEquals(nAtoms, xtc.getNumberOfAtoms());
+			Assert.assertEquals(reference.length, xtc.getNumberOfFrames());
+			//500 steps per ps
+			Assert.assertEquals(2.0, xtc.getTimeStepLength(), 1e-6);
+			
+			GROMACSTrajectoryFile trr = new GROMACSTrajectoryFile(trrFile.getAbsolutePath());
+			Assert.assertTrue(trr.isTRR());
+			Assert.assertEquals(nAtoms, trr.getNumberOfAtoms());
+			Assert.assertEquals(reference.length, trr.getNumberOfFrames());
+			
+			XDRTrajectoryReader xtcReader = xtc.getReader();
+			XDRTrajectoryReader trrReader = trr.getReader();
+			TrajectoryFrame frame = new TrajectoryFrame(nAtoms);
+			for (int f=0; f<reference.length; f++){
+				//XTC: rounded to 0.001 nm
+				xtcReader.readFrame(f, frame, null);
+				for (int i=0; i<3*nAtoms; i++)
+					Assert.assertEquals(10.0f*reference[f][i], frame.getCoordinates()[i], 5.1e-3f);
+				Assert.assertEquals(12.4f + 0.1f*f, frame.getBox()[0], 1e-4f);
+				//TRR: single precision values
+				trrReader.readFrame(f, frame, null);
+				for (int i=0; i<3*nAtoms; i++)
+					Assert.assertEquals(10.0f*reference[f][i], frame.getCoordinates()[i], 1e-4f);
+			}
+			Assert.assertEquals(3.0f, xtcReader.getTime(3), 0.0f);
+			xtcReader.close();
+			trrReader.close();
+		}
+		finally {
+			TrajectoryFrameIndex.getSidecarFile(xtcFile).delete();
+			TrajectoryFrameIndex.getSidecarFile(trrFile).delete();
+			xtcFile.delete();
+			trrFile.delete();
+		}
+	}
+	
+	@Test
+	public void testMdcrd() throws Exception
+	{
+		File file = writeMdcrd(false);
+		try {
+			AmberTrajectoryFileASCII mdcrd = new AmberTrajectoryFileASCII(file.getAbsolutePath());
+			AmberTrajectoryReaderASCII reader = mdcrd.getReader(N_ATOMS);
+			Assert.assertTrue(reader.isFixedLayout());
+			Assert.assertTrue(reader.hasBox());
+			Assert.assertEquals("test trajectory", reader.getTitle());
+			Assert.assertEquals(N_FRAMES, reader.getNumberOfFrames());
+			TrajectoryFrame frame = new TrajectoryFrame(N_ATOMS);
+			reader.readFrame(3, frame, null);
+			Assert.assertEquals(coordinate(3, 6, 2), frame.getZ(6), 0.0f);
+			Assert.assertEquals(13.0f, frame.getBox()[0], 0.0f);
+			reader.close();
+			
+			//index loaded from the sidecar file
+			Assert.assertTrue(TrajectoryFrameIndex.getSidecarFile(file).exists());
+			reader = mdcrd.getReader(N_ATOMS);
+			Assert.assertEquals(N_FRAMES, reader.getNumberOfFrames());
+			Assert.assertEquals("test trajectory\n".length() + 4*(2*81 + 9 + 25), reader.getFrameOffset(4));
+			
+			//parallel decoding, one frame per task
+			reader.setNumberOfThreads(3);
+			reader.setChunkSize(1);
+			TrajectoryFrameReader frames = reader.getFrameReader(new int[]{5, 1}, 2);
+			int n = 0;
+			while ((frame = frames.readNextFrame()) != null){
+				Assert.assertEquals(2*n, frame.getIndex());
+				Assert.assertEquals(coordinate(frame.getIndex(), 5, 1), frame.getY(0), 0.0f);
+				Assert.assertEquals(coordinate(frame.getIndex(), 1, 0), frame.getX(1), 0.0f);
+				Assert.assertEquals(10.0f + frame.getIndex(), frame.getBox()[0], 0.0f);
+				n++;
+			}
+			frames.close();
+			Assert.assertEquals(3, n);
+		}
+		finally {
+			TrajectoryFrameIndex.getSidecarFile(file).delete();
+			file.delete();
+		}
+	}
+	
+	@Test
+	public void testMdcrdIrregular() throws Exception
+	{
+		//lines with trailing spaces: frames indexed by a line scan
+		File file = writeMdcrd(true);
+		try {
+			AmberTrajectoryReaderASCII reader = new AmberTrajectoryReaderASCII(file, N_ATOMS, false);
+			Assert.assertFalse(reader.isFixedLayout());
+			Assert.assertTrue(reader.hasRemdHeader());
+			Assert.assertEquals(N_FRAMES, reader.getNumberOfFrames());
+			Assert.assertFalse(TrajectoryFrameIndex.getSidecarFile(file).exists());
+			TrajectoryFrame frame = new TrajectoryFrame(N_ATOMS);
+			for (int f=N_FRAMES-1; f>=0; f--){
+				reader.readFrame(f, frame, null);
+				Assert.assertEquals(300.0 + f, frame.getTemperature(), 1e-6);
+				Assert.assertEquals(coordinate(f, 4, 1), frame.getY(4), 0.0f);
+				Assert.assertEquals(10.0f + f, frame.getBox()[0], 0.0f);
+			}
+			reader.close();
+		}
+		finally {
+			file.delete();
+		}
+	}
+	
+	@Test
+	public void testVirtualTrajectory() throws Exception
+	{
+		//md2.mdcrd (frames 0-4) and md10.mdcrd.gz (frames 4-8, restart frame repeated), 
+		//npt1.dcd and npt2.dcd (same run written twice)
+		File dir = new File(System.getProperty("java.io.tmpdir"), "ibiomes-test-segments-" + System.nanoTime());
+		dir.mkdir();
+		try {
+			File md2 = new File(dir, "md2.mdcrd");
+			File md10 = new File(dir, "md10.mdcrd.gz");
+			writeMdcrd(md2, false, 0, false);
+			writeMdcrd(md10, false, N_FRAMES-1, true);
+			File npt1 = writeDCD(ByteOrder.LITTLE_ENDIAN, 4, true);
+			File npt2 = writeDCD(ByteOrder.LITTLE_ENDIAN, 4, true);
+			Assert.assertTrue(npt1.renameTo(new File(dir, "npt1.dcd")));
+			Assert.assertTrue(npt2.renameTo(new File(dir, "npt2.dcd")));
+			
+			List<LocalFile> files = new ArrayList<LocalFile>();
+			files.add(new AmberTrajectoryFileASCII(md10.getAbsolutePath()));
+			files.add(new DCDTrajectoryFile(new File(dir, "npt2.dcd").getAbsolutePath()));
+			files.add(new AmberTrajectoryFileASCII(md2.getAbsolutePath()));
+			files.add(new DCDTrajectoryFile(new File(dir, "npt1.dcd").getAbsolutePath()));
+			Map<String, List<AbstractTrajectoryFile>> runs = VirtualTrajectory.groupSegments(files);
+			Assert.assertEquals(2, runs.size());
+			
+			//segments ordered by number, duplicated restart frame found by coordinates
+			VirtualTrajectory md = new VirtualTrajectory(runs.get(dir.getAbsolutePath() + File.separator + "md"), N_ATOMS);
+			Assert.assertEquals(md2.getName(), md.getSegments().get(0).getName());
+			Assert.assertEquals(2*N_FRAMES, md.getNumberOfFrames());
+			Assert.assertEquals(1, md.removeDuplicateBoundaryFrames(1e-3));
+			Assert.assertEquals(2*N_FRAMES-1, md.getNumberOfFrames());
+			Assert.assertEquals(0, md.getSegmentIndex(N_FRAMES-1));
+			Assert.assertEquals(1, md.getSegmentIndex(N_FRAMES));
+			Assert.assertTrue(Double.isNaN(md.getSimulatedTime()));
+			md.setDefaultFrameInterval(2.0);
+			Assert.assertEquals(2.0*(2*N_FRAMES-1), md.getSimulatedTime(), 1e-9);
+			
+			//random access (the compressed segment is read sequentially)
+			int[] selectionIndex = new int[N_ATOMS];
+			for (int a=0; a<N_ATOMS; a++)
+				selectionIndex[a] = a;
+			TrajectoryFrame frame = new TrajectoryFrame(N_ATOMS);
+			for (int f : new int[]{7, 2, 8, 5}){
+				md.readFrame(f, frame, selectionIndex);
+				Assert.assertEquals(f, frame.getIndex());
+				Assert.assertEquals(coordinate(f, 6, 2), frame.getZ(6), 0.0f);
+				Assert.assertEquals(10.0f + f, frame.getBox()[0], 0.0f);
+			}
+			
+			//streaming across segments
+			TrajectoryFrameReader frames = md.getFrameReader(new int[]{3}, 2);
+			int n = 0;
+			while ((frame = frames.readNextFrame()) != null){
+				Assert.assertEquals(coordinate(2*n, 3, 1), frame.getY(0), 0.0f);
+				n++;
+			}
+			frames.close();
+			Assert.assertEquals(N_FRAMES, n);
+			
+			//second DCD covers the same time range as the first one
+			VirtualTrajectory npt = new VirtualTrajectory(runs.get(dir.getAbsolutePath() + File.separator + "npt"), N_ATOMS, SegmentOrder.SIMULATION_TIME);
+			Assert.assertEquals(N_FRAMES, npt.getNumberOfFrames());
+			Assert.assertEquals(N_FRAMES, npt.getNumberOfDuplicateFrames(1));
+			Assert.assertEquals(2.0 + N_FRAMES-1, npt.getFrameTime(N_FRAMES-1), 1e-3);
+			Assert.assertEquals(1.0*N_FRAMES, npt.getSimulatedTime(), 1e-3);
+			Assert.assertEquals(String.valueOf(N_FRAMES), npt.getMetadata().getValue(TrajectoryMetadata.TIME_STEP_COUNT));
+			Assert.assertEquals("2", npt.getMetadata().getValue(TrajectoryMetadata.TRAJECTORY_SEGMENT_COUNT));
+			npt.close();
+		}
+		finally {
+			for (File file : dir.listFiles())
+				file.delete();
+			dir.delete();
+		}
+	}
+	
+	@Test
+	public void testREMDDemultiplexing() throws Exception
+	{
+		//3 replicas (300K, 310K, 320K), one frame per exchange
+		int[][] states = new int[][]{{0,1,2}, {1,0,2}, {2,0,1}, {2,0,1}, {1,0,2}};
+		double[] temperatures = new double[]{300.0, 310.0, 320.0};
+		int nReplicas = temperatures.length;
+		File dir = new File(System.getProperty("java.io.tmpdir"), "ibiomes-test-remd-" + System.nanoTime());
+		dir.mkdir();
+		try {
+			File log = new File(dir, "rem.log");
+			writeREMDLog(log, states, temperatures);
+			AmberREMDLogFile remLog = new AmberREMDLogFile(log.getAbsolutePath());
+			Assert.assertEquals(LocalFile.FORMAT_AMBER_REMD_LOG, remLog.getFormat());
+			Assert.assertEquals(N_FRAMES, remLog.getNumberOfExchangesRequested());
+			REMDExchangeHistory history = remLog.getExchangeHistory();
+			Assert.assertEquals(N_FRAMES, history.getNumberOfExchanges());
+			Assert.assertEquals(3, history.getNumberOfAttempts(0));
+			Assert.assertEquals(1.0/3.0, history.getAcceptanceRatio(0), 1e-9);
+			Assert.assertEquals(1.0, history.getAcceptanceRatio(1), 1e-9);
+			Assert.assertEquals(0.6, history.getAcceptanceRatio(), 1e-9);
+			MetadataAVUList metadata = remLog.getMetadata();
+			Assert.assertEquals("3", metadata.getValue(MethodMetadata.ENHANCED_SAMPLING_METHOD_REPLICA_COUNT));
+			Assert.assertEquals(String.valueOf(1.0/3.0), metadata.getValue(MethodMetadata.REMD_EXCHANGE_ACCEPTANCE_RATIO_MIN));
+			
+			//replica trajectories
+			List<AmberTrajectoryFileASCII> replicas = new ArrayList<AmberTrajectoryFileASCII>();
+			TrajectoryFrame frame = new TrajectoryFrame(N_ATOMS);
+			frame.setHasBox(true);
+			for (int r=0; r<nReplicas; r++){
+				File file = new File(dir, "rem.mdcrd." + (r+1));
+				AmberTrajectoryWriterASCII writer = new AmberTrajectoryWriterASCII(file, "replica " + (r+1), N_ATOMS);
+				for (int f=0; f<N_FRAMES; f++){
+					for (int a=0; a<N_ATOMS; a++)
+						for (int d=0; d<3; d++)
+							frame.getCoordinates()[3*a+d] = coordinate(f, a, d) + 0.125f*r;
+					Arrays.fill(frame.getBox(), 0, 3, 10.0f + r);
+					writer.writeFrame(frame);
+				}
+				writer.close();
+				replicas.add(new AmberTrajectoryFileASCII(file.getAbsolutePath()));
+			}
+			
+			//per-temperature trajectories
+			REMDTrajectoryDemultiplexer demux = new REMDTrajectoryDemultiplexer(replicas, N_ATOMS, history, 1);
+			Assert.assertEquals(N_FRAMES, demux.demultiplex(dir, "remd"));
+			for (int s=0; s<nReplicas; s++){
+				File file = new File(dir, String.format(Locale.US, "remd.%.2fK.mdcrd", temperatures[s]));
+				AmberTrajectoryReaderASCII reader = new AmberTrajectoryReaderASCII(file, N_ATOMS, false);
+				Assert.assertEquals(N_FRAMES, reader.getNumberOfFrames());
+				for (int f=0; f<N_FRAMES; f++){
+					int r = history.getReplica(s, f);
+					Assert.assertEquals(states[f][r], s);
+					reader.readFrame(f, frame, null);
+					Assert.assertEquals(coordinate(f, 5, 2) + 0.125f*r, frame.getZ(5), 0.0f);
+					Assert.assertEquals(10.0f + r, frame.getBox()[0], 0.0f);
+				}
+				reader.close();
+			}
+			
+			//back to replica walks
+			List<AmberTrajectoryFileASCII> temperatureTrajectories = new ArrayList<AmberTrajectoryFileASCII>();
+			for (int s=0; s<nReplicas; s++)
+				temperatureTrajectories.add(new AmberTrajectoryFileASCII(new File(dir, String.format(Locale.US, "remd.%.2fK.mdcrd", temperatures[s])).getAbsolutePath()));
+			demux = new REMDTrajectoryDemultiplexer(temperatureTrajectories, N_ATOMS, history, 1);
+			demux.setOutput(REMDTrajectoryDemultiplexer.Output.REPLICA);
+			Assert.assertEquals(N_FRAMES, demux.demultiplex(dir, "walk"));
+			AmberTrajectoryReaderASCII reader = new AmberTrajectoryReaderASCII(new File(dir, "walk.rep002.mdcrd"), N_ATOMS, false);
+			for (int f=0; f<N_FRAMES; f++){
+				reader.readFrame(f, frame, null);
+				Assert.assertEquals(coordinate(f, 0, 0) + 0.125f, frame.getX(0), 0.0f);
+			}
+			reader.close();
+			
+			//exchange history shorter than the trajectories
+			REMDExchangeHistory truncatedHistory = new REMDExchangeHistory(temperatures);
+			for (int k=0; k<N_FRAMES-1; k++)
+				truncatedHistory.addExchange(states[k]);
+			demux = new REMDTrajectoryDemultiplexer(replicas, N_ATOMS, truncatedHistory, 1);
+			try {
+				demux.demultiplex(dir, "short");
+				Assert.fail("Frames after the last exchange must be rejected");
+			}
+			catch (IOException e){
+			}
+		}
+		finally {
+			for (File file : dir.listFiles())
+				file.delete();
+			dir.delete();
+		}
+	}
+	
+	private static float coordinate(int frame, int atom, int dim){
+		return frame*100.0f + atom + dim*0.25f;
+	}
+	
+	/**
+	 * Write XTC frame (precision 1000). Atoms 0, 2 and 3 are encoded as small differences
+	 * (one run following atom 1), the other atoms as full integer coordinates.
+	 */
+	private static void putXTCFrame(ByteBuffer buffer, int f, int nAtoms) throws IOException
+	{
+		final int smallidx = 27;
+		final int smallnum = 256;
+		buffer.putInt(XTCTrajectoryReader.MAGIC_NUMBER);
+		buffer.putInt(nAtoms);
+		buffer.putInt(1000*f);
+		buffer.putFloat(2.0f*f);
+		for (int i=0; i<9; i++)
+			buffer.putFloat(i%4 == 0 ? 1.0f + 0.1f*f : 0.0f);
+		buffer.putInt(nAtoms);
+		
+		//integer coordinates (1/1000 nm)
+		int[] coords = new int[3*nAtoms];
+		int[] minint = {Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE};
+		int[] maxint = {Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE};
+		for (int a=0; a<nAtoms; a++)
+			for (int d=0; d<3; d++){
+				coords[3*a+d] = Math.round(coordinate(f, a, d) * 100.0f);
+				minint[d] = Math.min(minint[d], coords[3*a+d]);
+				maxint[d] = Math.max(maxint[d], coords[3*a+d]);
+			}
+		int[] sizeint = new int[3];
+		for (int d=0; d<3; d++)
+			sizeint[d] = maxint[d] - minint[d] + 1;
+		int bitsize = 0;
+		for (long product = (long)sizeint[0]*sizeint[1]*sizeint[2]; product > 0; product >>= 1)
+			bitsize++;
+		int[] sizesmall = {1 << 9, 1 << 9, 1 << 9};
+		
+		XDRBitWriter bits = new XDRBitWriter();
+		//atom 1 (large), then run of 3 small atoms (0, 2, 3)
+		bits.sendInts(bitsize, sizeint, new int[]{coords[3]-minint[0], coords[4]-minint[1], coords[5]-minint[2]});
+		bits.sendBits(1, 1);
+		bits.sendBits(5, 9 + 0 + 1);
+		bits.sendInts(smallidx, sizesmall, difference(coords, 0, 1, smallnum));
+		bits.sendInts(smallidx, sizesmall, difference(coords, 2, 0, smallnum));
+		bits.sendInts(smallidx, sizesmall, difference(coords, 3, 2, smallnum));
+		//other atoms (large, no run)
+		for (int a=4; a<nAtoms; a++){
+			bits.sendInts(bitsize, sizeint, new int[]{coords[3*a]-minint[0], coords[3*a+1]-minint[1], coords[3*a+2]-minint[2]});
+			if (a == 4){
+				bits.sendBits(1, 1);
+				bits.sendBits(5, 1);
+			}
+			else bits.sendBits(1, 0);
+		}
+		byte[] data = bits.getBytes();
+		
+		buffer.putFloat(1000.0f);
+		for (int d=0; d<3; d++)
+			buffer.putInt(minint[d]);
+		for (int d=0; d<3; d++)
+			buffer.putInt(maxint[d]);
+		buffer.putInt(smallidx);
+		buffer.putInt(data.length);
+		buffer.put(data);
+		for (int i=data.length; i%4 != 0; i++)
+			buffer.put((byte)0);
+	}
+	
+	private static int[] difference(int[] coords, int atom, int reference, int smallnum){
+		int[] diff = new int[3];
+		for (int d=0; d<3; d++)
+			diff[d] = coords[3*atom+d] - coords[3*reference+d] + smallnum;
+		return diff;
+	}
+	
+	/**
+	 * Bit writer for XTC compressed coordinates (most significant bits first)
+	 */
+	private static class XDRBitWriter {
+		private java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+		private int lastBits = 0;
+		private int lastByte = 0;
+		
+		private void sendBits(int nbits, int num){
+			for (int b=nbits-1; b>=0; b--){
+				lastByte = (lastByte << 1) | ((num >>> b) & 1);
+				lastBits++;
+				if (lastBits == 8){
+					out.write(lastByte & 0xff);
+					lastBits = 0;
+					lastByte = 0;
+				}
+			}
+		}
+		
+		private void sendInts(int nbits, int[] sizes, int[] nums){
+			//nums[0] is the most significant digit of the mixed-radix integer
+			java.math.BigInteger value = java.math.BigInteger.valueOf(nums[0]);
+			for (int i=1; i<3; i++)
+				value = value.multiply(java.math.BigInteger.valueOf(sizes[i])).add(java.math.BigInteger.valueOf(nums[i]));
+			//bytes are sent least significant first, the last one on the remaining bits
+			for (int b=0; nbits>0; b++){
+				int n = Math.min(8, nbits);
+				sendBits(n, value.shiftRight(8*b).intValue() & ((1 << n) - 1));
+				nbits -= n;
+			}
+		}
+		
+		private byte[] getBytes(){
+			if (lastBits > 0)
+				out.write((lastByte << (8 - lastBits)) & 0xff);
+			lastBits = 0;
+			return out.toByteArray();
+		}
+	}
+	
+	private static File writeMdcrd(boolean irregular) throws IOException
+	{
+		File file = File.createTempFile("ibiomes-test", ".mdcrd");
+		writeMdcrd(file, irregular, 0, false);
+		return file;
+	}
+	
+	private static void writeMdcrd(File file, boolean irregular, int firstFrame, boolean compressed) throws IOException
+	{
+		StringBuilder content = new StringBuilder("test trajectory\n");
+		for (int f=firstFrame; f<firstFrame+N_FRAMES; f++){
+			if (irregular)
+				content.append(String.format(Locale.US, "REMD  %8d %8d %8d %8.2f", 1, f+1, 1000*(f+1), 300.0 + f)).append('\n');
+			int k = 0;
+			for (int a=0; a<N_ATOMS; a++)
+				for (int d=0; d<3; d++){
+					content.append(String.format(Locale.US, "%8.3f", coordinate(f, a, d)));
+					if (++k % 10 == 0)
+						content.append('\n');
+				}
+			if (k % 10 != 0)
+				content.append(irregular && f%2 == 1 ? "  \n" : "\n");
+			for (int d=0; d<3; d++)
+				content.append(String.format(Locale.US, "%8.3f", 10.0 + f));
+			content.append('\n');
+		}
+		OutputStream out = new FileOutputStream(file);
+		if (compressed)
+			out = new GZIPOutputStream(out);
+		try {
+			out.write(content.toString().getBytes("US-ASCII"));
+		}
+		finally {
+			out.close();
+		}
+	}
+	
+	/**
+	 * Write AMBER REMD log (Neibr# and Success columns). Pairs of neighbor states alternate 
+	 * between exchanges; an exchange is accepted if the replica state changes at the next exchange.
+	 */
+	private static void writeREMDLog(File file, int[][] states, double[] temperatures) throws IOException
+	{
+		int nReplicas = temperatures.length;
+		StringBuilder content = new StringBuilder("# Replica Exchange log file\n");
+		content.append("# numexchg is ").append(states.length).append('\n');
+		content.append("# Rep#, Neibr#, Temp0, PotE(x_1), PotE(x_2), left_fe, right_fe, Success, Success rate (i,i+1)\n");
+		for (int k=0; k<states.length; k++){
+			content.append("# exchange ").append(k+1).append('\n');
+			for (int r=0; r<nReplicas; r++){
+				int s = states[k][r];
+				int partnerState = (s % 2 == k % 2 ? s+1 : s-1);
+				int neighbor = r;
+				for (int n=0; n<nReplicas; n++){
+					if (states[k][n] == partnerState)
+						neighbor = n;
+				}
+				boolean success = (k+1 < states.length && states[k+1][r] != s);
+				content.append(String.format(Locale.US, "%6d%6d%10.2f%15.2f%15.2f%10.2f%10.2f%8s%10.2f", 
+						r+1, neighbor+1, temperatures[s], -1000.0, -1000.0, 0.0, 0.0, (success ? "T" : "F"), 0.5)).append('\n');
+			}
+		}
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content.toString().getBytes("US-ASCII"));
+		}
+		finally {
+			out.close();
+		}
+	}
+	
+	private static File writeDCD(ByteOrder order, int markerSize, boolean charmm) throws IOException
+	{
+		File file = File.createTempFile("ibiomes-test", ".dcd");
+		int frameSize = (charmm ? 48 + 2*markerSize : 0) + 3*(4*N_ATOMS + 2*markerSize);
+		ByteBuffer buffer = ByteBuffer.allocate(1024 + N_FRAMES*frameSize).order(order);
+		//header
+		putMarker(buffer, markerSize, 84);
+		buffer.put(new byte[]{'C','O','R','D'});
+		int[] icntrl = new int[20];
+		icntrl[0] = N_FRAMES;
+		icntrl[1] = 1000;
+		icntrl[2] = 500;
+		for (int i=0; i<9; i++)
+			buffer.putInt(icntrl[i]);
+		if (charmm){
+			buffer.putFloat((float)(2.0/DCDTrajectoryReader.AKMA_TIME_UNIT_IN_FS));
+			buffer.putInt(1);
+			for (int i=11; i<19; i++)
+				buffer.putInt(0);
+			buffer.putInt(24);
+		}
+		else {
+			buffer.putDouble(2.0/DCDTrajectoryReader.AKMA_TIME_UNIT_IN_FS);
+			for (int i=11; i<20; i++)
+				buffer.putInt(0);
+		}
+		putMarker(buffer, markerSize, 84);
+		//title
+		putMarker(buffer, markerSize, 4 + 80);
+		buffer.putInt(1);
+		byte[] title = new byte[80];
+		byte[] remarks = "REMARKS test".getBytes("ISO-8859-1");
+		Arrays.fill(title, (byte)' ');
+		System.arraycopy(remarks, 0, title, 0, remarks.length);
+		buffer.put(title);
+		putMarker(buffer, markerSize, 4 + 80);
+		//atom count
+		putMarker(buffer, markerSize, 4);
+		buffer.putInt(N_ATOMS);
+		putMarker(buffer, markerSize, 4);
+		//frames
+		for (int f=0; f<N_FRAMES; f++){
+			if (charmm){
+				putMarker(buffer, markerSize, 48);
+				double[] cell = {10.0 + f, 0.0, 20.0, 0.0, 0.0, 30.0};
+				for (double c : cell)
+					buffer.putDouble(c);
+				putMarker(buffer, markerSize, 48);
+			}
+			for (int d=0; d<3; d++){
+				putMarker(buffer, markerSize, 4*N_ATOMS);
+				for (int a=0; a<N_ATOMS; a++)
+					buffer.putFloat(coordinate(f, a, d));
+				putMarker(buffer, markerSize, 4*N_ATOMS);
+			}
+		}
+		write(file, buffer);
+		return file;
+	}
+	
+	private static void putMarker(ByteBuffer buffer, int markerSize, int value){
+		if (markerSize == 4)
+			buffer.putInt(value);
+		else buffer.putLong(value);
+	}
+	
+	/**
+	 * Copy test resource to a temporary file (frame index sidecars are written next to the trajectory)
+	 */
+	private static File copyResource(String name, String suffix) throws IOException
+	{
+		File file = File.createTempFile("ibiomes-test", suffix);
+		InputStream in = TrajectoryReaderTest.class.getResourceAsStream(name);
+		OutputStream out = new FileOutputStream(file);
+		try {
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) > 0)
+				out.write(buffer, 0, n);
+		}
+		finally {
+			in.close();
+			out.close();
+		}
+		return file;
+	}
+	
+	/**
+	 * Read reference coordinates (lines "frame atom x y z")
+	 */
+	private static float[][] readReference(String name) throws IOException
+	{
+		List<float[]> frames = new ArrayList<float[]>();
+		List<Float> coordinates = new ArrayList<Float>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(TrajectoryReaderTest.class.getResourceAsStream(name), "US-ASCII"));
+		try {
+			String line;
+			int currentFrame = 0;
+			while ((line = reader.readLine()) != null){
+				if (line.startsWith("#"))
+					continue;
+				String[] values = line.trim().split("\\s+");
+				if (Integer.parseInt(values[0]) != currentFrame){
+					frames.add(toArray(coordinates));
+					coordinates.clear();
+					currentFrame = Integer.parseInt(values[0]);
+				}
+				for (int d=0; d<3; d++)
+					coordinates.add(Float.parseFloat(values[2+d]));
+			}
+			frames.add(toArray(coordinates));
+		}
+		finally {
+			reader.close();
+		}
+		return frames.toArray(new float[frames.size()][]);
+	}
+	
+	private static float[] toArray(List<Float> values){
+		float[] array = new float[values.size()];
+		for (int i=0; i<array.length; i++)
+			array[i] = values.get(i);
+		return array;
+	}
+	
+	private static void write(File file, ByteBuffer buffer) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(buffer.array(), 0, buffer.position());
+		}
+		finally {
+			out.close();
+		}
+	}
+}
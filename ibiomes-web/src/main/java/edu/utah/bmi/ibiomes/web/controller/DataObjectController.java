@@ -14,6 +14,7 @@ import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.servlet.mvc.AbstractController;
 
 import edu.utah.bmi.ibiomes.parse.LocalFile;
+import edu.utah.bmi.ibiomes.pub.FileBundle;
 import edu.utah.bmi.ibiomes.pub.IBIOMESCollection;
 import edu.utah.bmi.ibiomes.pub.IBIOMESExperimentAO;
 import edu.utah.bmi.ibiomes.pub.IBIOMESFile;
@@ -78,6 +79,11 @@ public class DataObjectController extends AbstractController {
 					mav.addObject("csvAxis", file.getMetadata().getValue(edu.utah.bmi.ibiomes.parse.CSVFile.DATA_LABELS));
 					mav.addObject("csvUnits", file.getMetadata().getValue(edu.utah.bmi.ibiomes.parse.CSVFile.DATA_UNITS));
 				}
+				
+				//if bundle of small files, get member index for member downloads
+				if (file.getMetadata() != null && file.getMetadata().containsAttribute(FileBundle.BUNDLE_INDEX)){
+					mav.addObject("bundleMembers", FileBundle.parseIndex(file.getMetadata().getValues(FileBundle.BUNDLE_INDEX)).getMembers());
+				}
 	         	
 				//get root experiment
 				try{
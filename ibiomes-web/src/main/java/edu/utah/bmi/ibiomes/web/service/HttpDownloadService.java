@@ -1,21 +1,28 @@
 package edu.utah.bmi.ibiomes.web.service;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.irods.jargon.core.connection.IRODSAccount;
+import org.irods.jargon.core.pub.DataObjectAO;
 import org.irods.jargon.core.pub.IRODSAccessObjectFactory;
 import org.irods.jargon.core.pub.Stream2StreamAO;
 import org.irods.jargon.core.pub.io.IRODSFile;
 import org.irods.jargon.core.pub.io.IRODSFileFactory;
 import org.irods.jargon.core.pub.io.IRODSFileInputStream;
+import org.irods.jargon.core.pub.io.IRODSRandomAccessFile;
+import org.irods.jargon.core.query.MetaDataAndDomainData;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 
+import edu.utah.bmi.ibiomes.pub.FileBundle;
 import edu.utah.bmi.ibiomes.pub.IBIOMESCollection;
 import edu.utah.bmi.ibiomes.pub.IBIOMESCollectionAO;
 
@@ -37,14 +44,17 @@ public class HttpDownloadService
 	}
 	
 	/**
-	 * Send iRODS file to client for download
+	 * Send iRODS file to client for download. If a member name is given, the file is a bundle 
+	 * and only the content of the member is sent, read directly from its offset in the bundle.
 	 * @param uri File uri
+	 * @param member Name of the bundle member to download (optional)
 	 * @throws Exception 
 	 */
 	@RequestMapping(value = "/services/download", method = RequestMethod.GET)
 	public void downloadFile(
 			@RequestParam(value="uri",required=false) String uri,
 			@RequestParam(value="id",required=false, defaultValue="-1") int id,
+			@RequestParam(value="member",required=false) String member,
 			HttpServletResponse response) throws Exception
 	{
 		try{
@@ -56,6 +66,10 @@ public class HttpDownloadService
 	    		IBIOMESCollection coll = ibiomesCollAO.getCollectionByID(id);
 	    		uri = coll.getAbsolutePath();
 			}
+			if (member != null && member.length()>0){
+				this.downloadBundleMember(irodsAccount, uri, member, response);
+				return;
+			}
 	        IRODSFileInputStream irodsFileInputStream = irodsFileFactory.instanceIRODSFileInputStream(uri);
 			IRODSFile irodsFile = irodsFileFactory.instanceIRODSFile(uri);
 			
@@ -85,4 +99,55 @@ public class HttpDownloadService
 			throw e;
 		}
 	}
+	
+	/**
+	 * Send bundle member to client for download
+	 * @param irodsAccount iRODS account
+	 * @param uri Bundle uri
+	 * @param memberName Member name
+	 * @param response HTTP response
+	 * @throws Exception
+	 */
+	private void downloadBundleMember(
+			IRODSAccount irodsAccount, 
+			String uri, 
+			String memberName, 
+			HttpServletResponse response) throws Exception
+	{
+		//read member index
+		DataObjectAO dataAO = irodsAccessObjectFactory.getDataObjectAO(irodsAccount);
+		List<String> indexValues = new ArrayList<String>();
+		for (MetaDataAndDomainData avu : dataAO.findMetadataValuesForDataObject(uri)){
+			if (avu.getAvuAttribute().equals(FileBundle.BUNDLE_INDEX))
+				indexValues.add(avu.getAvuValue());
+		}
+		FileBundle.Member member = FileBundle.parseIndex(indexValues).getMember(memberName);
+		if (member == null){
+			response.sendError(HttpServletResponse.SC_NOT_FOUND, "File '"+memberName+"' not found in '"+uri+"'");
+			return;
+		}
+		
+		response.setContentType("application/octet-stream");
+		response.setContentLength((int) member.getSize());
+		response.setHeader("Content-disposition", "attachment;filename=\""+member.getName()+"\"");
+		
+		IRODSRandomAccessFile bundleFile = irodsAccessObjectFactory.getIRODSFileFactory(irodsAccount).instanceIRODSRandomAccessFile(uri);
+		try {
+			bundleFile.seek(member.getOffset());
+			ServletOutputStream outStream = response.getOutputStream();
+			byte[] byteBuffer = new byte[BUFSIZE];
+			long remaining = member.getSize();
+			while (remaining > 0){
+				int length = bundleFile.read(byteBuffer, 0, (int)Math.min(byteBuffer.length, remaining));
+				if (length == -1)
+					break;
+				outStream.write(byteBuffer, 0, length);
+				remaining -= length;
+			}
+		}
+		finally {
+			bundleFile.close();
+		}
+		response.flushBuffer();
+	}
 }
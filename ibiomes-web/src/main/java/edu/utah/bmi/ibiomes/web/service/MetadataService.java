@@ -3,7 +3,6 @@ package edu.utah.bmi.ibiomes.web.service;
 import java.sql.SQLException;
 
 import javax.servlet.ServletContext;
-import javax.sql.DataSource;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
@@ -35,13 +34,9 @@ public class MetadataService
     
 	private MetadataSqlConnector getDbCnx()
 	{	
+		//use shared connector (with dictionary cache)
 		WebApplicationContext wContext = WebApplicationContextUtils.getWebApplicationContext(this.context);
-		DataSource ds = (DataSource)wContext.getBean("dataSource");
-		
-		MetadataSqlConnector mdb = new MetadataSqlConnector();
-		//DataSource ds = new DriverManagerDataSource("jdbc:mysql://juliens-grid-node2.chpc.utah.edu:3306/biosim_dictionaries?noAccessToProcedureBodies=true", "ibiomes", "ibiomes");
-		mdb.setDataSource(ds);
-		return mdb;
+		return (MetadataSqlConnector)wContext.getBean("metadataSqlConnector");
 	}
 	/* 
 	 * --------------------------------------------------------------------
@@ -340,11 +340,7 @@ public class SearchService
 				IBIOMESExperimentSetAO factory = new IBIOMESExperimentSetAO(irodsAccessObjectFactory, irodsAccount, this.getDataSource());
 				List<String> ids = searchObject.getResults();
 				if (ids != null && ids.size()>0){
-					List<IBIOMESExperimentSet> experimentSets = new ArrayList<IBIOMESExperimentSet>();
-					for (String id : ids){
-						IBIOMESExperimentSet set = factory.getExperimentSet(Long.parseLong(id));
-						experimentSets.add(set);
-					}
+					List<IBIOMESExperimentSet> experimentSets = factory.getExperimentSetsFromIds(ids);
 					return new IBIOMESResponse(true, null, experimentSets);
 				}
 				else return new IBIOMESResponse(true, null, null);
@@ -371,11 +367,7 @@ public class SearchService
 				IBIOMESExperimentSetAO factory = new IBIOMESExperimentSetAO(irodsAccessObjectFactory, irodsAccount, this.getDataSource());
 				List<String> ids = searchObject.executeForNextPage();
 				if (ids != null && ids.size()>0){
-					List<IBIOMESExperimentSet> experimentSets = new ArrayList<IBIOMESExperimentSet>();
-					for (String id : ids){
-						IBIOMESExperimentSet set = factory.getExperimentSet(Long.parseLong(id));
-						experimentSets.add(set);
-					}
+					List<IBIOMESExperimentSet> experimentSets = factory.getExperimentSetsFromIds(ids);
 					return new IBIOMESResponse(true, null, experimentSets);
 				}
 				else return new IBIOMESResponse(true, null, null);
@@ -402,11 +394,7 @@ public class SearchService
 				IBIOMESExperimentSetAO factory = new IBIOMESExperimentSetAO(irodsAccessObjectFactory, irodsAccount, this.getDataSource());
 				List<String> ids = searchObject.executeForPreviousPage();
 				if (ids != null && ids.size()>0){
-					List<IBIOMESExperimentSet> experimentSets = new ArrayList<IBIOMESExperimentSet>();
-					for (String id : ids){
-						IBIOMESExperimentSet set = factory.getExperimentSet(Long.parseLong(id));
-						experimentSets.add(set);
-					}
+					List<IBIOMESExperimentSet> experimentSets = factory.getExperimentSetsFromIds(ids);
 					return new IBIOMESResponse(true, null, experimentSets);
 				}
 				else return new IBIOMESResponse(true, null, null);
@@ -903,11 +891,7 @@ public class SearchService
 		
 		if (ids != null && ids.size()>0)
 		{
-			List<IBIOMESExperimentSet> experimentSets = new ArrayList<IBIOMESExperimentSet>();
-			for (String id : ids){
-				IBIOMESExperimentSet set = factory.getExperimentSet(Long.parseLong(id));
-				experimentSets.add(set);
-			}
+			List<IBIOMESExperimentSet> experimentSets = factory.getExperimentSetsFromIds(ids);
 			return experimentSets;
 		}
 		return null;
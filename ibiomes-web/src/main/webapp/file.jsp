@@ -177,6 +177,9 @@ $(document).ready(function() {
 			
 				<ul>
 					<li><a href="#view">View data</a></li>
+					<c:if test="${not empty bundleMembers}">
+						<li><a href="#members">Bundle members</a></li>
+					</c:if>
 				</ul>
 			
 				<!-- ===========================================  VISUALIZATION TAB =========================================== -->
@@ -249,6 +252,44 @@ $(document).ready(function() {
 						</c:otherwise>
 					</c:choose>
 				</div>	
+				
+				<!-- ===========================================  BUNDLE MEMBERS TAB =========================================== -->
+				
+				<c:if test="${not empty bundleMembers}">
+				<div id="members">
+					<c:choose>
+						<c:when test="${not canRead}">
+							<p>You don't have read access to this file. Please contact the owner if you need access.</p>
+						</c:when>
+						<c:otherwise>
+							<table>
+								<tr><th>File</th><th>Size (bytes)</th><th></th></tr>
+								<c:forEach var="member" items="${bundleMembers}" varStatus="r">
+									<c:choose>
+							        	<c:when test="${r.count % 2 == 0}">
+							            	<c:set var="rowStyle" scope="page" value="row-a"/>
+							        	</c:when>
+							          	<c:otherwise>
+							            	<c:set var="rowStyle" scope="page" value="row-b"/>
+							          	</c:otherwise>
+							        </c:choose>
+									<c:url var="memberUrl" value="rest/services/download">
+										<c:param name="uri" value="${file.absolutePath}"/>
+										<c:param name="member" value="${member.name}"/>
+									</c:url>
+									<tr class="<c:out value="${rowStyle}"/>">
+										<td><c:out value="${member.name}"/></td>
+										<td><c:out value="${member.size}"/></td>
+										<td><a class="icon" href="<c:out value="${memberUrl}"/>" target="_blank" title="Download file">
+											<img src="images/icons/download.png"/>
+										</a></td>
+									</tr>
+								</c:forEach>
+							</table>
+						</c:otherwise>
+					</c:choose>
+				</div>
+				</c:if>
 	
 	<!-- for jquery dialogs -->
 	
@@ -3,7 +3,6 @@ package edu.utah.bmi.ibiomes.ws.services;
 import java.sql.SQLException;
 
 import javax.servlet.ServletContext;
-import javax.sql.DataSource;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
@@ -34,12 +33,9 @@ public class MetadataService
     
 	private MetadataSqlConnector getDbCnx()
 	{	
+		//use shared connector (with dictionary cache)
 		WebApplicationContext wContext = WebApplicationContextUtils.getWebApplicationContext(this.context);
-		DataSource ds = (DataSource)wContext.getBean("dataSource");
-		
-		MetadataSqlConnector mdb = new MetadataSqlConnector();
-		mdb.setDataSource(ds);
-		return mdb;
+		return (MetadataSqlConnector)wContext.getBean("metadataSqlConnector");
 	}
 
 	/**
@@ -0,0 +1,16 @@
+-- ================================================================
+-- EXPERIMENT SET SEARCH INDEXES
+-- Indexes for AVU criteria and keyset pagination on experiment sets.
+-- Only needed for databases created before these indexes were added
+-- to create_tables_experiment_sets.sql.
+-- ================================================================
+
+-- AVU criteria: attribute/value lookup on the first 255 characters of the value.
+-- VALUE is a prefix column, so the index is not covering: matching rows are
+-- still read to compare the full value and get SET_ID.
+CREATE INDEX INDEX_EXP_SET_METADATA_AVU ON EXPERIMENT_SET_METADATA (ATTRIBUTE, VALUE(255), SET_ID);
+
+-- sort columns (InnoDB secondary indexes include the primary key: (column, ID))
+CREATE INDEX INDEX_EXP_SET_NAME ON EXPERIMENT_SET (NAME);
+CREATE INDEX INDEX_EXP_SET_OWNER ON EXPERIMENT_SET (OWNER);
+CREATE INDEX INDEX_EXP_SET_TIMESTAMP ON EXPERIMENT_SET (TIMESTAMP);
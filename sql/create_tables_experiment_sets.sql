@@ -11,7 +11,10 @@ CREATE TABLE `EXPERIMENT_SET` (
   `DESCRIPTION` VARCHAR(200),
   `OWNER` VARCHAR(30) NOT NULL,
   `IS_PUBLIC` BOOLEAN NOT NULL,
-  PRIMARY KEY  (`ID`)
+  PRIMARY KEY  (`ID`),
+  INDEX INDEX_EXP_SET_NAME (NAME),
+  INDEX INDEX_EXP_SET_OWNER (OWNER),
+  INDEX INDEX_EXP_SET_TIMESTAMP (TIMESTAMP)
 ) ENGINE=InnoDB DEFAULT CHARSET=latin1;
 
 -- ================================================================
@@ -25,6 +28,7 @@ CREATE TABLE `EXPERIMENT_SET_METADATA` (
   `UNIT` VARCHAR(30),
   PRIMARY KEY  (`ID`),
   INDEX INDEX_EXP_SET_METADATA (SET_ID),
+  INDEX INDEX_EXP_SET_METADATA_AVU (ATTRIBUTE, VALUE(255), SET_ID),
   FOREIGN KEY (SET_ID) REFERENCES EXPERIMENT_SET(ID) ON DELETE CASCADE
 ) ENGINE=InnoDB DEFAULT CHARSET=latin1;
 